@@ -0,0 +1,104 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.benchmark;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.btree.BTreeCallback;
+import org.exist.storage.btree.IndexQuery;
+import org.exist.storage.btree.Value;
+import org.exist.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups and range scans on a {@link BTree} with string keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BTreeBenchmark {
+
+    @Param({"100000"})
+    public int keys;
+
+    private Path file;
+    private BTree btree;
+
+    @Setup(Level.Trial)
+    public void createTree(final DatabaseState db) throws Exception {
+        final BrokerPool pool = db.getBrokerPool();
+        file = Files.createTempFile("btree-benchmark", ".dbx");
+        Files.delete(file);
+        btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file);
+        btree.create((short) -1);
+        for (int i = 0; i < keys; i++) {
+            btree.addValue(key(i), i);
+        }
+        btree.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeTree() throws Exception {
+        btree.close();
+        FileUtils.deleteQuietly(file);
+    }
+
+    private static Value key(final int i) {
+        return new Value(String.format("key%08d", i));
+    }
+
+    @Benchmark
+    public long findValue() throws Exception {
+        return btree.findValue(key(ThreadLocalRandom.current().nextInt(keys)));
+    }
+
+    @Benchmark
+    public long rangeScan() throws Exception {
+        final int start = ThreadLocalRandom.current().nextInt(keys - 100);
+        final IndexQuery query = new IndexQuery(IndexQuery.BW, key(start), key(start + 100));
+        final CountingCallback callback = new CountingCallback();
+        btree.query(query, callback);
+        return callback.count;
+    }
+
+    private static final class CountingCallback implements BTreeCallback {
+        long count = 0;
+
+        @Override
+        public boolean indexInfo(final Value value, final long pointer) {
+            count += pointer;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.benchmark;
+
+import org.exist.TestDataGenerator;
+import org.exist.TestUtils;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.source.Source;
+import org.exist.source.StringSource;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.XQueryPool;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.FileUtils;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.Sequence;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xml.sax.InputSource;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Benchmark fixture which starts an embedded database in temporary storage
+ * and loads the test data.
+ *
+ * The Shakespeare samples are stored first, because the random text of the
+ * generated documents is taken from the terms of their full text index. Then
+ * {@link #documents} book documents are generated with {@link TestDataGenerator}
+ * into {@link #DATA_COLLECTION}. The Lucene index must be enabled in conf.xml.
+ */
+@State(Scope.Benchmark)
+public class DatabaseState {
+
+    public static final XmldbURI BENCHMARK_COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("benchmark");
+    public static final XmldbURI SAMPLES_COLLECTION = BENCHMARK_COLLECTION.append("samples");
+    public static final XmldbURI DATA_COLLECTION = BENCHMARK_COLLECTION.append("data");
+
+    private static final String COLLECTION_CONFIG =
+        "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+        "    <index>" +
+        "        <lucene>" +
+        "            <text qname=\"LINE\"/>" +
+        "            <text qname=\"para\"/>" +
+        "        </lucene>" +
+        "        <create qname=\"SPEAKER\" type=\"xs:string\"/>" +
+        "        <create qname=\"@id\" type=\"xs:string\"/>" +
+        "        <create qname=\"@n\" type=\"xs:integer\"/>" +
+        "    </index>" +
+        "</collection>";
+
+    private static final String GENERATE_XQ =
+        "<book id=\"{$filename}\" n=\"{$count}\">" +
+        "   <chapter>" +
+        "       <title>{pt:random-text(7)}</title>" +
+        "       {" +
+        "           for $section in 1 to 8 return" +
+        "               <section id=\"sect{$section}\">" +
+        "                   <title>{pt:random-text(7)}</title>" +
+        "                   {" +
+        "                       for $para in 1 to 10 return" +
+        "                           <para>{pt:random-text(40)}</para>" +
+        "                   }" +
+        "               </section>" +
+        "       }" +
+        "   </chapter>" +
+        "</book>";
+
+    /**
+     * Number of generated book documents
+     */
+    @Param({"200"})
+    public int documents;
+
+    private ExistEmbeddedServer server;
+
+    @Setup(Level.Trial)
+    public void startDatabase() throws Exception {
+        server = new ExistEmbeddedServer(true, true);
+        server.startDb();
+
+        final BrokerPool pool = server.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            try (final Txn transaction = transact.beginTransaction()) {
+                final Collection root = broker.getOrCreateCollection(transaction, BENCHMARK_COLLECTION);
+                broker.saveCollection(transaction, root);
+                pool.getConfigurationManager().addConfiguration(transaction, broker, root, COLLECTION_CONFIG);
+
+                final Collection samples = broker.getOrCreateCollection(transaction, SAMPLES_COLLECTION);
+                broker.saveCollection(transaction, samples);
+                final List<Path> files = FileUtils.list(TestUtils.shakespeareSamples(), path -> FileUtils.fileName(path).endsWith(".xml"));
+                for (final Path file : files) {
+                    store(transaction, broker, samples, XmldbURI.create(FileUtils.fileName(file)), file);
+                }
+                transact.commit(transaction);
+            }
+
+            final TestDataGenerator generator = new TestDataGenerator("bench", documents);
+            try (final Txn transaction = transact.beginTransaction()) {
+                final Collection data = broker.getOrCreateCollection(transaction, DATA_COLLECTION);
+                broker.saveCollection(transaction, data);
+
+                final Path[] files = generator.generate(broker, data, GENERATE_XQ);
+                for (int i = 0; i < files.length; i++) {
+                    store(transaction, broker, data, XmldbURI.create("book" + i + ".xml"), files[i]);
+                }
+                transact.commit(transaction);
+            } finally {
+                generator.releaseAll();
+            }
+        }
+    }
+
+    private static void store(final Txn transaction, final DBBroker broker, final Collection collection,
+            final XmldbURI name, final Path file) throws Exception {
+        final InputSource is = new InputSource(file.toUri().toASCIIString());
+        final IndexInfo info = collection.validateXMLResource(transaction, broker, name, is);
+        collection.store(transaction, broker, info, new InputSource(file.toUri().toASCIIString()));
+    }
+
+    @TearDown(Level.Trial)
+    public void stopDatabase() {
+        server.stopDb();
+    }
+
+    public BrokerPool getBrokerPool() {
+        return server.getBrokerPool();
+    }
+
+    public DBBroker getBroker() throws Exception {
+        final BrokerPool pool = server.getBrokerPool();
+        return pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+    }
+
+    /**
+     * Execute a query the way the REST server does: the compiled query is
+     * taken from the query pool and returned to it afterwards.
+     */
+    public Sequence query(final DBBroker broker, final Source source) throws Exception {
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        final XQueryPool xqueryPool = broker.getBrokerPool().getXQueryPool();
+        CompiledXQuery compiled = xqueryPool.borrowCompiledXQuery(broker, source);
+        if (compiled == null) {
+            compiled = xquery.compile(broker, new XQueryContext(broker.getBrokerPool()), source);
+        }
+        try {
+            return xquery.execute(broker, compiled, null);
+        } finally {
+            compiled.getContext().runCleanupTasks();
+            xqueryPool.returnCompiledXQuery(source, compiled);
+        }
+    }
+
+    public Sequence query(final DBBroker broker, final String query) throws Exception {
+        return query(broker, new StringSource(query));
+    }
+}
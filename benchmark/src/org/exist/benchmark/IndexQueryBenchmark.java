@@ -0,0 +1,84 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.benchmark;
+
+import org.exist.source.Source;
+import org.exist.source.StringSource;
+import org.exist.storage.DBBroker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries which are answered from the range and full text indexes.
+ * The compiled queries are kept in the query pool, so the benchmarks
+ * measure evaluation rather than compilation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IndexQueryBenchmark {
+
+    private static final String SAMPLES = "collection('" + DatabaseState.SAMPLES_COLLECTION + "')";
+    private static final String DATA = "collection('" + DatabaseState.DATA_COLLECTION + "')";
+
+    private static final Map<String, String> QUERIES = new HashMap<>();
+    static {
+        // range index
+        QUERIES.put("range-eq-string", "count(" + SAMPLES + "//SPEECH[SPEAKER = 'HAMLET'])");
+        QUERIES.put("range-eq-attribute", "count(" + DATA + "//section[@id = 'sect3'])");
+        QUERIES.put("range-gt-integer", "count(" + DATA + "//book[@n > 100])");
+        QUERIES.put("range-starts-with", "count(" + SAMPLES + "//SPEECH[starts-with(SPEAKER, 'KING')])");
+        // full text index
+        QUERIES.put("ft-term", "count(" + SAMPLES + "//LINE[ft:query(., 'love')])");
+        QUERIES.put("ft-boolean", "count(" + SAMPLES + "//LINE[ft:query(., '+love -death')])");
+        QUERIES.put("ft-wildcard", "count(" + DATA + "//para[ft:query(., 'th*')])");
+        QUERIES.put("ft-score-order", "subsequence(for $l in " + SAMPLES + "//LINE[ft:query(., 'king queen')] " +
+                "order by ft:score($l) descending return $l, 1, 10)");
+    }
+
+    @Param({"range-eq-string", "range-eq-attribute", "range-gt-integer", "range-starts-with",
+            "ft-term", "ft-boolean", "ft-wildcard", "ft-score-order"})
+    public String query;
+
+    private Source source;
+
+    @Setup(Level.Trial)
+    public void prepare() {
+        source = new StringSource(QUERIES.get(query));
+    }
+
+    @Benchmark
+    public int execute(final DatabaseState db) throws Exception {
+        try (final DBBroker broker = db.getBroker()) {
+            return db.query(broker, source).getItemCount();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.benchmark;
+
+import org.exist.dom.persistent.NodeSet;
+import org.exist.storage.DBBroker;
+import org.exist.xquery.Expression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Structural joins and set operations on persistent node sets, as used
+ * when evaluating path steps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NodeSetBenchmark {
+
+    private NodeSet chapters;
+    private NodeSet sections;
+    private NodeSet paras;
+    private NodeSet firstParas;
+
+    @Setup(Level.Trial)
+    public void selectNodes(final DatabaseState db) throws Exception {
+        final String collection = "collection('" + DatabaseState.DATA_COLLECTION + "')";
+        try (final DBBroker broker = db.getBroker()) {
+            chapters = db.query(broker, collection + "//chapter").toNodeSet();
+            sections = db.query(broker, collection + "//section").toNodeSet();
+            paras = db.query(broker, collection + "//para").toNodeSet();
+            firstParas = db.query(broker, collection + "//section/para[1]").toNodeSet();
+        }
+    }
+
+    @Benchmark
+    public NodeSet parentChild() {
+        return paras.selectParentChild(sections, NodeSet.DESCENDANT);
+    }
+
+    @Benchmark
+    public NodeSet ancestorDescendant() {
+        return paras.selectAncestorDescendant(chapters, NodeSet.DESCENDANT, false, Expression.NO_CONTEXT_ID, true);
+    }
+
+    @Benchmark
+    public NodeSet ancestors() {
+        return sections.selectAncestors(firstParas, false, Expression.NO_CONTEXT_ID);
+    }
+
+    @Benchmark
+    public NodeSet intersection() {
+        return paras.intersection(firstParas);
+    }
+
+    @Benchmark
+    public NodeSet union() {
+        return sections.union(firstParas);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.benchmark;
+
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.storage.DBBroker;
+import org.exist.storage.serializers.Serializer;
+import org.exist.util.serializer.SAXSerializer;
+import org.exist.util.serializer.XQuerySerializer;
+import org.exist.xquery.value.Sequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.xml.transform.OutputKeys;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of stored documents, query results and in-memory
+ * documents to a writer which discards its output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SerializationBenchmark {
+
+    private static final Properties OUTPUT_PROPERTIES = new Properties();
+    static {
+        OUTPUT_PROPERTIES.setProperty(OutputKeys.INDENT, "no");
+        OUTPUT_PROPERTIES.setProperty(OutputKeys.ENCODING, "UTF-8");
+    }
+
+    private DocumentImpl hamlet;
+    private Sequence paras;
+    private Sequence inMemory;
+
+    @Setup(Level.Trial)
+    public void prepare(final DatabaseState db) throws Exception {
+        try (final DBBroker broker = db.getBroker()) {
+            hamlet = (DocumentImpl) broker.getXMLResource(DatabaseState.SAMPLES_COLLECTION.append("hamlet.xml"));
+            paras = db.query(broker, "subsequence(collection('" + DatabaseState.DATA_COLLECTION + "')//para, 1, 1000)");
+            inMemory = db.query(broker, "document { <books>{ collection('" + DatabaseState.DATA_COLLECTION + "')//chapter[position() < 3] }</books> }");
+        }
+    }
+
+    @Benchmark
+    public long storedDocument(final DatabaseState db) throws Exception {
+        try (final DBBroker broker = db.getBroker()) {
+            final NullWriter writer = new NullWriter();
+            final Serializer serializer = broker.getSerializer();
+            serializer.reset();
+            serializer.setProperties(OUTPUT_PROPERTIES);
+            final SAXSerializer sax = new SAXSerializer(writer, OUTPUT_PROPERTIES);
+            serializer.setSAXHandlers(sax, sax);
+            serializer.toSAX(hamlet);
+            return writer.count;
+        }
+    }
+
+    @Benchmark
+    public long queryResult(final DatabaseState db) throws Exception {
+        return serialize(db, paras);
+    }
+
+    @Benchmark
+    public long inMemoryDocument(final DatabaseState db) throws Exception {
+        return serialize(db, inMemory);
+    }
+
+    private static long serialize(final DatabaseState db, final Sequence sequence) throws Exception {
+        try (final DBBroker broker = db.getBroker()) {
+            final NullWriter writer = new NullWriter();
+            final XQuerySerializer serializer = new XQuerySerializer(broker, OUTPUT_PROPERTIES, writer);
+            serializer.serialize(sequence);
+            return writer.count;
+        }
+    }
+
+    /**
+     * Counts the characters written, so the serialization cannot be optimized away.
+     */
+    private static final class NullWriter extends Writer {
+        long count = 0;
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(final int c) {
+            count++;
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) {
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import com.evolvedbinary.j8fu.function.ConsumerE;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies the updates of the lucene index on a pool of threads, so the text
+ * analysis done by {@link IndexWriter#addDocument} does not hold up the
+ * transaction storing a document.
+ *
+ * The updates are distributed on lanes by document id. Each lane is a bounded
+ * queue processed by a single thread: the updates of a document are applied in
+ * the order they were submitted, and a full lane blocks the submitter.
+ */
+public class AsyncIndexer {
+
+    private static final Logger LOG = LogManager.getLogger(AsyncIndexer.class);
+
+    private final IndexWriter writer;
+    private final Lane[] lanes;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalLag = new AtomicLong();
+    private final AtomicLong maxLag = new AtomicLong();
+
+    public AsyncIndexer(final String name, final IndexWriter writer, final int threads, final int queueSize) {
+        this.writer = writer;
+        this.lanes = new Lane[threads];
+        for (int i = 0; i < threads; i++) {
+            lanes[i] = new Lane(name + "-" + i, queueSize);
+        }
+    }
+
+    /**
+     * Queues an update of the index, blocking while the lane of the document is full.
+     *
+     * @param docId the id of the document the update belongs to
+     * @param update the update
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public void submit(final int docId, final ConsumerE<IndexWriter, IOException> update) throws InterruptedIOException {
+        lanes[(docId & Integer.MAX_VALUE) % lanes.length].submit(new Update(update));
+    }
+
+    /**
+     * @return the number of updates submitted to each lane so far, to be passed to {@link #await(long[])}
+     */
+    public long[] mark() {
+        final long[] mark = new long[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            mark[i] = lanes[i].getSubmitted();
+        }
+        return mark;
+    }
+
+    /**
+     * Waits until the updates submitted before the mark have been applied.
+     * Updates submitted later are not waited for.
+     *
+     * @param mark as returned by {@link #mark()}
+     */
+    public void await(final long[] mark) throws InterruptedIOException {
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i].await(mark[i]);
+        }
+    }
+
+    /**
+     * Waits until all updates submitted so far have been applied.
+     */
+    public void drain() throws InterruptedIOException {
+        await(mark());
+    }
+
+    /**
+     * Applies the pending updates and stops the threads.
+     */
+    public void shutdown() {
+        try {
+            drain();
+        } catch (final InterruptedIOException e) {
+            LOG.warn("Interrupted while applying the pending updates of the lucene index", e);
+        }
+        for (final Lane lane : lanes) {
+            lane.thread.interrupt();
+        }
+        for (final Lane lane : lanes) {
+            try {
+                lane.thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    public int getThreads() {
+        return lanes.length;
+    }
+
+    public long getPendingUpdates() {
+        long pending = 0;
+        for (final Lane lane : lanes) {
+            pending += lane.getSubmitted() - lane.getApplied();
+        }
+        return pending;
+    }
+
+    /**
+     * @return the time in milliseconds since the oldest pending update was submitted, 0 if none is pending
+     */
+    public long getOldestPendingAge() {
+        long oldest = Long.MAX_VALUE;
+        for (final Lane lane : lanes) {
+            final Update current = lane.current;
+            final Update next = lane.queue.peek();
+            if (current != null) {
+                oldest = Math.min(oldest, current.submitted);
+            } else if (next != null) {
+                oldest = Math.min(oldest, next.submitted);
+            }
+        }
+        return oldest == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest);
+    }
+
+    public long getCompletedUpdates() {
+        return completed.get();
+    }
+
+    public long getFailedUpdates() {
+        return failed.get();
+    }
+
+    /**
+     * @return the average time in milliseconds between the submission of an update and its application
+     */
+    public long getAverageLag() {
+        final long count = completed.get() + failed.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLag.get() / count);
+    }
+
+    /**
+     * @return the longest time in milliseconds between the submission of an update and its application
+     */
+    public long getMaxLag() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLag.get());
+    }
+
+    private static class Update {
+        final ConsumerE<IndexWriter, IOException> update;
+        final long submitted = System.nanoTime();
+
+        Update(final ConsumerE<IndexWriter, IOException> update) {
+            this.update = update;
+        }
+    }
+
+    private class Lane implements Runnable {
+        final BlockingQueue<Update> queue;
+        final Thread thread;
+        volatile Update current = null;
+
+        // guarded by this
+        private long submitted = 0;
+        private long applied = 0;
+
+        Lane(final String name, final int queueSize) {
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            this.thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void submit(final Update update) throws InterruptedIOException {
+            synchronized (this) {
+                submitted++;
+            }
+            try {
+                queue.put(update);
+            } catch (final InterruptedException e) {
+                synchronized (this) {
+                    submitted--;
+                    notifyAll();
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while queuing an update of the lucene index");
+            }
+        }
+
+        synchronized long getSubmitted() {
+            return submitted;
+        }
+
+        synchronized long getApplied() {
+            return applied;
+        }
+
+        synchronized void await(final long mark) throws InterruptedIOException {
+            while (applied < Math.min(mark, submitted)) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the updates of the lucene index");
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Update update;
+                try {
+                    update = queue.take();
+                } catch (final InterruptedException e) {
+                    // only interrupted by shutdown, once the queue is drained
+                    return;
+                }
+                current = update;
+                try {
+                    update.update.accept(writer);
+                    completed.incrementAndGet();
+                } catch (final IOException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    LOG.warn("An exception was caught while updating the lucene index: " + e.getMessage(), e);
+                } finally {
+                    final long lag = System.nanoTime() - update.submitted;
+                    totalLag.addAndGet(lag);
+                    maxLag.accumulateAndGet(lag, Math::max);
+                    current = null;
+                    synchronized (this) {
+                        applied++;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+    }
+}
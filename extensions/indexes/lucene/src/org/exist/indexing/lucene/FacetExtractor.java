@@ -0,0 +1,108 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.exist.dom.QName;
+import org.exist.util.XMLString;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the facet values of a single indexed element while the element is
+ * streamed to the index worker. Values are read from attributes of the element
+ * itself or from the text content of its direct child elements, as defined by the
+ * facet elements in the {@link LuceneIndexConfig}.
+ */
+class FacetExtractor {
+
+    private final LuceneIndexConfig idxConfig;
+    private final Map<String, List<String>> values = new LinkedHashMap<>();
+
+    private int depth = 0;
+    private List<LuceneIndexConfig.FacetConfig> capturing = null;
+    private StringBuilder buffer = null;
+
+    FacetExtractor(LuceneIndexConfig idxConfig) {
+        this.idxConfig = idxConfig;
+    }
+
+    void startElement(QName name) {
+        depth++;
+        if (depth == 1) {
+            for (final LuceneIndexConfig.FacetConfig facet : idxConfig.getFacets()) {
+                if (!facet.isAttribute() && facet.getQName().equals(name)) {
+                    if (capturing == null) {
+                        capturing = new ArrayList<>(2);
+                        buffer = new StringBuilder();
+                    }
+                    capturing.add(facet);
+                }
+            }
+        }
+    }
+
+    void endElement(QName name) {
+        if (depth == 0) {
+            return;
+        }
+        if (depth == 1 && capturing != null) {
+            for (final LuceneIndexConfig.FacetConfig facet : capturing) {
+                addValue(facet.getDimension(), buffer);
+            }
+            capturing = null;
+            buffer = null;
+        }
+        depth--;
+    }
+
+    void attribute(QName name, String value) {
+        if (depth > 0) {
+            return;
+        }
+        for (final LuceneIndexConfig.FacetConfig facet : idxConfig.getFacets()) {
+            if (facet.isAttribute() && facet.getQName().equals(name)) {
+                addValue(facet.getDimension(), value);
+            }
+        }
+    }
+
+    void characters(XMLString text) {
+        if (buffer != null) {
+            buffer.append(text.toString());
+        }
+    }
+
+    private void addValue(String dimension, CharSequence value) {
+        final String trimmed = value.toString().trim();
+        if (!trimmed.isEmpty()) {
+            values.computeIfAbsent(dimension, k -> new ArrayList<>(2)).add(trimmed);
+        }
+    }
+
+    /**
+     * @return the collected values, keyed by facet dimension
+     */
+    Map<String, List<String>> getValues() {
+        return values;
+    }
+}
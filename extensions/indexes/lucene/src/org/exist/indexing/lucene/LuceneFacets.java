@@ -0,0 +1,52 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Facet counts computed for the hits of a single full text query. Every
+ * {@link LuceneIndexWorker.LuceneMatch} produced by the query references the
+ * same instance, so the counts can be retrieved from the result nodes later
+ * without going back to the index.
+ */
+public class LuceneFacets {
+
+    private final Map<String, Map<String, Long>> counts = new HashMap<>();
+
+    void add(String dimension, String label, long count) {
+        counts.computeIfAbsent(dimension, k -> new HashMap<>()).merge(label, count, Long::sum);
+    }
+
+    /**
+     * @param dimension the facet dimension
+     * @return the count for every label of the given dimension, or an empty map
+     */
+    public Map<String, Long> getCounts(String dimension) {
+        final Map<String, Long> labels = counts.get(dimension);
+        return labels == null ? Collections.emptyMap() : Collections.unmodifiableMap(labels);
+    }
+
+    public boolean isEmpty() {
+        return counts.isEmpty();
+    }
+}
@@ -23,8 +23,12 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
@@ -33,10 +37,13 @@ import org.exist.backup.RawDataBackup;
 import org.exist.indexing.AbstractIndex;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.RawBackupSupport;
+import org.exist.management.Agent;
+import org.exist.management.AgentFactory;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.btree.DBException;
 import org.exist.util.DatabaseConfigurationException;
+import com.evolvedbinary.j8fu.function.ConsumerE;
 import com.evolvedbinary.j8fu.function.Function2E;
 import com.evolvedbinary.j8fu.function.FunctionE;
 import org.exist.util.FileUtils;
@@ -47,6 +54,9 @@ import org.w3c.dom.NodeList;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     
@@ -68,6 +78,22 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     protected SearcherManager searcherManager = null;
     protected ReaderManager readerManager = null;
 
+    /** analyze and add documents on background threads */
+    protected boolean async = false;
+    protected int asyncThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    protected int asyncQueueSize = 16;
+    protected AsyncIndexer indexer = null;
+
+    /** milliseconds between two refreshes of the searchers, 0 to refresh them before each query */
+    protected long refreshInterval = 0;
+    private ScheduledExecutorService refresher = null;
+    private volatile long lastRefresh = System.currentTimeMillis();
+
+    protected final FacetsConfig facetsConfig = new FacetsConfig();
+
+    private IndexReader facetsReader = null;
+    private SortedSetDocValuesReaderState facetsState = null;
+
     public LuceneIndex() {
         //Nothing special to do
     }
@@ -92,6 +118,24 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
         if (LOG.isDebugEnabled())
             LOG.debug("Using buffer size: " + bufferSize);
+
+        async = "yes".equalsIgnoreCase(config.getAttribute("async")) || "true".equalsIgnoreCase(config.getAttribute("async"));
+        try {
+            if (config.hasAttribute("async-threads"))
+                asyncThreads = Integer.parseInt(config.getAttribute("async-threads"));
+            if (config.hasAttribute("async-queue"))
+                asyncQueueSize = Integer.parseInt(config.getAttribute("async-queue"));
+            if (config.hasAttribute("refresh-interval"))
+                refreshInterval = Long.parseLong(config.getAttribute("refresh-interval"));
+        } catch (NumberFormatException e) {
+            throw new DatabaseConfigurationException("Invalid setting for lucene index: " + e.getMessage());
+        }
+        if (asyncThreads < 1 || asyncQueueSize < 1 || refreshInterval < 0)
+            throw new DatabaseConfigurationException("Invalid setting for lucene index: async-threads and async-queue " +
+                "should be positive, refresh-interval should not be negative");
+        if (LOG.isDebugEnabled())
+            LOG.debug("Asynchronous indexing: " + (async ? asyncThreads + " threads" : "off") +
+                ", refresh interval: " + refreshInterval + "ms");
         
         NodeList nl = config.getElementsByTagName("analyzer");
         if (nl.getLength() > 0) {
@@ -129,6 +173,19 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
             searcherManager = new SearcherManager(cachedWriter, true, null);
             readerManager = new ReaderManager(cachedWriter, true);
+            lastRefresh = System.currentTimeMillis();
+
+            if (async)
+                indexer = new AsyncIndexer("lucene-indexer-" + pool.getId(), cachedWriter, asyncThreads, asyncQueueSize);
+            if (refreshInterval > 0) {
+                refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    final Thread thread = new Thread(runnable, "lucene-refresh-" + pool.getId());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                refresher.scheduleWithFixedDelay(this::refresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+            }
+            registerMBean();
         } catch (IOException e) {
             throw new DatabaseConfigurationException("Exception while reading lucene index directory: " +
                 e.getMessage(), e);
@@ -140,6 +197,19 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     @Override
     public synchronized void close() throws DBException {
         try {
+            if (refresher != null) {
+                refresher.shutdown();
+                try {
+                    refresher.awaitTermination(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                refresher = null;
+            }
+            if (indexer != null) {
+                indexer.shutdown();
+                indexer = null;
+            }
             if (searcherManager != null) {
                 searcherManager.close();
                 searcherManager = null;
@@ -148,6 +218,8 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
                 readerManager.close();
                 readerManager = null;
             }
+            facetsReader = null;
+            facetsState = null;
             if (cachedWriter != null) {
             	commit();
                 cachedWriter.close();
@@ -162,7 +234,13 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
     @Override
     public synchronized void sync() throws DBException {
-        //Nothing special to do
+        // the queued updates belong to transactions preceding the checkpoint:
+        // they must be on disk before the journal is truncated
+        try {
+            drain();
+        } catch (IOException e) {
+            throw new DBException("Failed to apply the pending updates of the lucene index: " + e.getMessage());
+        }
         commit();
     }
 
@@ -210,6 +288,84 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         needsCommit = true;
     }
 
+    /**
+     * Applies an update to the index writer. With asynchronous indexing, the
+     * update is queued and applied by the indexing threads: the updates of a
+     * document are applied in the order they were made, and the caller blocks
+     * if too many updates are pending.
+     *
+     * @param docId the document the update belongs to
+     * @param update the update
+     * @throws IOException
+     */
+    public void update(int docId, ConsumerE<IndexWriter, IOException> update) throws IOException {
+        final AsyncIndexer indexer = this.indexer;
+        try {
+            if (indexer == null)
+                update.accept(cachedWriter);
+            else
+                indexer.submit(docId, update);
+        } finally {
+            releaseWriter(cachedWriter);
+        }
+    }
+
+    /**
+     * Waits until the updates queued so far have been applied to the index writer.
+     *
+     * @throws IOException if interrupted
+     */
+    public void drain() throws IOException {
+        final AsyncIndexer indexer = this.indexer;
+        if (indexer != null)
+            indexer.drain();
+    }
+
+    protected AsyncIndexer getIndexer() {
+        return indexer;
+    }
+
+    protected long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    protected long getTimeSinceRefresh() {
+        return System.currentTimeMillis() - lastRefresh;
+    }
+
+    /**
+     * Prepares the searchers for a query. Unless they are refreshed at regular
+     * intervals, the updates made before the query are applied and the
+     * searchers reopened, so the query sees them.
+     */
+    private void refreshBeforeQuery(ReferenceManager<?> manager) throws IOException {
+        if (refreshInterval > 0)
+            return;
+        drain();
+        manager.maybeRefreshBlocking();
+        lastRefresh = System.currentTimeMillis();
+    }
+
+    private void refresh() {
+        try {
+            searcherManager.maybeRefresh();
+            readerManager.maybeRefresh();
+            lastRefresh = System.currentTimeMillis();
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to refresh the lucene searchers: " + e.getMessage(), e);
+        }
+    }
+
+    private void registerMBean() {
+        final Agent agent = AgentFactory.getInstance();
+        try {
+            agent.addMBean(pool.getId(), "org.exist.management." + pool.getId() + ":type=LuceneIndex",
+                new LuceneIndexStatus(this));
+        } catch (DatabaseConfigurationException e) {
+            LOG.warn("Exception while registering lucene index mbean.", e);
+        }
+    }
+
     protected void commit() {
     	if (!needsCommit) {
             return;
@@ -231,7 +387,7 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     }
 
     public <R> R withReader(FunctionE<IndexReader, R, IOException> fn) throws IOException {
-        readerManager.maybeRefreshBlocking();
+        refreshBeforeQuery(readerManager);
         final DirectoryReader reader = readerManager.acquire();
         try {
             return fn.apply(reader);
@@ -241,7 +397,7 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     }
 
     public <R> R withSearcher(Function2E<IndexSearcher, R, IOException, XPathException> consumer) throws IOException, XPathException {
-        searcherManager.maybeRefreshBlocking();
+        refreshBeforeQuery(searcherManager);
         final IndexSearcher searcher = searcherManager.acquire();
         try {
             return consumer.apply(searcher);
@@ -250,6 +406,36 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         }
     }
 
+    /**
+     * Returns the facets configuration used to build documents with facet fields.
+     * Every dimension is registered as multi-valued before use.
+     */
+    protected FacetsConfig getFacetsConfig(String dimension) {
+        facetsConfig.setMultiValued(dimension, true);
+        return facetsConfig;
+    }
+
+    /**
+     * Returns the facet ordinal state for the given top-level reader. The state
+     * is expensive to create and is therefore cached until the reader changes.
+     *
+     * @param reader the top-level reader of the current searcher
+     * @return the facet state or null if no facets have been indexed yet
+     * @throws IOException
+     */
+    protected synchronized SortedSetDocValuesReaderState getFacetsState(IndexReader reader) throws IOException {
+        if (reader != facetsReader) {
+            facetsReader = reader;
+            try {
+                facetsState = new DefaultSortedSetDocValuesReaderState(reader);
+            } catch (IllegalArgumentException e) {
+                // no document with facet fields in the index
+                facetsState = null;
+            }
+        }
+        return facetsState;
+    }
+
 	@Override
 	public void backupToArchive(final RawDataBackup backup) throws IOException {
 		for (final String name : directory.listAll()) {
@@ -20,7 +20,10 @@
  */
 package org.exist.indexing.lucene;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import org.apache.commons.collections.MultiMap;
@@ -49,6 +52,9 @@ public class LuceneIndexConfig {
     private final static String HAS_ATTR_ELEMENT = "has-attribute";
     private final static String MATCH_SIBLING_ATTR_ELEMENT = "match-sibling-attribute";
     private final static String HAS_SIBLING_ATTR_ELEMENT = "has-sibling-attribute";
+    private final static String FACET_ELEMENT = "facet";
+
+    public static final String DIMENSION_ATTR = "dimension";
 
     public static final String QNAME_ATTR = "qname";
     public static final String MATCH_ATTR = "match";
@@ -71,6 +77,8 @@ public class LuceneIndexConfig {
     // This is for the @attr match boosting
     // and the intention is to do a proper predicate check instead in the future. /ljo
     private MultiMap matchAttrs;
+
+    private List<FacetConfig> facets = null;
     protected final static Logger LOG = LogManager.getLogger(LuceneIndexConfig.class);
 
 
@@ -180,6 +188,25 @@ public class LuceneIndexConfig {
                             matchAttrs.put(qname, new MatchAttrData(qname, value, boost, onSibling));
                             break;
                         }
+                        case FACET_ELEMENT: {
+                            if (isAttributeNode()) {
+                                throw new DatabaseConfigurationException(
+                                        "Lucene module: " + localName + " can not be used on attribute");
+                            }
+                            final String dimension = configElement.getAttribute(DIMENSION_ATTR);
+                            if (StringUtils.isEmpty(dimension)) {
+                                throw new DatabaseConfigurationException("Lucene configuration element 'facet' needs an attribute 'dimension'");
+                            }
+                            final String qnameAttr = configElement.getAttribute(QNAME_ATTR);
+                            if (StringUtils.isEmpty(qnameAttr)) {
+                                throw new DatabaseConfigurationException("Lucene configuration element 'facet' needs an attribute 'qname'");
+                            }
+                            if (facets == null) {
+                                facets = new ArrayList<>();
+                            }
+                            facets.add(new FacetConfig(dimension, parseQName(qnameAttr, namespaces)));
+                            break;
+                        }
                     }
                 }
             }
@@ -214,6 +241,9 @@ public class LuceneIndexConfig {
      * if no match, the value from getBoost() is returned
      */
     public float getAttrBoost(Collection<AttrImpl> attributes) {
+        if (matchAttrs == null) {
+            return getBoost();
+        }
         float boost = 0;
         boolean hasBoost = false;
 
@@ -338,7 +368,49 @@ public class LuceneIndexConfig {
     }
 
     boolean shouldReindexOnAttributeChange() {
-        return matchAttrs != null;
+        return matchAttrs != null || facets != null;
+    }
+
+    /**
+     * @return true if facet values should be extracted from nodes
+     * matched by this index
+     */
+    public boolean hasFacets() {
+        return facets != null;
+    }
+
+    /**
+     * @return the facet dimensions configured on this index, or an empty list
+     */
+    public List<FacetConfig> getFacets() {
+        return facets == null ? Collections.emptyList() : facets;
+    }
+
+    /**
+     * A facet dimension whose values are taken either from an attribute of the indexed
+     * element (qname="@attr") or from the text of one of its child elements.
+     */
+    public static class FacetConfig {
+
+        private final String dimension;
+        private final QName qname;
+
+        FacetConfig(String dimension, QName qname) {
+            this.dimension = dimension;
+            this.qname = qname;
+        }
+
+        public String getDimension() {
+            return dimension;
+        }
+
+        public QName getQName() {
+            return qname;
+        }
+
+        public boolean isAttribute() {
+            return qname.getNameType() == ElementValue.ATTRIBUTE;
+        }
     }
 
     private static class MatchAttrData {
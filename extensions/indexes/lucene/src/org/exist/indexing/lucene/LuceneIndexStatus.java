@@ -0,0 +1,86 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+public class LuceneIndexStatus implements LuceneIndexStatusMXBean {
+
+    private final LuceneIndex index;
+
+    public LuceneIndexStatus(final LuceneIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return index.getIndexer() != null;
+    }
+
+    @Override
+    public int getIndexingThreads() {
+        final AsyncIndexer indexer = index.getIndexer();
+        return indexer == null ? 0 : indexer.getThreads();
+    }
+
+    @Override
+    public long getPendingUpdates() {
+        final AsyncIndexer indexer = index.getIndexer();
+        return indexer == null ? 0 : indexer.getPendingUpdates();
+    }
+
+    @Override
+    public long getOldestPendingUpdateAge() {
+        final AsyncIndexer indexer = index.getIndexer();
+        return indexer == null ? 0 : indexer.getOldestPendingAge();
+    }
+
+    @Override
+    public long getCompletedUpdates() {
+        final AsyncIndexer indexer = index.getIndexer();
+        return indexer == null ? 0 : indexer.getCompletedUpdates();
+    }
+
+    @Override
+    public long getFailedUpdates() {
+        final AsyncIndexer indexer = index.getIndexer();
+        return indexer == null ? 0 : indexer.getFailedUpdates();
+    }
+
+    @Override
+    public long getAverageIndexingLag() {
+        final AsyncIndexer indexer = index.getIndexer();
+        return indexer == null ? 0 : indexer.getAverageLag();
+    }
+
+    @Override
+    public long getMaxIndexingLag() {
+        final AsyncIndexer indexer = index.getIndexer();
+        return indexer == null ? 0 : indexer.getMaxLag();
+    }
+
+    @Override
+    public long getRefreshInterval() {
+        return index.getRefreshInterval();
+    }
+
+    @Override
+    public long getTimeSinceRefresh() {
+        return index.getTimeSinceRefresh();
+    }
+}
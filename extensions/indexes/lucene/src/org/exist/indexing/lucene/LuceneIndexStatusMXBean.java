@@ -0,0 +1,64 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+/**
+ * Indexing lag of the lucene index. With asynchronous indexing, the updates
+ * are queued before being applied and become visible to queries at the next
+ * refresh of the searchers.
+ */
+public interface LuceneIndexStatusMXBean {
+
+    boolean isAsync();
+
+    int getIndexingThreads();
+
+    /**
+     * @return the number of updates queued or being applied
+     */
+    long getPendingUpdates();
+
+    /**
+     * @return the time in milliseconds since the oldest pending update was queued
+     */
+    long getOldestPendingUpdateAge();
+
+    long getCompletedUpdates();
+
+    long getFailedUpdates();
+
+    /**
+     * @return the average time in milliseconds between queuing and applying an update
+     */
+    long getAverageIndexingLag();
+
+    long getMaxIndexingLag();
+
+    /**
+     * @return the interval in milliseconds between two refreshes of the searchers,
+     * 0 if they are refreshed by each query
+     */
+    long getRefreshInterval();
+
+    /**
+     * @return the time in milliseconds since the searchers were last refreshed
+     */
+    long getTimeSinceRefresh();
+}
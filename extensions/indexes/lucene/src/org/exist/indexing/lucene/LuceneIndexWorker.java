@@ -28,6 +28,13 @@ import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.*;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
 import org.apache.lucene.index.*;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
@@ -93,6 +100,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public static final String OPTION_FILTER_REWRITE = "filter-rewrite";
     public static final String DEFAULT_OPERATOR_OR = "or";
     public static final String OPTION_LOWERCASE_EXPANDED_TERMS = "lowercase-expanded-terms";
+    public static final String OPTION_FACETS = "facets";
 
     public static final org.apache.lucene.document.FieldType TYPE_NODE_ID = new org.apache.lucene.document.FieldType();
     static {
@@ -118,6 +126,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     
     private LuceneConfig config;
     private Stack<TextExtractor> contentStack = null;
+    private Stack<FacetExtractor> facetStack = null;
     private Set<NodeId> nodesToRemove = null;
     private List<PendingDoc> nodesToWrite = null;
     private Document pendingDoc = null;
@@ -185,6 +194,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         currentDoc = document;
         //config = null;
         contentStack = null;
+        facetStack = null;
         IndexSpec indexConf = document.getCollection().getIndexConfiguration(broker);
         if (indexConf != null) {
             config = (LuceneConfig) indexConf.getCustomIndexSpec(LuceneIndex.ID);
@@ -316,32 +326,26 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
 
     protected void removeDocument(int docId) {
-    	IndexWriter writer = null;
         try {
-            writer = index.getWriter();
             final BytesRefBuilder bytes = new BytesRefBuilder();
             NumericUtils.intToPrefixCoded(docId, 0, bytes);
             Term dt = new Term(FIELD_DOC_ID, bytes.toBytesRef());
-            writer.deleteDocuments(dt);
+            index.update(docId, writer -> writer.deleteDocuments(dt));
         } catch (IOException e) {
             LOG.warn("Error while removing lucene index: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
             mode = ReindexMode.STORE;
         }
     }
 
     protected void removePlainTextIndexes() {
-    	IndexWriter writer = null;
         try {
-            writer = index.getWriter();
             String uri = currentDoc.getURI().toString();
             Term dt = new Term(FIELD_DOC_URI, uri);
-            writer.deleteDocuments(dt);
+            index.update(currentDoc.getDocId(), writer -> writer.deleteDocuments(dt));
         } catch (IOException e) {
             LOG.warn("Error while removing lucene index: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
             mode = ReindexMode.STORE;
         }
     }
@@ -350,20 +354,17 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public void removeCollection(Collection collection, DBBroker broker, boolean reindex) {
         if (LOG.isDebugEnabled())
             LOG.debug("Removing collection " + collection.getURI());
-        IndexWriter writer = null;
         try {
-            writer = index.getWriter();
             for (Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
                 DocumentImpl doc = i.next();
                 final BytesRefBuilder bytes = new BytesRefBuilder();
                 NumericUtils.intToPrefixCoded(doc.getDocId(), 0, bytes);
                 Term dt = new Term(FIELD_DOC_ID, bytes.toBytesRef());
-                writer.deleteDocuments(dt);
+                index.update(doc.getDocId(), writer -> writer.deleteDocuments(dt));
             }
         } catch (IOException | PermissionDeniedException | LockException e) {
             LOG.error("Error while removing lucene index: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
             if (reindex) {
                 try {
                     index.sync();
@@ -385,10 +386,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     protected void removeNodes() {
     	if (nodesToRemove == null)
             return;
-        IndexWriter writer = null;
         try {
-            writer = index.getWriter();
-
+            final List<Query> queries = new ArrayList<>(nodesToRemove.size());
             final BytesRefBuilder bytes = new BytesRefBuilder();
             NumericUtils.intToPrefixCoded(currentDoc.getDocId(), 0, bytes);
             Term dt = new Term(FIELD_DOC_ID, bytes.toBytesRef());
@@ -406,12 +405,12 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 BooleanQuery q = new BooleanQuery();
                 q.add(tq, BooleanClause.Occur.MUST);
                 q.add(iq, BooleanClause.Occur.MUST);
-                writer.deleteDocuments(q);
+                queries.add(q);
             }
+            index.update(currentDoc.getDocId(), writer -> writer.deleteDocuments(queries.toArray(new Query[queries.size()])));
         } catch (IOException e) {
             LOG.warn("Error while deleting lucene index entries: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
             nodesToRemove = null;
         }
     }
@@ -455,7 +454,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                     setOptions(options, parser.getConfiguration());
                     Query query = parser.parse(queryStr);
                     searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                            returnAncestor, searcher, query, context.getWatchDog());
+                            returnAncestor, searcher, query, context.getWatchDog(), facetsRequested(options));
                 } catch(ParseException e) {
                     throw new XPathException("Lucene query syntax error: " + e.getMessage());
                 }
@@ -530,7 +529,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
                 if (query != null) {
                     searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                            returnAncestor, searcher, query, context.getWatchDog());
+                            returnAncestor, searcher, query, context.getWatchDog(), facetsRequested(options));
                 }
             }
             return resultSet;
@@ -547,7 +546,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
             if (query != null) {
                 searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, context.getWatchDog());
+                        returnAncestor, searcher, query, context.getWatchDog(), facetsRequested(options));
             }
             return resultSet;
         });
@@ -555,9 +554,41 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
     private void searchAndProcess(int contextId, QName qname, DocumentSet docs,
             NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
-            IndexSearcher searcher, Query query, XQueryWatchDog watchDog) throws IOException, TerminatedException {
-        LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, watchDog);
+            IndexSearcher searcher, Query query, XQueryWatchDog watchDog, boolean withFacets) throws IOException, TerminatedException {
+        final SortedSetDocValuesReaderState facetsState = withFacets ? index.getFacetsState(searcher.getIndexReader()) : null;
+        final FacetsCollector facetsCollector = facetsState == null ? null : new FacetsCollector();
+        final LuceneFacets facets = facetsState == null ? null : new LuceneFacets();
+        LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, watchDog,
+                facetsCollector, facets);
         searcher.search(query, collector);
+        if (facetsCollector != null) {
+            countFacets(facetsState, facetsCollector, facets);
+        }
+    }
+
+    /**
+     * Facets are only counted if requested by the {@link #OPTION_FACETS} option: creating the
+     * reader state and counting every dimension is too expensive to be done for every query.
+     */
+    private static boolean facetsRequested(Properties options) {
+        return options != null && "yes".equalsIgnoreCase(options.getProperty(OPTION_FACETS));
+    }
+
+    /**
+     * Count the facet values of all hits accepted by the collector. All labels of every
+     * dimension are retrieved, so the counts can later be filtered by the nodes in a sequence.
+     */
+    private void countFacets(SortedSetDocValuesReaderState state, FacetsCollector facetsCollector, LuceneFacets facets) throws IOException {
+        final SortedSetDocValuesFacetCounts counts = new SortedSetDocValuesFacetCounts(state, facetsCollector);
+        for (Map.Entry<String, SortedSetDocValuesReaderState.OrdRange> dim : state.getPrefixToOrdRange().entrySet()) {
+            final int topN = dim.getValue().end - dim.getValue().start + 1;
+            final FacetResult result = counts.getTopChildren(topN, dim.getKey());
+            if (result != null) {
+                for (LabelAndValue labelValue : result.labelValues) {
+                    facets.add(dim.getKey(), labelValue.label, labelValue.value.longValue());
+                }
+            }
+        }
     }
 
     public NodeSet queryField(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
@@ -573,7 +604,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 setOptions(options, parser.getConfiguration());
                 Query query = parser.parse(queryString);
                 searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, context.getWatchDog());
+                        returnAncestor, searcher, query, context.getWatchDog(), facetsRequested(options));
             } catch(ParseException e) {
                 throw new XPathException("Lucene query syntax error: " + e.getMessage());
             }
@@ -656,16 +687,13 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
     
     public void writeNonXML() {
-    	IndexWriter writer = null;
         try {
-            writer = index.getWriter();
-            
-            writer.addDocument(pendingDoc);
+            final Document doc = pendingDoc;
+            index.update(currentDoc.getDocId(), writer -> writer.addDocument(doc));
         } catch (IOException e) {
             LOG.warn("An exception was caught while indexing document: " + e.getMessage(), e);
 
         } finally {
-            index.releaseWriter(writer);
             pendingDoc = null;
             cachedNodesSize = 0;
         }
@@ -879,9 +907,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         private final int contextId;
         private final Query query;
         private final XQueryWatchDog watchdog;
+        private final FacetsCollector facetsCollector;
+        private final LuceneFacets facets;
 
         private LuceneHitCollector(QName qname, Query query, DocumentSet docs, NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
-                                   int contextId, XQueryWatchDog watchDog) {
+                                   int contextId, XQueryWatchDog watchDog, FacetsCollector facetsCollector, LuceneFacets facets) {
             this.qname = qname;
             this.docs = docs;
             this.contextSet = contextSet;
@@ -890,11 +920,16 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.contextId = contextId;
             this.query = query;
             this.watchdog = watchDog;
+            this.facetsCollector = facetsCollector;
+            this.facets = facets;
         }
 
         @Override
         public void setScorer(Scorer scorer) throws IOException {
             this.scorer = scorer;
+            if (facetsCollector != null) {
+                facetsCollector.setScorer(scorer);
+            }
         }
 
         @Override
@@ -902,6 +937,9 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.reader = atomicReaderContext.reader();
             this.docIdValues = this.reader.getNumericDocValues(FIELD_DOC_ID);
             this.nodeIdValues = this.reader.getBinaryDocValues(LuceneUtil.FIELD_NODE_ID);
+            if (facetsCollector != null) {
+                facetsCollector.setNextReader(atomicReaderContext);
+            }
         }
 
         @Override
@@ -912,11 +950,14 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         @Override
         public void collect(int doc) {
             try {
-                float score = scorer.score();
                 int docId = (int) this.docIdValues.get(doc);
+                // filter by id before scoring or looking up the document
+                if (!docs.contains(docId))
+                    return;
                 DocumentImpl storedDocument = docs.getDoc(docId);
                 if (storedDocument == null)
                     return;
+                float score = scorer.score();
                 final BytesRef ref = this.nodeIdValues.get(doc);
                 int units = ByteConversion.byteToShort(ref.bytes, ref.offset);
                 NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromData(units, ref.bytes, ref.offset + 2);
@@ -934,8 +975,9 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                         NodeProxy parentNode = contextSet.get(storedNode);
                         // NodeProxy parentNode = contextSet.parentWithChild(storedNode, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
                         if (parentNode != null) {
-                            LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
+                            LuceneMatch match = new LuceneMatch(contextId, nodeId, query, facets);
                             match.setScore(score);
+                            collectFacets(doc);
                             parentNode.addMatch(match);
                             resultSet.add(parentNode, sizeHint);
                             if (Expression.NO_CONTEXT_ID != contextId) {
@@ -944,14 +986,16 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                                 parentNode.copyContext(storedNode);
                         }
                     } else {
-                        LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
+                        LuceneMatch match = new LuceneMatch(contextId, nodeId, query, facets);
                         match.setScore(score);
+                        collectFacets(doc);
                         storedNode.addMatch(match);
                         resultSet.add(storedNode, sizeHint);
                     }
                 } else {
-                    LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
+                    LuceneMatch match = new LuceneMatch(contextId, nodeId, query, facets);
                     match.setScore(score);
+                    collectFacets(doc);
                     storedNode.addMatch(match);
                     resultSet.add(storedNode);
                 }
@@ -959,6 +1003,12 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 e.printStackTrace();
             }
         }
+
+        private void collectFacets(int doc) throws IOException {
+            if (facetsCollector != null) {
+                facetsCollector.collect(doc);
+            }
+        }
     }
 
     /**
@@ -1109,6 +1159,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                                     continue;
                                 }
                                 int docId = (int) docIdValues.get(docsEnum.docID());
+                                if (!docs.contains(docId))
+                                    continue;
                                 DocumentImpl storedDocument = docs.getDoc(docId);
                                 if (storedDocument == null)
                                     continue;
@@ -1174,7 +1226,25 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
      * @param content
      */
     protected void indexText(java.util.Collection<AttrImpl> attribs, NodeId nodeId, QName qname, NodePath path, LuceneIndexConfig config, CharSequence content) {
+        indexText(attribs, nodeId, qname, path, config, content, null);
+    }
+
+    /**
+     * Adds the passed character sequence to the lucene index, together with
+     * the facet values extracted from the node.
+     *
+     * @param attribs
+     * @param nodeId
+     * @param qname
+     * @param path
+     * @param config
+     * @param content
+     * @param facets facet values keyed by dimension, may be null
+     */
+    protected void indexText(java.util.Collection<AttrImpl> attribs, NodeId nodeId, QName qname, NodePath path, LuceneIndexConfig config, CharSequence content,
+                             Map<String, List<String>> facets) {
         PendingDoc pending = new PendingDoc(nodeId, qname, path, content, config.getAttrBoost(attribs), config);
+        pending.facets = facets;
         addPending(pending);
     }
     
@@ -1192,6 +1262,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         QName qname;
         LuceneIndexConfig idxConf;
         float boost;
+        Map<String, List<String>> facets;
 
         private PendingDoc(NodeId nodeId, QName qname, NodePath path, CharSequence text, float boost, LuceneIndexConfig idxConf) {
             this.nodeId = nodeId;
@@ -1228,15 +1299,9 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             removeNodes();
         }
 
-        IndexWriter writer = null;
         try {
-            writer = index.getWriter();
-            // docId and nodeId are stored as doc value
-            NumericDocValuesField fDocId = new NumericDocValuesField(FIELD_DOC_ID, 0);
-            BinaryDocValuesField fNodeId = new BinaryDocValuesField(LuceneUtil.FIELD_NODE_ID, new BytesRef(8));
-            // docId also needs to be indexed
-            IntField fDocIdIdx = new IntField(FIELD_DOC_ID, 0, IntField.TYPE_NOT_STORED);
-
+            final List<Document> docs = new ArrayList<>(nodesToWrite.size());
+            final List<Analyzer> analyzers = new ArrayList<>(nodesToWrite.size());
             final List<Field> metas = new ArrayList<>();
 
             broker.getIndexController().streamMetas(new MetaStreamListener() {
@@ -1252,17 +1317,18 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             });
 
             for (PendingDoc pending : nodesToWrite) {
+                // the documents may be added later by the indexing threads,
+                // so their fields cannot be reused
                 final Document doc = new Document();
-                fDocId.setLongValue(currentDoc.getDocId());
-                doc.add(fDocId);
+                // docId and nodeId are stored as doc value
+                doc.add(new NumericDocValuesField(FIELD_DOC_ID, currentDoc.getDocId()));
 
                 // store the node id
                 int nodeIdLen = pending.nodeId.size();
                 byte[] data = new byte[nodeIdLen + 2];
                 ByteConversion.shortToByte((short) pending.nodeId.units(), data, 0);
                 pending.nodeId.serialize(data, 2);
-                fNodeId.setBytesValue(data);
-                doc.add(fNodeId);
+                doc.add(new BinaryDocValuesField(LuceneUtil.FIELD_NODE_ID, new BytesRef(data)));
 
                 // add separate index for node id
                 BinaryTokenStream bts = new BinaryTokenStream(new BytesRef(data));
@@ -1287,8 +1353,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
                 doc.add(fld);
 
-                fDocIdIdx.setIntValue(currentDoc.getDocId());
-                doc.add(fDocIdIdx);
+                // docId also needs to be indexed
+                doc.add(new IntField(FIELD_DOC_ID, currentDoc.getDocId(), IntField.TYPE_NOT_STORED));
                 
                 for (final Field meta : metas) {
                     doc.add(meta);
@@ -1298,21 +1364,45 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 final Field fDocNodeId = new StoredField("docNodeId", docNodeId);
                 doc.add(fDocNodeId);
 
-                if (pending.idxConf.getAnalyzer() == null) {
-                    writer.addDocument(doc);
-                } else {
-                    writer.addDocument(doc, pending.idxConf.getAnalyzer());
-		        }
+                docs.add(addFacets(doc, pending.facets));
+                analyzers.add(pending.idxConf.getAnalyzer());
 	        }
+
+            index.update(currentDoc.getDocId(), writer -> {
+                for (int i = 0; i < docs.size(); i++) {
+                    if (analyzers.get(i) == null) {
+                        writer.addDocument(docs.get(i));
+                    } else {
+                        writer.addDocument(docs.get(i), analyzers.get(i));
+                    }
+                }
+            });
         } catch (final IOException e) {
             LOG.warn("An exception was caught while indexing document: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
             nodesToWrite = new ArrayList<>();
             cachedNodesSize = 0;
         }
     }
 
+    /**
+     * Add a facet field for every extracted facet value and let lucene translate
+     * them into the doc values used for counting.
+     */
+    private Document addFacets(Document doc, Map<String, List<String>> facets) throws IOException {
+        if (facets == null || facets.isEmpty()) {
+            return doc;
+        }
+        FacetsConfig facetsConfig = null;
+        for (Map.Entry<String, List<String>> entry : facets.entrySet()) {
+            facetsConfig = index.getFacetsConfig(entry.getKey());
+            for (String value : entry.getValue()) {
+                doc.add(new SortedSetDocValuesFacetField(entry.getKey(), value));
+            }
+        }
+        return facetsConfig.build(doc);
+    }
+
     /**
      * Optimize the Lucene index by merging all segments into a single one. This
      * may take a while and write operations will be blocked during the optimize.
@@ -1320,6 +1410,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public void optimize() {
         IndexWriter writer = null;
         try {
+            index.drain();
             writer = index.getWriter(true);
             writer.forceMerge(1, true);
             writer.commit();
@@ -1347,12 +1438,18 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                     for (TextExtractor extractor : contentStack) {
                         extractor.startElement(element.getQName());
                     }
+                    for (FacetExtractor facets : facetStack) {
+                        if (facets != null) {
+                            facets.startElement(element.getQName());
+                        }
+                    }
                 }
 
 		Iterator<LuceneIndexConfig> configIter = config.getConfig(path);
                 if (configIter != null) {
                     if (contentStack == null) {
 			contentStack = new Stack<>();
+			facetStack = new Stack<>();
 		    }
                     while (configIter.hasNext()) {
                         LuceneIndexConfig configuration = configIter.next();
@@ -1360,6 +1457,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                             TextExtractor extractor = new DefaultTextExtractor();
                             extractor.configure(config, configuration);
                             contentStack.push(extractor);
+                            facetStack.push(configuration.hasFacets() ? new FacetExtractor(configuration) : null);
                         }
                     }
                 }
@@ -1374,6 +1472,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                     for (TextExtractor extractor : contentStack) {
                         extractor.endElement(element.getQName());
                     }
+                    for (FacetExtractor facets : facetStack) {
+                        if (facets != null) {
+                            facets.endElement(element.getQName());
+                        }
+                    }
                 }
                 Iterator<LuceneIndexConfig> configIter = config.getConfig(path);
                 if (mode != ReindexMode.REMOVE_ALL_NODES && configIter != null) {
@@ -1384,6 +1487,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                             LuceneIndexConfig configuration = configIter.next();
                             if (configuration.match(path)) {
                                 TextExtractor extractor = contentStack.pop();
+                                FacetExtractor facets = facetStack.pop();
 
                                 if (configuration.shouldReindexOnAttributeChange()) {
                                     // if we still have the attributes cached
@@ -1398,7 +1502,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                                             attributes.add((AttrImpl) attributes1.item(i));
                                         }
                                     }
-                                    indexText(attributes, element.getNodeId(), element.getQName(), path, extractor.getIndexConfig(), extractor.getText());
+                                    indexText(attributes, element.getNodeId(), element.getQName(), path, extractor.getIndexConfig(), extractor.getText(),
+                                            facets == null ? null : facets.getValues());
                                     if (wasEmpty) {
                                         attributes.clear();
                                     }
@@ -1429,6 +1534,14 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 attribCopy.setNodeId(attrib.getNodeId());
                 attribCopy.setQName(attrib.getQName());
                 attributes.add(attribCopy);
+
+                if (facetStack != null) {
+                    for (FacetExtractor facets : facetStack) {
+                        if (facets != null) {
+                            facets.attribute(attrib.getQName(), attrib.getValue());
+                        }
+                    }
+                }
             }
 
             Iterator<LuceneIndexConfig> configIter = null;
@@ -1462,6 +1575,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 	extractor.beforeCharacters();
                     extractor.characters(text.getXMLString());
                 }
+                for (FacetExtractor facets : facetStack) {
+                    if (facets != null) {
+                        facets.characters(text.getXMLString());
+                    }
+                }
             }
             super.characters(transaction, text, path);
         }
@@ -1519,16 +1637,23 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
         private float score = 0.0f;
         private final Query query;
+        private final LuceneFacets facets;
 
         public LuceneMatch(int contextId, NodeId nodeId, Query query) {
+            this(contextId, nodeId, query, null);
+        }
+
+        public LuceneMatch(int contextId, NodeId nodeId, Query query, LuceneFacets facets) {
             super(contextId, nodeId, null);
             this.query = query;
+            this.facets = facets;
         }
 
         public LuceneMatch(LuceneMatch copy) {
             super(copy);
             this.score = copy.score;
             this.query = copy.query;
+            this.facets = copy.facets;
         }
 
         @Override
@@ -1554,6 +1679,14 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             return query;
         }
 
+        /**
+         * @return the facet counts of the query which produced this match,
+         * or null if the index contains no facets
+         */
+        public LuceneFacets getFacets() {
+            return facets;
+        }
+
         public float getScore() {
             return score;
         }
@@ -0,0 +1,141 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.lucene;
+
+import org.exist.dom.QName;
+import org.exist.dom.persistent.Match;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.indexing.lucene.LuceneFacets;
+import org.exist.indexing.lucene.LuceneIndex;
+import org.exist.indexing.lucene.LuceneIndexWorker;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.functions.map.MapType;
+import org.exist.xquery.value.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Returns the facet counts computed by the full text queries which produced
+ * the given nodes. The counts are collected while the query runs, so no
+ * further index or document access is needed. Compiling a call to this
+ * function makes the full text queries of the main query count facets,
+ * which they otherwise only do with the facets option of ft:query.
+ */
+public class Facets extends BasicFunction {
+
+    private final static QName NAME = new QName("facets", LuceneModule.NAMESPACE_URI, LuceneModule.PREFIX);
+
+    private final static String DESCRIPTION =
+        "Returns a map of facet labels to hit counts for the given dimension. The counts are aggregated " +
+        "over all full text queries which produced the nodes in $nodes, i.e. $nodes should be the result " +
+        "of one or more calls to ft:query. Facets must be configured on the index with " +
+        "<facet dimension=\"name\" qname=\"...\"/>.";
+
+    private final static FunctionParameterSequenceType NODES =
+        new FunctionParameterSequenceType("nodes", Type.NODE, Cardinality.ZERO_OR_MORE,
+            "the result of a full text query");
+    private final static FunctionParameterSequenceType DIMENSION =
+        new FunctionParameterSequenceType("dimension", Type.STRING, Cardinality.EXACTLY_ONE,
+            "the facet dimension");
+    private final static FunctionReturnSequenceType RETURN =
+        new FunctionReturnSequenceType(Type.MAP, Cardinality.EXACTLY_ONE,
+            "a map with the facet label as key and the number of hits as value");
+
+    public final static FunctionSignature[] signatures = {
+        new FunctionSignature(
+            NAME,
+            DESCRIPTION,
+            new SequenceType[] { NODES, DIMENSION },
+            RETURN
+        ),
+        new FunctionSignature(
+            NAME,
+            DESCRIPTION + " Only the $count labels with the highest counts are returned.",
+            new SequenceType[] { NODES, DIMENSION,
+                new FunctionParameterSequenceType("count", Type.INTEGER, Cardinality.ZERO_OR_ONE,
+                    "the maximum number of labels to return")
+            },
+            RETURN
+        )
+    };
+
+    public Facets(XQueryContext context, FunctionSignature signature) {
+        super(context, signature);
+        // the full text queries only count facets if this function is used
+        LuceneModule.requestFacets(context);
+    }
+
+    @Override
+    public Sequence eval(Sequence[] args, Sequence contextSequence) throws XPathException {
+        final String dimension = args[1].getStringValue();
+        int max = -1;
+        if (getArgumentCount() == 3 && !args[2].isEmpty()) {
+            max = ((IntegerValue) args[2].itemAt(0)).getInt();
+        }
+
+        // every query shares one LuceneFacets instance between its matches
+        final Set<LuceneFacets> queries = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final SequenceIterator i = args[0].iterate(); i.hasNext(); ) {
+            final NodeValue nodeValue = (NodeValue) i.nextItem();
+            if (nodeValue.getImplementationType() != NodeValue.PERSISTENT_NODE) {
+                continue;
+            }
+            Match match = ((NodeProxy) nodeValue).getMatches();
+            while (match != null) {
+                if (match.getIndexId() == LuceneIndex.ID) {
+                    final LuceneFacets facets = ((LuceneIndexWorker.LuceneMatch) match).getFacets();
+                    if (facets != null) {
+                        queries.add(facets);
+                    }
+                }
+                match = match.getNextMatch();
+            }
+        }
+
+        final Map<String, Long> counts = new HashMap<>();
+        for (final LuceneFacets facets : queries) {
+            for (final Map.Entry<String, Long> entry : facets.getCounts(dimension).entrySet()) {
+                counts.merge(entry.getKey(), entry.getValue(), Long::sum);
+            }
+        }
+
+        final List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+        if (max > -1 && entries.size() > max) {
+            entries.sort((e1, e2) -> Long.compare(e2.getValue(), e1.getValue()));
+            entries.subList(max, entries.size()).clear();
+        }
+
+        final MapType map = new MapType(context);
+        for (final Map.Entry<String, Long> entry : entries) {
+            map.add(new StringValue(entry.getKey()), new IntegerValue(entry.getValue()));
+        }
+        return map;
+    }
+}
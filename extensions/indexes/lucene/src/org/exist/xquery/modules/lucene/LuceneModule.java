@@ -26,6 +26,8 @@ import org.exist.dom.QName;
 import org.exist.xquery.AbstractInternalModule;
 import org.exist.xquery.ErrorCodes.ErrorCode;
 import org.exist.xquery.FunctionDef;
+import org.exist.xquery.Module;
+import org.exist.xquery.XQueryContext;
 
 /**
  * Module function definitions for Lucene-based full text indexed searching.
@@ -52,6 +54,8 @@ public class LuceneModule extends AbstractInternalModule {
         new FunctionDef(QueryField.signatures[0], QueryField.class),
         new FunctionDef(QueryField.signatures[1], QueryField.class),
         new FunctionDef(Score.signature, Score.class),
+        new FunctionDef(Facets.signatures[0], Facets.class),
+        new FunctionDef(Facets.signatures[1], Facets.class),
         new FunctionDef(Optimize.signature, Optimize.class),
         new FunctionDef(Index.signatures[0], Index.class),
         new FunctionDef(Index.signatures[1], Index.class),
@@ -64,10 +68,30 @@ public class LuceneModule extends AbstractInternalModule {
         new FunctionDef(GetField.signatures[0], GetField.class)
     };
 
+    private boolean facetsRequested = false;
+
     public LuceneModule(Map<String, List<? extends Object>> parameters) {
         super(functions, parameters, false);
     }
 
+    /**
+     * Records that the query calls ft:facets, so its full text queries count the
+     * facets of their hits.
+     */
+    static void requestFacets(XQueryContext context) {
+        final Module module = context.getRootContext().getModule(NAMESPACE_URI);
+        if (module instanceof LuceneModule)
+            ((LuceneModule) module).facetsRequested = true;
+    }
+
+    /**
+     * @return true if the query calls ft:facets
+     */
+    static boolean facetsRequested(XQueryContext context) {
+        final Module module = context.getRootContext().getModule(NAMESPACE_URI);
+        return module instanceof LuceneModule && ((LuceneModule) module).facetsRequested;
+    }
+
     @Override
     public String getNamespaceURI() {
         return NAMESPACE_URI;
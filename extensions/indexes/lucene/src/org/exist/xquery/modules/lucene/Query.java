@@ -95,7 +95,9 @@ public class Query extends Function implements Optimizable {
                         "   <phrase-slop>number</phrase-slop>\n" +
                         "   <leading-wildcard>yes|no</leading-wildcard>\n" +
                         "   <filter-rewrite>yes|no</filter-rewrite>\n" +
-                        "</options>")
+                        "   <facets>yes|no</facets>\n" +
+                        "</options>\n" +
+                        "Facets are counted with facets set to yes or if the query calls ft:facets.")
             },
             new FunctionReturnSequenceType(Type.NODE, Cardinality.ZERO_OR_MORE,
                 "all nodes from the input node set matching the query. match highlighting information " +
@@ -310,25 +312,31 @@ public class Query extends Function implements Optimizable {
     }
 
     protected Properties parseOptions(Sequence contextSequence, Item contextItem) throws XPathException {
-        if (getArgumentCount() < 3)
+        final boolean facets = LuceneModule.facetsRequested(context);
+        if (getArgumentCount() < 3 && !facets)
             return null;
         Properties options = new Properties();
-        Sequence optSeq = getArgument(2).eval(contextSequence, contextItem);
-        NodeValue optRoot = (NodeValue) optSeq.itemAt(0);
-        try {
-            XMLStreamReader reader = context.getXMLStreamReader(optRoot);
-            reader.next();
-             reader.next();
-            while (reader.hasNext()) {
-                int status = reader.next();
-                if (status == XMLStreamReader.START_ELEMENT) {
-                    options.put(reader.getLocalName(), reader.getElementText());
+        if (getArgumentCount() == 3) {
+            Sequence optSeq = getArgument(2).eval(contextSequence, contextItem);
+            NodeValue optRoot = (NodeValue) optSeq.itemAt(0);
+            try {
+                XMLStreamReader reader = context.getXMLStreamReader(optRoot);
+                reader.next();
+                reader.next();
+                while (reader.hasNext()) {
+                    int status = reader.next();
+                    if (status == XMLStreamReader.START_ELEMENT) {
+                        options.put(reader.getLocalName(), reader.getElementText());
+                    }
                 }
+            } catch (XMLStreamException | IOException e) {
+                throw new XPathException(this, "Error while parsing options to ft:query: " + e.getMessage(), e);
             }
-            return options;
-        } catch (XMLStreamException | IOException e) {
-            throw new XPathException(this, "Error while parsing options to ft:query: " + e.getMessage(), e);
         }
+        // ft:facets needs the counts, whatever the options say
+        if (facets)
+            options.setProperty(LuceneIndexWorker.OPTION_FACETS, "yes");
+        return options;
     }
 
     @Override
@@ -71,7 +71,9 @@ public class QueryField extends Query implements Optimizable {
                         "   <phrase-slop>number</phrase-slop>\n" +
                         "   <leading-wildcard>yes|no</leading-wildcard>\n" +
                         "   <filter-rewrite>yes|no</filter-rewrite>\n" +
-                        "</options>")
+                        "   <facets>yes|no</facets>\n" +
+                        "</options>\n" +
+                        "Facets are counted with facets set to yes or if the query calls ft:facets.")
             },
             new FunctionReturnSequenceType(Type.NODE, Cardinality.ZERO_OR_MORE,
                 "all nodes from the input node set matching the query. match highlighting information " +
@@ -0,0 +1,223 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncIndexerTest {
+
+    private static final long TIMEOUT = 30;
+
+    private AsyncIndexer indexer;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @Test
+    public void updatesOfADocumentAreAppliedInOrder() throws Exception {
+        final int docs = 10;
+        final int updates = 200;
+        indexer = new AsyncIndexer("test", null, 3, 4);
+
+        final Map<Integer, List<Integer>> applied = new ConcurrentHashMap<>();
+        final Map<Integer, Set<String>> threads = new ConcurrentHashMap<>();
+        final Random random = new Random(42);
+        for (int i = 0; i < updates; i++) {
+            for (int docId = 0; docId < docs; docId++) {
+                final int doc = docId;
+                final int seq = i;
+                final boolean slow = random.nextInt(20) == 0;
+                indexer.submit(doc, writer -> {
+                    if (slow) {
+                        sleep(1);
+                    }
+                    applied.computeIfAbsent(doc, k -> Collections.synchronizedList(new ArrayList<>())).add(seq);
+                    threads.computeIfAbsent(doc, k -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread().getName());
+                });
+            }
+        }
+        indexer.drain();
+
+        assertEquals(docs * updates, indexer.getCompletedUpdates());
+        assertEquals(0, indexer.getPendingUpdates());
+        for (int docId = 0; docId < docs; docId++) {
+            final List<Integer> sequence = applied.get(docId);
+            assertEquals(updates, sequence.size());
+            for (int i = 0; i < updates; i++) {
+                assertEquals("update " + i + " of document " + docId, i, sequence.get(i).intValue());
+            }
+            // a document always maps to the same lane
+            assertEquals(1, threads.get(docId).size());
+        }
+    }
+
+    @Test
+    public void drainWaitsForPendingUpdates() throws Exception {
+        indexer = new AsyncIndexer("test", null, 2, 8);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        indexer.submit(1, writer -> await(release));
+        for (int docId = 0; docId < 6; docId++) {
+            indexer.submit(docId, writer -> {});
+        }
+
+        final Future<?> drained = executor.submit(() -> {
+            indexer.drain();
+            return null;
+        });
+        assertTimesOut(drained);
+        assertTrue(indexer.getPendingUpdates() > 0);
+        assertTrue(indexer.getOldestPendingAge() >= 0);
+
+        release.countDown();
+        drained.get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(0, indexer.getPendingUpdates());
+        assertEquals(7, indexer.getCompletedUpdates());
+    }
+
+    @Test
+    public void awaitIgnoresLaterUpdates() throws Exception {
+        indexer = new AsyncIndexer("test", null, 1, 8);
+
+        final CountDownLatch applied = new CountDownLatch(1);
+        indexer.submit(1, writer -> applied.countDown());
+        final long[] mark = indexer.mark();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        indexer.submit(1, writer -> await(release));
+
+        final Future<?> awaited = executor.submit(() -> {
+            indexer.await(mark);
+            return null;
+        });
+        awaited.get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(0, applied.getCount());
+        assertEquals(1, indexer.getPendingUpdates());
+
+        release.countDown();
+        indexer.drain();
+        assertEquals(0, indexer.getPendingUpdates());
+    }
+
+    @Test
+    public void fullLaneBlocksSubmitter() throws Exception {
+        indexer = new AsyncIndexer("test", null, 1, 1);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        indexer.submit(1, writer -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+        // fills the queue
+        indexer.submit(2, writer -> {});
+
+        final Future<?> submitted = executor.submit(() -> {
+            indexer.submit(3, writer -> {});
+            return null;
+        });
+        assertTimesOut(submitted);
+
+        release.countDown();
+        submitted.get(TIMEOUT, TimeUnit.SECONDS);
+        indexer.drain();
+        assertEquals(3, indexer.getCompletedUpdates());
+    }
+
+    @Test
+    public void failedUpdateDoesNotStopTheLane() throws Exception {
+        indexer = new AsyncIndexer("test", null, 1, 4);
+
+        indexer.submit(1, writer -> {
+            throw new IOException("failed update");
+        });
+        indexer.submit(1, writer -> {
+            throw new IllegalStateException("failed update");
+        });
+        final CountDownLatch applied = new CountDownLatch(1);
+        indexer.submit(1, writer -> applied.countDown());
+        indexer.drain();
+
+        assertEquals(0, applied.getCount());
+        assertEquals(2, indexer.getFailedUpdates());
+        assertEquals(1, indexer.getCompletedUpdates());
+        assertEquals(0, indexer.getPendingUpdates());
+    }
+
+    @Test
+    public void shutdownAppliesPendingUpdates() throws Exception {
+        indexer = new AsyncIndexer("test", null, 2, 4);
+
+        final CountDownLatch applied = new CountDownLatch(8);
+        for (int docId = 0; docId < 8; docId++) {
+            indexer.submit(docId, writer -> {
+                sleep(5);
+                applied.countDown();
+            });
+        }
+        indexer.shutdown();
+        indexer = null;
+
+        assertEquals(0, applied.getCount());
+    }
+
+    @After
+    public void shutdown() {
+        if (indexer != null) {
+            indexer.shutdown();
+        }
+        executor.shutdownNow();
+    }
+
+    private static void assertTimesOut(final Future<?> future) throws InterruptedException, ExecutionException {
+        try {
+            future.get(200, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            // expected
+        }
+        assertFalse(future.isDone());
+    }
+
+    private static void await(final CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static void sleep(final long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Optional;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.CollectionConfigurationManager;
+import org.exist.collections.CollectionConfigurationException;
+import org.exist.collections.IndexInfo;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.indexing.IndexManager;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.sync.Sync;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+
+import org.junit.*;
+
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Tests the lucene index with async="yes": the updates are applied by the
+ * {@link AsyncIndexer}, queries wait for the updates made before them, a
+ * checkpoint applies the pending updates before committing, and the reindex
+ * following a crash recovery rebuilds the index.
+ */
+public class AsyncLuceneIndexTest {
+
+    private static final String COLLECTION_CONFIG =
+            "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+            "   <index>" +
+            "       <lucene>" +
+            "           <text qname=\"item\"/>" +
+            "       </lucene>" +
+            "   </index>" +
+            "</collection>";
+
+    private static final String LUCENE_MODULE =
+            "<module id=\"lucene-index\" buffer=\"32\" class=\"org.exist.indexing.lucene.LuceneIndex\"" +
+            "   async=\"yes\" async-threads=\"2\" async-queue=\"4\" refresh-interval=\"0\"/>";
+
+    private static final int PENDING_DOC_ID = Integer.MAX_VALUE;
+    private static final String PENDING_FIELD = "pending";
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                .put(IndexManager.PROPERTY_INDEXER_MODULES, asyncLuceneModule())
+                .build(),
+            true,
+            false);
+
+    private static Configuration.IndexModuleConfig[] asyncLuceneModule() {
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            final Element module = factory.newDocumentBuilder()
+                    .parse(new InputSource(new StringReader(LUCENE_MODULE))).getDocumentElement();
+            return new Configuration.IndexModuleConfig[] {
+                new Configuration.IndexModuleConfig("lucene-index", LuceneIndex.class.getName(), module)
+            };
+        } catch (final ParserConfigurationException | SAXException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void queriesSeeTheirOwnWrites() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, XPathException {
+        assertNotNull(getIndex().getIndexer());
+        for (int i = 0; i < 20; i++) {
+            store("test" + i + ".xml", "<test><item>shared term" + i + "</item></test>");
+            assertEquals(1, query("//item[ft:query(., 'term" + i + "')]"));
+            assertEquals(i + 1, query("//item[ft:query(., 'shared')]"));
+        }
+    }
+
+    @Test
+    public void updatesOfADocumentAreAppliedInOrder() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, XPathException {
+        // each replacement deletes the previous version from the index before adding the new one
+        for (int i = 0; i < 20; i++) {
+            store("test.xml", "<test><item>shared version" + i + "</item></test>");
+        }
+        assertEquals(1, query("//item[ft:query(., 'shared')]"));
+        assertEquals(1, query("//item[ft:query(., 'version19')]"));
+        assertEquals(0, query("//item[ft:query(., 'version18')]"));
+    }
+
+    @Test
+    public void checkpointAppliesPendingUpdates() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final LuceneIndex index = getIndex();
+        final int before = committedDocs(index);
+
+        final TransactionManager transact = pool.getTransactionManager();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            try(final Txn transaction = transact.beginTransaction()) {
+                final Collection root = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+                for (int i = 0; i < 50; i++) {
+                    final String data = "<test><item>shared term" + i + "</item></test>";
+                    final IndexInfo info = root.validateXMLResource(transaction, broker, XmldbURI.create("test" + i + ".xml"), data);
+                    root.store(transaction, broker, info, data);
+                }
+                transact.commit(transaction);
+            }
+
+            // keep an update pending behind a slow one while the checkpoint runs
+            index.update(PENDING_DOC_ID, writer -> {
+                try {
+                    Thread.sleep(500);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            index.update(PENDING_DOC_ID, writer -> writer.addDocument(pendingDocument()));
+            pool.sync(broker, Sync.MAJOR);
+
+            assertEquals(0, index.getIndexer().getPendingUpdates());
+            assertEquals(before + 51, committedDocs(index));
+
+            index.update(PENDING_DOC_ID, writer -> writer.deleteDocuments(new Term(PENDING_FIELD, PENDING_FIELD)));
+            pool.sync(broker, Sync.MAJOR);
+        }
+    }
+
+    @Test
+    public void recoveryReindexesPendingUpdates() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, XPathException, DatabaseConfigurationException {
+        for (int i = 0; i < 10; i++) {
+            store("test" + i + ".xml", "<test><item>shared term" + i + "</item></test>");
+        }
+        assertEquals(10, query("//item[ft:query(., 'shared')]"));
+
+        BrokerPool.FORCE_CORRUPTION = true;
+        try {
+            final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+            final TransactionManager transact = pool.getTransactionManager();
+            try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+                // not committed: rolled back by the recovery, while the lucene index
+                // has already dropped the document
+                final Txn transaction = transact.beginTransaction();
+                final Collection root = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+                root.removeXMLResource(transaction, broker, XmldbURI.create("test0.xml"));
+                pool.getJournalManager().get().flush(true, false);
+            }
+            existEmbeddedServer.stopDb();
+        } finally {
+            BrokerPool.FORCE_CORRUPTION = false;
+        }
+
+        existEmbeddedServer.startDb();
+        assertNotNull(getIndex().getIndexer());
+        assertEquals(10, query("//item[ft:query(., 'shared')]"));
+        assertEquals(1, query("//item[ft:query(., 'term0')]"));
+    }
+
+    private void store(final String docName, final String data) throws EXistException, PermissionDeniedException, IOException, SAXException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+            final Txn transaction = transact.beginTransaction()) {
+
+            final Collection root = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+            final IndexInfo info = root.validateXMLResource(transaction, broker, XmldbURI.create(docName), data);
+            assertNotNull(info);
+            root.store(transaction, broker, info, data);
+
+            transact.commit(transaction);
+        }
+    }
+
+    private int query(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final Sequence seq = xquery.execute(broker, "collection('" + TestConstants.TEST_COLLECTION_URI + "')" + query, null);
+            assertNotNull(seq);
+            return seq.getItemCount();
+        }
+    }
+
+    private LuceneIndex getIndex() {
+        return (LuceneIndex) existEmbeddedServer.getBrokerPool().getIndexManager().getIndexByName("lucene-index");
+    }
+
+    private static Document pendingDocument() {
+        final Document document = new Document();
+        document.add(new StringField(PENDING_FIELD, PENDING_FIELD, Field.Store.NO));
+        return document;
+    }
+
+    /**
+     * @return the number of lucene documents in the last commit of the index
+     */
+    private static int committedDocs(final LuceneIndex index) throws IOException {
+        try (final DirectoryReader reader = DirectoryReader.open(index.directory)) {
+            return reader.numDocs();
+        }
+    }
+
+    @Before
+    public void setup() throws EXistException, PermissionDeniedException, IOException, SAXException, CollectionConfigurationException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+            final Txn transaction = transact.beginTransaction()) {
+
+            final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            assertNotNull(root);
+            broker.saveCollection(transaction, root);
+
+            final CollectionConfigurationManager mgr = pool.getConfigurationManager();
+            mgr.addConfiguration(transaction, broker, root, COLLECTION_CONFIG);
+
+            transact.commit(transaction);
+        }
+    }
+
+    @After
+    public void cleanup() throws EXistException, PermissionDeniedException, IOException, TriggerException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+            final Txn transaction = transact.beginTransaction()) {
+
+            final Collection collConfig = broker.getOrCreateCollection(transaction,
+                XmldbURI.create(XmldbURI.CONFIG_COLLECTION + "/db"));
+            assertNotNull(collConfig);
+            broker.removeCollection(transaction, collConfig);
+
+            final Collection root = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+            if (root != null) {
+                broker.removeCollection(transaction, root);
+            }
+            transact.commit(transaction);
+        }
+    }
+}
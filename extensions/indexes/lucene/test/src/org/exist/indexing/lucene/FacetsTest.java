@@ -0,0 +1,208 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import org.exist.EXistException;
+import org.exist.TestUtils;
+import org.exist.collections.Collection;
+import org.exist.collections.CollectionConfigurationException;
+import org.exist.collections.CollectionConfigurationManager;
+import org.exist.collections.IndexInfo;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.persistent.Match;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.test.TestConstants;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+
+import org.junit.*;
+
+import org.xml.sax.SAXException;
+
+public class FacetsTest {
+
+    private static final String COLLECTION_CONFIG =
+            "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+            "   <index>" +
+            "       <lucene>" +
+            "           <text qname=\"item\">" +
+            "               <facet dimension=\"type\" qname=\"@type\"/>" +
+            "               <facet dimension=\"color\" qname=\"color\"/>" +
+            "           </text>" +
+            "       </lucene>" +
+            "   </index>" +
+            "</collection>";
+
+    private static final String XML =
+            "<items>" +
+            "   <item type=\"book\"><title>alpha one</title><color>red</color></item>" +
+            "   <item type=\"book\"><title>alpha two</title><color>blue</color></item>" +
+            "   <item type=\"cd\"><title>alpha three</title><color>red</color></item>" +
+            "   <item type=\"cd\"><title>beta</title><color>green</color></item>" +
+            "</items>";
+
+    @Test
+    public void facetsFunction() throws EXistException, PermissionDeniedException, XPathException {
+        final String query =
+            "let $hits := //item[ft:query(., 'alpha')] " +
+            "return (count($hits), ft:facets($hits, 'type')?book, ft:facets($hits, 'type')?cd, " +
+            "   ft:facets($hits, 'color')?red, ft:facets($hits, 'color')?blue, map:size(ft:facets($hits, 'color')), " +
+            "   map:keys(ft:facets($hits, 'color', 1)), map:size(ft:facets($hits, 'unknown')))";
+        final Sequence seq = execute(query);
+        assertEquals(8, seq.getItemCount());
+        assertEquals("3", seq.itemAt(0).getStringValue());
+        assertEquals("2", seq.itemAt(1).getStringValue());
+        assertEquals("1", seq.itemAt(2).getStringValue());
+        assertEquals("2", seq.itemAt(3).getStringValue());
+        assertEquals("1", seq.itemAt(4).getStringValue());
+        assertEquals("2", seq.itemAt(5).getStringValue());
+        assertEquals("red", seq.itemAt(6).getStringValue());
+        assertEquals("0", seq.itemAt(7).getStringValue());
+    }
+
+    @Test
+    public void facetsFunctionInPredicate() throws EXistException, PermissionDeniedException, XPathException {
+        final Sequence seq = execute("map:size(ft:facets(//item[ft:query(., 'beta')], 'type'))");
+        assertEquals(1, seq.getItemCount());
+        assertEquals("1", seq.itemAt(0).getStringValue());
+    }
+
+    @Test
+    public void facetsOption() throws EXistException, PermissionDeniedException, XPathException {
+        final Sequence seq = execute("//item[ft:query(., 'alpha', <options><facets>yes</facets></options>)]");
+        assertEquals(3, seq.getItemCount());
+        final LuceneFacets facets = getFacets(seq);
+        assertNotNull(facets);
+        assertEquals(2L, facets.getCounts("type").get("book").longValue());
+        assertEquals(1L, facets.getCounts("type").get("cd").longValue());
+        assertEquals(2L, facets.getCounts("color").get("red").longValue());
+        assertEquals(1L, facets.getCounts("color").get("blue").longValue());
+        assertNull(facets.getCounts("color").get("green"));
+    }
+
+    @Test
+    public void noFacetsUnlessRequested() throws EXistException, PermissionDeniedException, XPathException {
+        Sequence seq = execute("//item[ft:query(., 'alpha')]");
+        assertEquals(3, seq.getItemCount());
+        assertNull(getFacets(seq));
+
+        seq = execute("//item[ft:query(., 'alpha', <options><facets>no</facets></options>)]");
+        assertEquals(3, seq.getItemCount());
+        assertNull(getFacets(seq));
+    }
+
+    private Sequence execute(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            assertNotNull(xquery);
+            final Sequence seq = xquery.execute(broker, "declare context item := collection('" +
+                    TestConstants.TEST_COLLECTION_URI + "'); " + query, null);
+            assertNotNull(seq);
+            return seq;
+        }
+    }
+
+    /**
+     * @return the facets attached to the matches of the nodes, which are shared by all matches of a query
+     */
+    private static LuceneFacets getFacets(final Sequence seq) throws XPathException {
+        LuceneFacets facets = null;
+        for (final SequenceIterator i = seq.iterate(); i.hasNext(); ) {
+            Match match = ((NodeProxy) i.nextItem()).getMatches();
+            assertNotNull(match);
+            while (match != null) {
+                if (match.getIndexId() == LuceneIndex.ID) {
+                    final LuceneFacets matchFacets = ((LuceneIndexWorker.LuceneMatch) match).getFacets();
+                    if (facets == null) {
+                        facets = matchFacets;
+                    } else {
+                        assertEquals(facets, matchFacets);
+                    }
+                }
+                match = match.getNextMatch();
+            }
+        }
+        return facets;
+    }
+
+    @BeforeClass
+    public static void setup() throws EXistException, PermissionDeniedException, IOException, SAXException, CollectionConfigurationException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+            final Txn transaction = transact.beginTransaction()) {
+
+            final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            assertNotNull(root);
+            broker.saveCollection(transaction, root);
+
+            final CollectionConfigurationManager mgr = pool.getConfigurationManager();
+            mgr.addConfiguration(transaction, broker, root, COLLECTION_CONFIG);
+
+            final IndexInfo info = root.validateXMLResource(transaction, broker, XmldbURI.create("test.xml"), XML);
+            assertNotNull(info);
+            root.store(transaction, broker, info, XML);
+
+            transact.commit(transaction);
+        }
+    }
+
+    @AfterClass
+    public static void cleanup() throws EXistException, PermissionDeniedException, IOException, TriggerException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+            final Txn transaction = transact.beginTransaction()) {
+
+            final Collection collConfig = broker.getOrCreateCollection(transaction,
+                XmldbURI.create(XmldbURI.CONFIG_COLLECTION + "/db"));
+            assertNotNull(collConfig);
+            broker.removeCollection(transaction, collConfig);
+
+            final Collection root = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+            if (root != null) {
+                broker.removeCollection(transaction, root);
+            }
+            transact.commit(transaction);
+        }
+        TestUtils.cleanupDB();
+    }
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, false);
+}
@@ -30,8 +30,11 @@ import org.exist.storage.DBBroker;
 import org.exist.storage.btree.BTree;
 import org.exist.storage.btree.DBException;
 import org.exist.storage.index.BFile;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.FileUtils;
+import org.exist.util.LockException;
 import org.w3c.dom.Element;
 
 import java.io.IOException;
@@ -90,7 +93,15 @@ public class NGramIndex extends AbstractIndex implements RawBackupSupport {
     @Override
     public void sync() throws DBException {
         LOG.debug("SYNC NGRAM");
-        db.flush();
+        final Lock lock = db.getLock();
+        try {
+            lock.acquire(LockMode.WRITE_LOCK);
+            db.flush();
+        } catch (final LockException e) {
+            LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(db.getFile()) + "'", e);
+        } finally {
+            lock.release(LockMode.WRITE_LOCK);
+        }
     }
 
     @Override
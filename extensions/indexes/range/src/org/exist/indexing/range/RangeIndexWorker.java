@@ -637,6 +637,10 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         @Override
         public void collect(int doc) throws IOException {
             int docId = (int) this.docIdValues.get(doc);
+            // filter by id before looking up the document
+            if (!docs.contains(docId)) {
+                return;
+            }
             DocumentImpl storedDocument = docs.getDoc(docId);
             if (storedDocument == null) {
                 return;
@@ -1021,6 +1025,8 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                             continue;
                         }
                         int docId = (int) docIdValues.get(docsEnum.docID());
+                        if (!docs.contains(docId))
+                            continue;
                         DocumentImpl storedDocument = docs.getDoc(docId);
                         if (storedDocument == null)
                             continue;
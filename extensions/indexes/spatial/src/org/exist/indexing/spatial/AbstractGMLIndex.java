@@ -0,0 +1,51 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import org.exist.indexing.AbstractIndex;
+
+/**
+ * Base class of the indexes on GML geometries, whatever their storage.
+ */
+public abstract class AbstractGMLIndex extends AbstractIndex {
+
+    /**
+     * Holds the index ID. Notice that we delegate this task to the abstract class,
+     * not to the concrete ones. This allows spatial functions to use
+     * the available spatial index, whatever its underlying storage is.
+     */
+    public final static String ID = AbstractGMLIndex.class.getName();
+
+    /**
+     * The spatial operators to test spatial relationshipds beween geometries.
+     * See http://www.vividsolutions.com/jts/bin/JTS%20Technical%20Specs.pdf (chapter 11).
+     */
+    public interface SpatialOperator {
+        public static int UNKNOWN = -1;
+        public static int EQUALS = 1;
+        public static int DISJOINT = 2;
+        public static int INTERSECTS = 3;
+        public static int TOUCHES = 4;
+        public static int CROSSES = 5;
+        public static int WITHIN = 6;
+        public static int CONTAINS = 7;
+        public static int OVERLAPS = 8;
+    }
+}
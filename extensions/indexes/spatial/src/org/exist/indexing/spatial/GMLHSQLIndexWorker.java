@@ -35,7 +35,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.collections.Collection;
 import org.exist.dom.persistent.*;
-import org.exist.indexing.spatial.AbstractGMLJDBCIndex.SpatialOperator;
+import org.exist.indexing.spatial.AbstractGMLIndex.SpatialOperator;
 import org.exist.numbering.DLN;
 import org.exist.numbering.NodeId;
 import org.exist.security.PermissionDeniedException;
@@ -182,12 +182,12 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
 
     @Override
     protected Connection acquireConnection() throws SQLException {
-        return index.acquireConnection(this.broker);
+        return jdbcIndex.acquireConnection(this.broker);
     }
 
     @Override
     protected void releaseConnection(Connection conn) throws SQLException {
-        index.releaseConnection(this.broker);
+        jdbcIndex.releaseConnection(this.broker);
     }
 
     @Override
@@ -199,7 +199,7 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
         String docConstraint = "";
         boolean refine_query_on_doc = false;
         if (contextSet != null) {
-            if(contextSet.getDocumentSet().getDocumentCount() <= index.getMaxDocsInContextToRefineQuery()) {
+            if(contextSet.getDocumentSet().getDocumentCount() <= jdbcIndex.getMaxDocsInContextToRefineQuery()) {
                 refine_query_on_doc = true;
                 DocumentImpl doc;
                 Iterator<DocumentImpl> it = contextSet.getDocumentSet().getDocumentIterator();
@@ -427,7 +427,7 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
         String docConstraint = "";
         boolean refine_query_on_doc = false;
         if (contextSet != null) {
-            if(contextSet.getDocumentSet().getDocumentCount() <= index.getMaxDocsInContextToRefineQuery()) {
+            if(contextSet.getDocumentSet().getDocumentCount() <= jdbcIndex.getMaxDocsInContextToRefineQuery()) {
                 DocumentImpl doc;
                 Iterator<DocumentImpl> it = contextSet.getDocumentSet().getDocumentIterator();
                 doc  = it.next();
@@ -536,7 +536,7 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
         String docConstraint = "";
         boolean refine_query_on_doc = false;
         if (contextSet != null) {
-            if(contextSet.getDocumentSet().getDocumentCount() <= index.getMaxDocsInContextToRefineQuery()) {
+            if(contextSet.getDocumentSet().getDocumentCount() <= jdbcIndex.getMaxDocsInContextToRefineQuery()) {
                 DocumentImpl doc;
                 Iterator<DocumentImpl> it = contextSet.getDocumentSet().getDocumentIterator();
                 doc  = it.next();
@@ -734,10 +734,10 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
                     LOG.info("Node " + nodeId + "doesn't exist");
                     return false;
                 }
-                if (!AbstractGMLJDBCIndexWorker.GML_NS.equals(node.getNamespaceURI())) {
+                if (!AbstractGMLIndexWorker.GML_NS.equals(node.getNamespaceURI())) {
                     LOG.info("GML indexed node (" + node.getNodeId()+ ") is in the '" + 
                             node.getNamespaceURI() + "' namespace. '" + 
-                            AbstractGMLJDBCIndexWorker.GML_NS + "' was expected !");
+                            AbstractGMLIndexWorker.GML_NS + "' was expected !");
                     return false;
                 }
                 if (!original_geometry.getGeometryType().equals(node.getLocalName())) {
@@ -0,0 +1,149 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.backup.RawDataBackup;
+import org.exist.indexing.IndexWorker;
+import org.exist.indexing.RawBackupSupport;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.btree.DBException;
+import org.exist.storage.index.BFile;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.FileUtils;
+import org.exist.util.LockException;
+import org.w3c.dom.Element;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * A spatial index stored in a file of the database, next to the other index files.
+ * <p>
+ * The file holds one record per indexed geometry, keyed by document id and
+ * node id, and an {@link RTree} on the EPSG:4326 bounding boxes of the
+ * geometries. Updates are written while the documents are stored, so the
+ * index is flushed at each checkpoint and rebuilt by a repair after a crash,
+ * like the other index files.
+ * <p>
+ * When the whole database is reindexed, the R-tree is dropped and only the
+ * geometry records are written. The tree is then packed from all records at
+ * once before the next search.
+ */
+public class GMLRTreeIndex extends AbstractGMLIndex implements RawBackupSupport {
+
+    private final static Logger LOG = LogManager.getLogger(GMLRTreeIndex.class);
+
+    public final static String DEFAULT_FILE_NAME = "spatial.dbx";
+
+    protected BFile db;
+    protected RTree rtree;
+    private Path dataFile = null;
+    private int nodeSize = RTree.DEFAULT_MAX_ENTRIES;
+
+    public GMLRTreeIndex() {
+        //Nothing to do
+    }
+
+    @Override
+    public void configure(BrokerPool pool, Path dataDir, Element config) throws DatabaseConfigurationException {
+        super.configure(pool, dataDir, config);
+        String fileName = DEFAULT_FILE_NAME;
+        if (config.hasAttribute("file"))
+            fileName = config.getAttribute("file");
+        if (config.hasAttribute("nodeSize"))
+            try {
+                nodeSize = Integer.parseInt(config.getAttribute("nodeSize"));
+            } catch (NumberFormatException e) {
+                throw new DatabaseConfigurationException("Configuration parameter 'nodeSize' should be an integer.");
+            }
+        dataFile = dataDir.resolve(fileName);
+    }
+
+    @Override
+    public void open() throws DatabaseConfigurationException {
+        try {
+            db = new BFile(pool, (byte) 0, false, dataFile, pool.getCacheManager(), 1.4, 0.07);
+            rtree = new RTree(db, pool.getNodeFactory(), nodeSize);
+        } catch (DBException e) {
+            throw new DatabaseConfigurationException("Failed to create index file: " + dataFile.toAbsolutePath().toString() + ": " +
+                e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new DatabaseConfigurationException(e.getMessage());
+        }
+        if (LOG.isDebugEnabled())
+            LOG.debug("Opened GML index: " + dataFile.toAbsolutePath().toString() + " (" + rtree.size() + " geometries)");
+    }
+
+    @Override
+    public void close() throws DBException {
+        db.close();
+    }
+
+    @Override
+    public void sync() throws DBException {
+        final Lock lock = db.getLock();
+        try {
+            lock.acquire(LockMode.WRITE_LOCK);
+            db.flush();
+        } catch (LockException e) {
+            LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(db.getFile()) + "'", e);
+        } finally {
+            lock.release(LockMode.WRITE_LOCK);
+        }
+    }
+
+    @Override
+    public void remove() throws DBException {
+        db.closeAndRemove();
+    }
+
+    @Override
+    public boolean checkIndex(DBBroker broker) {
+        return ((AbstractGMLIndexWorker) getWorker(broker)).checkIndex(broker);
+    }
+
+    @Override
+    public IndexWorker getWorker(DBBroker broker) {
+        return new GMLRTreeIndexWorker(this, broker);
+    }
+
+    @Override
+    public BTree getStorage() {
+        return db;
+    }
+
+    @Override
+    public void backupToArchive(final RawDataBackup backup) throws IOException {
+        // do not use try-with-resources here, closing the OutputStream will close the entire backup
+        try {
+            final OutputStream os = backup.newEntry(FileUtils.fileName(db.getFile()));
+            db.backupToStream(os);
+        } finally {
+            backup.closeEntry();
+        }
+    }
+}
@@ -0,0 +1,683 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.DefaultDocumentSet;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.DocumentSet;
+import org.exist.dom.persistent.ExtArrayNodeSet;
+import org.exist.dom.persistent.IStoredNode;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.indexing.StreamListener.ReindexMode;
+import org.exist.indexing.spatial.AbstractGMLIndex.SpatialOperator;
+import org.exist.numbering.NodeId;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.DBBroker;
+import org.exist.storage.NodePath;
+import org.exist.storage.btree.BTreeException;
+import org.exist.storage.btree.IndexQuery;
+import org.exist.storage.btree.Value;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.util.FileUtils;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.QueryRewriter;
+import org.exist.xquery.TerminatedException;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.Base64BinaryValueType;
+import org.exist.xquery.value.BinaryValueFromInputStream;
+import org.exist.xquery.value.BooleanValue;
+import org.exist.xquery.value.DoubleValue;
+import org.exist.xquery.value.StringValue;
+import org.exist.xquery.value.ValueSequence;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Worker of the {@link GMLRTreeIndex}.
+ * <p>
+ * Each indexed geometry is stored in a record keyed by
+ * [{@link #FEATURE_KEY_PREFIX}, document id, node id] which holds the
+ * EPSG:4326 bounding box, the SRS name and the WKB of the geometry in its
+ * own SRS and in EPSG:4326. The geometric properties are computed from the
+ * WKB when they are asked for.
+ */
+public class GMLRTreeIndexWorker extends AbstractGMLIndexWorker {
+
+    private static final Logger LOG = LogManager.getLogger(GMLRTreeIndexWorker.class);
+
+    public final static byte FEATURE_KEY_PREFIX = 2;
+
+    protected GMLRTreeIndex rtreeIndex;
+
+    public GMLRTreeIndexWorker(GMLRTreeIndex index, DBBroker broker) {
+        super(index, broker);
+        this.rtreeIndex = index;
+    }
+
+    @Override
+    public void flush() {
+        if (!isDocumentGMLAware)
+            //Not concerned
+            return;
+        //Is the job already done ?
+        if (currentMode == ReindexMode.REMOVE_ALL_NODES && documentDeleted)
+            return;
+        final Lock lock = rtreeIndex.db.getLock();
+        try {
+            lock.acquire(LockMode.WRITE_LOCK);
+            switch (currentMode) {
+                case STORE :
+                    saveDocumentNodes();
+                    break;
+                case REMOVE_SOME_NODES :
+                    dropDocumentNodes();
+                    break;
+                case REMOVE_ALL_NODES:
+                    removeDocument(currentDoc.getDocId());
+                    documentDeleted = true;
+                    break;
+            }
+        } catch (LockException e) {
+            LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(rtreeIndex.db.getFile()) + "'", e);
+        } catch (IOException | BTreeException e) {
+            LOG.error("Document: " + currentDoc + " NodeID: " + currentNodeId, e);
+        } finally {
+            lock.release(LockMode.WRITE_LOCK);
+        }
+    }
+
+    private void saveDocumentNodes() throws IOException {
+        try {
+            for (Map.Entry<NodeId, SRSGeometry> entry : geometries.entrySet()) {
+                final NodeId nodeId = entry.getKey();
+                final SRSGeometry srsGeometry = entry.getValue();
+                final Geometry EPSG4326_geometry;
+                try {
+                    EPSG4326_geometry = transformGeometry(srsGeometry.getGeometry(), srsGeometry.getSRSName(), "EPSG:4326");
+                } catch (SpatialIndexException e) {
+                    LOG.error("Unable to transform geometry for node: " + nodeId + ". Indexing will be skipped", e);
+                    continue;
+                }
+                //The node may have been indexed already
+                removeFeature(currentDoc.getDocId(), nodeId);
+                final Feature feature = new Feature(EPSG4326_geometry.getEnvelopeInternal(), srsGeometry.getSRSName(),
+                    wkbWriter.write(srsGeometry.getGeometry()), wkbWriter.write(EPSG4326_geometry));
+                rtreeIndex.db.put(null, featureKey(currentDoc.getDocId(), nodeId), feature.serialize(), true);
+                if (!rtreeIndex.rtree.isStale())
+                    rtreeIndex.rtree.insert(feature.toEntry(currentDoc.getDocId(), nodeId));
+            }
+        } finally {
+            geometries.clear();
+        }
+    }
+
+    private void dropDocumentNodes() throws IOException {
+        try {
+            int nodeCount = 0;
+            for (NodeId nodeId : geometries.keySet()) {
+                if (removeFeature(currentDoc.getDocId(), nodeId))
+                    nodeCount++;
+            }
+            if (currentNodeId != null && !geometries.containsKey(currentNodeId) &&
+                    removeFeature(currentDoc.getDocId(), currentNodeId))
+                nodeCount++;
+            if (LOG.isDebugEnabled())
+                LOG.debug("Dropped " + nodeCount + " nodes from GML index");
+        } finally {
+            geometries.clear();
+            currentNodeId = null;
+        }
+    }
+
+    private boolean removeFeature(int docId, NodeId nodeId) throws IOException {
+        final Value key = featureKey(docId, nodeId);
+        final Value value = rtreeIndex.db.get(key);
+        if (value == null)
+            return false;
+        if (!rtreeIndex.rtree.isStale())
+            rtreeIndex.rtree.remove(Feature.deserialize(value).toEntry(docId, nodeId));
+        rtreeIndex.db.remove(null, key);
+        return true;
+    }
+
+    private void removeDocument(int docId) throws IOException, BTreeException {
+        final List<Value[]> features = findFeatures(docKey(docId));
+        if (!rtreeIndex.rtree.isStale()) {
+            for (Value[] feature : features) {
+                rtreeIndex.rtree.remove(Feature.deserialize(feature[1]).toEntry(docId, readNodeId(feature[0])));
+            }
+        }
+        rtreeIndex.db.removeAll(null, new IndexQuery(IndexQuery.TRUNC_RIGHT, docKey(docId)));
+        if (LOG.isDebugEnabled())
+            LOG.debug("Dropped " + features.size() + " nodes from GML index");
+    }
+
+    @Override
+    public void removeCollection(Collection collection, DBBroker broker, boolean reindex) throws PermissionDeniedException {
+        if (LOG.isDebugEnabled())
+            LOG.debug("Dropping GML index for collection " + collection.getURI());
+        final Lock lock = rtreeIndex.db.getLock();
+        try {
+            lock.acquire(LockMode.WRITE_LOCK);
+            if (reindex && XmldbURI.ROOT_COLLECTION_URI.equals(collection.getURI()) && !rtreeIndex.rtree.isStale()) {
+                //The whole database is reindexed : store the geometries only
+                //and pack the tree from all of them before the next search.
+                //The geometries of the collections a resumed reindex skips are kept.
+                rtreeIndex.rtree.invalidate();
+            }
+            for (Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
+                removeDocument(i.next().getDocId());
+            }
+        } catch (LockException e) {
+            LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(rtreeIndex.db.getFile()) + "'", e);
+        } catch (IOException | BTreeException e) {
+            LOG.error(e.getMessage(), e);
+        } finally {
+            lock.release(LockMode.WRITE_LOCK);
+        }
+    }
+
+    /**
+     * Packs the tree if it has been dropped by a reindex.
+     */
+    private void ensureTreeLoaded() throws SpatialIndexException {
+        if (!rtreeIndex.rtree.isStale())
+            return;
+        final Lock lock = rtreeIndex.db.getLock();
+        try {
+            lock.acquire(LockMode.WRITE_LOCK);
+            if (!rtreeIndex.rtree.isStale())
+                return;
+            final List<Value[]> features = findFeatures(new Value(new byte[] { FEATURE_KEY_PREFIX }));
+            final List<RTree.Entry> entries = new ArrayList<RTree.Entry>(features.size());
+            for (Value[] feature : features) {
+                entries.add(Feature.deserialize(feature[1]).toEntry(readDocId(feature[0]), readNodeId(feature[0])));
+            }
+            rtreeIndex.rtree.load(entries);
+            if (LOG.isDebugEnabled())
+                LOG.debug("Loaded " + entries.size() + " geometries into the R-tree of " +
+                    FileUtils.fileName(rtreeIndex.db.getFile()));
+        } catch (LockException e) {
+            throw new SpatialIndexException(e);
+        } catch (IOException | BTreeException e) {
+            throw new SpatialIndexException(e);
+        } finally {
+            lock.release(LockMode.WRITE_LOCK);
+        }
+    }
+
+    @Override
+    public NodeSet search(DBBroker broker, NodeSet contextSet, Geometry EPSG4326_geometry, int spatialOp)
+            throws SpatialIndexException {
+        final RTree.Relation relation;
+        switch (spatialOp) {
+        //BBoxes are equal
+        case SpatialOperator.EQUALS:
+            relation = RTree.Relation.EQUALS;
+            break;
+        //Nothing much we can do with the BBox at this stage
+        case SpatialOperator.DISJOINT:
+            relation = null;
+            break;
+        //BBoxes intersect themselves
+        case SpatialOperator.INTERSECTS:
+        case SpatialOperator.TOUCHES:
+        case SpatialOperator.CROSSES:
+        case SpatialOperator.OVERLAPS:
+            relation = RTree.Relation.INTERSECTS;
+            break;
+        //BBox is fully within
+        case SpatialOperator.WITHIN:
+            relation = RTree.Relation.WITHIN;
+            break;
+        //BBox fully contains
+        case SpatialOperator.CONTAINS:
+            relation = RTree.Relation.CONTAINS;
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported spatial operator:" + spatialOp);
+        }
+        final DocumentSet docs = getDocuments(broker, contextSet);
+        final Envelope envelope = EPSG4326_geometry.getEnvelopeInternal();
+        if (relation != null)
+            ensureTreeLoaded();
+
+        final NodeSet result = new ExtArrayNodeSet();
+        int candidates = 0;
+        int disjointPostFiltered = 0;
+        final Lock lock = rtreeIndex.db.getLock();
+        try {
+            lock.acquire(LockMode.READ_LOCK);
+            final List<RTree.Entry> entries = new ArrayList<RTree.Entry>();
+            if (relation == null) {
+                for (Value[] feature : findFeatures(new Value(new byte[] { FEATURE_KEY_PREFIX }))) {
+                    entries.add(Feature.deserialize(feature[1]).toEntry(readDocId(feature[0]), readNodeId(feature[0])));
+                }
+            } else {
+                rtreeIndex.rtree.search(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY(),
+                    relation, entries::add);
+            }
+            candidates = entries.size();
+            for (RTree.Entry entry : entries) {
+                final DocumentImpl doc = docs.getDoc(entry.getDocId());
+                if (doc == null)
+                    continue;
+                final NodeProxy p = new NodeProxy(doc, entry.getNodeId());
+                //Node is in the context : check if it is accurate
+                //contextSet.contains(p) would have made more sense but there is a problem with
+                //VirtualNodeSet when on the DESCENDANT_OR_SELF axis
+                if (contextSet != null && contextSet.get(p) == null)
+                    continue;
+                boolean geometryMatches = false;
+                if (spatialOp == SpatialOperator.DISJOINT) {
+                    //No BBox intersection : obviously disjoint
+                    if (entry.getMaxX() < envelope.getMinX() || entry.getMinX() > envelope.getMaxX() ||
+                            entry.getMaxY() < envelope.getMinY() || entry.getMinY() > envelope.getMaxY()) {
+                        geometryMatches = true;
+                        disjointPostFiltered++;
+                    }
+                }
+                //Possible match : check the geometry
+                if (!geometryMatches) {
+                    final Value value = rtreeIndex.db.get(featureKey(entry.getDocId(), entry.getNodeId()));
+                    if (value == null)
+                        continue;
+                    final Geometry geometry = wkbReader.read(Feature.deserialize(value).EPSG4326_wkb);
+                    geometryMatches = matches(geometry, EPSG4326_geometry, spatialOp);
+                }
+                if (geometryMatches)
+                    result.add(p);
+            }
+        } catch (LockException e) {
+            throw new SpatialIndexException(e);
+        } catch (IOException | BTreeException | ParseException e) {
+            throw new SpatialIndexException(e);
+        } finally {
+            lock.release(LockMode.READ_LOCK);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(candidates + " eligible geometries, " + result.getItemCount() + " selected" +
+                (spatialOp == SpatialOperator.DISJOINT ? " (" + disjointPostFiltered + " post filtered)" : ""));
+        }
+        return result;
+    }
+
+    private static boolean matches(Geometry geometry, Geometry EPSG4326_geometry, int spatialOp) {
+        switch (spatialOp) {
+        case SpatialOperator.EQUALS:
+            return geometry.equals(EPSG4326_geometry);
+        case SpatialOperator.DISJOINT:
+            return geometry.disjoint(EPSG4326_geometry);
+        case SpatialOperator.INTERSECTS:
+            return geometry.intersects(EPSG4326_geometry);
+        case SpatialOperator.TOUCHES:
+            return geometry.touches(EPSG4326_geometry);
+        case SpatialOperator.CROSSES:
+            return geometry.crosses(EPSG4326_geometry);
+        case SpatialOperator.WITHIN:
+            return geometry.within(EPSG4326_geometry);
+        case SpatialOperator.CONTAINS:
+            return geometry.contains(EPSG4326_geometry);
+        case SpatialOperator.OVERLAPS:
+            return geometry.overlaps(EPSG4326_geometry);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns the documents to search : those of the context or, when there is
+     * no context, all the documents the broker may read.
+     */
+    private DocumentSet getDocuments(DBBroker broker, NodeSet contextSet) throws SpatialIndexException {
+        if (contextSet != null)
+            return contextSet.getDocumentSet();
+        try {
+            return broker.getAllXMLResources(new DefaultDocumentSet());
+        } catch (PermissionDeniedException e) {
+            throw new SpatialIndexException(e);
+        }
+    }
+
+    @Override
+    public Geometry getGeometryForNode(DBBroker broker, NodeProxy p, boolean getEPSG4326) throws SpatialIndexException {
+        final Feature feature = getFeature(p);
+        if (feature == null)
+            return null;
+        try {
+            return wkbReader.read(getEPSG4326 ? feature.EPSG4326_wkb : feature.wkb);
+        } catch (ParseException e) {
+            throw new SpatialIndexException(e);
+        }
+    }
+
+    @Override
+    protected Geometry[] getGeometriesForNodes(DBBroker broker, NodeSet contextSet, boolean getEPSG4326)
+            throws SpatialIndexException {
+        final Geometry[] result = new Geometry[contextSet.getLength()];
+        int index = 0;
+        for (NodeProxy p : contextSet) {
+            final Geometry geometry = getGeometryForNode(broker, p, getEPSG4326);
+            if (geometry != null)
+                result[index++] = geometry;
+        }
+        return result;
+    }
+
+    @Override
+    public AtomicValue getGeometricPropertyForNode(XQueryContext context, NodeProxy p, String propertyName)
+            throws SpatialIndexException {
+        final Feature feature = getFeature(p);
+        if (feature == null)
+            //Nothing indexed
+            return AtomicValue.EMPTY_VALUE;
+        return getGeometricProperty(context, feature, propertyName);
+    }
+
+    @Override
+    public ValueSequence getGeometricPropertyForNodes(XQueryContext context, NodeSet contextSet, String propertyName)
+            throws SpatialIndexException {
+        final ValueSequence result = new ValueSequence(contextSet.getLength());
+        for (NodeProxy p : contextSet) {
+            final Feature feature = getFeature(p);
+            if (feature != null)
+                result.add(getGeometricProperty(context, feature, propertyName));
+        }
+        return result;
+    }
+
+    private AtomicValue getGeometricProperty(XQueryContext context, Feature feature, String propertyName)
+            throws SpatialIndexException {
+        try {
+            if ("SRS_NAME".equals(propertyName))
+                return new StringValue(feature.srsName);
+            final boolean EPSG4326 = propertyName.startsWith("EPSG4326_");
+            final String name = EPSG4326 ? propertyName.substring("EPSG4326_".length()) : propertyName;
+            final byte[] wkb = EPSG4326 ? feature.EPSG4326_wkb : feature.wkb;
+            if ("WKB".equals(name))
+                return BinaryValueFromInputStream.getInstance(context, new Base64BinaryValueType(), new ByteArrayInputStream(wkb));
+            final Geometry geometry = wkbReader.read(wkb);
+            switch (name) {
+            case "WKT":
+                return new StringValue(wktWriter.write(geometry));
+            case "MINX":
+                return new DoubleValue(geometry.getEnvelopeInternal().getMinX());
+            case "MAXX":
+                return new DoubleValue(geometry.getEnvelopeInternal().getMaxX());
+            case "MINY":
+                return new DoubleValue(geometry.getEnvelopeInternal().getMinY());
+            case "MAXY":
+                return new DoubleValue(geometry.getEnvelopeInternal().getMaxY());
+            case "CENTROID_X":
+                return new DoubleValue(geometry.getCentroid().getCoordinate().x);
+            case "CENTROID_Y":
+                return new DoubleValue(geometry.getCentroid().getCoordinate().y);
+            case "AREA":
+                return new DoubleValue(geometry.getArea());
+            }
+            if (!EPSG4326) {
+                switch (name) {
+                case "GEOMETRY_TYPE":
+                    return new StringValue(geometry.getGeometryType());
+                //All instances of SFS geometry classes are topologically closed by definition.
+                //For empty Curves, isClosed is defined to have the value false.
+                case "IS_CLOSED":
+                    return BooleanValue.valueOf(!geometry.isEmpty());
+                case "IS_SIMPLE":
+                    return BooleanValue.valueOf(geometry.isSimple());
+                case "IS_VALID":
+                    return BooleanValue.valueOf(geometry.isValid());
+                }
+            }
+            throw new SpatialIndexException("Unknown geometric property: " + propertyName);
+        } catch (ParseException e) {
+            throw new SpatialIndexException(e);
+        } catch (XPathException e) {
+            throw new SpatialIndexException(e);
+        }
+    }
+
+    @Override
+    protected Map<Geometry, String> getGeometriesForDocument(DocumentImpl doc) throws SpatialIndexException {
+        final Map<Geometry, String> map = new TreeMap<Geometry, String>();
+        final Lock lock = rtreeIndex.db.getLock();
+        try {
+            lock.acquire(LockMode.READ_LOCK);
+            for (Value[] feature : findFeatures(docKey(doc.getDocId()))) {
+                final Geometry EPSG4326_geometry = wkbReader.read(Feature.deserialize(feature[1]).EPSG4326_wkb);
+                //Returns the EPSG:4326 WKT for every geometry to make occurrence aggregation consistent
+                map.put(EPSG4326_geometry, wktWriter.write(EPSG4326_geometry));
+            }
+            return map;
+        } catch (LockException e) {
+            throw new SpatialIndexException(e);
+        } catch (IOException | BTreeException | ParseException e) {
+            throw new SpatialIndexException(e);
+        } finally {
+            lock.release(LockMode.READ_LOCK);
+        }
+    }
+
+    @Override
+    public boolean checkIndex(DBBroker broker) {
+        final Lock lock = rtreeIndex.db.getLock();
+        try {
+            lock.acquire(LockMode.READ_LOCK);
+            final DocumentSet docs = broker.getAllXMLResources(new DefaultDocumentSet());
+            final List<Value[]> features = findFeatures(new Value(new byte[] { FEATURE_KEY_PREFIX }));
+            for (Value[] record : features) {
+                final int docId = readDocId(record[0]);
+                final NodeId nodeId = readNodeId(record[0]);
+                final Feature feature = Feature.deserialize(record[1]);
+                final Geometry original_geometry = wkbReader.read(feature.wkb);
+                final Geometry EPSG4326_geometry = wkbReader.read(feature.EPSG4326_wkb);
+                if (!transformGeometry(original_geometry, feature.srsName, "EPSG:4326").equals(EPSG4326_geometry)) {
+                    LOG.info("Transformed original geometry inconsistent with stored tranformed one");
+                    return false;
+                }
+                final Envelope envelope = EPSG4326_geometry.getEnvelopeInternal();
+                if (envelope.getMinX() != feature.minX || envelope.getMinY() != feature.minY ||
+                        envelope.getMaxX() != feature.maxX || envelope.getMaxY() != feature.maxY) {
+                    LOG.info("Inconsistent bounding box for node " + nodeId);
+                    return false;
+                }
+                if (!rtreeIndex.rtree.isStale()) {
+                    final boolean[] found = { false };
+                    rtreeIndex.rtree.search(feature.minX, feature.minY, feature.maxX, feature.maxY, RTree.Relation.EQUALS,
+                        entry -> found[0] |= entry.getDocId() == docId && entry.getNodeId().equals(nodeId));
+                    if (!found[0]) {
+                        LOG.info("Node " + nodeId + " is missing from the R-tree");
+                        return false;
+                    }
+                }
+                final DocumentImpl doc = docs.getDoc(docId);
+                if (doc == null) {
+                    LOG.info("Document " + docId + " doesn't exist");
+                    return false;
+                }
+                final IStoredNode node = broker.objectWith(new NodeProxy(doc, nodeId));
+                if (node == null) {
+                    LOG.info("Node " + nodeId + "doesn't exist");
+                    return false;
+                }
+                if (!AbstractGMLIndexWorker.GML_NS.equals(node.getNamespaceURI())) {
+                    LOG.info("GML indexed node (" + node.getNodeId()+ ") is in the '" +
+                            node.getNamespaceURI() + "' namespace. '" +
+                            AbstractGMLIndexWorker.GML_NS + "' was expected !");
+                    return false;
+                }
+            }
+            if (!rtreeIndex.rtree.isStale() && rtreeIndex.rtree.size() != features.size()) {
+                LOG.info("The R-tree holds " + rtreeIndex.rtree.size() + " geometries. " + features.size() + " were expected !");
+                return false;
+            }
+            return rtreeIndex.rtree.check();
+        } catch (LockException e) {
+            LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(rtreeIndex.db.getFile()) + "'", e);
+            return false;
+        } catch (IOException | BTreeException | ParseException | SpatialIndexException | PermissionDeniedException e) {
+            LOG.error(e);
+            return false;
+        } finally {
+            lock.release(LockMode.READ_LOCK);
+        }
+    }
+
+    private Feature getFeature(NodeProxy p) throws SpatialIndexException {
+        final Lock lock = rtreeIndex.db.getLock();
+        try {
+            lock.acquire(LockMode.READ_LOCK);
+            final Value value = rtreeIndex.db.get(featureKey(p.getOwnerDocument().getDocId(), p.getNodeId()));
+            return value == null ? null : Feature.deserialize(value);
+        } catch (LockException e) {
+            throw new SpatialIndexException(e);
+        } finally {
+            lock.release(LockMode.READ_LOCK);
+        }
+    }
+
+    /**
+     * Returns the keys and values of the records starting with the given prefix.
+     */
+    private List<Value[]> findFeatures(Value prefix) throws IOException, BTreeException {
+        final List<Value[]> features = new ArrayList<Value[]>();
+        try {
+            rtreeIndex.db.find(new IndexQuery(IndexQuery.TRUNC_RIGHT, prefix), (key, value) -> {
+                features.add(new Value[] { key, value });
+                return true;
+            });
+        } catch (TerminatedException e) {
+            //Never happens : the callback doesn't stop
+            LOG.warn(e.getMessage(), e);
+        }
+        return features;
+    }
+
+    private static Value docKey(int docId) {
+        final ByteBuffer buf = ByteBuffer.allocate(5);
+        buf.put(FEATURE_KEY_PREFIX).putInt(docId);
+        return new Value(buf.array());
+    }
+
+    private static Value featureKey(int docId, NodeId nodeId) {
+        final byte[] data = new byte[nodeId.size()];
+        nodeId.serialize(data, 0);
+        final ByteBuffer buf = ByteBuffer.allocate(7 + data.length);
+        buf.put(FEATURE_KEY_PREFIX).putInt(docId).putShort((short) nodeId.units()).put(data);
+        return new Value(buf.array());
+    }
+
+    private static int readDocId(Value key) {
+        return ByteBuffer.wrap(key.getData()).getInt(1);
+    }
+
+    private NodeId readNodeId(Value key) {
+        final byte[] data = key.getData();
+        final int units = ByteBuffer.wrap(data).getShort(5) & 0xffff;
+        return rtreeIndex.getBrokerPool().getNodeFactory().createFromData(units, data, 7);
+    }
+
+    @Override
+    public <T extends IStoredNode> IStoredNode getReindexRoot(IStoredNode<T> node, NodePath path, boolean insert, boolean includeSelf) {
+        return null;
+    }
+
+    @Override
+    public QueryRewriter getQueryRewriter(XQueryContext context) {
+        return null;
+    }
+
+    /**
+     * The stored data of a geometry.
+     */
+    private static class Feature {
+
+        final double minX;
+        final double minY;
+        final double maxX;
+        final double maxY;
+        final String srsName;
+        final byte[] wkb;
+        final byte[] EPSG4326_wkb;
+
+        Feature(Envelope EPSG4326_envelope, String srsName, byte[] wkb, byte[] EPSG4326_wkb) {
+            this(EPSG4326_envelope.getMinX(), EPSG4326_envelope.getMinY(), EPSG4326_envelope.getMaxX(),
+                EPSG4326_envelope.getMaxY(), srsName, wkb, EPSG4326_wkb);
+        }
+
+        private Feature(double minX, double minY, double maxX, double maxY, String srsName, byte[] wkb, byte[] EPSG4326_wkb) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.srsName = srsName;
+            this.wkb = wkb;
+            this.EPSG4326_wkb = EPSG4326_wkb;
+        }
+
+        RTree.Entry toEntry(int docId, NodeId nodeId) {
+            return new RTree.Entry(minX, minY, maxX, maxY, docId, nodeId);
+        }
+
+        byte[] serialize() {
+            final byte[] srs = srsName.getBytes(StandardCharsets.UTF_8);
+            final ByteBuffer buf = ByteBuffer.allocate(32 + 2 + srs.length + 4 + wkb.length + 4 + EPSG4326_wkb.length);
+            buf.putDouble(minX).putDouble(minY).putDouble(maxX).putDouble(maxY);
+            buf.putShort((short) srs.length).put(srs);
+            buf.putInt(wkb.length).put(wkb);
+            buf.putInt(EPSG4326_wkb.length).put(EPSG4326_wkb);
+            return buf.array();
+        }
+
+        static Feature deserialize(Value value) {
+            final ByteBuffer buf = ByteBuffer.wrap(value.getData());
+            final double minX = buf.getDouble();
+            final double minY = buf.getDouble();
+            final double maxX = buf.getDouble();
+            final double maxY = buf.getDouble();
+            final byte[] srs = new byte[buf.getShort() & 0xffff];
+            buf.get(srs);
+            final byte[] wkb = new byte[buf.getInt()];
+            buf.get(wkb);
+            final byte[] EPSG4326_wkb = new byte[buf.getInt()];
+            buf.get(EPSG4326_wkb);
+            return new Feature(minX, minY, maxX, maxY, new String(srs, StandardCharsets.UTF_8), wkb, EPSG4326_wkb);
+        }
+    }
+}
@@ -0,0 +1,755 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.numbering.NodeId;
+import org.exist.numbering.NodeIdFactory;
+import org.exist.storage.btree.BTreeException;
+import org.exist.storage.btree.IndexQuery;
+import org.exist.storage.btree.Value;
+import org.exist.storage.index.BFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An R-tree of bounding boxes, stored as records of a {@link BFile}.
+ * <p>
+ * Every node of the tree is a record keyed by its node number. Leaf entries
+ * reference an indexed node by its document id and node id. Inserts choose
+ * the subtree needing the least enlargement and split overflowing nodes with
+ * Guttman's quadratic split. Removals shrink the bounding boxes on the path
+ * and drop empty nodes, but do not merge underfilled ones.
+ * <p>
+ * {@link #load(List)} packs a complete set of entries bottom-up, ordered by
+ * the Hilbert value of their centres, which yields full nodes with little
+ * overlap. A tree may be marked stale while its entries are being rebuilt,
+ * e.g. during a reindex. It then has to be loaded again before it can be
+ * searched or updated.
+ * <p>
+ * The tree uses the keys starting with {@link #META_KEY_PREFIX} and
+ * {@link #NODE_KEY_PREFIX}; the rest of the file is free for other records.
+ * Callers are responsible for locking the file.
+ */
+public class RTree {
+
+    private final static Logger LOG = LogManager.getLogger(RTree.class);
+
+    public final static byte META_KEY_PREFIX = 0;
+    public final static byte NODE_KEY_PREFIX = 1;
+
+    /**
+     * Relations between the bounding box of an entry and a search window.
+     */
+    public enum Relation {
+        /** the boxes have at least one point in common */
+        INTERSECTS,
+        /** the box of the entry lies within the window */
+        WITHIN,
+        /** the box of the entry contains the window */
+        CONTAINS,
+        /** the boxes are equal */
+        EQUALS
+    }
+
+    public final static int DEFAULT_MAX_ENTRIES = 32;
+
+    private final static Value META_KEY = new Value(new byte[] { META_KEY_PREFIX });
+    private final static int HILBERT_ORDER = 16;
+    private final static long NO_ROOT = -1;
+
+    private final BFile db;
+    private final NodeIdFactory nodeIdFactory;
+    private final int maxEntries;
+    private final int minEntries;
+
+    private long root = NO_ROOT;
+    private int height = 0;
+    private long nextNode = 0;
+    private long size = 0;
+    private boolean stale = false;
+
+    public RTree(final BFile db, final NodeIdFactory nodeIdFactory) {
+        this(db, nodeIdFactory, DEFAULT_MAX_ENTRIES);
+    }
+
+    public RTree(final BFile db, final NodeIdFactory nodeIdFactory, final int maxEntries) {
+        if (maxEntries < 4) {
+            throw new IllegalArgumentException("An R-tree node needs room for at least 4 entries");
+        }
+        this.db = db;
+        this.nodeIdFactory = nodeIdFactory;
+        this.maxEntries = maxEntries;
+        this.minEntries = Math.max(2, maxEntries * 2 / 5);
+        readMeta();
+    }
+
+    /**
+     * @return the number of entries in the tree
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return true if the tree does not reflect the indexed entries and needs
+     * to be loaded with {@link #load(List)}
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Removes all nodes and marks the tree as stale. The entries will be
+     * provided to {@link #load(List)} later on.
+     */
+    public void invalidate() throws IOException {
+        removeNodes();
+        stale = true;
+        writeMeta();
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() throws IOException {
+        removeNodes();
+        stale = false;
+        writeMeta();
+    }
+
+    /**
+     * Replaces the content of the tree by the given entries, packing them
+     * into nodes in the order of their Hilbert values.
+     *
+     * @param entries the entries, will be reordered
+     */
+    public void load(final List<Entry> entries) throws IOException {
+        removeNodes();
+        stale = false;
+        if (entries.isEmpty()) {
+            writeMeta();
+            return;
+        }
+
+        // scale the centres of the boxes to the Hilbert grid
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (final Entry entry : entries) {
+            minX = Math.min(minX, entry.centerX());
+            minY = Math.min(minY, entry.centerY());
+            maxX = Math.max(maxX, entry.centerX());
+            maxY = Math.max(maxY, entry.centerY());
+        }
+        final int cells = (1 << HILBERT_ORDER) - 1;
+        final double scaleX = maxX > minX ? cells / (maxX - minX) : 0;
+        final double scaleY = maxY > minY ? cells / (maxY - minY) : 0;
+        final long[] keys = new long[entries.size()];
+        final Integer[] order = new Integer[entries.size()];
+        for (int i = 0; i < keys.length; i++) {
+            final Entry entry = entries.get(i);
+            keys[i] = hilbert((int) ((entry.centerX() - minX) * scaleX), (int) ((entry.centerY() - minY) * scaleY));
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> keys[i]));
+
+        List<Entry> level = new ArrayList<>(entries.size());
+        for (final Integer i : order) {
+            level.add(entries.get(i));
+        }
+        int depth = 0;
+        while (true) {
+            final List<Entry> parents = new ArrayList<>((level.size() + maxEntries - 1) / maxEntries);
+            for (int start = 0; start < level.size(); start += maxEntries) {
+                final Node node = new Node(nextNode++, depth);
+                node.entries.addAll(level.subList(start, Math.min(start + maxEntries, level.size())));
+                writeNode(node);
+                parents.add(node.toEntry());
+            }
+            depth++;
+            if (parents.size() == 1) {
+                root = parents.get(0).child;
+                break;
+            }
+            level = parents;
+        }
+        height = depth;
+        size = entries.size();
+        writeMeta();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Loaded " + size + " entries into an R-tree of height " + height);
+        }
+    }
+
+    /**
+     * Adds an entry to the tree.
+     *
+     * @param entry the leaf entry to add
+     */
+    public void insert(final Entry entry) throws IOException {
+        checkNotStale();
+        if (root == NO_ROOT) {
+            final Node leaf = new Node(nextNode++, 0);
+            leaf.entries.add(entry);
+            writeNode(leaf);
+            root = leaf.num;
+            height = 1;
+            size = 1;
+            writeMeta();
+            return;
+        }
+
+        // descend to the leaf needing the least enlargement
+        final Node[] path = new Node[height];
+        final int[] slots = new int[height];
+        Node node = readNode(root);
+        for (int depth = 0; ; depth++) {
+            path[depth] = node;
+            if (node.level == 0) {
+                break;
+            }
+            slots[depth] = chooseSubtree(node, entry);
+            node = readNode(node.entries.get(slots[depth]).child);
+        }
+
+        node.entries.add(entry);
+        Entry split = node.entries.size() > maxEntries ? split(node) : null;
+        writeNode(node);
+        for (int depth = path.length - 2; depth >= 0; depth--) {
+            final Node parent = path[depth];
+            final Node child = path[depth + 1];
+            parent.entries.set(slots[depth], child.toEntry());
+            if (split != null) {
+                parent.entries.add(split);
+                split = parent.entries.size() > maxEntries ? split(parent) : null;
+            }
+            writeNode(parent);
+        }
+        if (split != null) {
+            // the root has been split
+            final Node newRoot = new Node(nextNode++, height);
+            newRoot.entries.add(path[0].toEntry());
+            newRoot.entries.add(split);
+            writeNode(newRoot);
+            root = newRoot.num;
+            height++;
+        }
+        size++;
+        writeMeta();
+    }
+
+    /**
+     * Removes an entry from the tree. The entry is found by its bounding box
+     * and the node it references.
+     *
+     * @param entry the leaf entry to remove
+     * @return false if the entry was not found
+     */
+    public boolean remove(final Entry entry) throws IOException {
+        checkNotStale();
+        if (root == NO_ROOT) {
+            return false;
+        }
+        final List<Node> path = new ArrayList<>(height);
+        final List<Integer> slots = new ArrayList<>(height);
+        if (!findLeaf(readNode(root), entry, path, slots)) {
+            return false;
+        }
+
+        int depth = path.size() - 1;
+        Node node = path.get(depth);
+        node.entries.remove((int) slots.get(depth));
+        // unlink empty nodes below the root
+        while (node.entries.isEmpty() && depth > 0) {
+            db.remove(null, nodeKey(node.num));
+            depth--;
+            node = path.get(depth);
+            node.entries.remove((int) slots.get(depth));
+        }
+        writeNode(node);
+        for (depth--; depth >= 0; depth--) {
+            final Node parent = path.get(depth);
+            parent.entries.set(slots.get(depth), path.get(depth + 1).toEntry());
+            writeNode(parent);
+        }
+
+        // shorten the tree while the root has a single child
+        Node rootNode = path.get(0);
+        while (rootNode.level > 0 && rootNode.entries.size() == 1) {
+            db.remove(null, nodeKey(rootNode.num));
+            rootNode = readNode(rootNode.entries.get(0).child);
+            root = rootNode.num;
+            height--;
+        }
+        if (rootNode.entries.isEmpty()) {
+            db.remove(null, nodeKey(rootNode.num));
+            root = NO_ROOT;
+            height = 0;
+        }
+        size--;
+        writeMeta();
+        return true;
+    }
+
+    private boolean findLeaf(final Node node, final Entry entry, final List<Node> path, final List<Integer> slots) throws IOException {
+        path.add(node);
+        slots.add(-1);
+        final int depth = path.size() - 1;
+        for (int i = 0; i < node.entries.size(); i++) {
+            final Entry candidate = node.entries.get(i);
+            if (node.level == 0) {
+                if (candidate.docId == entry.docId && candidate.nodeId.equals(entry.nodeId)) {
+                    slots.set(depth, i);
+                    return true;
+                }
+            } else if (candidate.contains(entry)) {
+                slots.set(depth, i);
+                if (findLeaf(readNode(candidate.child), entry, path, slots)) {
+                    return true;
+                }
+            }
+        }
+        path.remove(depth);
+        slots.remove(depth);
+        return false;
+    }
+
+    /**
+     * Reports the leaf entries matching a search window.
+     *
+     * @param minX the minimal x of the window
+     * @param minY the minimal y of the window
+     * @param maxX the maximal x of the window
+     * @param maxY the maximal y of the window
+     * @param relation the relation the box of an entry must have to the window
+     * @param callback receives the matching entries
+     */
+    public void search(final double minX, final double minY, final double maxX, final double maxY,
+            final Relation relation, final Consumer<Entry> callback) throws IOException {
+        checkNotStale();
+        if (root == NO_ROOT) {
+            return;
+        }
+        search(readNode(root), new Entry(minX, minY, maxX, maxY), relation, callback);
+    }
+
+    private void search(final Node node, final Entry window, final Relation relation, final Consumer<Entry> callback)
+            throws IOException {
+        for (final Entry entry : node.entries) {
+            if (node.level == 0) {
+                if (matches(entry, window, relation)) {
+                    callback.accept(entry);
+                }
+            } else {
+                final boolean descend;
+                switch (relation) {
+                    case CONTAINS:
+                    case EQUALS:
+                        descend = entry.contains(window);
+                        break;
+                    default:
+                        descend = entry.intersects(window);
+                }
+                if (descend) {
+                    search(readNode(entry.child), window, relation, callback);
+                }
+            }
+        }
+    }
+
+    private static boolean matches(final Entry entry, final Entry window, final Relation relation) {
+        switch (relation) {
+            case WITHIN:
+                return window.contains(entry);
+            case CONTAINS:
+                return entry.contains(window);
+            case EQUALS:
+                return entry.minX == window.minX && entry.minY == window.minY &&
+                    entry.maxX == window.maxX && entry.maxY == window.maxY;
+            default:
+                return entry.intersects(window);
+        }
+    }
+
+    /**
+     * Checks that every node lies within the box its parent holds for it and
+     * that the tree holds as many entries as it should.
+     *
+     * @return false if the tree is inconsistent
+     */
+    public boolean check() throws IOException {
+        if (stale) {
+            return true;
+        }
+        if (root == NO_ROOT) {
+            return size == 0;
+        }
+        final long[] count = { 0 };
+        final boolean consistent = check(readNode(root), null, height - 1, count);
+        if (count[0] != size) {
+            LOG.info("R-tree holds " + count[0] + " entries, " + size + " expected");
+            return false;
+        }
+        return consistent;
+    }
+
+    private boolean check(final Node node, final Entry parentEntry, final int expectedLevel, final long[] count)
+            throws IOException {
+        if (node.level != expectedLevel) {
+            LOG.info("R-tree node " + node.num + " is at level " + node.level + ", " + expectedLevel + " expected");
+            return false;
+        }
+        for (final Entry entry : node.entries) {
+            if (parentEntry != null && !parentEntry.contains(entry)) {
+                LOG.info("R-tree node " + node.num + " exceeds the box of its parent");
+                return false;
+            }
+            if (node.level == 0) {
+                count[0]++;
+            } else if (!check(readNode(entry.child), entry, expectedLevel - 1, count)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkNotStale() {
+        if (stale) {
+            throw new IllegalStateException("The R-tree needs to be loaded first");
+        }
+    }
+
+    private int chooseSubtree(final Node node, final Entry entry) {
+        int best = 0;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < node.entries.size(); i++) {
+            final Entry candidate = node.entries.get(i);
+            final double area = candidate.area();
+            final double enlargement = candidate.unionArea(entry) - area;
+            if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                best = i;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Quadratic split: moves part of the entries of the node to a new sibling.
+     *
+     * @return the parent entry of the new sibling
+     */
+    private Entry split(final Node node) {
+        final List<Entry> remaining = new ArrayList<>(node.entries);
+
+        // pick the two entries which would waste the most area together
+        int seed1 = 0, seed2 = 1;
+        double worst = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < remaining.size(); i++) {
+            for (int j = i + 1; j < remaining.size(); j++) {
+                final Entry a = remaining.get(i);
+                final Entry b = remaining.get(j);
+                final double waste = a.unionArea(b) - a.area() - b.area();
+                if (waste > worst) {
+                    worst = waste;
+                    seed1 = i;
+                    seed2 = j;
+                }
+            }
+        }
+        final Node sibling = new Node(nextNode++, node.level);
+        node.entries.clear();
+        node.entries.add(remaining.get(seed1));
+        sibling.entries.add(remaining.get(seed2));
+        remaining.remove(seed2);
+        remaining.remove(seed1);
+        Entry box1 = node.entries.get(0);
+        Entry box2 = sibling.entries.get(0);
+
+        while (!remaining.isEmpty()) {
+            if (node.entries.size() + remaining.size() <= minEntries) {
+                node.entries.addAll(remaining);
+                break;
+            }
+            if (sibling.entries.size() + remaining.size() <= minEntries) {
+                sibling.entries.addAll(remaining);
+                break;
+            }
+            // assign the entry with the strongest preference first
+            int next = 0;
+            double maxDiff = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < remaining.size(); i++) {
+                final Entry entry = remaining.get(i);
+                final double diff = Math.abs((box1.unionArea(entry) - box1.area()) - (box2.unionArea(entry) - box2.area()));
+                if (diff > maxDiff) {
+                    maxDiff = diff;
+                    next = i;
+                }
+            }
+            final Entry entry = remaining.remove(next);
+            final double d1 = box1.unionArea(entry) - box1.area();
+            final double d2 = box2.unionArea(entry) - box2.area();
+            final boolean first;
+            if (d1 != d2) {
+                first = d1 < d2;
+            } else if (box1.area() != box2.area()) {
+                first = box1.area() < box2.area();
+            } else {
+                first = node.entries.size() <= sibling.entries.size();
+            }
+            if (first) {
+                node.entries.add(entry);
+                box1 = box1.union(entry);
+            } else {
+                sibling.entries.add(entry);
+                box2 = box2.union(entry);
+            }
+        }
+        writeNode(sibling);
+        return sibling.toEntry();
+    }
+
+    private void removeNodes() throws IOException {
+        try {
+            db.removeAll(null, new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(new byte[] { NODE_KEY_PREFIX })));
+        } catch (final BTreeException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        root = NO_ROOT;
+        height = 0;
+        nextNode = 0;
+        size = 0;
+    }
+
+    private Node readNode(final long num) throws IOException {
+        final Value value = db.get(nodeKey(num));
+        if (value == null) {
+            throw new IOException("R-tree node " + num + " not found in " + db.getFile());
+        }
+        final ByteBuffer buf = ByteBuffer.wrap(value.getData());
+        final Node node = new Node(num, buf.get());
+        final int count = buf.getShort();
+        for (int i = 0; i < count; i++) {
+            final double minX = buf.getDouble();
+            final double minY = buf.getDouble();
+            final double maxX = buf.getDouble();
+            final double maxY = buf.getDouble();
+            if (node.level == 0) {
+                final int docId = buf.getInt();
+                final int units = buf.getShort();
+                final byte[] data = new byte[buf.getShort() & 0xffff];
+                buf.get(data);
+                node.entries.add(new Entry(minX, minY, maxX, maxY, docId, nodeIdFactory.createFromData(units, data, 0)));
+            } else {
+                node.entries.add(new Entry(minX, minY, maxX, maxY, buf.getLong()));
+            }
+        }
+        return node;
+    }
+
+    private void writeNode(final Node node) {
+        int len = 3;
+        for (final Entry entry : node.entries) {
+            len += 32 + (node.level == 0 ? 8 + entry.nodeId.size() : 8);
+        }
+        final ByteBuffer buf = ByteBuffer.allocate(len);
+        buf.put((byte) node.level);
+        buf.putShort((short) node.entries.size());
+        for (final Entry entry : node.entries) {
+            buf.putDouble(entry.minX).putDouble(entry.minY).putDouble(entry.maxX).putDouble(entry.maxY);
+            if (node.level == 0) {
+                final byte[] data = new byte[entry.nodeId.size()];
+                entry.nodeId.serialize(data, 0);
+                buf.putInt(entry.docId).putShort((short) entry.nodeId.units()).putShort((short) data.length).put(data);
+            } else {
+                buf.putLong(entry.child);
+            }
+        }
+        db.put(null, nodeKey(node.num), buf.array(), true);
+    }
+
+    private void readMeta() {
+        final Value value = db.get(META_KEY);
+        if (value != null) {
+            final ByteBuffer buf = ByteBuffer.wrap(value.getData());
+            root = buf.getLong();
+            height = buf.getInt();
+            nextNode = buf.getLong();
+            size = buf.getLong();
+            stale = buf.get() != 0;
+        }
+    }
+
+    private void writeMeta() {
+        final ByteBuffer buf = ByteBuffer.allocate(29);
+        buf.putLong(root).putInt(height).putLong(nextNode).putLong(size).put((byte) (stale ? 1 : 0));
+        db.put(null, META_KEY, buf.array(), true);
+    }
+
+    private static Value nodeKey(final long num) {
+        final ByteBuffer buf = ByteBuffer.allocate(9);
+        buf.put(NODE_KEY_PREFIX).putLong(num);
+        return new Value(buf.array());
+    }
+
+    /**
+     * Maps a cell of a 2^16 x 2^16 grid to its distance along the Hilbert curve.
+     */
+    static long hilbert(int x, int y) {
+        final int n = 1 << HILBERT_ORDER;
+        long d = 0;
+        for (int s = n / 2; s > 0; s /= 2) {
+            final int rx = (x & s) > 0 ? 1 : 0;
+            final int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                final int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    private static class Node {
+        final long num;
+        final int level;
+        final List<Entry> entries = new ArrayList<>();
+
+        Node(final long num, final int level) {
+            this.num = num;
+            this.level = level;
+        }
+
+        Entry toEntry() {
+            Entry box = entries.get(0);
+            for (int i = 1; i < entries.size(); i++) {
+                box = box.union(entries.get(i));
+            }
+            return new Entry(box.minX, box.minY, box.maxX, box.maxY, num);
+        }
+    }
+
+    /**
+     * A bounding box, together with the node it belongs to for the entries
+     * of a leaf, or the number of the child node for inner entries.
+     */
+    public static class Entry {
+        final double minX;
+        final double minY;
+        final double maxX;
+        final double maxY;
+        final int docId;
+        final NodeId nodeId;
+        final long child;
+
+        public Entry(final double minX, final double minY, final double maxX, final double maxY,
+                final int docId, final NodeId nodeId) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.docId = docId;
+            this.nodeId = nodeId;
+            this.child = -1;
+        }
+
+        private Entry(final double minX, final double minY, final double maxX, final double maxY, final long child) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.docId = -1;
+            this.nodeId = null;
+            this.child = child;
+        }
+
+        private Entry(final double minX, final double minY, final double maxX, final double maxY) {
+            this(minX, minY, maxX, maxY, -1);
+        }
+
+        public int getDocId() {
+            return docId;
+        }
+
+        public NodeId getNodeId() {
+            return nodeId;
+        }
+
+        public double getMinX() {
+            return minX;
+        }
+
+        public double getMinY() {
+            return minY;
+        }
+
+        public double getMaxX() {
+            return maxX;
+        }
+
+        public double getMaxY() {
+            return maxY;
+        }
+
+        double centerX() {
+            return (minX + maxX) / 2;
+        }
+
+        double centerY() {
+            return (minY + maxY) / 2;
+        }
+
+        double area() {
+            return (maxX - minX) * (maxY - minY);
+        }
+
+        double unionArea(final Entry other) {
+            return (Math.max(maxX, other.maxX) - Math.min(minX, other.minX)) *
+                (Math.max(maxY, other.maxY) - Math.min(minY, other.minY));
+        }
+
+        Entry union(final Entry other) {
+            return new Entry(Math.min(minX, other.minX), Math.min(minY, other.minY),
+                Math.max(maxX, other.maxX), Math.max(maxY, other.maxY));
+        }
+
+        boolean intersects(final Entry other) {
+            return minX <= other.maxX && maxX >= other.minX && minY <= other.maxY && maxY >= other.minY;
+        }
+
+        boolean contains(final Entry other) {
+            return minX <= other.minX && maxX >= other.maxX && minY <= other.minY && maxY >= other.maxY;
+        }
+    }
+}
@@ -29,10 +29,10 @@ import org.apache.logging.log4j.Logger;
 
 import org.exist.dom.persistent.NodeProxy;
 import org.exist.dom.QName;
-import org.exist.indexing.spatial.AbstractGMLJDBCIndex;
-import org.exist.indexing.spatial.AbstractGMLJDBCIndexWorker;
+import org.exist.indexing.spatial.AbstractGMLIndex;
+import org.exist.indexing.spatial.AbstractGMLIndexWorker;
 import org.exist.indexing.spatial.SpatialIndexException;
-import org.exist.indexing.spatial.AbstractGMLJDBCIndex.SpatialOperator;
+import org.exist.indexing.spatial.AbstractGMLIndex.SpatialOperator;
 import org.exist.xquery.BasicFunction;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.FunctionSignature;
@@ -122,8 +122,8 @@ public class FunSpatialSearch extends BasicFunction implements IndexUseReporter
             result = nodes;
         } else {
             try {
-                AbstractGMLJDBCIndexWorker indexWorker = (AbstractGMLJDBCIndexWorker)
-                    context.getBroker().getIndexController().getWorkerByIndexId(AbstractGMLJDBCIndex.ID);
+                AbstractGMLIndexWorker indexWorker = (AbstractGMLIndexWorker)
+                    context.getBroker().getIndexController().getWorkerByIndexId(AbstractGMLIndex.ID);
                 if (indexWorker == null) {
                     logger.error("Unable to find a spatial index worker");
                     throw new XPathException("Unable to find a spatial index worker");
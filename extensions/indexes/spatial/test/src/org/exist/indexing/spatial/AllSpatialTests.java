@@ -28,6 +28,7 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+    RTreeTest.class,
     GMLIndexTest.class
 })
 public class AllSpatialTests {
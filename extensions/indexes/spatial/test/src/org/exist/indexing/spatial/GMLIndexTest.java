@@ -27,10 +27,6 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.Optional;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -40,8 +36,9 @@ import javax.xml.parsers.SAXParserFactory;
 import junit.framework.TestCase;
 
 import org.exist.EXistException;
+import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.NodeSet;
-import org.exist.indexing.spatial.AbstractGMLJDBCIndex.SpatialOperator;
+import org.exist.indexing.spatial.AbstractGMLIndex.SpatialOperator;
 import org.exist.dom.memtree.SAXAdapter;
 import org.exist.security.PermissionDeniedException;
 import org.exist.storage.BrokerPool;
@@ -109,7 +106,7 @@ public class GMLIndexTest extends TestCase {
     private Collection testCollection;
     private Geometry currentGeometry;
 
-    public void testIndexDocument() throws XMLDBException, EXistException {
+    public void testIndexDocument() throws XMLDBException, EXistException, PermissionDeniedException, SpatialIndexException {
         for (int i = 0; i < FILES.length; i++) {
             XMLResource doc =
                 (XMLResource) testCollection.createResource(
@@ -124,34 +121,13 @@ public class GMLIndexTest extends TestCase {
 
         final BrokerPool pool = BrokerPool.getInstance();
         try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
-            GMLHSQLIndexWorker indexWorker = (GMLHSQLIndexWorker) broker.getIndexController().getWorkerByIndexId(AbstractGMLJDBCIndex.ID);
+            AbstractGMLIndexWorker indexWorker = (AbstractGMLIndexWorker) broker.getIndexController().getWorkerByIndexId(AbstractGMLIndex.ID);
             //Unplugged
             if (indexWorker != null) {
-                try {
-                    Connection conn = null;
-                    try {
-                        conn = indexWorker.acquireConnection();
-                        for (int i = 0; i < FILES.length; i++) {
-                            XMLResource doc =
-                                    (XMLResource) testCollection.getResource(FILES[i]);
-                            PreparedStatement ps = conn.prepareStatement(
-                                    "SELECT * FROM " + GMLHSQLIndex.TABLE_NAME + " WHERE DOCUMENT_URI = ?;"
-                            );
-                            ps.setString(1, testCollection.getName() + "/" + doc.getDocumentId());
-                            ResultSet rs = ps.executeQuery();
-                            while (rs.next()) {
-                                //Let be sure we have the right count
-                            }
-                            int count = rs.getRow();
-                            ps.close();
-                            assertTrue(count > 0);
-                        }
-                    } finally {
-                        indexWorker.releaseConnection(conn);
-                    }
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                    fail(e.getMessage());
+                for (int i = 0; i < FILES.length; i++) {
+                    DocumentImpl doc = (DocumentImpl) broker.getXMLResource(XmldbURI.create(testCollection.getName() + "/" + FILES[i]));
+                    assertNotNull(doc);
+                    assertTrue(indexWorker.getGeometriesForDocument(doc).size() > 0);
                 }
             }
         }
@@ -161,7 +137,7 @@ public class GMLIndexTest extends TestCase {
         final BrokerPool pool = BrokerPool.getInstance();
         assertNotNull(pool);
         try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
-            AbstractGMLJDBCIndex index = (AbstractGMLJDBCIndex) pool.getIndexManager().getIndexById(AbstractGMLJDBCIndex.ID);
+            AbstractGMLIndex index = (AbstractGMLIndex) pool.getIndexManager().getIndexById(AbstractGMLIndex.ID);
             //Unplugged
             if (index != null) {
                 assertTrue(index.checkIndex(broker));
@@ -200,7 +176,7 @@ public class GMLIndexTest extends TestCase {
 
         final BrokerPool pool = BrokerPool.getInstance();
         try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
-            AbstractGMLJDBCIndexWorker indexWorker = (AbstractGMLJDBCIndexWorker) broker.getIndexController().getWorkerByIndexId(AbstractGMLJDBCIndex.ID);
+            AbstractGMLIndexWorker indexWorker = (AbstractGMLIndexWorker) broker.getIndexController().getWorkerByIndexId(AbstractGMLIndex.ID);
             //Unplugged
             if (indexWorker != null) {
                 SAXParserFactory factory = SAXParserFactory.newInstance();
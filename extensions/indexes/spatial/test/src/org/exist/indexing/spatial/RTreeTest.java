@@ -0,0 +1,188 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import org.exist.numbering.DLN;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.btree.DBException;
+import org.exist.storage.index.BFile;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Low-level tests on the R-tree, checked against a scan of all entries.
+ */
+public class RTreeTest {
+
+    private static final int COUNT = 5000;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, false);
+
+    private Path file = null;
+
+    @Test
+    public void insertSearchRemove() throws DBException, IOException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final BFile db = new BFile(pool, (byte) 0, false, file, pool.getCacheManager(), 1.4, 0.07)) {
+            final RTree rtree = new RTree(db, pool.getNodeFactory(), 8);
+            final List<RTree.Entry> entries = randomEntries(new Random(42));
+            for (final RTree.Entry entry : entries) {
+                rtree.insert(entry);
+            }
+            assertEquals(COUNT, rtree.size());
+            assertTrue(rtree.check());
+            checkSearches(rtree, entries, new Random(7));
+
+            for (int i = 0; i < COUNT; i += 2) {
+                assertTrue(rtree.remove(entries.get(i)));
+            }
+            assertFalse(rtree.remove(entries.get(0)));
+            final List<RTree.Entry> remaining = new ArrayList<>();
+            for (int i = 1; i < COUNT; i += 2) {
+                remaining.add(entries.get(i));
+            }
+            assertEquals(remaining.size(), rtree.size());
+            assertTrue(rtree.check());
+            checkSearches(rtree, remaining, new Random(8));
+
+            for (final RTree.Entry entry : remaining) {
+                assertTrue(rtree.remove(entry));
+            }
+            assertEquals(0, rtree.size());
+            assertTrue(rtree.check());
+        }
+    }
+
+    @Test
+    public void bulkLoad() throws DBException, IOException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final List<RTree.Entry> entries = randomEntries(new Random(43));
+        try (final BFile db = new BFile(pool, (byte) 0, false, file, pool.getCacheManager(), 1.4, 0.07)) {
+            final RTree rtree = new RTree(db, pool.getNodeFactory(), 8);
+            rtree.invalidate();
+            assertTrue(rtree.isStale());
+            rtree.load(new ArrayList<>(entries));
+            assertFalse(rtree.isStale());
+            assertEquals(COUNT, rtree.size());
+            assertTrue(rtree.check());
+            checkSearches(rtree, entries, new Random(9));
+
+            // the packed tree accepts further updates
+            final RTree.Entry extra = new RTree.Entry(1, 1, 2, 2, COUNT, new DLN(1));
+            rtree.insert(extra);
+            entries.add(extra);
+            assertTrue(rtree.remove(entries.remove(0)));
+            assertTrue(rtree.check());
+            checkSearches(rtree, entries, new Random(10));
+        }
+
+        // the tree survives reopening the file
+        try (final BFile db = new BFile(pool, (byte) 0, false, file, pool.getCacheManager(), 1.4, 0.07)) {
+            final RTree rtree = new RTree(db, pool.getNodeFactory(), 8);
+            assertEquals(COUNT, rtree.size());
+            checkSearches(rtree, entries, new Random(11));
+        }
+    }
+
+    private static List<RTree.Entry> randomEntries(final Random random) {
+        final List<RTree.Entry> entries = new ArrayList<>(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            final double x = random.nextDouble() * 360 - 180;
+            final double y = random.nextDouble() * 180 - 90;
+            // a mix of points and small boxes
+            final double w = i % 3 == 0 ? 0 : random.nextDouble();
+            final double h = i % 3 == 0 ? 0 : random.nextDouble();
+            entries.add(new RTree.Entry(x, y, x + w, y + h, i / 100, new DLN(1 + i % 100)));
+        }
+        return entries;
+    }
+
+    private static void checkSearches(final RTree rtree, final List<RTree.Entry> entries, final Random random) throws IOException {
+        for (int i = 0; i < 50; i++) {
+            final double minX = random.nextDouble() * 360 - 180;
+            final double minY = random.nextDouble() * 180 - 90;
+            final double maxX = minX + random.nextDouble() * 40;
+            final double maxY = minY + random.nextDouble() * 20;
+            for (final RTree.Relation relation : RTree.Relation.values()) {
+                final Set<String> expected = new HashSet<>();
+                for (final RTree.Entry entry : entries) {
+                    if (matches(entry, minX, minY, maxX, maxY, relation)) {
+                        expected.add(key(entry));
+                    }
+                }
+                final Set<String> found = new HashSet<>();
+                rtree.search(minX, minY, maxX, maxY, relation, entry -> assertTrue(found.add(key(entry))));
+                assertEquals(relation.name(), expected, found);
+            }
+        }
+        // an entry's own box finds it
+        final RTree.Entry entry = entries.get(random.nextInt(entries.size()));
+        final Set<String> found = new HashSet<>();
+        rtree.search(entry.getMinX(), entry.getMinY(), entry.getMaxX(), entry.getMaxY(), RTree.Relation.EQUALS,
+            e -> found.add(key(e)));
+        assertTrue(found.contains(key(entry)));
+    }
+
+    private static boolean matches(final RTree.Entry entry, final double minX, final double minY,
+            final double maxX, final double maxY, final RTree.Relation relation) {
+        switch (relation) {
+            case WITHIN:
+                return entry.getMinX() >= minX && entry.getMaxX() <= maxX && entry.getMinY() >= minY && entry.getMaxY() <= maxY;
+            case CONTAINS:
+                return entry.getMinX() <= minX && entry.getMaxX() >= maxX && entry.getMinY() <= minY && entry.getMaxY() >= maxY;
+            case EQUALS:
+                return entry.getMinX() == minX && entry.getMaxX() == maxX && entry.getMinY() == minY && entry.getMaxY() == maxY;
+            default:
+                return entry.getMinX() <= maxX && entry.getMaxX() >= minX && entry.getMinY() <= maxY && entry.getMaxY() >= minY;
+        }
+    }
+
+    private static String key(final RTree.Entry entry) {
+        return entry.getDocId() + "/" + entry.getNodeId();
+    }
+
+    @Before
+    public void initialize() {
+        file = Paths.get(System.getProperty("exist.home", ".")).resolve("test/junit/rtree.dbx");
+        assertFalse(Files.exists(file));
+    }
+
+    @After
+    public void cleanUp() {
+        FileUtils.deleteQuietly(file);
+    }
+}
@@ -150,6 +150,15 @@ public class ExistDocument extends ExistResource {
      * Stream document to framework.
      */
     public void stream(OutputStream os) throws IOException, PermissionDeniedException {
+        stream(os, 0, -1);
+    }
+
+    /**
+     * Stream document to framework. For non-XML documents, only the bytes
+     * from offset to offset + length are written, or all remaining bytes if
+     * length is negative. XML documents are always serialized completely.
+     */
+    public void stream(OutputStream os, long offset, long length) throws IOException, PermissionDeniedException {
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Stream started");
@@ -192,7 +201,15 @@ public class ExistDocument extends ExistResource {
 
                 } else {
                     // Stream NON-XML document
-                    broker.readBinaryResource((BinaryDocument) document, os);
+                    final BinaryDocument binary = (BinaryDocument) document;
+                    if (offset == 0 && length < 0) {
+                        broker.readBinaryResource(binary, os);
+                    } else {
+                        final long size = broker.getBinaryResourceSize(binary);
+                        final long start = Math.min(offset, size);
+                        final long count = length < 0 ? size - start : Math.min(length, size - start);
+                        broker.readBinaryResource(binary, start, count, os);
+                    }
                     os.flush();
                 }
             } finally {
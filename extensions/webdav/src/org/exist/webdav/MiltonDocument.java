@@ -176,7 +176,12 @@ public class MiltonDocument extends MiltonResource
         try {
             if (vtf == null) {
                 LOG.debug("Serializing from database");
-                existDocument.stream(out);
+                if (range == null) {
+                    existDocument.stream(out);
+                } else {
+                    // the finish of a range is inclusive
+                    existDocument.stream(out, range.getStart(), range.getFinish() - range.getStart() + 1);
+                }
 
             } else {
                 // Experimental. Does not work right, the virtual file
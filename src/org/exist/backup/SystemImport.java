@@ -35,6 +35,8 @@ import javax.xml.parsers.SAXParserFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.Database;
+import org.exist.EXistException;
+import org.exist.backup.restore.BulkRestore;
 import org.exist.backup.restore.SystemImportHandler;
 import org.exist.backup.restore.listener.RestoreListener;
 import org.exist.config.ConfigurationException;
@@ -100,6 +102,26 @@ public class SystemImport {
         }
     }
     
+    /**
+     * Restore a backup through the broker with several threads, deferring the
+     * secondary indexes until all documents are stored.
+     *
+     * @see BulkRestore
+     */
+    public void restoreBulk(RestoreListener listener, String username, Object credentials, String newCredentials, final Path f, final int threads, final int batchSize) throws XMLDBException, IOException, SAXException, EXistException, AuthenticationException, ConfigurationException, PermissionDeniedException {
+
+        //login
+        try(final DBBroker broker = db.authenticate(username, credentials)) {
+            //set the new password
+            setAdminCredentials(broker, newCredentials);
+
+            //get the backup descriptors, can be more than one if it was an incremental backup
+            final Stack<BackupDescriptor> descriptors = getBackupDescriptors(f);
+
+            new BulkRestore(broker, listener, threads, batchSize).restore(descriptors);
+        }
+    }
+
     private Stack<BackupDescriptor> getBackupDescriptors(Path contents) throws XMLDBException, IOException {
         
         final Stack<BackupDescriptor> descriptors = new Stack<>();
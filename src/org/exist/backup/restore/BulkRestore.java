@@ -0,0 +1,744 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.backup.restore;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.backup.BackupDescriptor;
+import org.exist.backup.restore.listener.RestoreListener;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.BinaryDocument;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.DocumentMetadata;
+import org.exist.dom.persistent.DocumentTypeImpl;
+import org.exist.dom.persistent.IStoredNode;
+import org.exist.indexing.IndexWorker;
+import org.exist.indexing.StreamListener.ReindexMode;
+import org.exist.security.ACLPermission;
+import org.exist.security.ACLPermission.ACE_ACCESS_TYPE;
+import org.exist.security.ACLPermission.ACE_TARGET;
+import org.exist.security.Permission;
+import org.exist.security.SecurityManager;
+import org.exist.security.Subject;
+import org.exist.security.internal.aider.ACEAider;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.structural.NativeStructuralIndex;
+import org.exist.storage.txn.TransactionException;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.util.EXistInputSource;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.util.URIUtils;
+import org.exist.xquery.value.DateTimeValue;
+import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Restores a backup directly through a {@link DBBroker}, storing the documents
+ * on several threads.
+ *
+ * The calling broker reads the collection descriptors (__contents__.xml) and
+ * creates the collections. The resources are queued to worker threads, each
+ * with its own broker, which store them in batched transactions.
+ *
+ * The resources of the system collection are stored by the calling broker, one
+ * transaction per resource, before any resource of the user collections is
+ * queued. As in {@link SystemImportHandler}, storing the security collection
+ * reloads the accounts, which must not happen while the workers use them.
+ *
+ * While storing, only the structural index is maintained. The secondary
+ * indexes (lucene, range, ngram, ...) are built once all descriptors have
+ * been restored, again on the worker threads, by streaming every restored
+ * document through those index workers only. The legacy value index of
+ * {@link org.exist.storage.NativeValueIndex} is not a pluggable index and is
+ * still maintained during the store.
+ *
+ * The backup descriptors of an incremental backup are restored one after the
+ * other, so deletions recorded in a later backup apply to the documents
+ * restored from an earlier one.
+ *
+ * A resource which cannot be parsed is skipped and reported to the
+ * {@link RestoreListener}, as by {@link SystemImportHandler}. Any other
+ * failure while storing aborts the transaction of the batch and the restore.
+ * The documents which had been stored before are still indexed.
+ * The {@link org.exist.backup.RestoreHandler} of the plugins is not called.
+ */
+public class BulkRestore {
+
+    private final static Logger LOG = LogManager.getLogger(BulkRestore.class);
+
+    public final static int DEFAULT_BATCH_SIZE = 100;
+
+    private final static SAXParserFactory saxFactory = SAXParserFactory.newInstance();
+    static {
+        saxFactory.setNamespaceAware(true);
+        saxFactory.setValidating(false);
+    }
+    private static final int STRICT_URI_VERSION = 1;
+
+    /**
+     * Number of queued tasks per thread before the reader of the descriptors blocks
+     */
+    private static final int QUEUE_SIZE = 64;
+
+    private static final Predicate<IndexWorker> STRUCTURAL_INDEX =
+            worker -> NativeStructuralIndex.ID.equals(worker.getIndexId());
+
+    private final DBBroker broker;
+    private final BrokerPool pool;
+    private final RestoreListener listener;
+    private final int threads;
+    private final int batchSize;
+
+    private final Set<XmldbURI> restoredDocuments = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger restored = new AtomicInteger();
+    private final AtomicInteger indexed = new AtomicInteger();
+
+    /**
+     * @param broker the broker of the caller, which must be a DBA
+     * @param listener receives the progress, called from one thread at a time
+     * @param threads the number of threads storing and indexing documents
+     * @param batchSize the number of documents stored or indexed per transaction
+     */
+    public BulkRestore(final DBBroker broker, final RestoreListener listener, final int threads, final int batchSize) {
+        this.broker = broker;
+        this.pool = broker.getBrokerPool();
+        this.listener = listener;
+        // keep one broker for the caller
+        this.threads = Math.max(1, Math.min(threads, pool.getMax() - 1));
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Restore the backup descriptors, the first to be restored on top of the stack.
+     *
+     * @param descriptors the descriptors of the backup, more than one for an incremental backup
+     */
+    public void restore(final Stack<BackupDescriptor> descriptors) throws EXistException, IOException, SAXException {
+        final long start = System.currentTimeMillis();
+        final Subject subject = broker.getCurrentSubject();
+        listener.restoreStarting();
+        try {
+            try {
+                while (!descriptors.isEmpty()) {
+                    final BackupDescriptor descriptor = descriptors.pop();
+                    report(() -> listener.setCurrentBackup(descriptor.getSymbolicPath()));
+
+                    final Workers workers = new Workers("restore", subject, STRUCTURAL_INDEX);
+                    try {
+                        restoreCollection(descriptor, workers);
+                    } finally {
+                        workers.finish();
+                    }
+                }
+            } catch (final EXistException | IOException | SAXException | RuntimeException e) {
+                // the documents stored before the failure are committed, they need their secondary indexes
+                LOG.error("Bulk restore failed, indexing the " + restoredDocuments.size() + " documents restored so far");
+                try {
+                    indexRestoredDocuments(subject);
+                } catch (final EXistException | RuntimeException ie) {
+                    e.addSuppressed(ie);
+                }
+                throw e;
+            }
+            final long stored = System.currentTimeMillis();
+
+            indexRestoredDocuments(subject);
+
+            LOG.info(String.format("Bulk restore with %d threads: %d resources stored in %d ms, %d documents indexed in %d ms.",
+                    threads, restored.get(), stored - start, indexed.get(), System.currentTimeMillis() - stored));
+        } finally {
+            listener.restoreFinished();
+        }
+    }
+
+    /**
+     * Build the secondary indexes of all documents stored so far.
+     */
+    private void indexRestoredDocuments(final Subject subject) throws EXistException {
+        final Workers workers = new Workers("restore-index", subject, STRUCTURAL_INDEX.negate());
+        try {
+            for (final XmldbURI uri : restoredDocuments) {
+                workers.submit((workerBroker, transaction) -> indexDocument(workerBroker, transaction, uri));
+            }
+        } finally {
+            workers.finish();
+        }
+    }
+
+    private void restoreCollection(final BackupDescriptor descriptor, final Workers workers) throws EXistException, IOException, SAXException {
+        final CollectionEntry entry = readDescriptor(descriptor);
+        if (entry.name == null) {
+            throw new SAXException("Collection requires a name attribute: " + descriptor.getSymbolicPath());
+        }
+
+        final XmldbURI collectionUri;
+        if (entry.version >= STRICT_URI_VERSION) {
+            collectionUri = XmldbURI.create(entry.name);
+        } else {
+            try {
+                collectionUri = URIUtils.encodeXmldbUriFor(entry.name);
+            } catch (final URISyntaxException e) {
+                report(() -> listener.warn("Could not parse collection name into a URI: " + e.getMessage()));
+                return;
+            }
+        }
+
+        report(() -> listener.createCollection(entry.name));
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, collectionUri);
+            collection.getLock().acquire(LockMode.WRITE_LOCK);
+            try {
+                setPermissions(collection.getPermissions(), entry);
+                broker.saveCollection(transaction, collection);
+            } finally {
+                collection.release(LockMode.WRITE_LOCK);
+            }
+            transact.commit(transaction);
+        } catch (final Exception e) {
+            final String msg = "An unrecoverable error occurred while restoring\ncollection '" + entry.name + "'. Aborting restore!";
+            LOG.error(msg, e);
+            report(() -> listener.warn(msg));
+            throw new EXistException(msg + " " + e.getMessage(), e);
+        }
+        report(() -> listener.setCurrentCollection(entry.name));
+
+        for (final DeletedEntry deleted : entry.deleted) {
+            removeDeleted(collectionUri, deleted);
+        }
+
+        final boolean system = collectionUri.startsWith(XmldbURI.SYSTEM_COLLECTION_URI);
+        if (!system) {
+            // restore the system collection before queuing any resource
+            for (final String name : entry.subcollections) {
+                if (isSystemCollection(collectionUri, name)) {
+                    restoreSubCollection(descriptor, name, workers);
+                }
+            }
+        }
+
+        for (final ResourceEntry resource : entry.resources) {
+            if (system) {
+                restoreSystemResource(descriptor, collectionUri, entry.version, resource);
+            } else {
+                workers.submit((workerBroker, transaction) -> restoreResource(workerBroker, transaction, descriptor, collectionUri, entry.version, resource));
+            }
+        }
+
+        for (final String name : entry.subcollections) {
+            if (system || !isSystemCollection(collectionUri, name)) {
+                restoreSubCollection(descriptor, name, workers);
+            }
+        }
+    }
+
+    private static boolean isSystemCollection(final XmldbURI parentUri, final String name) {
+        return parentUri.equals(XmldbURI.ROOT_COLLECTION_URI) && XmldbURI.SYSTEM_COLLECTION_NAME.equals(name);
+    }
+
+    private void restoreSubCollection(final BackupDescriptor descriptor, final String name, final Workers workers) throws EXistException, IOException, SAXException {
+        final BackupDescriptor subDescriptor = descriptor.getChildBackupDescriptor(name);
+        if (subDescriptor != null) {
+            restoreCollection(subDescriptor, workers);
+        } else {
+            report(() -> listener.error("Collection " + descriptor.getSymbolicPath(name, false) + " does not exist or is not readable."));
+        }
+    }
+
+    /**
+     * Store a resource of the system collection with the calling broker in a transaction of its own.
+     * Like the resources stored by the workers, it is indexed with the other restored documents.
+     */
+    private void restoreSystemResource(final BackupDescriptor descriptor, final XmldbURI collectionUri, final int version,
+            final ResourceEntry resource) throws EXistException {
+        final TransactionManager transact = pool.getTransactionManager();
+        broker.getIndexController().setStoreFilter(STRUCTURAL_INDEX);
+        try (final Txn transaction = transact.beginTransaction()) {
+            restoreResource(broker, transaction, descriptor, collectionUri, version, resource);
+            transact.commit(transaction);
+        } catch (final Exception e) {
+            final String msg = "An unrecoverable error occurred while restoring\nresource '" + resource.name + "'. Aborting restore!";
+            LOG.error(msg, e);
+            report(() -> listener.warn(msg));
+            throw new EXistException(msg + " " + e.getMessage(), e);
+        } finally {
+            broker.getIndexController().setStoreFilter(null);
+        }
+    }
+
+    private CollectionEntry readDescriptor(final BackupDescriptor descriptor) throws IOException, SAXException {
+        final EXistInputSource is = descriptor.getInputSource();
+        is.setEncoding("UTF-8");
+        try {
+            final XMLReader reader = saxFactory.newSAXParser().getXMLReader();
+            final DescriptorHandler handler = new DescriptorHandler();
+            reader.setContentHandler(handler);
+            reader.parse(is);
+            return handler.collection;
+        } catch (final ParserConfigurationException e) {
+            throw new SAXException("Could not initalise SAXParser for processing collection: " + descriptor.getSymbolicPath(), e);
+        } finally {
+            is.close();
+        }
+    }
+
+    private void removeDeleted(final XmldbURI collectionUri, final DeletedEntry deleted) {
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final Txn transaction = transact.beginTransaction()) {
+            if ("collection".equals(deleted.type)) {
+                final Collection collection = broker.getCollection(collectionUri.append(deleted.name));
+                if (collection != null) {
+                    broker.removeCollection(transaction, collection);
+                }
+            } else if ("resource".equals(deleted.type)) {
+                final Collection collection = broker.getCollection(collectionUri);
+                final XmldbURI uri = XmldbURI.create(deleted.name);
+                final DocumentImpl doc = collection.getDocument(broker, uri);
+                if (doc != null) {
+                    if (doc.getResourceType() == DocumentImpl.BINARY_FILE) {
+                        collection.removeBinaryResource(transaction, broker, uri);
+                    } else {
+                        collection.removeXMLResource(transaction, broker, uri);
+                    }
+                }
+                restoredDocuments.remove(collectionUri.append(uri));
+            }
+            transact.commit(transaction);
+        } catch (final Exception e) {
+            report(() -> listener.warn("Failed to remove deleted " + deleted.type + ": " + deleted.name + ": " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Store a resource in the transaction of the worker.
+     *
+     * @throws Exception if the resource was only partially stored
+     */
+    private void restoreResource(final DBBroker broker, final Txn transaction, final BackupDescriptor descriptor,
+            final XmldbURI collectionUri, final int version, final ResourceEntry entry) throws Exception {
+        final XmldbURI docUri;
+        if (version >= STRICT_URI_VERSION) {
+            docUri = XmldbURI.create(entry.name);
+        } else {
+            try {
+                docUri = URIUtils.encodeXmldbUriFor(entry.name);
+            } catch (final URISyntaxException e) {
+                final String msg = "Could not parse document name into a URI: " + e.getMessage();
+                LOG.error(msg, e);
+                report(() -> listener.error(msg));
+                return;
+            }
+        }
+
+        final EXistInputSource is = descriptor.getInputSource(entry.filename);
+        if (is == null) {
+            report(() -> listener.warn("Failed to restore resource '" + entry.name + "'\nfrom file '" +
+                    descriptor.getSymbolicPath(entry.name, false) + "'.\nReason: Unable to obtain its EXistInputSource"));
+            return;
+        }
+
+        try {
+            final Collection collection = broker.getCollection(collectionUri);
+            final Date created = getDate(entry.created, "creation");
+            final Date modified = getDate(entry.modified, "modification");
+
+            DocumentImpl resource;
+            if ("XMLResource".equals(entry.type)) {
+                final IndexInfo info;
+                try {
+                    info = collection.validateXMLResource(transaction, broker, docUri, is);
+                } catch (final Exception e) {
+                    report(() -> listener.warn("Failed to restore resource '" + entry.name + "'\nfrom file '" +
+                            descriptor.getSymbolicPath(entry.name, false) + "'.\nReason: " + e.getMessage()));
+                    LOG.error(e.getMessage(), e);
+                    return;
+                }
+
+                resource = info.getDocument();
+                final DocumentMetadata meta = resource.getMetadata();
+                meta.setMimeType(entry.mimetype);
+                if (created != null) {
+                    meta.setCreated(created.getTime());
+                }
+                if (modified != null) {
+                    meta.setLastModified(modified.getTime());
+                }
+                if (entry.publicid != null || entry.systemid != null) {
+                    meta.setDocType(new DocumentTypeImpl(entry.namedoctype, entry.publicid, entry.systemid));
+                }
+
+                collection.store(transaction, broker, info, is);
+                restoredDocuments.add(resource.getURI());
+            } else {
+                resource = collection.validateBinaryResource(transaction, broker, docUri);
+                resource = collection.addBinaryResource(transaction, broker, (BinaryDocument) resource, is.getByteStream(),
+                        entry.mimetype, is.getByteStreamLength(), created, modified);
+            }
+
+            resource.getUpdateLock().acquire(LockMode.WRITE_LOCK);
+            try {
+                setPermissions(resource.getPermissions(), entry);
+                broker.storeXMLResource(transaction, resource);
+            } finally {
+                resource.getUpdateLock().release(LockMode.WRITE_LOCK);
+            }
+
+            restored.incrementAndGet();
+            report(() -> listener.restored(entry.name));
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Stream a restored document through the secondary indexes in the transaction of the worker.
+     */
+    private void indexDocument(final DBBroker broker, final Txn transaction, final XmldbURI uri) throws Exception {
+        final DocumentImpl doc = broker.getXMLResource(uri, LockMode.READ_LOCK);
+        if (doc == null) {
+            return;
+        }
+        try {
+            final NodeList nodes = doc.getChildNodes();
+            for (int i = 0; i < nodes.getLength(); i++) {
+                broker.getIndexController().reindex(transaction, (IStoredNode) nodes.item(i), ReindexMode.STORE);
+            }
+            indexed.incrementAndGet();
+        } finally {
+            doc.getUpdateLock().release(LockMode.READ_LOCK);
+        }
+    }
+
+    private void setPermissions(final Permission permission, final Entry entry) throws Exception {
+        if (entry.mode == null) {
+            return;
+        }
+        if (entry.system) {
+            //prevents restore of a backup from changing System collection ownership
+            permission.setOwner(SecurityManager.SYSTEM);
+            permission.setGroup(SecurityManager.DBA_GROUP);
+        } else {
+            permission.setOwner(entry.owner);
+            permission.setGroup(entry.group);
+        }
+        permission.setMode(Integer.parseInt(entry.mode, 8));
+        if (permission instanceof ACLPermission) {
+            final ACLPermission aclPermission = (ACLPermission) permission;
+            aclPermission.clear();
+            for (final ACEAider ace : entry.aces) {
+                aclPermission.addACE(ace.getAccessType(), ace.getTarget(), ace.getWho(), ace.getMode());
+            }
+        }
+    }
+
+    private Date getDate(final String dateTime, final String kind) {
+        if (dateTime == null) {
+            return null;
+        }
+        try {
+            return new DateTimeValue(dateTime).getDate();
+        } catch (final XPathException e) {
+            report(() -> listener.warn("Illegal " + kind + " date. Ignoring date..."));
+            return null;
+        }
+    }
+
+    /**
+     * The listener is not thread safe, e.g. when it builds a report in memory.
+     */
+    private void report(final Runnable event) {
+        synchronized (listener) {
+            event.run();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run(DBBroker broker, Txn transaction) throws Exception;
+    }
+
+    /**
+     * Threads with their own broker which run tasks in transactions of batchSize tasks.
+     * The threads are started by the first submitted task.
+     * After the first failure, the remaining tasks are skipped.
+     */
+    private class Workers {
+        private final Task end = (broker, transaction) -> {};
+        private final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(threads * QUEUE_SIZE);
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+        private final String name;
+        private final Subject subject;
+        private final Predicate<IndexWorker> storeFilter;
+        private Thread[] workers = null;
+
+        Workers(final String name, final Subject subject, final Predicate<IndexWorker> storeFilter) {
+            this.name = name;
+            this.subject = subject;
+            this.storeFilter = storeFilter;
+        }
+
+        private void start() {
+            workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Thread(this::run, name + "-" + pool.getId() + "-" + i);
+                workers[i].start();
+            }
+        }
+
+        void submit(final Task task) throws EXistException {
+            checkFailure();
+            if (workers == null) {
+                start();
+            }
+            try {
+                queue.put(task);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EXistException("Interrupted while queuing a restore task", e);
+            }
+        }
+
+        /**
+         * Wait until all submitted tasks have been run and committed.
+         */
+        void finish() throws EXistException {
+            if (workers == null) {
+                return;
+            }
+            try {
+                for (int i = 0; i < threads; i++) {
+                    queue.put(end);
+                }
+                for (final Thread worker : workers) {
+                    worker.join();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EXistException("Interrupted while waiting for restore workers", e);
+            }
+            checkFailure();
+        }
+
+        private void checkFailure() throws EXistException {
+            final Exception e = failure.get();
+            if (e != null) {
+                throw new EXistException("Bulk restore failed: " + e.getMessage(), e);
+            }
+        }
+
+        private void run() {
+            final TransactionManager transact = pool.getTransactionManager();
+            try (final DBBroker workerBroker = pool.get(Optional.of(subject))) {
+                workerBroker.getIndexController().setStoreFilter(storeFilter);
+                Txn transaction = null;
+                int count = 0;
+                try {
+                    Task task;
+                    while ((task = queue.take()) != end) {
+                        if (failure.get() != null) {
+                            continue;
+                        }
+                        if (transaction == null) {
+                            transaction = transact.beginTransaction();
+                        }
+                        task.run(workerBroker, transaction);
+                        if (++count == batchSize) {
+                            commit(transact, transaction);
+                            transaction = null;
+                            count = 0;
+                        }
+                    }
+                    if (transaction != null && failure.get() == null) {
+                        commit(transact, transaction);
+                        transaction = null;
+                    }
+                } finally {
+                    if (transaction != null) {
+                        transaction.close();
+                    }
+                    workerBroker.getIndexController().setStoreFilter(null);
+                }
+            } catch (final Exception e) {
+                LOG.error("Bulk restore worker failed: " + e.getMessage(), e);
+                failure.compareAndSet(null, e);
+                // keep taking tasks, so the reader of the descriptors is not blocked
+                drain();
+            }
+        }
+
+        private void commit(final TransactionManager transact, final Txn transaction) throws TransactionException {
+            try {
+                transact.commit(transaction);
+            } finally {
+                transaction.close();
+            }
+        }
+
+        private void drain() {
+            try {
+                while (queue.take() != end) {
+                    // skip
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static abstract class Entry {
+        String owner;
+        String group;
+        String mode;
+        boolean system;
+        final List<ACEAider> aces = new ArrayList<>();
+    }
+
+    private static class CollectionEntry extends Entry {
+        String name;
+        int version = 0;
+        final List<ResourceEntry> resources = new ArrayList<>();
+        final List<String> subcollections = new ArrayList<>();
+        final List<DeletedEntry> deleted = new ArrayList<>();
+    }
+
+    private static class ResourceEntry extends Entry {
+        String name;
+        String type;
+        String filename;
+        String mimetype;
+        String created;
+        String modified;
+        String publicid;
+        String systemid;
+        String namedoctype;
+    }
+
+    private static class DeletedEntry {
+        final String name;
+        final String type;
+
+        DeletedEntry(final String name, final String type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Reads a collection descriptor into memory, with the same elements as {@link SystemImportHandler}.
+     */
+    private class DescriptorHandler extends DefaultHandler {
+        private final CollectionEntry collection = new CollectionEntry();
+        private Entry current = null;
+
+        @Override
+        public void startElement(final String namespaceURI, final String localName, final String qName, final Attributes atts) {
+            if ("collection".equals(localName)) {
+                collection.name = atts.getValue("name");
+                readPermissions(collection, atts);
+                final String version = atts.getValue("version");
+                if (version != null) {
+                    try {
+                        collection.version = Integer.parseInt(version);
+                    } catch (final NumberFormatException e) {
+                        final String msg = "Could not parse version number for Collection '" + collection.name + "', defaulting to version 0";
+                        report(() -> listener.warn(msg));
+                        LOG.warn(msg);
+                    }
+                }
+                current = collection;
+
+            } else if ("resource".equals(localName)) {
+                final String skip = atts.getValue("skip");
+                final String name = atts.getValue("name");
+                if ((skip != null && !"no".equals(skip)) || name == null) {
+                    // ACEs of a skipped resource are collected, but not used
+                    current = new ResourceEntry();
+                    return;
+                }
+                final ResourceEntry resource = new ResourceEntry();
+                resource.name = name;
+                resource.type = atts.getValue("type") != null ? atts.getValue("type") : "XMLResource";
+                resource.filename = atts.getValue("filename") != null ? atts.getValue("filename") : name;
+                resource.mimetype = atts.getValue("mimetype");
+                resource.created = atts.getValue("created");
+                resource.modified = atts.getValue("modified");
+                resource.publicid = atts.getValue("publicid");
+                resource.systemid = atts.getValue("systemid");
+                resource.namedoctype = atts.getValue("namedoctype");
+                readPermissions(resource, atts);
+                collection.resources.add(resource);
+                current = resource;
+
+            } else if ("subcollection".equals(localName)) {
+                collection.subcollections.add(atts.getValue("filename") != null ? atts.getValue("filename") : atts.getValue("name"));
+
+            } else if ("deleted".equals(localName)) {
+                collection.deleted.add(new DeletedEntry(atts.getValue("name"), atts.getValue("type")));
+
+            } else if ("ace".equals(localName) && current != null) {
+                current.aces.add(new ACEAider(
+                        ACE_ACCESS_TYPE.valueOf(atts.getValue("access_type")),
+                        ACE_TARGET.valueOf(atts.getValue("target")),
+                        atts.getValue("who"),
+                        Integer.parseInt(atts.getValue("mode"), 8)));
+            }
+        }
+
+        @Override
+        public void endElement(final String namespaceURI, final String localName, final String qName) {
+            if ("resource".equals(localName)) {
+                current = collection;
+            }
+        }
+
+        private void readPermissions(final Entry entry, final Attributes atts) {
+            entry.owner = atts.getValue("owner");
+            entry.group = atts.getValue("group");
+            entry.mode = atts.getValue("mode");
+            entry.system = collection.name != null && collection.name.startsWith(XmldbURI.SYSTEM_COLLECTION);
+        }
+    }
+}
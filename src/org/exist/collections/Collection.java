@@ -5,6 +5,7 @@ import org.exist.Resource;
 import org.exist.collections.triggers.TriggerException;
 import org.exist.dom.QName;
 import org.exist.dom.persistent.BinaryDocument;
+import org.exist.dom.persistent.BitmapDocumentSet;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.DocumentSet;
 import org.exist.dom.persistent.MutableDocumentSet;
@@ -499,6 +500,18 @@ public interface Collection extends Resource, Comparable<Collection>, Cacheable
     DocumentSet allDocs(DBBroker broker, MutableDocumentSet docs, boolean recursive, LockedDocumentMap lockMap,
                         LockMode lockType) throws LockException, PermissionDeniedException;
 
+    /**
+     * Gets the ids of all of the documents from the Collection, without
+     * retrieving or locking the documents
+     *
+     * @param broker    The database broker
+     * @param docs      A document set which receives the ids of the documents
+     * @param recursive true if we should get all descendants, false just retrieves the children
+     * @return The document set provided in {@param docs}
+     */
+    BitmapDocumentSet allDocIds(DBBroker broker, BitmapDocumentSet docs, boolean recursive)
+            throws PermissionDeniedException;
+
     /**
      * Gets all of the documents from the Collection
      *
@@ -545,6 +558,16 @@ public interface Collection extends Resource, Comparable<Collection>, Cacheable
      */
     DocumentImpl getDocument(DBBroker broker, XmldbURI name) throws PermissionDeniedException;
 
+    /**
+     * Get a child resource as identified by its id. The permissions of the
+     * document are not checked, so the caller has to check them before, e.g.
+     * when the id was added to a {@link BitmapDocumentSet}.
+     *
+     * @param docId The id of the document
+     * @return the document or null if it doesn't exist
+     */
+    DocumentImpl getDocumentById(int docId) throws LockException;
+
     /**
      * Retrieve a child resource after putting a read lock on it.
      * With this method, access to the received document object is safe.
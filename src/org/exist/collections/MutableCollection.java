@@ -28,6 +28,7 @@ import org.exist.dom.persistent.DocumentSet;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.MutableDocumentSet;
 import org.exist.dom.persistent.BinaryDocument;
+import org.exist.dom.persistent.BitmapDocumentSet;
 import org.exist.dom.persistent.DefaultDocumentSet;
 import java.io.*;
 import java.util.*;
@@ -61,6 +62,8 @@ import org.exist.util.MimeType;
 import org.exist.util.SyntaxException;
 import org.exist.util.XMLReaderObjectFactory;
 import org.exist.util.XMLReaderObjectFactory.VALIDATION_SETTING;
+import org.exist.util.IntBitmap;
+import org.exist.util.hashtable.Int2ObjectHashMap;
 import org.exist.util.hashtable.ObjectHashSet;
 import org.exist.util.serializer.DOMStreamer;
 import org.exist.xmldb.XmldbURI;
@@ -88,6 +91,7 @@ public class MutableCollection implements Collection {
     private XmldbURI path;
     private final Lock lock;
     @GuardedBy("lock") private final Map<String, DocumentImpl> documents = new TreeMap<>();
+    @GuardedBy("lock") private final Int2ObjectHashMap<DocumentImpl> documentsById = new Int2ObjectHashMap<>();
     @GuardedBy("lock") private ObjectHashSet<XmldbURI> subCollections = new ObjectHashSet<>(19);
     private long address = BFile.UNKNOWN_ADDRESS;  // Storage address of the collection in the BFile
     private long created = 0;
@@ -299,7 +303,7 @@ public class MutableCollection implements Collection {
 
         getLock().acquire(LockMode.WRITE_LOCK);
         try {
-            documents.put(doc.getFileURI().getRawCollectionPath(), doc);
+            putDocument(doc);
         } finally {
             getLock().release(LockMode.WRITE_LOCK);
         }
@@ -314,7 +318,7 @@ public class MutableCollection implements Collection {
 
         getLock().acquire(LockMode.WRITE_LOCK);
         try {
-            documents.remove(doc.getFileURI().getRawCollectionPath());
+            removeDocument(doc.getFileURI().getRawCollectionPath());
         } finally {
             getLock().release(LockMode.WRITE_LOCK);
         }
@@ -469,6 +473,48 @@ public class MutableCollection implements Collection {
         return docs;
     }
 
+    @Override
+    public BitmapDocumentSet allDocIds(final DBBroker broker, final BitmapDocumentSet docs, final boolean recursive)
+            throws PermissionDeniedException {
+        List<XmldbURI> subColls = null;
+        if(getPermissionsNoLock().validate(broker.getCurrentSubject(), Permission.READ)) {
+            try {
+                getLock().acquire(LockMode.READ_LOCK);
+                try {
+                    //Add the ids of all readable docs in this collection to the returned set
+                    final IntBitmap docIds = new IntBitmap();
+                    for(final DocumentImpl doc : documents.values()) {
+                        if(doc.getPermissions().validate(broker.getCurrentSubject(), Permission.READ)) {
+                            docIds.add(doc.getDocId());
+                        }
+                    }
+                    docs.add(this, docIds);
+                    subColls = subCollections.keys();
+                } finally {
+                    getLock().release(LockMode.READ_LOCK);
+                }
+            } catch(final LockException e) {
+                LOG.error(e.getMessage(), e);
+            }
+        }
+
+        if(recursive && subColls != null) {
+            // process the child collections
+            for(final XmldbURI childName : subColls) {
+                try {
+                    final Collection child = broker.openCollection(path.appendInternal(childName), LockMode.NO_LOCK);
+                    //A collection may have been removed in the meantime, so check first
+                    if(child != null) {
+                        child.allDocIds(broker, docs, recursive);
+                    }
+                } catch(final PermissionDeniedException pde) {
+                    //SKIP to next collection
+                }
+            }
+        }
+        return docs;
+    }
+
     @Override
     public DocumentSet
     getDocuments(final DBBroker broker, final MutableDocumentSet docs)
@@ -512,6 +558,23 @@ public class MutableCollection implements Collection {
         return docs;
     }
 
+    @GuardedBy("lock")
+    private void putDocument(final DocumentImpl doc) {
+        final DocumentImpl oldDoc = documents.put(doc.getFileURI().getRawCollectionPath(), doc);
+        if(oldDoc != null) {
+            documentsById.remove(oldDoc.getDocId());
+        }
+        documentsById.put(doc.getDocId(), doc);
+    }
+
+    @GuardedBy("lock")
+    private void removeDocument(final String rawPath) {
+        final DocumentImpl oldDoc = documents.remove(rawPath);
+        if(oldDoc != null) {
+            documentsById.remove(oldDoc.getDocId());
+        }
+    }
+
     /**
      * Gets a stable list of the document objects
      * from {@link #documents}
@@ -688,6 +751,16 @@ public class MutableCollection implements Collection {
         }
     }
 
+    @Override
+    public DocumentImpl getDocumentById(final int docId) throws LockException {
+        getLock().acquire(LockMode.READ_LOCK);
+        try {
+            return documentsById.get(docId);
+        } finally {
+            getLock().release(LockMode.READ_LOCK);
+        }
+    }
+
     @Override
     public DocumentImpl getDocumentWithLock(final DBBroker broker, final XmldbURI name) throws LockException, PermissionDeniedException {
     	return getDocumentWithLock(broker, name, LockMode.READ_LOCK);
@@ -944,7 +1017,7 @@ public class MutableCollection implements Collection {
                         throw new EXistException("Document must have ID.");
                     }
 
-                    documents.put(doc.getFileURI().getRawCollectionPath(), doc);
+                    putDocument(doc);
                 }
 
                 @Override
@@ -1025,7 +1098,7 @@ public class MutableCollection implements Collection {
             trigger.beforeDeleteDocument(broker, transaction, doc);
             
             broker.removeXMLResource(transaction, doc);
-            documents.remove(name.getRawCollectionPath());
+            removeDocument(name.getRawCollectionPath());
             
             trigger.afterDeleteDocument(broker, transaction, getURI().append(name));
             
@@ -1100,7 +1173,7 @@ public class MutableCollection implements Collection {
                 } catch (final IOException ex) {
                     throw new PermissionDeniedException("Cannot delete file: " + doc.getURI().toString() + ": " + ex.getMessage(), ex);
                 }
-                documents.remove(doc.getFileURI().getRawCollectionPath());
+                removeDocument(doc.getFileURI().getRawCollectionPath());
             } finally {
                 indexController.endIndexDocument(transaction, listener);
             }
@@ -1455,7 +1528,7 @@ public class MutableCollection implements Collection {
                 if (oldDoc.getResourceType() == DocumentImpl.BINARY_FILE) {
                     //TODO : use a more elaborated method ? No triggers...
                     broker.removeBinaryResource(transaction, (BinaryDocument) oldDoc);
-                    documents.remove(oldDoc.getFileURI().getRawCollectionPath());
+                    removeDocument(oldDoc.getFileURI().getRawCollectionPath());
                     //This lock is released in storeXMLInternal()
                     //TODO : check that we go until there to ensure the lock is released
 //                    if (transaction != null)
@@ -96,12 +96,12 @@ public class AttrImpl extends NodeImpl implements Attr {
 
     @Override
     public String getValue() {
-        return document.attrValue[nodeNumber];
+        return document.getAttributeValue(nodeNumber);
     }
 
     @Override
     public void setValue(final String value) throws DOMException {
-        document.attrValue[nodeNumber] = value;
+        document.setAttributeValue(nodeNumber, value);
     }
 
     @Override
@@ -118,7 +118,7 @@ public class AttrImpl extends NodeImpl implements Attr {
 
     @Override
     public String getStringValue() throws DOMException {
-        return document.attrValue[nodeNumber];
+        return document.getAttributeValue(nodeNumber);
     }
 
     @Override
@@ -202,7 +202,7 @@ public class AttrImpl extends NodeImpl implements Attr {
         if(obj instanceof AttrImpl) {
             final AttrImpl other = ((AttrImpl)obj);
             return other.getQName().equals(getQName())
-                    && other.document.attrValue[nodeNumber].equals(document.attrValue[nodeNumber]);
+                    && other.document.getAttributeValue(nodeNumber).equals(document.getAttributeValue(nodeNumber));
         }
 
         return false;
@@ -78,6 +78,25 @@ import static org.exist.dom.QName.Validity.ILLEGAL_FORMAT;
  */
 public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
 
+    public static final String MEMTREE_STORAGE_ATTRIBUTE = "memtree-storage";
+    public static final String PROPERTY_MEMTREE_STORAGE = "xquery.memtree-storage";
+
+    /**
+     * Character data is kept in a char array and attribute values as strings.
+     */
+    public static final String STORAGE_ARRAYS = "arrays";
+
+    /**
+     * Character data and attribute values are kept as UTF-8 in append-only
+     * slabs on the heap, see {@link TextSlabs}.
+     */
+    public static final String STORAGE_CHUNKED = "chunked";
+
+    /**
+     * Like {@link #STORAGE_CHUNKED}, but the slabs are allocated off-heap.
+     */
+    public static final String STORAGE_CHUNKED_OFF_HEAP = "chunked-off-heap";
+
     private static final int NODE_SIZE = 16;
     private static final int ATTR_SIZE = 8;
     private static final int CHAR_BUF_SIZE = 256;
@@ -105,12 +124,18 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
     protected char[] characters = null;
     protected int nextChar = 0;
 
+    // character data and attribute values if chunked storage is used
+    protected TextSlabs slabs = null;
+
     // attributes
     protected QName[] attrName;
     protected int[] attrType;
     protected NodeId[] attrNodeId;
     protected int[] attrParent;
     protected String[] attrValue;
+    // offset and length of the attribute values in the slabs
+    protected int[] attrValueOffset;
+    protected int[] attrValueLen;
     protected int nextAttr = 0;
 
     // namespaces
@@ -134,6 +159,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
     protected XQueryContext context;
     protected final boolean explicitlyCreated;
     protected final long docId;
+    protected final String storage;
     private Database db = null;
     protected NamePool namePool;
 
@@ -141,6 +167,15 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
 
 
     public DocumentImpl(final XQueryContext context, final boolean explicitlyCreated) {
+        this(context, explicitlyCreated, null);
+    }
+
+    /**
+     * @param storage one of {@link #STORAGE_ARRAYS}, {@link #STORAGE_CHUNKED}
+     *                or {@link #STORAGE_CHUNKED_OFF_HEAP}, or null to use the
+     *                storage configured for the database
+     */
+    public DocumentImpl(final XQueryContext context, final boolean explicitlyCreated, final String storage) {
         super(null, 0);
         this.context = context;
         this.explicitlyCreated = explicitlyCreated;
@@ -151,6 +186,23 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
             db = context.getDatabase();
             namePool = context.getSharedNamePool();
         }
+        this.storage = storage == null ? getConfiguredStorage(db) : storage;
+    }
+
+    private static String getConfiguredStorage(final Database db) {
+        if(db == null || db.getConfiguration() == null) {
+            return STORAGE_ARRAYS;
+        }
+        final Object storage = db.getConfiguration().getProperty(PROPERTY_MEMTREE_STORAGE);
+        return storage == null ? STORAGE_ARRAYS : (String) storage;
+    }
+
+    private boolean isChunked() {
+        return STORAGE_CHUNKED.equals(storage) || STORAGE_CHUNKED_OFF_HEAP.equals(storage);
+    }
+
+    private TextSlabs createSlabs() {
+        return isChunked() ? new TextSlabs(STORAGE_CHUNKED_OFF_HEAP.equals(storage)) : null;
     }
 
     private Database getDatabase() {
@@ -180,7 +232,13 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         Arrays.fill(alphaLen, -1);
         attrName = new QName[ATTR_SIZE];
         attrParent = new int[ATTR_SIZE];
-        attrValue = new String[ATTR_SIZE];
+        slabs = createSlabs();
+        if(slabs == null) {
+            attrValue = new String[ATTR_SIZE];
+        } else {
+            attrValueOffset = new int[ATTR_SIZE];
+            attrValueLen = new int[ATTR_SIZE];
+        }
         attrType = new int[ATTR_SIZE];
         attrNodeId = new NodeId[NODE_SIZE];
         treeLevel[0] = 0;
@@ -194,6 +252,9 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         nextAttr = 0;
         nextReferenceIdx = 0;
         references = null;
+        if(slabs != null) {
+            slabs = createSlabs();
+        }
     }
 
     public int getSize() {
@@ -219,6 +280,11 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         if(nodeKind == null) {
             init();
         }
+        if(slabs != null) {
+            alpha[nodeNum] = slabs.length();
+            alphaLen[nodeNum] = slabs.append(ch, start, len);
+            return;
+        }
         if(characters == null) {
             characters = new char[len > CHAR_BUF_SIZE ? len : CHAR_BUF_SIZE];
         } else if((nextChar + len) >= characters.length) {
@@ -240,6 +306,11 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         if(nodeKind == null) {
             init();
         }
+        if(slabs != null) {
+            alpha[nodeNum] = slabs.length();
+            alphaLen[nodeNum] = s == null ? 0 : slabs.append(s);
+            return;
+        }
         int len = (s == null) ? 0 : s.length();
         if(characters == null) {
             characters = new char[(len > CHAR_BUF_SIZE) ? len : CHAR_BUF_SIZE];
@@ -260,6 +331,10 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
     }
 
     public void appendChars(final int nodeNum, final char[] ch, final int start, final int len) {
+        if(slabs != null) {
+            alphaLen[nodeNum] += slabs.append(ch, start, len);
+            return;
+        }
         if(characters == null) {
             characters = new char[(len > CHAR_BUF_SIZE) ? len : CHAR_BUF_SIZE];
         } else if((nextChar + len) >= characters.length) {
@@ -277,6 +352,10 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
     }
 
     public void appendChars(final int nodeNum, final CharSequence s) {
+        if(slabs != null) {
+            alphaLen[nodeNum] += slabs.append(s);
+            return;
+        }
         final int len = s.length();
         if(characters == null) {
             characters = new char[(len > CHAR_BUF_SIZE) ? len : CHAR_BUF_SIZE];
@@ -295,6 +374,77 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         }
     }
 
+    /**
+     * Replaces the character data of a node. If the new data does not fit
+     * into the space of the old one, it is appended to the end of the
+     * character data and the old data is left unused.
+     */
+    public void replaceChars(final int nodeNum, final CharSequence s) {
+        final int len = s.length();
+        if(slabs == null && alpha[nodeNum] > -1 && len <= alphaLen[nodeNum]) {
+            final int offset = alpha[nodeNum];
+            for(int i = 0; i < len; i++) {
+                characters[offset + i] = s.charAt(i);
+            }
+            alphaLen[nodeNum] = len;
+        } else {
+            addChars(nodeNum, s);
+        }
+    }
+
+    /**
+     * Returns the character data of a text, cdata section, comment or
+     * processing instruction node.
+     */
+    public String getChars(final int nodeNum) {
+        return getChars(alpha[nodeNum], alphaLen[nodeNum]);
+    }
+
+    /**
+     * Returns the character data starting at offset. Offset and length are
+     * given in chars, or in bytes if chunked storage is used.
+     */
+    String getChars(final int offset, final int len) {
+        if(len <= 0) {
+            return "";
+        }
+        return slabs == null ? new String(characters, offset, len) : slabs.getString(offset, len);
+    }
+
+    void appendCharsTo(final StringBuilder buf, final int nodeNum) {
+        if(slabs != null) {
+            slabs.appendTo(buf, alpha[nodeNum], alphaLen[nodeNum]);
+        } else {
+            buf.append(characters, alpha[nodeNum], alphaLen[nodeNum]);
+        }
+    }
+
+    /**
+     * Returns the number of chars in the character data of a node.
+     */
+    public int getCharsLength(final int nodeNum) {
+        if(slabs != null) {
+            return slabs.getCharCount(alpha[nodeNum], alphaLen[nodeNum]);
+        }
+        return alphaLen[nodeNum];
+    }
+
+    public String getAttributeValue(final int attr) {
+        if(slabs != null) {
+            return slabs.getString(attrValueOffset[attr], attrValueLen[attr]);
+        }
+        return attrValue[attr];
+    }
+
+    public void setAttributeValue(final int attr, final String value) {
+        if(slabs != null) {
+            attrValueOffset[attr] = slabs.length();
+            attrValueLen[attr] = value == null ? 0 : slabs.append(value);
+        } else {
+            attrValue[attr] = value;
+        }
+    }
+
     public void addReferenceNode(final int nodeNum, final NodeProxy proxy) {
         if(nodeKind == null) {
             init();
@@ -332,7 +482,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
             final QName prevQn = attrName[attrN];
             if(prevQn.equals(qname)) {
                 if(replaceAttribute) {
-                    attrValue[attrN] = value;
+                    setAttributeValue(attrN, value);
                     attrType[attrN] = type;
                     return attrN;
                 } else {
@@ -347,7 +497,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         final QName attrQname = new QName(qname.getLocalPart(), qname.getNamespaceURI(), qname.getPrefix(), ElementValue.ATTRIBUTE);
         attrParent[nextAttr] = nodeNum;
         attrName[nextAttr] = namePool.getSharedName(attrQname);
-        attrValue[nextAttr] = value;
+        setAttributeValue(nextAttr, value);
         attrType[nextAttr] = type;
         if(alpha[nodeNum] < 0) {
             alpha[nodeNum] = nextAttr;
@@ -439,9 +589,19 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         System.arraycopy(attrParent, 0, newAttrParent, 0, size);
         attrParent = newAttrParent;
 
-        final String[] newAttrValue = new String[newSize];
-        System.arraycopy(attrValue, 0, newAttrValue, 0, size);
-        attrValue = newAttrValue;
+        if(slabs == null) {
+            final String[] newAttrValue = new String[newSize];
+            System.arraycopy(attrValue, 0, newAttrValue, 0, size);
+            attrValue = newAttrValue;
+        } else {
+            final int[] newAttrValueOffset = new int[newSize];
+            System.arraycopy(attrValueOffset, 0, newAttrValueOffset, 0, size);
+            attrValueOffset = newAttrValueOffset;
+
+            final int[] newAttrValueLen = new int[newSize];
+            System.arraycopy(attrValueLen, 0, newAttrValueLen, 0, size);
+            attrValueLen = newAttrValueLen;
+        }
 
         final int[] newAttrType = new int[newSize];
         System.arraycopy(attrType, 0, newAttrType, 0, size);
@@ -722,7 +882,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         if(-1 < attr) {
             while((attr < document.nextAttr) && (document.attrParent[attr] == nodeNumber)) {
                 if((document.attrType[attr] == AttrImpl.ATTR_ID_TYPE) &&
-                    id.equals(document.attrValue[attr])) {
+                    id.equals(document.getAttributeValue(attr))) {
                     return true;
                 }
                 ++attr;
@@ -736,7 +896,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         if(-1 < attr) {
             while((attr < document.nextAttr) && (document.attrParent[attr] == nodeNumber)) {
                 if((document.attrType[attr] == AttrImpl.ATTR_IDREF_TYPE) &&
-                    id.equals(document.attrValue[attr])) {
+                    id.equals(document.getAttributeValue(attr))) {
                     return new AttrImpl(this, attr);
                 }
                 ++attr;
@@ -1063,7 +1223,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
                 if(-1 < attr) {
                     while((attr < document.nextAttr) && (document.attrParent[attr] == nr)) {
                         final QName attrQName = document.attrName[attr];
-                        receiver.attribute(attrQName, attrValue[attr]);
+                        receiver.attribute(attrQName, getAttributeValue(attr));
                         ++attr;
                     }
                 }
@@ -1078,21 +1238,25 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
                 break;
             }
             case Node.TEXT_NODE:
-                receiver.characters(document.characters, document.alpha[nr], document.alphaLen[nr]);
+                receiver.characters(document.getChars(nr));
                 break;
-            case Node.CDATA_SECTION_NODE:
-                receiver.cdataSection(document.characters, document.alpha[nr], document.alphaLen[nr]);
+            case Node.CDATA_SECTION_NODE: {
+                final String cdata = document.getChars(nr);
+                receiver.cdataSection(cdata.toCharArray(), 0, cdata.length());
                 break;
+            }
             case Node.ATTRIBUTE_NODE:
                 final QName attrQName = document.attrName[nr];
-                receiver.attribute(attrQName, attrValue[nr]);
+                receiver.attribute(attrQName, getAttributeValue(nr));
                 break;
-            case Node.COMMENT_NODE:
-                receiver.comment(document.characters, document.alpha[nr], document.alphaLen[nr]);
+            case Node.COMMENT_NODE: {
+                final String comment = document.getChars(nr);
+                receiver.comment(comment.toCharArray(), 0, comment.length());
                 break;
+            }
             case Node.PROCESSING_INSTRUCTION_NODE:
                 final QName piQName = document.nodeName[nr];
-                final String data = new String(document.characters, document.alpha[nr], document.alphaLen[nr]);
+                final String data = document.getChars(nr);
                 receiver.processingInstruction(piQName.getLocalPart(), data);
                 break;
             case NodeImpl.NAMESPACE_NODE:
@@ -1234,10 +1398,13 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         alphaLen = newDoc.alphaLen;
         characters = newDoc.characters;
         nextChar = newDoc.nextChar;
+        slabs = newDoc.slabs;
         attrName = newDoc.attrName;
         attrNodeId = newDoc.attrNodeId;
         attrParent = newDoc.attrParent;
         attrValue = newDoc.attrValue;
+        attrValueOffset = newDoc.attrValueOffset;
+        attrValueLen = newDoc.attrValueLen;
         nextAttr = newDoc.nextAttr;
         namespaceParent = newDoc.namespaceParent;
         namespaceCode = newDoc.namespaceCode;
@@ -1313,31 +1480,34 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
                     attribs = new AttrList();
                     while((attr < document.nextAttr) && (document.attrParent[attr] == nr)) {
                         final QName attrQName = document.attrName[attr];
-                        attribs.addAttribute(attrQName, attrValue[attr]);
+                        attribs.addAttribute(attrQName, getAttributeValue(attr));
                         ++attr;
                     }
                 }
                 receiver.startElement(nodeName, attribs);
                 break;
             case Node.TEXT_NODE:
-                receiver.characters(new String(document.characters, document.alpha[nr],
-                    document.alphaLen[nr]));
+                receiver.characters(document.getChars(nr));
                 break;
             case Node.ATTRIBUTE_NODE:
                 final QName attrQName = document.attrName[nr];
-                receiver.attribute(attrQName, attrValue[nr]);
+                receiver.attribute(attrQName, getAttributeValue(nr));
                 break;
-            case Node.COMMENT_NODE:
-                receiver.comment(document.characters, document.alpha[nr], document.alphaLen[nr]);
+            case Node.COMMENT_NODE: {
+                final String comment = document.getChars(nr);
+                receiver.comment(comment.toCharArray(), 0, comment.length());
                 break;
+            }
             case Node.PROCESSING_INSTRUCTION_NODE:
                 final QName qn = document.nodeName[nr];
-                final String data = new String(document.characters, document.alpha[nr], document.alphaLen[nr]);
+                final String data = document.getChars(nr);
                 receiver.processingInstruction(qn.getLocalPart(), data);
                 break;
-            case Node.CDATA_SECTION_NODE:
-                receiver.cdataSection(document.characters, document.alpha[nr], document.alphaLen[nr]);
+            case Node.CDATA_SECTION_NODE: {
+                final String cdata = document.getChars(nr);
+                receiver.cdataSection(cdata.toCharArray(), 0, cdata.length());
                 break;
+            }
             case NodeImpl.REFERENCE_NODE:
                 serializer.toReceiver(document.references[document.alpha[nr]], true, false);
                 break;
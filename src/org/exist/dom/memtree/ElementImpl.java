@@ -108,7 +108,7 @@ public class ElementImpl extends NodeImpl implements Element {
             while(attr < document.nextAttr && document.attrParent[attr] == nodeNumber) {
                 final QName attrQName = document.attrName[attr];
                 if(attrQName.getStringValue().equals(name)) {
-                    return document.attrValue[attr];
+                    return document.getAttributeValue(attr);
                 }
                 ++attr;
             }
@@ -417,7 +417,7 @@ public class ElementImpl extends NodeImpl implements Element {
             while(attr < document.nextAttr && document.attrParent[attr] == nodeNumber) {
                 final QName name = document.attrName[attr];
                 if(name.getLocalPart().equals(localName) && name.getNamespaceURI().equals(namespaceURI)) {
-                    return document.attrValue[attr];
+                    return document.getAttributeValue(attr);
                 }
                 ++attr;
             }
@@ -209,7 +209,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
             final QName qname = doc.attrName[attrStart + i];
 
             if((namespaceURI == null || namespaceURI.equals(qname.getNamespaceURI())) && localName.equals(qname.getLocalPart())) {
-                return doc.attrValue[attrStart + i];
+                return doc.getAttributeValue(attrStart + i);
             }
         }
         return null;
@@ -321,7 +321,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
             throw new ArrayIndexOutOfBoundsException();
         }
         final int attr = doc.alpha[currentNode];
-        return doc.attrValue[attr + index];
+        return doc.getAttributeValue(attr + index);
     }
 
     @Override
@@ -373,16 +373,14 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
     @Override
     public String getText() {
         if(state == CHARACTERS || state == COMMENT || state == CDATA) {
-            return new String(doc.characters, doc.alpha[currentNode], doc.alphaLen[currentNode]);
+            return doc.getChars(currentNode);
         }
         return "";
     }
 
     @Override
     public char[] getTextCharacters() {
-        final char[] ch = new char[doc.alphaLen[currentNode]];
-        System.arraycopy(doc.characters, doc.alpha[currentNode], ch, 0, ch.length);
-        return ch;
+        return doc.getChars(currentNode).toCharArray();
     }
 
     @Override
@@ -476,6 +474,6 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
 
     @Override
     public String getPIData() {
-        return new String(doc.characters, doc.alpha[currentNode], doc.alphaLen[currentNode]);
+        return doc.getChars(currentNode);
     }
 }
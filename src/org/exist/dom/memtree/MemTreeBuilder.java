@@ -44,6 +44,7 @@ import java.util.Arrays;
 public class MemTreeBuilder {
 
     private final XQueryContext context;
+    private final String storage;
     private DocumentImpl doc;
     private short level = 1;
     private int[] prevNodeInLevel;
@@ -55,8 +56,18 @@ public class MemTreeBuilder {
 
 
     public MemTreeBuilder(final XQueryContext context) {
+        this(context, null);
+    }
+
+    /**
+     * @param storage the storage of the documents to build, see
+     *                {@link DocumentImpl#STORAGE_CHUNKED}, or null to use
+     *                the storage configured for the database
+     */
+    public MemTreeBuilder(final XQueryContext context, final String storage) {
         super();
         this.context = context;
+        this.storage = storage;
         prevNodeInLevel = new int[15];
         Arrays.fill(prevNodeInLevel, -1);
         prevNodeInLevel[0] = 0;
@@ -86,7 +97,7 @@ public class MemTreeBuilder {
      * Start building the document.
      */
     public void startDocument() {
-        this.doc = new DocumentImpl(context, false);
+        startDocument(false);
     }
 
 
@@ -96,7 +107,7 @@ public class MemTreeBuilder {
      * @param explicitCreation DOCUMENT ME!
      */
     public void startDocument(final boolean explicitCreation) {
-        this.doc = new DocumentImpl(context, explicitCreation);
+        this.doc = new DocumentImpl(context, explicitCreation, storage);
     }
 
 
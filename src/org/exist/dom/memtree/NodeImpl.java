@@ -524,15 +524,18 @@ public abstract class NodeImpl<T extends NodeImpl> implements INode<DocumentImpl
                 if(len < 0) {
                     startOffset = document.alpha[next];
                     len = document.alphaLen[next];
-                } else {
+                } else if(startOffset + len == document.alpha[next]) {
                     len += document.alphaLen[next];
+                } else {
+                    // character data has been replaced and is no longer contiguous
+                    return getStringValueSlow();
                 }
             } else {
                 return getStringValueSlow();
             }
             ++next;
         }
-        return len < 0 ? "" : new String(document.characters, startOffset, len);
+        return len < 0 ? "" : document.getChars(startOffset, len);
     }
 
     private String getStringValueSlow() {
@@ -548,7 +551,7 @@ public abstract class NodeImpl<T extends NodeImpl> implements INode<DocumentImpl
                     if(buf == null) {
                         buf = new StringBuilder();
                     }
-                    buf.append(document.characters, document.alpha[next], document.alphaLen[next]);
+                    document.appendCharsTo(buf, next);
                     break;
                 }
                 case REFERENCE_NODE: {
@@ -59,7 +59,7 @@ public class ProcessingInstructionImpl extends NodeImpl implements ProcessingIns
 
     @Override
     public String getData() {
-        return new String(document.characters, document.alpha[nodeNumber], document.alphaLen[nodeNumber]);
+        return document.getChars(nodeNumber);
     }
 
     @Override
@@ -74,9 +74,7 @@ public class ProcessingInstructionImpl extends NodeImpl implements ProcessingIns
 
     @Override
     public void setData(final String data) throws DOMException {
-        document.characters = data.toCharArray();
-        document.alpha[nodeNumber] = 0;
-        document.alphaLen[nodeNumber] = data.length();
+        document.replaceChars(nodeNumber, data);
     }
 
     @Override
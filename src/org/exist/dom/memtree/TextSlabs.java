@@ -0,0 +1,277 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.dom.memtree;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append-only store for the character data of an in-memory document.
+ * <p/>
+ * Characters are encoded as UTF-8 into slabs, which are allocated on the
+ * heap or, optionally, off-heap as direct buffers. The first slabs are small
+ * and double in size up to {@link #MAX_SLAB_SIZE}, so that the many small
+ * documents created by a query stay small. The store grows by adding slabs,
+ * data which has been written is never copied. Surrogates are encoded one by
+ * one, like in CESU-8, so that every char maps to one to three bytes.
+ * <p/>
+ * Offsets and lengths are given in bytes. A string may span several slabs.
+ * <p/>
+ * Off-heap slabs of full size are returned to a shared pool as soon as the
+ * store is no longer reachable, i.e. when the garbage collector has found
+ * that no document uses it any more.
+ */
+final class TextSlabs {
+
+    private static final int MIN_SLAB_SHIFT = 10;
+    private static final int MAX_SLAB_SHIFT = 16;
+    static final int MAX_SLAB_SIZE = 1 << MAX_SLAB_SHIFT;
+
+    // number of slabs which are smaller than MAX_SLAB_SIZE
+    private static final int SMALL_SLABS = MAX_SLAB_SHIFT - MIN_SLAB_SHIFT;
+    // start offset of the first slab of full size
+    private static final int SMALL_SLABS_LENGTH = MAX_SLAB_SIZE - (1 << MIN_SLAB_SHIFT);
+
+    private static final int MAX_POOLED_SLABS = 256;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+    private static final ReferenceQueue<TextSlabs> unreachable = new ReferenceQueue<>();
+    // keeps the references themselves reachable until they are enqueued
+    private static final Set<SlabsReference> references = ConcurrentHashMap.newKeySet();
+
+    private final boolean offHeap;
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+
+    private ByteBuffer current = null;
+    private int currentPos = 0;
+    private int length = 0;
+
+    TextSlabs(final boolean offHeap) {
+        this.offHeap = offHeap;
+        if (offHeap) {
+            references.add(new SlabsReference(this, slabs));
+        }
+    }
+
+    /**
+     * @return the number of bytes written so far, which is also the offset
+     * of the next string to be appended
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Appends the given characters.
+     *
+     * @return the number of bytes written
+     */
+    int append(final char[] ch, final int start, final int len) {
+        final int begin = length;
+        for (int i = start; i < start + len; i++) {
+            put(ch[i]);
+        }
+        return length - begin;
+    }
+
+    /**
+     * Appends the given characters.
+     *
+     * @return the number of bytes written
+     */
+    int append(final CharSequence s) {
+        final int begin = length;
+        final int len = s.length();
+        for (int i = 0; i < len; i++) {
+            put(s.charAt(i));
+        }
+        return length - begin;
+    }
+
+    private void put(final char c) {
+        if (c < 0x80) {
+            put((byte) c);
+        } else if (c < 0x800) {
+            put((byte) (0xC0 | (c >> 6)));
+            put((byte) (0x80 | (c & 0x3F)));
+        } else {
+            put((byte) (0xE0 | (c >> 12)));
+            put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            put((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    private void put(final byte b) {
+        if (current == null || currentPos == current.capacity()) {
+            current = allocate(slabSize(slabs.size()));
+            slabs.add(current);
+            currentPos = 0;
+        }
+        current.put(currentPos++, b);
+        length++;
+    }
+
+    /**
+     * Decodes len bytes starting at offset.
+     */
+    String getString(final int offset, final int len) {
+        final char[] ch = new char[len];
+        final int count = decode(offset, len, ch);
+        return new String(ch, 0, count);
+    }
+
+    /**
+     * Decodes len bytes starting at offset into the buffer.
+     */
+    void appendTo(final StringBuilder buf, final int offset, final int len) {
+        buf.append(getString(offset, len));
+    }
+
+    /**
+     * @return the number of chars encoded in len bytes starting at offset
+     */
+    int getCharCount(final int offset, final int len) {
+        int count = 0;
+        int slab = slabIndex(offset);
+        int pos = offset - slabStart(slab);
+        for (int i = 0; i < len; i++) {
+            if (pos == slabSize(slab)) {
+                slab++;
+                pos = 0;
+            }
+            if ((slabs.get(slab).get(pos++) & 0xC0) != 0x80) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int decode(final int offset, final int len, final char[] ch) {
+        int count = 0;
+        int slab = slabIndex(offset);
+        int pos = offset - slabStart(slab);
+        ByteBuffer buf = null;
+        int c = 0;
+        int pending = 0;
+        for (int i = 0; i < len; i++) {
+            if (buf == null) {
+                buf = slabs.get(slab);
+            } else if (pos == slabSize(slab)) {
+                buf = slabs.get(++slab);
+                pos = 0;
+            }
+            final int b = buf.get(pos++) & 0xFF;
+            if (pending > 0) {
+                c = (c << 6) | (b & 0x3F);
+                if (--pending == 0) {
+                    ch[count++] = (char) c;
+                }
+            } else if (b < 0x80) {
+                ch[count++] = (char) b;
+            } else if (b < 0xE0) {
+                c = b & 0x1F;
+                pending = 1;
+            } else {
+                c = b & 0x0F;
+                pending = 2;
+            }
+        }
+        return count;
+    }
+
+    private static int slabIndex(final int offset) {
+        if (offset < SMALL_SLABS_LENGTH) {
+            return 31 - Integer.numberOfLeadingZeros((offset >>> MIN_SLAB_SHIFT) + 1);
+        }
+        return SMALL_SLABS + ((offset - SMALL_SLABS_LENGTH) >>> MAX_SLAB_SHIFT);
+    }
+
+    private static int slabStart(final int slab) {
+        if (slab <= SMALL_SLABS) {
+            return ((1 << slab) - 1) << MIN_SLAB_SHIFT;
+        }
+        return SMALL_SLABS_LENGTH + ((slab - SMALL_SLABS) << MAX_SLAB_SHIFT);
+    }
+
+    private static int slabSize(final int slab) {
+        return slab < SMALL_SLABS ? 1 << (MIN_SLAB_SHIFT + slab) : MAX_SLAB_SIZE;
+    }
+
+    private ByteBuffer allocate(final int size) {
+        if (!offHeap) {
+            return ByteBuffer.allocate(size);
+        }
+        releaseUnreachable();
+        if (size == MAX_SLAB_SIZE) {
+            final ByteBuffer slab = pool.poll();
+            if (slab != null) {
+                pooled.decrementAndGet();
+                return slab;
+            }
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Returns the full size slabs of all stores which have become unreachable
+     * to the pool. Other slabs are left to the garbage collector.
+     */
+    static void releaseUnreachable() {
+        Reference<? extends TextSlabs> ref;
+        while ((ref = unreachable.poll()) != null) {
+            final SlabsReference slabsRef = (SlabsReference) ref;
+            references.remove(slabsRef);
+            for (final ByteBuffer slab : slabsRef.slabs) {
+                if (slab.capacity() == MAX_SLAB_SIZE && pooled.incrementAndGet() <= MAX_POOLED_SLABS) {
+                    pool.offer(slab);
+                } else if (slab.capacity() == MAX_SLAB_SIZE) {
+                    pooled.decrementAndGet();
+                }
+            }
+            slabsRef.slabs.clear();
+        }
+    }
+
+    /**
+     * @return the number of off-heap slabs currently held in the pool
+     */
+    static int getPooledSlabs() {
+        return pooled.get();
+    }
+
+    private static final class SlabsReference extends PhantomReference<TextSlabs> {
+
+        private final List<ByteBuffer> slabs;
+
+        SlabsReference(final TextSlabs store, final List<ByteBuffer> slabs) {
+            super(store, unreachable);
+            this.slabs = slabs;
+        }
+    }
+}
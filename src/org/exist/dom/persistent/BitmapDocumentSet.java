@@ -0,0 +1,308 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.persistent;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.collections.Collection;
+import org.exist.numbering.NodeId;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.util.IntBitmap;
+import org.exist.util.LockException;
+import org.exist.util.hashtable.Int2ObjectHashMap;
+import org.exist.xmldb.XmldbURI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A set of documents which only keeps the ids of the documents, in one
+ * {@link IntBitmap} per collection.
+ * <p>
+ * The {@link DocumentImpl} of a document is only looked up in its collection
+ * when it is requested, e.g. by {@link #getDoc(int)} for an index entry which
+ * matched a query. Tests with {@link #contains(int)} never need the document,
+ * so an index can filter its entries without touching the documents which
+ * don't contribute to the result.
+ * <p>
+ * The documents are not locked while they are in the set. The set is filled
+ * by {@link Collection#allDocIds(DBBroker, BitmapDocumentSet, boolean)}, which
+ * also checks the permissions of the documents.
+ */
+@NotThreadSafe
+public class BitmapDocumentSet implements DocumentSet {
+
+    private static final Logger LOG = LogManager.getLogger(BitmapDocumentSet.class);
+
+    private final List<Collection> collections = new ArrayList<>();
+    private final List<IntBitmap> collectionDocIds = new ArrayList<>();
+    private final IntBitmap docIds = new IntBitmap();
+
+    // the documents looked up so far
+    private final Int2ObjectHashMap<DocumentImpl> documents = new Int2ObjectHashMap<>();
+    // the collection of the last document looked up, documents are often requested by collection
+    private int lastCollection = 0;
+
+    /**
+     * Add the documents of a collection to the set.
+     *
+     * @param collection the collection of the documents
+     * @param ids the ids of the documents
+     */
+    public void add(final Collection collection, final IntBitmap ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        final int idx = collections.indexOf(collection);
+        final IntBitmap collectionIds;
+        if (idx < 0) {
+            collectionIds = new IntBitmap();
+            collections.add(collection);
+            collectionDocIds.add(collectionIds);
+        } else {
+            collectionIds = collectionDocIds.get(idx);
+        }
+        for (final PrimitiveIterator.OfInt i = ids.iterator(); i.hasNext(); ) {
+            final int docId = i.nextInt();
+            collectionIds.add(docId);
+            docIds.add(docId);
+        }
+    }
+
+    /**
+     * @return the ids of all documents in the set
+     */
+    public IntBitmap getDocIds() {
+        return docIds;
+    }
+
+    @Override
+    public Iterator<DocumentImpl> getDocumentIterator() {
+        return new Iterator<DocumentImpl>() {
+            private int idx = 0;
+            private PrimitiveIterator.OfInt ids = null;
+            private DocumentImpl next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    while (ids == null || !ids.hasNext()) {
+                        if (idx == collections.size()) {
+                            return false;
+                        }
+                        ids = collectionDocIds.get(idx++).iterator();
+                    }
+                    // the document may have been removed in the meantime
+                    next = getDoc(idx - 1, ids.nextInt());
+                }
+                return true;
+            }
+
+            @Override
+            public DocumentImpl next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final DocumentImpl doc = next;
+                next = null;
+                return doc;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Collection> getCollectionIterator() {
+        final Set<Collection> sorted = new TreeSet<>(collections);
+        return sorted.iterator();
+    }
+
+    @Override
+    public int getDocumentCount() {
+        return docIds.cardinality();
+    }
+
+    @Override
+    public DocumentImpl getDoc(final int docId) {
+        if (!docIds.contains(docId)) {
+            return null;
+        }
+        DocumentImpl doc = documents.get(docId);
+        if (doc != null) {
+            return doc;
+        }
+        if (collectionDocIds.get(lastCollection).contains(docId)) {
+            return getDoc(lastCollection, docId);
+        }
+        for (int idx = 0; idx < collections.size(); idx++) {
+            if (collectionDocIds.get(idx).contains(docId)) {
+                lastCollection = idx;
+                return getDoc(idx, docId);
+            }
+        }
+        return null;
+    }
+
+    private DocumentImpl getDoc(final int collectionIdx, final int docId) {
+        DocumentImpl doc = documents.get(docId);
+        if (doc == null) {
+            try {
+                doc = collections.get(collectionIdx).getDocumentById(docId);
+            } catch (final LockException e) {
+                LOG.error("Failed to acquire lock on collection " + collections.get(collectionIdx).getURI(), e);
+                return null;
+            }
+            if (doc != null) {
+                documents.put(docId, doc);
+            }
+        }
+        return doc;
+    }
+
+    @Override
+    public XmldbURI[] getNames() {
+        final List<XmldbURI> names = new ArrayList<>(getDocumentCount());
+        for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
+            names.add(i.next().getFileURI());
+        }
+        final XmldbURI result[] = names.toArray(new XmldbURI[names.size()]);
+        Arrays.sort(result);
+        return result;
+    }
+
+    @Override
+    public DocumentSet intersection(final DocumentSet other) {
+        if (other instanceof BitmapDocumentSet) {
+            final BitmapDocumentSet otherBDS = (BitmapDocumentSet) other;
+            final BitmapDocumentSet result = new BitmapDocumentSet();
+            for (int idx = 0; idx < collections.size(); idx++) {
+                result.add(collections.get(idx), collectionDocIds.get(idx).and(otherBDS.docIds));
+            }
+            return result;
+        }
+        // the other set knows its documents already
+        final DefaultDocumentSet result = new DefaultDocumentSet();
+        for (final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
+            final DocumentImpl doc = i.next();
+            if (contains(doc.getDocId())) {
+                result.add(doc);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean contains(final DocumentSet other) {
+        if (other.getDocumentCount() > getDocumentCount()) {
+            return false;
+        }
+        if (other instanceof BitmapDocumentSet) {
+            return docIds.containsAll(((BitmapDocumentSet) other).docIds);
+        }
+        for (final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
+            if (!contains(i.next().getDocId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(final int id) {
+        return docIds.contains(id);
+    }
+
+    @Override
+    public NodeSet docsToNodeSet() {
+        final NodeSet result = new NewArrayNodeSet();
+        for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
+            final DocumentImpl doc = i.next();
+            if (doc.getResourceType() == DocumentImpl.XML_FILE) {  // skip binary resources
+                result.add(new NodeProxy(doc, NodeId.DOCUMENT_NODE));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void lock(final DBBroker broker, final boolean exclusive, final boolean checkExisting) throws LockException {
+        for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
+            final Lock dlock = i.next().getUpdateLock();
+            if (exclusive) {
+                dlock.acquire(LockMode.WRITE_LOCK);
+            } else {
+                dlock.acquire(LockMode.READ_LOCK);
+            }
+        }
+    }
+
+    @Override
+    public void unlock(final boolean exclusive) {
+        final Thread thread = Thread.currentThread();
+        // only the documents locked by lock() are unlocked, they have all been looked up before
+        for (final Iterator<DocumentImpl> i = documents.valueIterator(); i.hasNext(); ) {
+            final Lock dlock = i.next().getUpdateLock();
+            if (exclusive) {
+                dlock.release(LockMode.WRITE_LOCK);
+            } else if (dlock.isLockedForRead(thread)) {
+                dlock.release(LockMode.READ_LOCK);
+            }
+        }
+    }
+
+    @Override
+    public boolean equalDocs(final DocumentSet other) {
+        if (this == other) {
+            return true;
+        }
+        if (getDocumentCount() != other.getDocumentCount()) {
+            return false;
+        }
+        if (other instanceof BitmapDocumentSet) {
+            return docIds.equals(((BitmapDocumentSet) other).docIds);
+        }
+        for (final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
+            if (!contains(i.next().getDocId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder();
+        for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
+            result.append(i.next());
+            if (i.hasNext()) {
+                result.append(", ");
+            }
+        }
+        return result.toString();
+    }
+}
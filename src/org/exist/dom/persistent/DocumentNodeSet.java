@@ -0,0 +1,203 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.persistent;
+
+import org.exist.collections.Collection;
+import org.exist.numbering.NodeId;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+import org.w3c.dom.Node;
+
+import java.util.Iterator;
+
+/**
+ * The document nodes of a {@link BitmapDocumentSet}, as returned by
+ * fn:collection.
+ * <p>
+ * As long as the set is only used as the context of a path step, which
+ * looks up its documents in an index and joins the results with this set,
+ * no {@link NodeProxy} is created for documents without a hit. The node
+ * set is only built when the nodes are iterated or the set is changed, e.g.
+ * when a predicate sets the context of the nodes.
+ */
+public class DocumentNodeSet extends AbstractNodeSet {
+
+    private final BitmapDocumentSet docs;
+    private NewArrayNodeSet nodes = null;
+    private boolean modified = false;
+
+    public DocumentNodeSet(final BitmapDocumentSet docs) {
+        this.docs = docs;
+    }
+
+    /**
+     * @return true if the node set has been built
+     */
+    public boolean isMaterialized() {
+        return nodes != null;
+    }
+
+    private NewArrayNodeSet materialize() {
+        if (nodes == null) {
+            nodes = new NewArrayNodeSet();
+            for (final Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
+                nodes.add(new NodeProxy(i.next()));
+            }
+        }
+        return nodes;
+    }
+
+    @Override
+    public NodeSetIterator iterator() {
+        return materialize().iterator();
+    }
+
+    @Override
+    public SequenceIterator iterate() throws XPathException {
+        return materialize().iterate();
+    }
+
+    @Override
+    public SequenceIterator unorderedIterator() throws XPathException {
+        return materialize().unorderedIterator();
+    }
+
+    @Override
+    public DocumentSet getDocumentSet() {
+        return modified ? nodes.getDocumentSet() : docs;
+    }
+
+    @Override
+    public Iterator<Collection> getCollectionIterator() {
+        return modified ? nodes.getCollectionIterator() : docs.getCollectionIterator();
+    }
+
+    @Override
+    public int getItemType() {
+        return modified ? nodes.getItemType() : Type.DOCUMENT;
+    }
+
+    @Override
+    public int getLength() {
+        return modified ? nodes.getLength() : docs.getDocumentCount();
+    }
+
+    @Override
+    public int getItemCount() {
+        return getLength();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return getLength() == 0;
+    }
+
+    @Override
+    public boolean hasOne() {
+        return getLength() == 1;
+    }
+
+    @Override
+    public boolean contains(final NodeProxy proxy) {
+        return get(proxy.getOwnerDocument(), proxy.getNodeId()) != null;
+    }
+
+    @Override
+    public NodeProxy get(final NodeProxy proxy) {
+        return get(proxy.getOwnerDocument(), proxy.getNodeId());
+    }
+
+    @Override
+    public NodeProxy get(final DocumentImpl doc, final NodeId nodeId) {
+        if (nodes != null) {
+            return nodes.get(doc, nodeId);
+        }
+        if (!NodeId.DOCUMENT_NODE.equals(nodeId) || !docs.contains(doc.getDocId())) {
+            return null;
+        }
+        return new NodeProxy(doc);
+    }
+
+    @Override
+    public NodeProxy get(final int pos) {
+        return materialize().get(pos);
+    }
+
+    @Override
+    public Item itemAt(final int pos) {
+        return materialize().itemAt(pos);
+    }
+
+    @Override
+    public Node item(final int pos) {
+        return materialize().item(pos);
+    }
+
+    @Override
+    public void add(final NodeProxy proxy) {
+        materialize().add(proxy);
+        modified = true;
+    }
+
+    @Override
+    public void add(final NodeProxy proxy, final int sizeHint) {
+        materialize().add(proxy, sizeHint);
+        modified = true;
+    }
+
+    @Override
+    public void addAll(final NodeSet other) {
+        materialize().addAll(other);
+        modified = true;
+    }
+
+    @Override
+    public NodeSet selectParentChild(final NodeSet al, final int mode, final int contextId) {
+        return materialize().selectParentChild(al, mode, contextId);
+    }
+
+    @Override
+    public NodeSet selectAncestorDescendant(final NodeSet al, final int mode, final boolean includeSelf,
+            final int contextId, final boolean copyMatches) {
+        return materialize().selectAncestorDescendant(al, mode, includeSelf, contextId, copyMatches);
+    }
+
+    @Override
+    public NodeSet selectAncestors(final NodeSet descendants, final boolean includeSelf, final int contextId) {
+        return materialize().selectAncestors(descendants, includeSelf, contextId);
+    }
+
+    @Override
+    public int getState() {
+        return nodes == null ? 0 : nodes.getState();
+    }
+
+    @Override
+    public boolean hasChanged(final int previousState) {
+        return getState() != previousState;
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+}
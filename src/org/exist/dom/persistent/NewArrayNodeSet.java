@@ -244,6 +244,17 @@ public class NewArrayNodeSet extends AbstractArrayNodeSet implements ExtNodeSet,
             final boolean includeSelf, final int mode, final int contextId, final boolean copyMatches) {
         sort();
         final NodeSet result = new NewArrayNodeSet();
+        if(al instanceof DocumentNodeSet && !((DocumentNodeSet) al).isMaterialized()) {
+            // only the documents of this set can match, don't create a node for every other document in al
+            for(int docIdx = 0; docIdx < documentCount; docIdx++) {
+                final NodeProxy parent = al.get(nodes[documentOffsets[docIdx]].getOwnerDocument(), NodeId.DOCUMENT_NODE);
+                if(parent != null) {
+                    getDescendantsInSet(docIdx, result, parent, childOnly, includeSelf,
+                        mode, contextId, copyMatches);
+                }
+            }
+            return result;
+        }
         int docIdx;
         for(final NodeProxy node : al) {
             docIdx = findDoc(node.getOwnerDocument());
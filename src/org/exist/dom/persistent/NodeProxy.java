@@ -211,6 +211,13 @@ public class NodeProxy implements NodeSet, NodeValue, NodeHandle, DocumentSet, C
         this.qname = qname;
     }
 
+    /**
+     * @return the qname if it is already known, without loading the node
+     */
+    QName getKnownQName() {
+        return qname;
+    }
+
     @Override
     public int getImplementationType() {
         return NodeValue.PERSISTENT_NODE;
@@ -0,0 +1,1208 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.persistent;
+
+import org.exist.collections.Collection;
+import org.exist.dom.QName;
+import org.exist.numbering.DLN;
+import org.exist.numbering.DLNBase;
+import org.exist.numbering.NodeId;
+import org.exist.storage.DBBroker;
+import org.exist.storage.RangeIndexSpec;
+import org.exist.storage.StorageAddress;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.util.LockException;
+import org.exist.util.hashtable.Int2ObjectHashMap;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.Constants;
+import org.exist.xquery.Expression;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+import org.w3c.dom.Node;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A node set which stores its nodes column-wise in primitive arrays
+ * instead of keeping one {@link NodeProxy} per node: the document id,
+ * the bits of the {@link DLN} node id packed into a shared byte array,
+ * the node type and the internal address. A large set thus needs a
+ * fraction of the memory of a {@link NewArrayNodeSet}, and structural
+ * joins run directly on the packed ids.
+ * <p/>
+ * Proxies are created on demand, when a node is read from the set or
+ * selected by a join. Changes to the context or the matches of such a
+ * proxy are not stored in the set. Nodes which already have a context
+ * or matches when they are added keep their proxy.
+ * <p/>
+ * Like {@link NewArrayNodeSet}, nodes are just appended to the set. The
+ * set is sorted and duplicates are removed on first access.
+ */
+public class PackedNodeSet extends AbstractArrayNodeSet implements ExtNodeSet, DocumentSet {
+
+    private Set<Collection> cachedCollections = null;
+
+    private final Int2ObjectHashMap<DocumentImpl> documents;
+
+    private int documentIds[] = new int[16];
+    private int documentOffsets[] = new int[16];
+    private int documentLengths[] = new int[16];
+    private int documentCount = 0;
+
+    // one entry per node
+    private int nodeDocIds[];
+    private int idOffsets[];
+    private int idUnits[];
+    private short nodeTypes[];
+    private long addresses[];
+
+    // the proxies kept for nodes with a context or matches, allocated when needed
+    private NodeProxy proxies[] = null;
+
+    private byte idData[];
+    private int idDataLength = 0;
+
+    // the name of all nodes without a proxy, if known
+    private QName qname = null;
+
+    public PackedNodeSet() {
+        documents = new Int2ObjectHashMap<>();
+        nodeDocIds = new int[INITIAL_SIZE];
+        idOffsets = new int[INITIAL_SIZE];
+        idUnits = new int[INITIAL_SIZE];
+        nodeTypes = new short[INITIAL_SIZE];
+        addresses = new long[INITIAL_SIZE];
+        idData = new byte[INITIAL_SIZE * 4];
+    }
+
+    /**
+     * Creates a set for nodes which all have the given name.
+     */
+    public PackedNodeSet(final QName qname) {
+        this();
+        this.qname = qname;
+    }
+
+    public PackedNodeSet(final PackedNodeSet other) {
+        size = other.size;
+        isSorted = other.isSorted;
+        hasOne = other.hasOne;
+        itemType = other.itemType;
+        qname = other.qname;
+        documents = new Int2ObjectHashMap<>();
+        for (final Iterator<DocumentImpl> i = other.documents.valueIterator(); i.hasNext(); ) {
+            final DocumentImpl doc = i.next();
+            documents.put(doc.getDocId(), doc);
+        }
+        nodeDocIds = other.nodeDocIds.clone();
+        idOffsets = other.idOffsets.clone();
+        idUnits = other.idUnits.clone();
+        nodeTypes = other.nodeTypes.clone();
+        addresses = other.addresses.clone();
+        proxies = other.proxies == null ? null : other.proxies.clone();
+        idData = other.idData.clone();
+        idDataLength = other.idDataLength;
+        documentCount = other.documentCount;
+        documentIds = other.documentIds.clone();
+        documentOffsets = other.documentOffsets.clone();
+        documentLengths = other.documentLengths.clone();
+    }
+
+    private void ensureCapacity(final int idBytes) {
+        if(size == nodeDocIds.length) {
+            final int nsize = size << 1;
+            int[] temp = new int[nsize];
+            System.arraycopy(nodeDocIds, 0, temp, 0, size);
+            nodeDocIds = temp;
+            temp = new int[nsize];
+            System.arraycopy(idOffsets, 0, temp, 0, size);
+            idOffsets = temp;
+            temp = new int[nsize];
+            System.arraycopy(idUnits, 0, temp, 0, size);
+            idUnits = temp;
+            final short[] types = new short[nsize];
+            System.arraycopy(nodeTypes, 0, types, 0, size);
+            nodeTypes = types;
+            final long[] temp2 = new long[nsize];
+            System.arraycopy(addresses, 0, temp2, 0, size);
+            addresses = temp2;
+            if(proxies != null) {
+                final NodeProxy[] temp3 = new NodeProxy[nsize];
+                System.arraycopy(proxies, 0, temp3, 0, size);
+                proxies = temp3;
+            }
+        }
+        if(idDataLength + idBytes > idData.length) {
+            final byte[] temp = new byte[Math.max(idData.length << 1, idDataLength + idBytes)];
+            System.arraycopy(idData, 0, temp, 0, idDataLength);
+            idData = temp;
+        }
+    }
+
+    private int findDoc(final DocumentImpl doc) {
+        return findDoc(doc.getDocId());
+    }
+
+    private int findDoc(final int docId) {
+        int low = 0;
+        int high = documentCount - 1;
+        while(low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int midVal = documentIds[mid];
+            if(midVal < docId) {
+                low = mid + 1;
+            } else if(midVal > docId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            } // key found
+        }
+        return -(low + 1);  // key not found.
+    }
+
+    @Override
+    public NodeSet copy() {
+        return new PackedNodeSet(this);
+    }
+
+    @Override
+    public void reset() {
+        documents.clear();
+        proxies = null;
+        idDataLength = 0;
+        documentCount = 0;
+        size = 0;
+        isSorted = false;
+        state = 0;
+    }
+
+    /**
+     * Adds a node without creating a proxy for it.
+     */
+    public void add(final DocumentImpl doc, final NodeId nodeId, final short nodeType, final long address) {
+        pack(doc, nodeId, nodeType, address);
+        added(NodeProxy.nodeType2XQuery(nodeType));
+    }
+
+    @Override
+    public void add(final NodeProxy proxy, final int sizeHint) {
+        addInternal(proxy, sizeHint);
+        added(proxy.getType());
+    }
+
+    @Override
+    protected final void addInternal(final NodeProxy proxy, final int sizeHint) {
+        final int pos = pack(proxy.getOwnerDocument(), proxy.getNodeId(), proxy.getNodeType(),
+            proxy.getInternalAddress());
+        final QName name = proxy.getKnownQName();
+        if(proxy.getContext() != null || proxy.getMatches() != null ||
+                (qname != null && (name == null || !qname.equals(name)))) {
+            if(proxies == null) {
+                proxies = new NodeProxy[nodeDocIds.length];
+            }
+            proxies[pos] = proxy;
+        }
+    }
+
+    private int pack(final DocumentImpl doc, final NodeId nodeId, final short nodeType, final long address) {
+        ensureCapacity(nodeId.size());
+        final int docId = doc.getDocId();
+        if(documents.get(docId) == null) {
+            documents.put(docId, doc);
+        }
+        final int pos = size++;
+        nodeDocIds[pos] = docId;
+        nodeTypes[pos] = nodeType;
+        addresses[pos] = address;
+        idUnits[pos] = nodeId.units();
+        idOffsets[pos] = idDataLength;
+        nodeId.serialize(idData, idDataLength);
+        idDataLength += (idUnits[pos] + 7) >>> 3;
+        return pos;
+    }
+
+    private void added(final int type) {
+        hasOne = size == 1 || (hasOne && compareNodes(size - 1, size - 2) == 0);
+        isSorted = false;
+        setHasChanged();
+        checkItemType(type);
+    }
+
+    private int compareNodes(final int pos, final int otherPos) {
+        final int diff = nodeDocIds[pos] - nodeDocIds[otherPos];
+        if(diff != Constants.EQUAL) {
+            return diff;
+        }
+        return DLNBase.compareTo(idData, idOffsets[pos], idUnits[pos], idData, idOffsets[otherPos], idUnits[otherPos]);
+    }
+
+    private int compareNode(final int pos, final NodeId nodeId) {
+        return DLN.compareTo(idData, idOffsets[pos], idUnits[pos], nodeId);
+    }
+
+    private NodeId nodeIdAt(final int pos) {
+        if(DLN.equals(idData, idOffsets[pos], idUnits[pos], NodeId.DOCUMENT_NODE)) {
+            return NodeId.DOCUMENT_NODE;
+        }
+        return new DLN(idUnits[pos], idData, idOffsets[pos]);
+    }
+
+    /**
+     * Returns the proxy kept for the node or creates a new one.
+     */
+    private NodeProxy getNode(final int pos) {
+        if(proxies != null && proxies[pos] != null) {
+            return proxies[pos];
+        }
+        final NodeProxy p = new NodeProxy(documents.get(nodeDocIds[pos]), nodeIdAt(pos), nodeTypes[pos],
+            addresses[pos]);
+        if(qname != null) {
+            p.setQName(qname);
+        }
+        return p;
+    }
+
+    /**
+     * Returns the proxy for the node, which is kept from now on.
+     */
+    private NodeProxy retain(final int pos) {
+        if(proxies == null) {
+            proxies = new NodeProxy[nodeDocIds.length];
+        }
+        if(proxies[pos] == null) {
+            proxies[pos] = getNode(pos);
+        }
+        return proxies[pos];
+    }
+
+    /**
+     * Returns the same proxy for a node which is selected several
+     * times during one operation, so its contexts are combined.
+     */
+    private NodeProxy select(final Int2ObjectHashMap<NodeProxy> selected, final int pos) {
+        NodeProxy p = selected.get(pos);
+        if(p == null) {
+            p = getNode(pos);
+            selected.put(pos, p);
+        }
+        return p;
+    }
+
+    @Override
+    public int getSizeHint(final DocumentImpl doc) {
+        if(!isSorted()) {
+            sort();
+        }
+        final int idx = findDoc(doc);
+        return idx < 0 ? Constants.NO_SIZE_HINT : documentLengths[idx];
+    }
+
+    @Override
+    public NodeSetIterator iterator() {
+        if(!isSorted()) {
+            sort();
+        }
+        return new PackedIterator();
+    }
+
+    @Override
+    public SequenceIterator iterate() throws XPathException {
+        sortInDocumentOrder();
+        return new PackedIterator();
+    }
+
+    @Override
+    public SequenceIterator unorderedIterator() throws XPathException {
+        if(!isSorted()) {
+            sort();
+        }
+        return new PackedIterator();
+    }
+
+    @Override
+    public boolean contains(final NodeProxy proxy) {
+        sort();
+        final int idx = findDoc(proxy.getOwnerDocument());
+        if(idx < 0) {
+            return false;
+        }
+        return find(idx, proxy.getNodeId()) > -1;
+    }
+
+    @Override
+    public NodeProxy get(final int pos) {
+        if(pos < 0 || pos >= size) {
+            return null;
+        }
+        return getNode(pos);
+    }
+
+    @Override
+    public NodeProxy get(final NodeProxy proxy) {
+        return get(proxy.getOwnerDocument(), proxy.getNodeId());
+    }
+
+    @Override
+    public NodeProxy get(final DocumentImpl doc, final NodeId nodeId) {
+        sort();
+        final int idx = findDoc(doc);
+        if(idx < 0) {
+            return null;
+        }
+        final int pos = find(idx, nodeId);
+        return pos < 0 ? null : getNode(pos);
+    }
+
+    private int find(final int docIdx, final NodeId nodeId) {
+        int low = documentOffsets[docIdx];
+        int high = low + (documentLengths[docIdx] - 1);
+        int mid, cmp;
+        while(low <= high) {
+            mid = (low + high) >>> 1;
+            cmp = compareNode(mid, nodeId);
+            if(cmp == 0) {
+                return mid;
+            }
+            if(cmp > 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first node of the document which is a descendant
+     * (or self) of the given node, or -1.
+     */
+    private int findFirstDescendant(final int docIdx, final NodeId ancestorId) {
+        // do a binary search to pick some node in the range of valid child ids
+        int low = documentOffsets[docIdx];
+        int high = low + (documentLengths[docIdx] - 1);
+        int mid = low;
+        while(low <= high) {
+            mid = (low + high) >>> 1;
+            if(DLN.isDescendantOrSelfOf(idData, idOffsets[mid], idUnits[mid], ancestorId)) {
+                break; // found a child node, break out.
+            }
+            if(compareNode(mid, ancestorId) > 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        if(low > high) {
+            return -1; // no node found
+        }
+        // find the first child node in the range
+        while(mid > documentOffsets[docIdx] && compareNode(mid - 1, ancestorId) > -1) {
+            --mid;
+        }
+        return mid;
+    }
+
+    @Override
+    protected final NodeSet getDescendantsInSet(final NodeSet al, final boolean childOnly,
+            final boolean includeSelf, final int mode, final int contextId, final boolean copyMatches) {
+        sort();
+        final NodeSet result = new NewArrayNodeSet();
+        // a node can be the descendant of several nodes in al, but not the child
+        final Int2ObjectHashMap<NodeProxy> selected = childOnly ? null : new Int2ObjectHashMap<>();
+        if(al instanceof DocumentNodeSet && !((DocumentNodeSet) al).isMaterialized()) {
+            // only the documents of this set can match, don't create a node for every other document in al
+            for(int docIdx = 0; docIdx < documentCount; docIdx++) {
+                final NodeProxy parent = al.get(documents.get(documentIds[docIdx]), NodeId.DOCUMENT_NODE);
+                if(parent != null) {
+                    getDescendantsInSet(docIdx, result, parent, childOnly, includeSelf,
+                        mode, contextId, copyMatches, selected);
+                }
+            }
+            return result;
+        }
+        int docIdx;
+        for(final NodeProxy node : al) {
+            docIdx = findDoc(node.getOwnerDocument());
+            if(docIdx > -1) {
+                getDescendantsInSet(docIdx, result, node, childOnly, includeSelf,
+                    mode, contextId, copyMatches, selected);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find all nodes in the current set being children or descendants of
+     * the given parent node.
+     */
+    private void getDescendantsInSet(final int docIdx, final NodeSet result, final NodeProxy parent,
+            final boolean childOnly, final boolean includeSelf, final int mode, final int contextId,
+            final boolean copyMatches, final Int2ObjectHashMap<NodeProxy> selected) {
+        final NodeId parentId = parent.getNodeId();
+        final int start;
+        final int end = documentOffsets[docIdx] + documentLengths[docIdx];
+        // document nodes are treated specially
+        if(parentId == NodeId.DOCUMENT_NODE) {
+            start = documentOffsets[docIdx];
+        } else {
+            start = findFirstDescendant(docIdx, parentId);
+            if(start < 0) {
+                return;
+            }
+        }
+        for(int i = start; i < end; i++) {
+            boolean add;
+            if(parentId == NodeId.DOCUMENT_NODE) {
+                final boolean isDocument = DLN.equals(idData, idOffsets[i], idUnits[i], NodeId.DOCUMENT_NODE);
+                if(childOnly) {
+                    add = !isDocument && DLN.getTreeLevel(idData, idOffsets[i], idUnits[i]) == 1;
+                } else {
+                    add = includeSelf || !isDocument;
+                }
+            } else {
+                final int cmp = DLN.computeRelation(idData, idOffsets[i], idUnits[i], parentId);
+                if(cmp < 0) {
+                    break;
+                }
+                if(childOnly) {
+                    add = cmp == NodeId.IS_CHILD;
+                } else if(cmp == NodeId.IS_SELF) {
+                    add = includeSelf;
+                } else {
+                    add = true;
+                }
+            }
+            if(add) {
+                switch(mode) {
+                    case NodeSet.DESCENDANT:
+                        final NodeProxy p = selected == null ? getNode(i) : select(selected, i);
+                        if(Expression.NO_CONTEXT_ID != contextId) {
+                            p.deepCopyContext(parent, contextId);
+                        } else {
+                            p.copyContext(parent);
+                        }
+                        if(copyMatches) {
+                            p.addMatches(parent);
+                        }
+                        result.add(p);
+                        break;
+                    case NodeSet.ANCESTOR:
+                        final NodeProxy descendant = getNode(i);
+                        if(Expression.NO_CONTEXT_ID != contextId) {
+                            parent.deepCopyContext(descendant, contextId);
+                        } else {
+                            parent.copyContext(descendant);
+                        }
+                        if(copyMatches) {
+                            parent.addMatches(descendant);
+                        }
+                        result.add(parent, 1);
+                        break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public NodeProxy hasDescendantsInSet(final DocumentImpl doc, final NodeId ancestorId,
+            final boolean includeSelf, final int contextId, final boolean copyMatches) {
+        sort();
+        final int docIdx = findDoc(doc);
+        if(docIdx < 0) {
+            return null;
+        }
+        final int start = findFirstDescendant(docIdx, ancestorId);
+        if(start < 0) {
+            return null;
+        }
+        final int end = documentOffsets[docIdx] + documentLengths[docIdx];
+        final NodeProxy ancestor = new NodeProxy(doc, ancestorId, Node.ELEMENT_NODE);
+        // we need to check if self should be included
+        boolean foundOne = false;
+        for(int i = start; i < end; i++) {
+            final int cmp = DLN.computeRelation(idData, idOffsets[i], idUnits[i], ancestorId);
+            if(cmp < 0) {
+                break;
+            }
+            if(cmp != NodeId.IS_SELF || includeSelf) {
+                final NodeProxy descendant = getNode(i);
+                if(Expression.NO_CONTEXT_ID != contextId) {
+                    ancestor.deepCopyContext(descendant, contextId);
+                } else {
+                    ancestor.copyContext(descendant);
+                }
+                if(copyMatches) {
+                    ancestor.addMatches(descendant);
+                }
+                foundOne = true;
+            }
+        }
+        return foundOne ? ancestor : null;
+    }
+
+    @Override
+    public void sort(final boolean mergeContexts) {
+        if(isSorted) {
+            return;
+        }
+        if(size > 0) {
+            if(!hasOne && needsSort()) {
+                sortNodes();
+            }
+            removeDuplicates(mergeContexts);
+        }
+        updateDocs();
+        isSorted = true;
+    }
+
+    /**
+     * Check if this node set is sorted in document order
+     *
+     * @return true if sorted
+     */
+    private boolean needsSort() {
+        for(int i = 1; i < size; i++) {
+            if(compareNodes(i, i - 1) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sorts the nodes by document and node id. The ids are copied
+     * in their new order, which also drops unused id data.
+     */
+    private void sortNodes() {
+        final int[] order = new int[size];
+        for(int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[size], 0, size);
+
+        final int[] docIds = new int[nodeDocIds.length];
+        final int[] offsets = new int[idOffsets.length];
+        final int[] units = new int[idUnits.length];
+        final short[] types = new short[nodeTypes.length];
+        final long[] addrs = new long[addresses.length];
+        final NodeProxy[] kept = proxies == null ? null : new NodeProxy[proxies.length];
+        final byte[] data = new byte[idData.length];
+        int dataLength = 0;
+        for(int i = 0; i < size; i++) {
+            final int from = order[i];
+            docIds[i] = nodeDocIds[from];
+            units[i] = idUnits[from];
+            types[i] = nodeTypes[from];
+            addrs[i] = addresses[from];
+            if(kept != null) {
+                kept[i] = proxies[from];
+            }
+            final int bytes = (idUnits[from] + 7) >>> 3;
+            System.arraycopy(idData, idOffsets[from], data, dataLength, bytes);
+            offsets[i] = dataLength;
+            dataLength += bytes;
+        }
+        nodeDocIds = docIds;
+        idOffsets = offsets;
+        idUnits = units;
+        nodeTypes = types;
+        addresses = addrs;
+        proxies = kept;
+        idData = data;
+        idDataLength = dataLength;
+    }
+
+    private void mergeSort(final int[] order, final int[] temp, final int from, final int to) {
+        if(to - from < 8) {
+            for(int i = from + 1; i < to; i++) {
+                for(int j = i; j > from && compareNodes(order[j - 1], order[j]) > 0; j--) {
+                    final int swap = order[j];
+                    order[j] = order[j - 1];
+                    order[j - 1] = swap;
+                }
+            }
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        mergeSort(order, temp, from, mid);
+        mergeSort(order, temp, mid, to);
+        if(compareNodes(order[mid - 1], order[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, temp, from, to - from);
+        int i = from;
+        int j = mid;
+        int k = from;
+        while(i < mid && j < to) {
+            order[k++] = compareNodes(temp[j], temp[i]) < 0 ? temp[j++] : temp[i++];
+        }
+        while(i < mid) {
+            order[k++] = temp[i++];
+        }
+        while(j < to) {
+            order[k++] = temp[j++];
+        }
+    }
+
+    private void updateDocs() {
+        documentCount = 0;
+        for(int i = 0; i < size; i++) {
+            if(documentCount > 0 && documentIds[documentCount - 1] == nodeDocIds[i]) {
+                // node belongs to same document as previous node
+                ++documentLengths[documentCount - 1];
+            } else {
+                // new document
+                ensureDocCapacity();
+                documentIds[documentCount] = nodeDocIds[i];
+                documentOffsets[documentCount] = i;
+                documentLengths[documentCount++] = 1;
+            }
+        }
+    }
+
+    private void ensureDocCapacity() {
+        if(documentCount == documentIds.length) {
+            final int nlen = documentCount << 1;
+            int[] temp = new int[nlen];
+            System.arraycopy(documentIds, 0, temp, 0, documentCount);
+            documentIds = temp;
+            temp = new int[nlen];
+            System.arraycopy(documentOffsets, 0, temp, 0, documentCount);
+            documentOffsets = temp;
+            temp = new int[nlen];
+            System.arraycopy(documentLengths, 0, temp, 0, documentCount);
+            documentLengths = temp;
+        }
+    }
+
+    /**
+     * Remove all duplicate nodes from this set. The set must be sorted.
+     *
+     * @param mergeContext merge the contexts of duplicate nodes
+     */
+    private void removeDuplicates(final boolean mergeContext) {
+        int j = 0;
+        for(int i = 1; i < size; i++) {
+            if(compareNodes(i, j) != 0) {
+                if(i != ++j) {
+                    nodeDocIds[j] = nodeDocIds[i];
+                    idOffsets[j] = idOffsets[i];
+                    idUnits[j] = idUnits[i];
+                    nodeTypes[j] = nodeTypes[i];
+                    addresses[j] = addresses[i];
+                    if(proxies != null) {
+                        proxies[j] = proxies[i];
+                    }
+                }
+            } else if(proxies != null && proxies[i] != null) {
+                final NodeProxy kept = retain(j);
+                if(mergeContext) {
+                    kept.addContext(proxies[i]);
+                }
+                kept.addMatches(proxies[i]);
+            }
+        }
+        if(proxies != null) {
+            for(int i = j + 1; i < size; i++) {
+                proxies[i] = null;
+            }
+        }
+        size = ++j;
+    }
+
+    @Override
+    public void setSelfAsContext(final int contextId) throws XPathException {
+        for(int i = 0; i < size; i++) {
+            final NodeProxy p = retain(i);
+            p.addContextNode(contextId, p);
+        }
+    }
+
+    @Override
+    public void clearContext(final int contextId) throws XPathException {
+        if(proxies != null) {
+            for(int i = 0; i < size; i++) {
+                if(proxies[i] != null) {
+                    proxies[i].clearContext(contextId);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void nodeMoved(final NodeId oldNodeId, final NodeHandle newNode) {
+        sort();
+        final int docIdx = findDoc(newNode.getOwnerDocument());
+        final int pos = docIdx < 0 ? -1 : find(docIdx, oldNodeId);
+        if(pos < 0) {
+            return;
+        }
+        final NodeId nodeId = newNode.getNodeId();
+        ensureCapacity(nodeId.size());
+        idUnits[pos] = nodeId.units();
+        idOffsets[pos] = idDataLength;
+        nodeId.serialize(idData, idDataLength);
+        idDataLength += (idUnits[pos] + 7) >>> 3;
+        addresses[pos] = newNode.getInternalAddress();
+        if(proxies != null && proxies[pos] != null) {
+            proxies[pos].nodeMoved(oldNodeId, newNode);
+        }
+        isSorted = false;
+        setHasChanged();
+    }
+
+    @Override
+    public NodeSet selectPrecedingSiblings(final NodeSet contextSet, final int contextId) {
+        return selectSiblings(contextSet, contextId, true);
+    }
+
+    @Override
+    public NodeSet selectFollowingSiblings(final NodeSet contextSet, final int contextId) {
+        return selectSiblings(contextSet, contextId, false);
+    }
+
+    private NodeSet selectSiblings(final NodeSet contextSet, final int contextId, final boolean preceding) {
+        sort();
+        final NodeSet result = new NewArrayNodeSet();
+        final Int2ObjectHashMap<NodeProxy> selected = new Int2ObjectHashMap<>();
+        for(final NodeProxy reference : contextSet) {
+            final int docIdx = findDoc(reference.getOwnerDocument());
+            if(docIdx < 0) {
+                continue;
+            }
+            final NodeId refId = reference.getNodeId();
+            final NodeId parentId = refId.getParentId();
+            final int refLevel = refId.getTreeLevel();
+            final int start = findFirstDescendant(docIdx, parentId);
+            if(start < 0) {
+                continue;
+            }
+            final int end = documentOffsets[docIdx] + documentLengths[docIdx];
+            for(int i = start; i < end; i++) {
+                if(!DLN.isDescendantOf(idData, idOffsets[i], idUnits[i], parentId)) {
+                    if(compareNode(i, parentId) == 0) {
+                        continue; // the parent itself
+                    }
+                    break;
+                }
+                final int cmp = compareNode(i, refId);
+                if((preceding ? cmp < 0 : cmp > 0) &&
+                        DLN.getTreeLevel(idData, idOffsets[i], idUnits[i]) == refLevel) {
+                    final NodeProxy p = select(selected, i);
+                    if(Expression.IGNORE_CONTEXT != contextId) {
+                        if(Expression.NO_CONTEXT_ID == contextId) {
+                            p.copyContext(reference);
+                        } else {
+                            p.addContextNode(contextId, reference);
+                        }
+                    }
+                    result.add(p);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public NodeSet selectFollowing(final NodeSet fl, final int contextId) throws XPathException {
+        return selectFollowing(fl, -1, contextId);
+    }
+
+    @Override
+    public NodeSet selectFollowing(final NodeSet pl, final int position, final int contextId) throws XPathException, UnsupportedOperationException {
+        sort();
+        final NodeSet result = new NewArrayNodeSet();
+        final Int2ObjectHashMap<NodeProxy> selected = new Int2ObjectHashMap<>();
+        for(final NodeProxy reference : pl) {
+            final int idx = findDoc(reference.getOwnerDocument());
+            if(idx < 0) {
+                continue;
+            }
+            final NodeId refId = reference.getNodeId();
+            final int end = documentOffsets[idx] + documentLengths[idx];
+            int i = documentOffsets[idx];
+            for(; i < end; i++) {
+                if(compareNode(i, refId) > 0 && !DLN.isDescendantOf(idData, idOffsets[i], idUnits[i], refId)) {
+                    break;
+                }
+            }
+            int n = 0;
+            for(int j = i; j < end; j++) {
+                if(!refId.isDescendantOf(nodeIdAt(j))) {
+                    if(position < 0 || ++n == position) {
+                        final NodeProxy p = select(selected, j);
+                        if(Expression.IGNORE_CONTEXT != contextId) {
+                            if(Expression.NO_CONTEXT_ID == contextId) {
+                                p.copyContext(reference);
+                            } else {
+                                p.addContextNode(contextId, reference);
+                            }
+                        }
+                        result.add(p);
+                    }
+                    if(n == position) {
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public NodeSet selectPreceding(final NodeSet pl, final int contextId)
+            throws XPathException {
+        return selectPreceding(pl, -1, contextId);
+    }
+
+    @Override
+    public NodeSet selectPreceding(final NodeSet pl, final int position,
+            final int contextId) throws XPathException,
+            UnsupportedOperationException {
+        sort();
+        final NodeSet result = new NewArrayNodeSet();
+        final Int2ObjectHashMap<NodeProxy> selected = new Int2ObjectHashMap<>();
+        for(final NodeProxy reference : pl) {
+            final int idx = findDoc(reference.getOwnerDocument());
+            if(idx < 0) {
+                continue;
+            }
+            final NodeId refId = reference.getNodeId();
+            final int end = documentOffsets[idx] + documentLengths[idx];
+            int i = documentOffsets[idx];
+            for(; i < end; i++) {
+                if(compareNode(i, refId) >= 0) {
+                    break;
+                }
+            }
+            --i;
+            int n = 0;
+            for(int j = i; j >= documentOffsets[idx]; j--) {
+                if(!refId.isDescendantOf(nodeIdAt(j))) {
+                    if(position < 0 || ++n == position) {
+                        final NodeProxy p = select(selected, j);
+                        if(Expression.IGNORE_CONTEXT != contextId) {
+                            if(Expression.NO_CONTEXT_ID == contextId) {
+                                p.copyContext(reference);
+                            } else {
+                                p.addContextNode(contextId, reference);
+                            }
+                        }
+                        result.add(p);
+                    }
+                    if(n == position) {
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public NodeProxy parentWithChild(final DocumentImpl doc, final NodeId nodeId, final boolean directParent, final boolean includeSelf) {
+        sort();
+        final int docIdx = findDoc(doc);
+        if(docIdx < 0) {
+            return null;
+        }
+        int pos;
+        if(includeSelf && (pos = find(docIdx, nodeId)) > -1) {
+            return getNode(pos);
+        }
+        NodeId parentNodeId = nodeId.getParentId();
+        while(parentNodeId != null) {
+            if((pos = find(docIdx, parentNodeId)) > -1) {
+                return getNode(pos);
+            } else if(directParent) {
+                return null;
+            }
+            parentNodeId = parentNodeId.getParentId();
+        }
+        return null;
+    }
+
+    @Override
+    public NodeSet except(final NodeSet other) {
+        final PackedNodeSet result = new PackedNodeSet(qname);
+        for(int i = 0; i < size; i++) {
+            final NodeProxy p = getNode(i);
+            if(!other.contains(p)) {
+                result.add(p);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int getIndexType() {
+        //Is the index type initialized ?
+        if(indexType == Type.ANY_TYPE) {
+            for(int i = 0; i < size; i++) {
+                if(documents.get(nodeDocIds[i]).getCollection().isTempCollection()) {
+                    //Temporary nodes return default values
+                    indexType = Type.ITEM;
+                    break;
+                }
+                final int nodeIndexType = addresses[i] == -1 ? Type.ITEM :
+                    RangeIndexSpec.indexTypeToXPath(StorageAddress.indexTypeFromPointer(addresses[i]));
+                //Refine type
+                //TODO : use common subtype
+                if(indexType == Type.ANY_TYPE) {
+                    indexType = nodeIndexType;
+                } else {
+                    //Broaden type
+                    //TODO : use common supertype
+                    if(indexType != nodeIndexType) {
+                        indexType = Type.ITEM;
+                    }
+                }
+            }
+        }
+        return indexType;
+    }
+
+    @Override
+    public boolean equalDocs(final DocumentSet other) {
+        if(this == other) {
+            return true;
+        }
+
+        sort();
+        if(documentCount != other.getDocumentCount()) {
+            return false;
+        } else {
+            for(int i = 0; i < documentCount; i++) {
+                if(!other.contains(documentIds[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public Iterator<Collection> getCollectionIterator() {
+        sort();
+        if(cachedCollections == null) {
+            cachedCollections = new HashSet<>();
+            for(int i = 0; i < documentCount; i++) {
+                cachedCollections.add(documents.get(documentIds[i]).getCollection());
+            }
+        }
+        return cachedCollections.iterator();
+    }
+
+    @Override
+    public Iterator<DocumentImpl> getDocumentIterator() {
+        sort();
+        return new DocumentIterator();
+    }
+
+    @Override
+    public int getDocumentCount() {
+        sort();
+        return documentCount;
+    }
+
+    @Override
+    public DocumentImpl getDoc(final int docId) {
+        sort();
+        final int idx = findDoc(docId);
+        if(idx < 0) {
+            return null;
+        }
+        return documents.get(docId);
+    }
+
+    @Override
+    public XmldbURI[] getNames() {
+        sort();
+        final XmldbURI[] uris = new XmldbURI[documentCount];
+        for(int i = 0; i < documentCount; i++) {
+            uris[i] = documents.get(documentIds[i]).getURI();
+        }
+        return uris;
+    }
+
+    @Override
+    public DocumentSet intersection(final DocumentSet other) {
+        sort();
+        final DefaultDocumentSet set = new DefaultDocumentSet();
+
+        //left
+        for(int i = 0; i < documentCount; i++) {
+            if(other.contains(documentIds[i])) {
+                set.add(documents.get(documentIds[i]));
+            }
+        }
+
+        //right
+        for(final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
+            final DocumentImpl doc = i.next();
+            if(contains(doc.getDocId()) && (!set.contains(doc.getDocId()))) {
+                set.add(doc);
+            }
+        }
+
+        return set;
+    }
+
+    @Override
+    public boolean contains(final DocumentSet other) {
+        sort();
+        if(other.getDocumentCount() > documentCount) {
+            return false;
+        }
+
+        for(final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
+            final DocumentImpl doc = i.next();
+            if(!contains(doc.getDocId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(final int docId) {
+        sort();
+        return findDoc(docId) > -1;
+    }
+
+    @Override
+    public NodeSet docsToNodeSet() {
+        sort();
+        final NodeSet result = new NewArrayNodeSet();
+        for(int i = 0; i < documentCount; i++) {
+            final DocumentImpl doc = documents.get(documentIds[i]);
+            if(doc.getResourceType() == DocumentImpl.XML_FILE) { // skip binary resources
+                result.add(new NodeProxy(doc, NodeId.DOCUMENT_NODE));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void lock(final DBBroker broker, final boolean exclusive, final boolean checkExisting) throws LockException {
+        sort();
+        for(int idx = 0; idx < documentCount; idx++) {
+            final Lock docLock = documents.get(documentIds[idx]).getUpdateLock();
+            docLock.acquire(exclusive ? LockMode.WRITE_LOCK : LockMode.READ_LOCK);
+        }
+    }
+
+    @Override
+    public void unlock(final boolean exclusive) {
+        sort();
+        final Thread thread = Thread.currentThread();
+        for(int idx = 0; idx < documentCount; idx++) {
+            final Lock docLock = documents.get(documentIds[idx]).getUpdateLock();
+            if(exclusive) {
+                docLock.release(LockMode.WRITE_LOCK);
+            } else if(docLock.isLockedForRead(thread)) {
+                docLock.release(LockMode.READ_LOCK);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PackedNodeSet#" + super.toString();
+    }
+
+    private class DocumentIterator implements Iterator<DocumentImpl> {
+
+        private int currentDoc = 0;
+
+        @Override
+        public final boolean hasNext() {
+            return currentDoc < documentCount;
+        }
+
+        @Override
+        public final DocumentImpl next() {
+            if(currentDoc == documentCount) {
+                throw new NoSuchElementException();
+            } else {
+                return documents.get(documentIds[currentDoc++]);
+            }
+        }
+
+        @Override
+        public final void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private class PackedIterator implements NodeSetIterator, SequenceIterator {
+
+        int pos = 0;
+
+        @Override
+        public final boolean hasNext() {
+            return pos < size && pos > -1;
+        }
+
+        @Override
+        public final NodeProxy next() {
+            if(pos == size || pos < 0) {
+                pos = -1;
+                throw new NoSuchElementException();
+            }
+            return getNode(pos++);
+        }
+
+        @Override
+        public final void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public final NodeProxy peekNode() {
+            if(pos == size || pos < 0) {
+                pos = -1;
+                return null;
+            }
+            return getNode(pos);
+        }
+
+        @Override
+        public final Item nextItem() {
+            if(pos == size || pos < 0) {
+                pos = -1;
+                return null;
+            }
+            return getNode(pos++);
+        }
+
+        @Override
+        public void setPosition(final NodeProxy proxy) {
+            final int docIdx = findDoc(proxy.getOwnerDocument());
+            pos = docIdx < 0 ? -1 : find(docIdx, proxy.getNodeId());
+        }
+    }
+}
@@ -392,7 +392,7 @@ public class SymbolTable implements BrokerPoolService {
         }
     }
 
-    public void backupSymbolsTo(final OutputStream os) throws IOException {
+    public synchronized void backupSymbolsTo(final OutputStream os) throws IOException {
         Files.copy(getFile(), os);
     }
 
@@ -0,0 +1,108 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.http;
+
+import java.util.Optional;
+
+/**
+ * A single byte range requested through the HTTP Range header,
+ * see RFC 7233.
+ *
+ * Requests for several ranges are answered with the complete
+ * resource, which the RFC permits.
+ */
+public final class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long first;
+    private final long last;
+    private final long length;
+
+    private ByteRange(final long first, final long last, final long length) {
+        this.first = first;
+        this.last = last;
+        this.length = length;
+    }
+
+    /**
+     * Parses the value of a Range header.
+     *
+     * @param header the value of the header, may be null
+     * @param length the length of the resource
+     *
+     * @return the requested range, or empty if the complete resource should be sent
+     */
+    public static Optional<ByteRange> parse(final String header, final long length) {
+        if (header == null || !header.startsWith(BYTES_UNIT) || header.indexOf(',') > -1) {
+            return Optional.empty();
+        }
+        final String spec = header.substring(BYTES_UNIT.length()).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return Optional.empty();
+        }
+        try {
+            final String firstPos = spec.substring(0, dash).trim();
+            final String lastPos = spec.substring(dash + 1).trim();
+            if (firstPos.isEmpty()) {
+                // suffix range: the last n bytes
+                final long suffix = Long.parseLong(lastPos);
+                if (suffix <= 0) {
+                    return Optional.of(new ByteRange(length, length - 1, length));
+                }
+                return Optional.of(new ByteRange(Math.max(0, length - suffix), length - 1, length));
+            }
+            final long first = Long.parseLong(firstPos);
+            final long last = lastPos.isEmpty() ? length - 1 : Math.min(Long.parseLong(lastPos), length - 1);
+            if (first < 0 || (!lastPos.isEmpty() && Long.parseLong(lastPos) < first)) {
+                return Optional.empty();
+            }
+            return Optional.of(new ByteRange(first, last, length));
+        } catch (final NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return false if the range lies outside of the resource
+     */
+    public boolean isSatisfiable() {
+        return first < length && first <= last;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLength() {
+        return last - first + 1;
+    }
+
+    /**
+     * @return the value of the Content-Range header for the response
+     */
+    public String getContentRange() {
+        if (isSatisfiable()) {
+            return "bytes " + first + '-' + last + '/' + length;
+        }
+        return "bytes */" + length;
+    }
+}
@@ -36,6 +36,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 import java.util.Properties;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -136,6 +137,11 @@ public class RESTServer {
 
     protected final static Logger LOG = LogManager.getLogger(RESTServer.class);
     public final static String SERIALIZATION_METHOD_PROPERTY = "output-as";
+
+    /**
+     * Value of the cache parameter which keeps a forward-only cursor over the query result
+     */
+    public final static String CACHE_CURSOR = "cursor";
     // Should we not obey the instance's defaults? /ljo
     protected final static Properties defaultProperties = new Properties();
 
@@ -182,11 +188,18 @@ public class RESTServer {
     // Constructor
     public RESTServer(final BrokerPool pool, final String formEncoding,
                       final String containerEncoding, final boolean useDynamicContentType, final boolean safeMode, final EXistServlet.FeatureEnabled xquerySubmission, final EXistServlet.FeatureEnabled xupdateSubmission) {
+        this(pool, formEncoding, containerEncoding, useDynamicContentType, safeMode, xquerySubmission, xupdateSubmission,
+                SessionManager.TIMEOUT, SessionManager.DEFAULT_CURSOR_MAX_ITEMS);
+    }
+
+    public RESTServer(final BrokerPool pool, final String formEncoding,
+                      final String containerEncoding, final boolean useDynamicContentType, final boolean safeMode, final EXistServlet.FeatureEnabled xquerySubmission, final EXistServlet.FeatureEnabled xupdateSubmission,
+                      final long cursorTimeout, final int cursorMaxItems) {
         this.formEncoding = formEncoding;
         this.containerEncoding = containerEncoding;
         this.useDynamicContentType = useDynamicContentType;
         this.safeMode = safeMode;
-        this.sessionManager = new SessionManager(pool);
+        this.sessionManager = new SessionManager(pool, cursorTimeout, cursorMaxItems);
         this.xquerySubmission = xquerySubmission;
         this.xupdateSubmission = xupdateSubmission;
         
@@ -238,6 +251,11 @@ public class RESTServer {
      *
      * <li>_start: a start offset into the result set.</li>
      *
+     * <li>_cache: if set to "yes", the complete query result is kept for the
+     * session returned in the X-Session-Id header. If set to "cursor", the server
+     * keeps a forward-only cursor instead: each request with the same _session
+     * returns the next _howmany items and releases them on the server.</li>
+     *
      * <li>_wrap: if set to "yes", the query results will be wrapped into a
      * exist:result element.</li>
      *
@@ -291,6 +309,7 @@ public class RESTServer {
         boolean wrap = true;
         boolean source = false;
         boolean cache = false;
+        boolean cursor = false;
         final Properties outputProperties = new Properties(defaultOutputKeysProperties);
 
         String query = null;
@@ -343,7 +362,8 @@ public class RESTServer {
             outputProperties.setProperty("_wrap", option);
         }
         if ((option = getParameter(request, Cache)) != null) {
-            cache = "yes".equals(option);
+            cursor = CACHE_CURSOR.equals(option);
+            cache = "yes".equals(option) || cursor;
         }
         if ((option = getParameter(request, Indent)) != null) {
             outputProperties.setProperty(OutputKeys.INDENT, option);
@@ -381,7 +401,7 @@ public class RESTServer {
             // query parameter specified, search method does all the rest of the work
             try {
                 search(broker, query, path, namespaces, variables, howmany, start, typed, outputProperties,
-                        wrap, cache, request, response);
+                        wrap, cache, cursor, request, response);
 
             } catch (final XPathException e) {
                 if (MimeType.XML_TYPE.getName().equals(mimeType)) {
@@ -721,6 +741,7 @@ public class RESTServer {
             ElementImpl variables = null;
             boolean enclose = true;
             boolean cache = false;
+            boolean cursor = false;
             String query = null;
 
             final TransactionManager transact = broker.getBrokerPool().getTransactionManager();
@@ -785,7 +806,8 @@ public class RESTServer {
                         }
 
                         if ((option = root.getAttribute(Cache.xmlKey())) != null) {
-                            cache = "yes".equals(option);
+                            cursor = CACHE_CURSOR.equals(option);
+                            cache = "yes".equals(option) || cursor;
                         }
 
                         if ((option = root.getAttribute(Session.xmlKey())) != null
@@ -845,7 +867,7 @@ public class RESTServer {
                         try {
                             search(broker, query, path, nsExtractor.getNamespaces(), variables,
                                     howmany, start, typed, outputProperties,
-                                    enclose, cache, request, response);
+                                    enclose, cache, cursor, request, response);
 
                             transact.commit(transaction);
 
@@ -1263,7 +1285,7 @@ public class RESTServer {
         final String path, final List<Namespace> namespaces,
         final ElementImpl variables, final int howmany, final int start,
         final boolean typed, final Properties outputProperties,
-        final boolean wrap, final boolean cache,
+        final boolean wrap, final boolean cache, final boolean cursor,
         final HttpServletRequest request,
         final HttpServletResponse response) throws BadRequestException,
         PermissionDeniedException, XPathException {
@@ -1284,13 +1306,27 @@ public class RESTServer {
             try {
                 final int sessionId = Integer.parseInt(sessionIdParam);
                 if (sessionId > -1) {
-                    final Sequence cached = sessionManager.get(query, sessionId);
-                    if (cached != null) {
-                        LOG.debug("Returning cached query result");
-                        writeResults(response, broker, cached, howmany, start, typed, outputProperties, wrap, 0, 0);
-
+                    if (cursor) {
+                        final ResultCursor cached = sessionManager.getCursor(query, sessionId);
+                        if (cached != null) {
+                            LOG.debug("Returning next page of result cursor");
+                            synchronized (cached) {
+                                writeCursorPage(response, broker, cached, sessionId, howmany, start, typed, outputProperties, wrap, 0, 0);
+                            }
+                            return;
+                        } else {
+                            LOG.debug("Result cursor not found. Probably timed out. Repeating query.");
+                            outputProperties.remove(Serializer.PROPERTY_SESSION_ID);
+                        }
                     } else {
-                        LOG.debug("Cached query result not found. Probably timed out. Repeating query.");
+                        final Sequence cached = sessionManager.get(query, sessionId);
+                        if (cached != null) {
+                            LOG.debug("Returning cached query result");
+                            writeResults(response, broker, cached, howmany, start, typed, outputProperties, wrap, 0, 0);
+                            return;
+                        } else {
+                            LOG.debug("Cached query result not found. Probably timed out. Repeating query.");
+                        }
                     }
                 }
 
@@ -1339,6 +1375,18 @@ public class RESTServer {
                     LOG.debug("Found " + resultSequence.getItemCount() + " in " + executionTime + "ms.");
                 }
 
+                if (cursor) {
+                    final ResultCursor resultCursor = new ResultCursor(resultSequence);
+                    int sessionId = SessionManager.NO_SESSION;
+                    if (resultCursor.getHits() > Math.max(start, 1) - 1 + howmany && howmany > 0) {
+                        sessionId = sessionManager.addCursor(query, resultCursor);
+                    }
+                    synchronized (resultCursor) {
+                        writeCursorPage(response, broker, resultCursor, sessionId, howmany, start, typed, outputProperties, wrap, compilationTime, executionTime);
+                    }
+                    return;
+                }
+
                 if (cache) {
                     final int sessionId = sessionManager.add(query, resultSequence);
                     outputProperties.setProperty(Serializer.PROPERTY_SESSION_ID, Integer.toString(sessionId));
@@ -1638,6 +1686,22 @@ public class RESTServer {
         response.addDateHeader("Created", created);
     }
 
+    /**
+     * A Range header only applies if an If-Range header is absent, or gives
+     * the date at which the resource was last modified.
+     */
+    private boolean isRangeApplicable(final HttpServletRequest request, final long lastModified) {
+        if (request.getHeader("If-Range") == null) {
+            return true;
+        }
+        try {
+            return request.getDateHeader("If-Range") / 1000 == lastModified / 1000;
+        } catch (final IllegalArgumentException iae) {
+            // an entity tag, which we never send
+            return false;
+        }
+    }
+
     // writes out a resource, uses asMimeType as the specified mime-type or if
     // null uses the type of the resource
     private void writeResourceAs(final DocumentImpl resource, final DBBroker broker,
@@ -1709,9 +1773,34 @@ public class RESTServer {
             // next sentence:
             //	response.setContentLength(resource.getContentLength());
             // must be set so
-            response.addHeader("Content-Length", Long.toString(resource.getContentLength()));
+            final long contentLength = resource.getContentLength();
+            response.addHeader("Accept-Ranges", "bytes");
+
+            /**
+             * HTTP 1.1 RFC 7233 Section 3.1 *
+             */
+            final Optional<ByteRange> range = isRangeApplicable(request, lastModified) ?
+                    ByteRange.parse(request.getHeader("Range"), contentLength) : Optional.empty();
+            if (range.isPresent() && !range.get().isSatisfiable()) {
+                response.addHeader("Content-Range", range.get().getContentRange());
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+
+            final long offset;
+            final long length;
+            if (range.isPresent()) {
+                offset = range.get().getFirst();
+                length = range.get().getLength();
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.addHeader("Content-Range", range.get().getContentRange());
+            } else {
+                offset = 0;
+                length = contentLength;
+            }
+            response.addHeader("Content-Length", Long.toString(length));
             final OutputStream os = response.getOutputStream();
-            broker.readBinaryResource((BinaryDocument) resource, os);
+            broker.readBinaryResource((BinaryDocument) resource, offset, length, os);
             os.flush();
         } else {
             // xml resource
@@ -2071,6 +2160,44 @@ public class RESTServer {
 
     }
 
+    /**
+     * Write the next page of a result cursor. A page continues where the previous
+     * page ended, unless the start parameter points further into the result.
+     * The served items are released afterwards, and the cursor is released
+     * once the last page has been served.
+     */
+    private void writeCursorPage(final HttpServletResponse response, final DBBroker broker,
+            final ResultCursor cursor, final int sessionId, final int howmany, final int start, final boolean typed,
+            final Properties outputProperties, final boolean wrap, final long compilationTime, final long executionTime)
+            throws BadRequestException {
+        final int pageStart = Math.max(start, cursor.getNextStart());
+        if (cursor.getHits() > 0 && pageStart > cursor.getHits()) {
+            if (sessionId != SessionManager.NO_SESSION) {
+                sessionManager.releaseCursor(sessionId, cursor);
+            }
+            throw new BadRequestException("Start parameter out of range");
+        }
+
+        final int count = howmany <= 0 ? cursor.getHits() - pageStart + 1 : Math.min(howmany, cursor.getHits() - pageStart + 1);
+        final boolean last = pageStart + count > cursor.getHits();
+        if (sessionId != SessionManager.NO_SESSION) {
+            outputProperties.setProperty(Serializer.PROPERTY_SESSION_ID, Integer.toString(sessionId));
+            if (!response.isCommitted()) {
+                response.setIntHeader("X-Session-Id", sessionId);
+                response.setIntHeader("X-Cursor-Next", last ? 0 : pageStart + count);
+            }
+        } else {
+            outputProperties.remove(Serializer.PROPERTY_SESSION_ID);
+        }
+
+        writeResults(response, broker, cursor.getWindow(), count, pageStart, typed, outputProperties, wrap, compilationTime, executionTime);
+
+        cursor.advanceTo(pageStart + count);
+        if (last && sessionId != SessionManager.NO_SESSION) {
+            sessionManager.releaseCursor(sessionId, cursor);
+        }
+    }
+
     private void writeResultXML(final HttpServletResponse response,
         final DBBroker broker, final Sequence results, final int howmany,
         final int start, final boolean typed, final Properties outputProperties,
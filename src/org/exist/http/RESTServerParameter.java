@@ -218,9 +218,15 @@ enum RESTServerParameter {
      * exist:result/@session attribute if you have used the Wrap parameter,
      * and also in the HTTP Response Header X-Session-Id
      * 
+     * If the value is "cursor", only the items which have not been
+     * retrieved yet are kept. Each request with the Session ID returns
+     * the next HowMany/Max items, and the position of the following page
+     * is returned in the HTTP Response Header X-Cursor-Next (0 after the
+     * last page). The cursor is released after its last page.
+     * 
      * Contexts: GET, POST
      * 
-     * The value of the parameter should be either "yes" or "no".
+     * The value of the parameter should be either "yes", "no" or "cursor".
      */
     Cache,
 
@@ -0,0 +1,176 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.http;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.AbstractSequence;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.MemoryNodeSet;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+
+/**
+ * A forward-only cursor over the result of a query executed by the
+ * {@link RESTServer}.
+ *
+ * The items of the result are copied into an array when the cursor is created,
+ * and every page of items is released as soon as it has been served. Items which
+ * have already been served can therefore be reclaimed by the garbage collector
+ * while the client pages through the rest of the result.
+ *
+ * Callers must synchronize on the cursor if it may be used by several requests.
+ */
+@NotThreadSafe
+class ResultCursor {
+
+    private final Item[] items;
+    private final Window window = new Window();
+
+    /**
+     * The number of items which have been served or skipped
+     */
+    private int position = 0;
+
+    ResultCursor(final Sequence result) throws XPathException {
+        this.items = new Item[result.getItemCount()];
+        int i = 0;
+        for (final SequenceIterator iterator = result.iterate(); iterator.hasNext() && i < items.length; i++) {
+            items[i] = iterator.nextItem();
+        }
+    }
+
+    /**
+     * @return the number of items in the result
+     */
+    public int getHits() {
+        return items.length;
+    }
+
+    /**
+     * @return the 1-based position of the next item to be served
+     */
+    public int getNextStart() {
+        return position + 1;
+    }
+
+    /**
+     * @return the number of items which have not been served yet
+     */
+    public int getRemaining() {
+        return items.length - position;
+    }
+
+    /**
+     * Get a view of the result which is suitable for serializing the next page.
+     * The view has the item count of the complete result, but only the items which
+     * have not been served yet are available.
+     *
+     * @return the view on the result
+     */
+    public Sequence getWindow() {
+        return window;
+    }
+
+    /**
+     * Release all items up to the given position.
+     *
+     * @param next the 1-based position of the next item to be served
+     */
+    public void advanceTo(final int next) {
+        final int end = Math.min(next - 1, items.length);
+        for (int i = position; i < end; i++) {
+            items[i] = null;
+        }
+        position = Math.max(position, end);
+    }
+
+    private class Window extends AbstractSequence {
+
+        @Override
+        public void add(final Item item) throws XPathException {
+            throw new XPathException("cannot add an item to a result cursor");
+        }
+
+        @Override
+        public int getItemType() {
+            return Type.ITEM;
+        }
+
+        @Override
+        public SequenceIterator iterate() throws XPathException {
+            return new SequenceIterator() {
+                private int next = position;
+
+                @Override
+                public boolean hasNext() {
+                    return next < items.length;
+                }
+
+                @Override
+                public Item nextItem() {
+                    return next < items.length ? items[next++] : null;
+                }
+            };
+        }
+
+        @Override
+        public SequenceIterator unorderedIterator() throws XPathException {
+            return iterate();
+        }
+
+        @Override
+        public int getItemCount() {
+            return items.length;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return items.length == 0;
+        }
+
+        @Override
+        public boolean hasOne() {
+            return items.length == 1;
+        }
+
+        @Override
+        public Item itemAt(final int pos) {
+            return pos < position || pos >= items.length ? null : items[pos];
+        }
+
+        @Override
+        public NodeSet toNodeSet() throws XPathException {
+            throw new XPathException("Type error: a result cursor cannot be converted into a node set");
+        }
+
+        @Override
+        public MemoryNodeSet toMemNodeSet() throws XPathException {
+            throw new XPathException("Type error: a result cursor cannot be converted into a node set");
+        }
+
+        @Override
+        public void removeDuplicates() {
+            // nothing to do
+        }
+    }
+}
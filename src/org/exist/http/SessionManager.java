@@ -42,6 +42,11 @@ public class SessionManager {
 
     public final static long TIMEOUT_CHECK_PERIOD = 2000;
 
+    /**
+     * Default maximum number of unserved items held by all result cursors together
+     */
+    public final static int DEFAULT_CURSOR_MAX_ITEMS = 1000000;
+
     public final static int NO_SESSION = -1;
     
     private final static Logger LOG = LogManager.getLogger(SessionManager.class);
@@ -51,10 +56,20 @@ public class SessionManager {
         long lastAccess;
         final String queryString;
         final Sequence sequence;
+        final ResultCursor cursor;
 
         private QueryResult(final String query, final Sequence sequence) {
+            this(query, sequence, null);
+        }
+
+        private QueryResult(final String query, final ResultCursor cursor) {
+            this(query, null, cursor);
+        }
+
+        private QueryResult(final String query, final Sequence sequence, final ResultCursor cursor) {
             this.queryString = query;
             this.sequence = sequence;
+            this.cursor = cursor;
             this.lastAccess = System.currentTimeMillis();
         }
         
@@ -62,6 +77,11 @@ public class SessionManager {
             lastAccess = System.currentTimeMillis();
             return sequence;
         }
+
+        protected ResultCursor cursor() {
+            lastAccess = System.currentTimeMillis();
+            return cursor;
+        }
     }
 
     public static class TimeoutCheck extends UserJavaJob {
@@ -87,7 +107,22 @@ public class SessionManager {
 
     private QueryResult[] slots = new QueryResult[32];
 
+    private final long cursorTimeout;
+    private final int cursorMaxItems;
+
     public SessionManager(final BrokerPool pool) {
+        this(pool, TIMEOUT, DEFAULT_CURSOR_MAX_ITEMS);
+    }
+
+    /**
+     * @param pool the database
+     * @param cursorTimeout the time in milliseconds after which an idle result cursor is released
+     * @param cursorMaxItems the maximum number of unserved items held by all result cursors together
+     */
+    public SessionManager(final BrokerPool pool, final long cursorTimeout, final int cursorMaxItems) {
+        this.cursorTimeout = cursorTimeout;
+        this.cursorMaxItems = cursorMaxItems;
+
         final TimeoutCheck task = new TimeoutCheck();
         final Scheduler scheduler = pool.getScheduler();
 
@@ -102,23 +137,87 @@ public class SessionManager {
         scheduler.createPeriodicJob(TIMEOUT_CHECK_PERIOD, task, 2000, props);
     }
 
-    public int add(final String query, final Sequence sequence) {
+    public synchronized int add(final String query, final Sequence sequence) {
+        return add(new QueryResult(query, sequence));
+    }
+
+    /**
+     * Keep a cursor over the remaining items of a query result. Cursors are released
+     * after they have been idle for the cursor timeout. If the unserved items of all
+     * cursors would exceed the configured maximum, the least recently used cursors
+     * are released first.
+     *
+     * @param query the query
+     * @param cursor the cursor over the result of the query
+     * @return the session id of the cursor, or {@link #NO_SESSION} if the result is
+     *     larger than the maximum number of items
+     */
+    public synchronized int addCursor(final String query, final ResultCursor cursor) {
+        if (cursor.getRemaining() > cursorMaxItems) {
+            LOG.warn("Query result with " + cursor.getRemaining() + " remaining items exceeds the maximum of " +
+                    cursorMaxItems + " items for result cursors");
+            return NO_SESSION;
+        }
+
+        int held;
+        while ((held = cursorItems()) + cursor.getRemaining() > cursorMaxItems) {
+            final int lru = leastRecentlyUsedCursor();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Releasing result cursor of session " + lru + ": " + held + " items held by cursors");
+            }
+            slots[lru] = null;
+        }
+        return add(new QueryResult(query, cursor));
+    }
+
+    private int add(final QueryResult result) {
         final int len = slots.length;
         for (int i = 0; i < len; i++) {
             if (slots[i] == null) {
-                slots[i] = new QueryResult(query, sequence);
+                slots[i] = result;
                 return i;
             }
         }
         // no free slots, resize
         final QueryResult[] t = new QueryResult[(len * 3) / 2];
         System.arraycopy(slots, 0, t, 0, len);
-        t[len] = new QueryResult(query, sequence);
+        t[len] = result;
         slots = t;
         return len;
     }
 
-    public Sequence get(final String query, final int sessionId) {
+    private int cursorItems() {
+        int items = 0;
+        for (final QueryResult slot : slots) {
+            if (slot != null && slot.cursor != null) {
+                items += slot.cursor.getRemaining();
+            }
+        }
+        return items;
+    }
+
+    private int leastRecentlyUsedCursor() {
+        int lru = NO_SESSION;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null && slots[i].cursor != null &&
+                    (lru == NO_SESSION || slots[i].lastAccess < slots[lru].lastAccess)) {
+                lru = i;
+            }
+        }
+        return lru;
+    }
+
+    public synchronized Sequence get(final String query, final int sessionId) {
+        final QueryResult cached = lookup(query, sessionId);
+        return cached == null ? null : cached.sequence();
+    }
+
+    public synchronized ResultCursor getCursor(final String query, final int sessionId) {
+        final QueryResult cached = lookup(query, sessionId);
+        return cached == null ? null : cached.cursor();
+    }
+
+    private QueryResult lookup(final String query, final int sessionId) {
         if (sessionId < 0 || sessionId >= slots.length) {
             return null; // out of scope
         }
@@ -128,24 +227,36 @@ public class SessionManager {
             return null;
         }
         if (cached.queryString.equals(query)) {
-            return cached.sequence();
+            return cached;
         }
 
         // wrong query
         return null;
     }
 
-    public void release(final int sessionId) {
+    public synchronized void release(final int sessionId) {
         if (sessionId < 0 || sessionId >= slots.length) {
             return; // out of scope
         }
         slots[sessionId] = null;
     }
 
-    protected void timeoutCheck() {
+    /**
+     * Release the session if it still holds the given cursor.
+     *
+     * @param sessionId the session id of the cursor
+     * @param cursor the cursor
+     */
+    public synchronized void releaseCursor(final int sessionId, final ResultCursor cursor) {
+        if (sessionId >= 0 && sessionId < slots.length && slots[sessionId] != null && slots[sessionId].cursor == cursor) {
+            slots[sessionId] = null;
+        }
+    }
+
+    protected synchronized void timeoutCheck() {
         final long now = System.currentTimeMillis();
         for (int i = 0; i < slots.length; i++) {
-            if (slots[i] != null && now - slots[i].lastAccess > TIMEOUT) {
+            if (slots[i] != null && now - slots[i].lastAccess > (slots[i].cursor == null ? TIMEOUT : cursorTimeout)) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Removing cached query result for session " + i);
                 }
@@ -29,6 +29,7 @@ import org.exist.http.BadRequestException;
 import org.exist.http.Descriptor;
 import org.exist.http.NotFoundException;
 import org.exist.http.RESTServer;
+import org.exist.http.SessionManager;
 import org.exist.security.PermissionDeniedException;
 import org.exist.security.Subject;
 import org.exist.storage.DBBroker;
@@ -81,14 +82,31 @@ public class EXistServlet extends AbstractExistHttpServlet {
         final FeatureEnabled xquerySubmission = parseFeatureEnabled(config, "xquery-submission", FeatureEnabled.TRUE);
         final FeatureEnabled xupdateSubmission = parseFeatureEnabled(config,"xupdate-submission", FeatureEnabled.TRUE);
 
+        final long cursorTimeout = parseLong(config, "cursor-timeout", SessionManager.TIMEOUT);
+        final int cursorMaxItems = (int) parseLong(config, "cursor-max-items", SessionManager.DEFAULT_CURSOR_MAX_ITEMS);
+
         // Instantiate REST Server
         srvREST = new RESTServer(getPool(), getFormEncoding(), getContainerEncoding(), useDynamicContentType.equalsIgnoreCase("yes")
-                || useDynamicContentType.equalsIgnoreCase("true"), isInternalOnly(), xquerySubmission, xupdateSubmission);
+                || useDynamicContentType.equalsIgnoreCase("true"), isInternalOnly(), xquerySubmission, xupdateSubmission,
+                cursorTimeout, cursorMaxItems);
 
         // XML lib checks....
         XmlLibraryChecker.check();
     }
 
+    private long parseLong(final ServletConfig config, final String paramName, final long defaultValue) throws ServletException {
+        final String paramValue = config.getInitParameter(paramName);
+        if(paramValue != null) {
+            try {
+                return Long.parseLong(paramValue.trim());
+            } catch (final NumberFormatException e) {
+                throw new ServletException("Init parameter " + paramName + " should be a number: " + paramValue);
+            }
+        }
+
+        return defaultValue;
+    }
+
     private FeatureEnabled parseFeatureEnabled(final ServletConfig config, final String paramName, final FeatureEnabled defaultValue) {
         final String paramValue = config.getInitParameter(paramName);
         if(paramValue != null) {
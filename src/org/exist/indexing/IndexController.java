@@ -43,6 +43,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 import org.exist.security.PermissionDeniedException;
 
 /**
@@ -59,6 +60,7 @@ public class IndexController {
     private DocumentImpl currentDoc = null;
     private ReindexMode currentMode = ReindexMode.UNKNOWN;
     private boolean reindexing;
+    private Predicate<IndexWorker> storeFilter = null;
 
     public IndexController(final DBBroker broker) {
         this.broker = broker;
@@ -116,6 +118,23 @@ public class IndexController {
         return null;
     }
 
+    /**
+     * Restricts the index workers which receive the events of a document
+     * being stored, i.e. in mode {@link ReindexMode#STORE}. The other modes
+     * are not affected, so the index entries of removed documents are still
+     * dropped from all indexes.
+     *
+     * Used by the bulk restore to defer the secondary indexes and build them
+     * in one pass once all documents are stored.
+     *
+     * @param storeFilter accepts the workers to be notified, or null for all workers
+     */
+    public void setStoreFilter(final Predicate<IndexWorker> storeFilter) {
+        this.storeFilter = storeFilter;
+        //Reset listener
+        listener = null;
+    }
+
     /**
      * Sets the document for the next operation.
      * 
@@ -225,6 +244,10 @@ public class IndexController {
         try {
             final IStoredNode<? extends IStoredNode> node = broker.objectWith(new NodeProxy(reindexRoot.getOwnerDocument(), reindexRoot.getNodeId()));
             listener = getStreamListener(node.getOwnerDocument(), mode);
+            if (listener == null) {
+                // all workers are excluded by the store filter
+                return;
+            }
             listener.startIndexDocument(transaction);
             try {
                 IndexUtils.scanNode(broker, transaction, node, listener);
@@ -310,6 +333,9 @@ public class IndexController {
         StreamListener first = null;
         StreamListener previous = null;
         for (final IndexWorker worker : indexWorkers.values()) {
+            if (currentMode == ReindexMode.STORE && storeFilter != null && !storeFilter.test(worker)) {
+                continue;
+            }
             // wolf: setDocument() should have been called before
             //worker.setDocument(currentDoc, currentMode);
             final StreamListener current = worker.getListener();
@@ -324,6 +350,10 @@ public class IndexController {
                 previous = current;
             }
         }
+        if (previous != null) {
+            // the listeners are reused: drop a link left from a chain built for another mode or filter
+            previous.setNextInChain(null);
+        }
         listener = first;
         return listener;
     }
@@ -0,0 +1,55 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.management;
+
+public class SegmentedCache extends Cache implements SegmentedCacheMXBean {
+
+    private final org.exist.storage.cache.SegmentedCache cache;
+
+    public SegmentedCache(final org.exist.storage.cache.SegmentedCache cache) {
+        super(cache);
+        this.cache = cache;
+    }
+
+    @Override
+    public int getSegments() {
+        return cache.getSegmentCount();
+    }
+
+    @Override
+    public int[] getSegmentSizes() {
+        return cache.getSegmentSizes();
+    }
+
+    @Override
+    public long[] getSegmentHits() {
+        return cache.getSegmentHits();
+    }
+
+    @Override
+    public long[] getSegmentFails() {
+        return cache.getSegmentFails();
+    }
+
+    @Override
+    public long[] getSegmentEvictions() {
+        return cache.getSegmentEvictions();
+    }
+}
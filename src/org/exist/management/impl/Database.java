@@ -77,6 +77,31 @@ public class Database implements DatabaseMXBean {
         return brokersList;
     }
 
+    @Override
+    public int getWaitingForBroker() {
+        return pool.getBrokerWaitStats().getWaiting();
+    }
+
+    @Override
+    public int getPeakWaitingForBroker() {
+        return pool.getBrokerWaitStats().getPeakWaiting();
+    }
+
+    @Override
+    public long getBrokerWaitTimeouts() {
+        return pool.getBrokerWaitStats().getTimeouts();
+    }
+
+    @Override
+    public long getBrokerWaitRejections() {
+        return pool.getBrokerWaitStats().getRejections();
+    }
+
+    @Override
+    public Map<String, Long> getBrokerWaitTimeHistogram() {
+        return pool.getBrokerWaitStats().getWaitTimeHistogram();
+    }
+
     @Override
     public long getReservedMem() {
         return pool.getReservedMem();
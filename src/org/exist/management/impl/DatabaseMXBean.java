@@ -1,6 +1,7 @@
 package org.exist.management.impl;
 
 import java.util.List;
+import java.util.Map;
 
 /*
 *  eXist Open Source Native XML Database
@@ -43,6 +44,31 @@ public interface DatabaseMXBean {
 
     List<ActiveBroker> getActiveBrokersMap();
 
+    /**
+     * @return the number of threads currently waiting for a broker
+     */
+    int getWaitingForBroker();
+
+    /**
+     * @return the highest number of threads which have waited for a broker at the same time
+     */
+    int getPeakWaitingForBroker();
+
+    /**
+     * @return the number of requests which timed out while waiting for a broker
+     */
+    long getBrokerWaitTimeouts();
+
+    /**
+     * @return the number of requests rejected because too many threads were waiting for a broker
+     */
+    long getBrokerWaitRejections();
+
+    /**
+     * @return the number of broker leases by the time it took to obtain the broker
+     */
+    Map<String, Long> getBrokerWaitTimeHistogram();
+
     public long getUptime();
 
     public String getExistHome();
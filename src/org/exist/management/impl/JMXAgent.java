@@ -109,6 +109,12 @@ public class JMXAgent implements Agent {
 
             addMBean(instance.getId(), "org.exist.management." + instance.getId() + ":type=ProcessReport",
                     new ProcessReport(instance));
+
+            addMBean(instance.getId(), "org.exist.management." + instance.getId() + ":type=Journal",
+                    new Journal(instance));
+
+            addMBean(instance.getId(), "org.exist.management." + instance.getId() + ":type=Reindex",
+                    new Reindex(instance));
                         
         } catch (final DatabaseConfigurationException e) {
             LOG.warn("Exception while registering database mbean.", e);
@@ -0,0 +1,70 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.management.impl;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.journal.JournalManager;
+import org.exist.storage.journal.Lsn;
+
+import java.util.Optional;
+
+public class Journal implements JournalMXBean {
+
+    private final BrokerPool pool;
+
+    public Journal(final BrokerPool pool) {
+        this.pool = pool;
+    }
+
+    private Optional<JournalManager> journalManager() {
+        return pool.getJournalManager();
+    }
+
+    @Override
+    public boolean isGroupCommitThread() {
+        return journalManager().map(JournalManager::isGroupCommitThread).orElse(false);
+    }
+
+    @Override
+    public long getGroupCommitBatches() {
+        return journalManager().map(JournalManager::getGroupCommitBatches).orElse(0L);
+    }
+
+    @Override
+    public long getGroupCommitCommits() {
+        return journalManager().map(JournalManager::getGroupCommitCommits).orElse(0L);
+    }
+
+    @Override
+    public double getAverageGroupCommitBatchSize() {
+        final long batches = getGroupCommitBatches();
+        return batches == 0 ? 0 : (double) getGroupCommitCommits() / batches;
+    }
+
+    @Override
+    public int getMaxGroupCommitBatchSize() {
+        return journalManager().map(JournalManager::getGroupCommitMaxBatchSize).orElse(0);
+    }
+
+    @Override
+    public long getLastWrittenLsn() {
+        return journalManager().map(JournalManager::lastWrittenLsn).orElse(Lsn.LSN_INVALID);
+    }
+}
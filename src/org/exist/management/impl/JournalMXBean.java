@@ -0,0 +1,50 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.management.impl;
+
+/**
+ * Statistics of the journal, mainly for monitoring group commit.
+ */
+public interface JournalMXBean {
+
+    boolean isGroupCommitThread();
+
+    /**
+     * @return the number of group flushes which wrote at least one commit
+     */
+    long getGroupCommitBatches();
+
+    /**
+     * @return the total number of commits written by group flushes
+     */
+    long getGroupCommitCommits();
+
+    /**
+     * @return the average number of commits per group flush
+     */
+    double getAverageGroupCommitBatchSize();
+
+    /**
+     * @return the largest number of commits written by a single group flush
+     */
+    int getMaxGroupCommitBatchSize();
+
+    long getLastWrittenLsn();
+}
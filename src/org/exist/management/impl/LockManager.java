@@ -23,6 +23,7 @@ package org.exist.management.impl;
 
 import org.exist.storage.lock.DeadlockDetection;
 import org.exist.storage.lock.LockInfo;
+import org.exist.storage.lock.LockWaitStatistics;
 
 import javax.management.openmbean.*;
 import java.util.ArrayList;
@@ -43,4 +44,45 @@ public class LockManager implements LockManagerMXBean {
         }
         return lockList;
     }
-}
\ No newline at end of file
+
+    @Override
+    public List<String> getDeadlockedThreads() {
+        return DeadlockDetection.getDeadlockedThreads();
+    }
+
+    @Override
+    public long getCollectionLockWaits() {
+        return LockWaitStatistics.COLLECTION_LOCKS.getWaits();
+    }
+
+    @Override
+    public long getCollectionLockWaitTime() {
+        return LockWaitStatistics.COLLECTION_LOCKS.getTotalWaitTime();
+    }
+
+    @Override
+    public long getMaxCollectionLockWaitTime() {
+        return LockWaitStatistics.COLLECTION_LOCKS.getMaxWaitTime();
+    }
+
+    @Override
+    public long getResourceLockWaits() {
+        return LockWaitStatistics.RESOURCE_LOCKS.getWaits();
+    }
+
+    @Override
+    public long getResourceLockWaitTime() {
+        return LockWaitStatistics.RESOURCE_LOCKS.getTotalWaitTime();
+    }
+
+    @Override
+    public long getMaxResourceLockWaitTime() {
+        return LockWaitStatistics.RESOURCE_LOCKS.getMaxWaitTime();
+    }
+
+    @Override
+    public void resetWaitStatistics() {
+        LockWaitStatistics.COLLECTION_LOCKS.reset();
+        LockWaitStatistics.RESOURCE_LOCKS.reset();
+    }
+}
@@ -29,4 +29,29 @@ import java.util.List;
 public interface LockManagerMXBean {
 
     public List<Lock> getWaitingThreads();
+
+    /**
+     * @return the threads which are part of a cycle in the current wait-for graph
+     */
+    public List<String> getDeadlockedThreads();
+
+    public long getCollectionLockWaits();
+
+    /**
+     * @return total time in milliseconds spent waiting for collection locks
+     */
+    public long getCollectionLockWaitTime();
+
+    public long getMaxCollectionLockWaitTime();
+
+    public long getResourceLockWaits();
+
+    /**
+     * @return total time in milliseconds spent waiting for resource locks
+     */
+    public long getResourceLockWaitTime();
+
+    public long getMaxResourceLockWaitTime();
+
+    public void resetWaitStatistics();
 }
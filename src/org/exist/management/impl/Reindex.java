@@ -0,0 +1,82 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.management.impl;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.ReindexStatus;
+
+public class Reindex implements ReindexMXBean {
+
+    private final ReindexStatus status;
+
+    public Reindex(final BrokerPool pool) {
+        this.status = pool.getReindexStatus();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return status.isRunning();
+    }
+
+    @Override
+    public String getCollection() {
+        return status.getCollection();
+    }
+
+    @Override
+    public int getThreads() {
+        return status.getThreads();
+    }
+
+    @Override
+    public long getElapsedTime() {
+        return status.getElapsedTime();
+    }
+
+    @Override
+    public long getTotalDocuments() {
+        return status.getTotalDocuments();
+    }
+
+    @Override
+    public long getIndexedDocuments() {
+        return status.getIndexedDocuments();
+    }
+
+    @Override
+    public long getFailedDocuments() {
+        return status.getFailedDocuments();
+    }
+
+    @Override
+    public long getTotalCollections() {
+        return status.getTotalCollections();
+    }
+
+    @Override
+    public long getCompletedCollections() {
+        return status.getCompletedCollections();
+    }
+
+    @Override
+    public long getResumedCollections() {
+        return status.getResumedCollections();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.management.impl;
+
+/**
+ * Progress of the parallel reindex.
+ */
+public interface ReindexMXBean {
+
+    boolean isRunning();
+
+    /**
+     * @return the collection being reindexed, or null if no reindex has run
+     */
+    String getCollection();
+
+    int getThreads();
+
+    long getElapsedTime();
+
+    long getTotalDocuments();
+
+    long getIndexedDocuments();
+
+    long getFailedDocuments();
+
+    long getTotalCollections();
+
+    long getCompletedCollections();
+
+    /**
+     * @return the number of collections skipped because an interrupted
+     * reindex had already completed them
+     */
+    long getResumedCollections();
+}
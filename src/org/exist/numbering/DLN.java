@@ -298,6 +298,61 @@ public class DLN extends DLNBase implements NodeId {
         return -1;
     }
 
+    /*
+     * The following methods work on ids serialized into a byte array,
+     * as stored by a packed node set. The id is given by its offset into
+     * the array and its number of units. They allow structural joins
+     * without creating a DLN object for every node.
+     */
+
+    public static int compareTo(final byte[] data, final int offset, final int units, final NodeId otherId) {
+        final DLN other = (DLN) otherId;
+        return compareTo(data, offset, units, other.bits, 0, other.units());
+    }
+
+    public static boolean equals(final byte[] data, final int offset, final int units, final NodeId otherId) {
+        return units == otherId.units() && compareTo(data, offset, units, otherId) == 0;
+    }
+
+    public static boolean isDescendantOf(final byte[] data, final int offset, final int units, final NodeId ancestor) {
+        final DLN other = (DLN) ancestor;
+        final int bitIndex = units - 1;
+        return startsWith(data, offset, bitIndex, other) && bitIndex > other.bitIndex
+            && isLevelSeparator(data, offset, other.bitIndex + 1);
+    }
+
+    public static boolean isDescendantOrSelfOf(final byte[] data, final int offset, final int units, final NodeId other) {
+        final DLN ancestor = (DLN) other;
+        final int bitIndex = units - 1;
+        return startsWith(data, offset, bitIndex, ancestor) &&
+            (bitIndex == ancestor.bitIndex || isLevelSeparator(data, offset, ancestor.bitIndex + 1));
+    }
+
+    public static int computeRelation(final byte[] data, final int offset, final int units, final NodeId ancestor) {
+        final DLN other = (DLN) ancestor;
+        final int bitIndex = units - 1;
+        if (other == NodeId.DOCUMENT_NODE) {
+            return getLevelCount(data, offset, bitIndex, 0) == 1 ? IS_CHILD : IS_DESCENDANT;
+        }
+
+        if (startsWith(data, offset, bitIndex, other)) {
+            if (bitIndex == other.bitIndex) {
+                return IS_SELF;
+            }
+            if (bitIndex > other.bitIndex && isLevelSeparator(data, offset, other.bitIndex + 1)) {
+                if (getLevelCount(data, offset, bitIndex, other.bitIndex + 2) == 1) {
+                    return IS_CHILD;
+                }
+                return IS_DESCENDANT;
+            }
+        }
+        return -1;
+    }
+
+    public static int getTreeLevel(final byte[] data, final int offset, final int units) {
+        return getLevelCount(data, offset, units - 1, 0);
+    }
+
     @Override
     public boolean isSiblingOf(final NodeId sibling) {
         final NodeId parent = getParentId();
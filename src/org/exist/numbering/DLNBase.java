@@ -290,15 +290,27 @@ public class DLNBase {
     }
 
     private static int unitsUsed(int startBit, final byte[] bits) {
+        return unitsUsed(startBit, bits, 0);
+    }
+
+    private static int unitsUsed(int startBit, final byte[] data, final int offset) {
         int units = 1;
-        while ((bits[startBit >> UNIT_SHIFT] & (1 << ((7 - startBit++) & 7))) != 0) {
+        while ((data[offset + (startBit >> UNIT_SHIFT)] & (1 << ((7 - startBit++) & 7))) != 0) {
             ++units;
         }
         return units;
     }
 
     public boolean isLevelSeparator(final int index) {
-        return (bits[index >> UNIT_SHIFT] & (1 << ((7 - index) & 7))) == 0;
+        return isLevelSeparator(bits, 0, index);
+    }
+
+    /**
+     * Same as {@link #isLevelSeparator(int)} for an id serialized
+     * at the given offset of data.
+     */
+    protected static boolean isLevelSeparator(final byte[] data, final int offset, final int index) {
+        return (data[offset + (index >> UNIT_SHIFT)] & (1 << ((7 - index) & 7))) == 0;
     }
     
     /**
@@ -308,14 +320,22 @@ public class DLNBase {
      * @return the number of levels in this id
      */
     public int getLevelCount(final int startOffset) {
+        return getLevelCount(bits, 0, bitIndex, startOffset);
+    }
+
+    /**
+     * Same as {@link #getLevelCount(int)} for an id serialized
+     * at the given offset of data.
+     */
+    protected static int getLevelCount(final byte[] data, final int offset, final int bitIndex, final int startOffset) {
         int bit = startOffset;
         int count = 0;
         while (bit > -1 && bit <= bitIndex) {
-            final int units = unitsUsed(bit, bits);
+            final int units = unitsUsed(bit, data, offset);
             bit += units;
             bit += bitWidth(units);
             if (bit < bitIndex) {
-                if ((bits[bit >> UNIT_SHIFT] & (1 << ((7 - bit++) & 7))) == LEVEL_SEPARATOR) {
+                if ((data[offset + (bit >> UNIT_SHIFT)] & (1 << ((7 - bit++) & 7))) == LEVEL_SEPARATOR) {
                     ++count;
                 }
             } else {
@@ -525,17 +545,44 @@ public class DLNBase {
      * @param other
      */
     public boolean startsWith(final DLNBase other) {
+        return startsWith(bits, 0, bitIndex, other);
+    }
+
+    /**
+     * Same as {@link #startsWith(DLNBase)} for an id serialized
+     * at the given offset of data.
+     */
+    protected static boolean startsWith(final byte[] data, final int offset, final int bitIndex, final DLNBase other) {
         if (other.bitIndex > bitIndex) {
             return false;
         }
         final int bytes = other.bitIndex / 8;
         final int remaining = other.bitIndex % 8;
         for (int i = 0; i < bytes; i++) {
-            if (bits[i] != other.bits[i]) {
+            if (data[offset + i] != other.bits[i]) {
                 return false;
             }
         }
-        return (bits[bytes] & BIT_MASK[remaining]) == (other.bits[bytes] & BIT_MASK[remaining]);
+        return (data[offset + bytes] & BIT_MASK[remaining]) == (other.bits[bytes] & BIT_MASK[remaining]);
+    }
+
+    /**
+     * Compares two ids serialized into byte arrays in the same way
+     * as {@link DLN#compareTo(NodeId)} compares two ids.
+     */
+    public static int compareTo(final byte[] data, final int offset, final int units,
+            final byte[] otherData, final int otherOffset, final int otherUnits) {
+        final int a1len = (units + 7) >>> 3;
+        final int a2len = (otherUnits + 7) >>> 3;
+        final int limit = a1len <= a2len ? a1len : a2len;
+        for (int i = 0; i < limit; i++) {
+            final byte b1 = data[offset + i];
+            final byte b2 = otherData[otherOffset + i];
+            if (b1 != b2) {
+                return (b1 & 0xFF) - (b2 & 0xFF);
+            }
+        }
+        return a1len - a2len;
     }
 
     public String debug() {
@@ -0,0 +1,230 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.util.Configuration;
+import org.exist.util.FileUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Content addressed store for the data of binary resources.
+ * <p/>
+ * Every distinct content is written once to the blobs directory below the
+ * data directory, named after its SHA-256 digest. The file of a binary
+ * resource in the fs directory is a hard link to its blob, so storing or
+ * copying the same content again only costs a new directory entry.
+ * Replacing or removing a resource moves its link to fs.journal as before,
+ * which leaves the blob untouched: the old content is kept without copying
+ * it, and the new content goes to a different blob.
+ * <p/>
+ * A blob is no longer used once the blobs directory holds the only link to
+ * it. Such blobs are removed at startup and after each checkpoint, when the
+ * backup links in fs.journal have been cleared.
+ * <p/>
+ * The store needs hard links and the unix file attribute view to count
+ * them. Where these are not available, the store is disabled and binary
+ * resources are written as plain files.
+ */
+public class BlobStore implements BrokerPoolService {
+
+    private final static Logger LOG = LogManager.getLogger(BlobStore.class);
+
+    public static final String BINARY_STORE_ATTRIBUTE = "binary-store";
+    public static final String PROPERTY_BINARY_STORE = "db-connection.binary-store";
+
+    public static final String BINARY_STORE_FILES = "files";
+    public static final String BINARY_STORE_CONTENT_ADDRESSED = "content-addressed";
+
+    private static final String BLOB_DIR_NAME = "blobs";
+    private static final String TEMP_DIR_NAME = "tmp";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private Path blobDir = null;
+    private Path tempDir = null;
+    private boolean enabled = false;
+
+    @Override
+    public void configure(final Configuration configuration) throws BrokerPoolServiceException {
+        final Path dataDir = Optional.ofNullable((Path) configuration.getProperty(BrokerPool.PROPERTY_DATA_DIR))
+                .orElse(Paths.get(NativeBroker.DEFAULT_DATA_DIR));
+        this.blobDir = dataDir.resolve(BLOB_DIR_NAME);
+        this.tempDir = blobDir.resolve(TEMP_DIR_NAME);
+
+        final String mode = (String) configuration.getProperty(PROPERTY_BINARY_STORE);
+        if (!BINARY_STORE_CONTENT_ADDRESSED.equals(mode)) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(tempDir);
+        } catch (final IOException e) {
+            throw new BrokerPoolServiceException("Cannot create blob directory: " + blobDir.toAbsolutePath().toString(), e);
+        }
+        if (!blobDir.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+            LOG.warn("The file system of " + blobDir.toAbsolutePath().toString() + " does not report link counts. " +
+                    "Binary resources will be stored as plain files.");
+            return;
+        }
+        this.enabled = true;
+    }
+
+    @Override
+    public void startPreMultiUserSystem(final DBBroker systemBroker) throws BrokerPoolServiceException {
+        // recovery has completed, any blob still unreferenced now belongs to a removed resource
+        collectGarbage();
+    }
+
+    /**
+     * @return true if binary resources are stored as links to blobs
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Writes the data read from the stream to the blob store, and creates
+     * the given file as a link to the blob.
+     *
+     * @param is the data of the binary resource
+     * @param file the file of the resource in the fs directory, which must not exist
+     */
+    public void store(final InputStream is, final Path file) throws IOException {
+        final MessageDigest digest = newDigest();
+        final Path temp = Files.createTempFile(tempDir, "blob", null);
+        try {
+            try (final OutputStream os = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+                final byte[] buf = new byte[65536];
+                int len;
+                while ((len = is.read(buf)) > -1) {
+                    os.write(buf, 0, len);
+                }
+            }
+            final String key = Hex.encodeHexString(digest.digest());
+            final Path blob = getBlobFile(key);
+            synchronized (this) {
+                if (!Files.exists(blob)) {
+                    Files.createDirectories(blob.getParent());
+                    Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+                }
+                link(blob, file);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Creates the given file as a copy of the source file. If the source
+     * is stored in the blob store, this only creates another link to it.
+     *
+     * @param source the file of the resource to copy
+     * @param file the file of the new resource, which must not exist
+     */
+    public synchronized void copy(final Path source, final Path file) throws IOException {
+        link(source, file);
+    }
+
+    private void link(final Path existing, final Path file) throws IOException {
+        try {
+            Files.createLink(file, existing);
+        } catch (final FileAlreadyExistsException e) {
+            throw e;
+        } catch (final FileSystemException | UnsupportedOperationException e) {
+            // e.g. the maximum number of links for the blob has been reached
+            LOG.debug("Cannot link " + file.toAbsolutePath().toString() + ", copying instead: " + e.getMessage());
+            Files.copy(existing, file);
+        }
+    }
+
+    /**
+     * Removes all blobs which are no longer linked from the fs or fs.journal
+     * directories. Must be called while no other broker is storing binary
+     * resources.
+     */
+    public synchronized void collectGarbage() {
+        if (blobDir == null || !Files.exists(blobDir)) {
+            return;
+        }
+        try {
+            if (Files.exists(tempDir)) {
+                try (final Stream<Path> temps = Files.list(tempDir)) {
+                    temps.forEach(FileUtils::deleteQuietly);
+                }
+            }
+            if (!blobDir.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+                return;
+            }
+            final int[] removed = { 0 };
+            try (final Stream<Path> prefixes = Files.list(blobDir)) {
+                for (final Path prefix : (Iterable<Path>) prefixes.filter(p -> !p.equals(tempDir))::iterator) {
+                    try (final Stream<Path> blobs = Files.list(prefix)) {
+                        blobs.filter(BlobStore::isUnreferenced).forEach(blob -> {
+                            if (FileUtils.deleteQuietly(blob)) {
+                                removed[0]++;
+                            }
+                        });
+                    }
+                }
+            }
+            if (removed[0] > 0 && LOG.isDebugEnabled()) {
+                LOG.debug("Removed " + removed[0] + " unreferenced blobs");
+            }
+        } catch (final IOException e) {
+            LOG.warn("Failed to remove unreferenced blobs: " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean isUnreferenced(final Path blob) {
+        try {
+            return ((Integer) Files.getAttribute(blob, "unix:nlink")) <= 1;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    private Path getBlobFile(final String key) {
+        return blobDir.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -52,11 +52,14 @@ import org.exist.scheduler.impl.SystemTaskJobImpl;
 import org.exist.security.*;
 import org.exist.security.SecurityManager;
 import org.exist.security.internal.SecurityManagerImpl;
+import org.exist.storage.backup.HotBackup;
 import org.exist.storage.btree.DBException;
 import org.exist.storage.journal.JournalManager;
+import org.exist.storage.journal.Lsn;
 import org.exist.storage.lock.DeadlockDetection;
 import org.exist.storage.lock.FileLockService;
 import org.exist.storage.recovery.RecoveryManager;
+import org.exist.storage.sync.PageCleaner;
 import org.exist.storage.sync.Sync;
 import org.exist.storage.sync.SyncTask;
 import org.exist.storage.txn.TransactionException;
@@ -81,6 +84,8 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -180,6 +185,30 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
     @ConfigurationFieldAsAttribute("max")
     private final int maxBrokers;
 
+    /**
+     * The maximum time in milliseconds a thread waits for a broker, -1 to wait forever
+     */
+    @ConfigurationFieldAsAttribute("wait-timeout")
+    private final long brokerWaitTimeout;
+
+    /**
+     * The maximum number of threads waiting for a broker, -1 for no limit
+     */
+    @ConfigurationFieldAsAttribute("max-waiting")
+    private final int maxWaiting;
+
+    /**
+     * One permit per broker which may still be leased. Threads without an
+     * active broker acquire a permit before they take a broker from
+     * {@link #inactiveBrokers}, so that waiting threads queue up in FIFO
+     * order and are woken one at a time.
+     */
+    private final Semaphore brokerPermits;
+
+    private final BrokerWaitStats brokerWaitStats = new BrokerWaitStats();
+
+    private final ReindexStatus reindexStatus = new ReindexStatus();
+
     /**
      * The number of inactive brokers for the database instance
      */
@@ -230,6 +259,18 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
     private FileLockService dataLock;
 
+    /**
+     * The store for the data of binary resources.
+     */
+    private BlobStore blobStore;
+
+    /**
+     * Writes dirty pages in the background and creates fuzzy checkpoints.
+     */
+    private PageCleaner pageCleaner;
+
+    private HotBackup hotBackup;
+
     /**
      * The journal manager of the database instance.
      */
@@ -382,6 +423,9 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
         this.minBrokers = conf.getProperty(PROPERTY_MIN_CONNECTIONS, minBrokers);
         this.maxBrokers = conf.getProperty(PROPERTY_MAX_CONNECTIONS, maxBrokers);
+        this.brokerWaitTimeout = conf.getProperty(PROPERTY_BROKER_WAIT_TIMEOUT, DEFAULT_BROKER_WAIT_TIMEOUT);
+        this.maxWaiting = conf.getProperty(PROPERTY_MAX_WAITING, DEFAULT_MAX_WAITING);
+        this.brokerPermits = new Semaphore(this.maxBrokers, true);
 
         LOG.info("database instance '" + instanceName + "' will have between " + nf.format(this.minBrokers) + " and " + nf.format(this.maxBrokers) + " brokers");
 
@@ -460,10 +504,14 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         this.collectionCacheMgr = servicesManager.register(new CollectionCacheManager(this, collectionCache));
         this.notificationService = servicesManager.register(new NotificationService());
 
+        this.blobStore = servicesManager.register(new BlobStore());
+
         this.journalManager = recoveryEnabled ? Optional.of(new JournalManager()) : Optional.empty();
         if(journalManager.isPresent()) {
                 servicesManager.register(journalManager.get());
         }
+        this.pageCleaner = servicesManager.register(new PageCleaner());
+        this.hotBackup = servicesManager.register(new HotBackup());
 
         final SystemTaskManager systemTaskManager = servicesManager.register(new SystemTaskManager(this));
         this.transactionManager = servicesManager.register(new TransactionManager(this, journalManager, systemTaskManager));
@@ -582,11 +630,16 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
                         //If necessary, launch a task to repair the DB
                         //TODO : merge this with the recovery process ?
-                        if(isRecoveryEnabled() && recovered) {
+                        //A restored hot backup lacks the indexes which are not stored in .dbx files
+                        final boolean restored = hotBackup.isRestored();
+                        if((isRecoveryEnabled() && recovered) || restored) {
                             if(!exportOnly) {
                                 reportStatus("Reindexing database files...");
                                 try {
                                     systemBroker.repair();
+                                    if(restored) {
+                                        hotBackup.restoreCompleted();
+                                    }
                                 } catch(final PermissionDeniedException e) {
                                     LOG.warn("Error during recovery: " + e.getMessage(), e);
                                 }
@@ -741,8 +794,9 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         if(LOG.isDebugEnabled()) {
             LOG.debug("ForceRestart = " + forceRestart);
         }
+        final int redoThreads = conf.getProperty(RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS, 1);
         if(journalManager.isPresent()) {
-            final RecoveryManager recovery = new RecoveryManager(broker, journalManager.get(), forceRestart);
+            final RecoveryManager recovery = new RecoveryManager(broker, journalManager.get(), forceRestart, redoThreads);
             return recovery.recover();
         } else {
             throw new IllegalStateException("Cannot run recovery without a JournalManager");
@@ -935,6 +989,18 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return journalManager;
     }
 
+    public PageCleaner getPageCleaner() {
+        return pageCleaner;
+    }
+
+    public HotBackup getHotBackup() {
+        return hotBackup;
+    }
+
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+
     public TransactionManager getTransactionManager() {
         return transactionManager;
     }
@@ -1126,6 +1192,19 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      */
     //TODO : rename as getBroker ? getInstance (when refactored) ?
     public DBBroker get(final Optional<Subject> subject) throws EXistException {
+        return get(subject, null);
+    }
+
+    /**
+     * Returns an active broker for the database instance.
+     *
+     * @param subject Optionally a subject to set on the broker
+     * @param reservation The reservation to take the broker from, or null to
+     *     wait for a broker in the usual way
+     * @return The broker
+     * @throws EXistException If the instance is not available (stopped or not configured)
+     */
+    DBBroker get(final Optional<Subject> subject, final BrokerReservation reservation) throws EXistException {
         Objects.requireNonNull(subject, "Subject cannot be null, use BrokerPool#getBroker() instead");
 
         if(!isInstanceConfigured()) {
@@ -1167,24 +1246,35 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             }
         }
 
+        if(reservation == null) {
+            acquireBrokerPermit();
+        } else {
+            reservation.take();
+        }
+
         synchronized(this) {
-            //Are there any available brokers ?
-            if(inactiveBrokers.isEmpty()) {
-                //There are no available brokers. If allowed...
-                if(brokersCount < maxBrokers)
-                //... create one
-                {
-                    createBroker();
-                } else
-                    //... or wait until there is one available
-                    while(inactiveBrokers.isEmpty()) {
-                        LOG.debug("waiting for a broker to become available");
-                        try {
-                            this.wait();
-                        } catch(final InterruptedException e) {
-                            //nothing to be done!
+            try {
+                //Are there any available brokers ?
+                if(inactiveBrokers.isEmpty()) {
+                    //There are no available brokers. If allowed...
+                    if(brokersCount < maxBrokers)
+                    //... create one
+                    {
+                        createBroker();
+                    } else
+                        //... or wait until there is one available
+                        while(inactiveBrokers.isEmpty()) {
+                            LOG.debug("waiting for a broker to become available");
+                            try {
+                                this.wait();
+                            } catch(final InterruptedException e) {
+                                //nothing to be done!
+                            }
                         }
-                    }
+                }
+            } catch(final EXistException | RuntimeException e) {
+                brokerPermits.release();
+                throw e;
             }
             broker = inactiveBrokers.pop();
             //activate the broker
@@ -1216,6 +1306,108 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         }
     }
 
+    /**
+     * Acquires the permit to lease a broker, waiting in FIFO order if all brokers are in use.
+     *
+     * @throws BrokerUnavailableException if the wait queue is full, or no broker
+     *     became available within the configured wait timeout
+     */
+    private void acquireBrokerPermit() throws BrokerUnavailableException {
+        final long start = System.currentTimeMillis();
+        try {
+            // unlike tryAcquire(), this does not barge ahead of waiting threads
+            if(brokerPermits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                brokerWaitStats.recordWait(0);
+                return;
+            }
+        } catch(final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BrokerUnavailableException("Interrupted while waiting for a broker of database instance '" + instanceName + "'");
+        }
+
+        if(!brokerWaitStats.enterQueue(maxWaiting)) {
+            throw new BrokerUnavailableException("No broker available for database instance '" + instanceName + "': " + maxWaiting + " requests are already waiting");
+        }
+        try {
+            LOG.debug("waiting for a broker to become available");
+            if(brokerWaitTimeout < 0) {
+                brokerPermits.acquireUninterruptibly();
+            } else {
+                final boolean acquired;
+                try {
+                    acquired = brokerPermits.tryAcquire(brokerWaitTimeout, TimeUnit.MILLISECONDS);
+                } catch(final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new BrokerUnavailableException("Interrupted while waiting for a broker of database instance '" + instanceName + "'");
+                }
+                if(!acquired) {
+                    brokerWaitStats.recordTimeout();
+                    throw new BrokerUnavailableException("No broker available for database instance '" + instanceName + "' after waiting " + brokerWaitTimeout + "ms");
+                }
+            }
+            brokerWaitStats.recordWait(System.currentTimeMillis() - start);
+        } finally {
+            brokerWaitStats.leaveQueue();
+        }
+    }
+
+    /**
+     * Reserves brokers for other threads without waiting. Either all of the
+     * requested brokers are reserved, or none.
+     *
+     * A thread which already holds a broker must not wait for further brokers:
+     * if several such threads do so at the same time, they may use up the pool
+     * and wait for each other forever.
+     *
+     * @param count the number of brokers to reserve
+     * @return the reservation, or {@link Optional#empty()} if fewer than
+     *     {@code count} brokers are available
+     */
+    public Optional<BrokerReservation> tryReserve(final int count) {
+        if(count <= 0 || !isInstanceConfigured() || serviceModeUser != null) {
+            return Optional.empty();
+        }
+        try {
+            // unlike tryAcquire(int), this does not barge ahead of waiting threads
+            if(!brokerPermits.tryAcquire(count, 0, TimeUnit.MILLISECONDS)) {
+                return Optional.empty();
+            }
+        } catch(final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+        return Optional.of(new BrokerReservation(this, count));
+    }
+
+    /**
+     * Returns the unused brokers of a reservation to the pool.
+     *
+     * @param count the number of brokers which were not leased
+     */
+    void releaseReservation(final int count) {
+        if(count > 0) {
+            brokerPermits.release(count);
+        }
+    }
+
+    /**
+     * Returns statistics about threads waiting for a broker.
+     *
+     * @return the broker wait statistics
+     */
+    public BrokerWaitStats getBrokerWaitStats() {
+        return brokerWaitStats;
+    }
+
+    /**
+     * Returns the progress of the current or last parallel reindex.
+     *
+     * @return the reindex status
+     */
+    public ReindexStatus getReindexStatus() {
+        return reindexStatus;
+    }
+
     /**
      * Releases a broker for the database instance. If it is no more used, make if invactive.
      * If there are pending system maintenance tasks,
@@ -1288,6 +1480,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
             inactiveBrokers.push(broker);
             watchdog.ifPresent(wd -> wd.remove(broker));
+            brokerPermits.release();
 
             if(LOG.isTraceEnabled()) {
                 if(!brokerLeaseChangeTraceHistory.containsKey(broker.getId())) {
@@ -1401,6 +1594,9 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 } catch (final TransactionException e) {
                     LOG.warn(e.getMessage(), e);
                 }
+                if (blobStore != null && blobStore.isEnabled()) {
+                    blobStore.collectGarbage();
+                }
                 cacheManager.checkCaches();
 
                 if (pluginManager != null) {
@@ -1421,10 +1617,35 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         }
     }
 
+    /**
+     * Executes a major cache synchronization while other brokers may be running,
+     * and creates a fuzzy checkpoint. All pages which are dirty when the redo LSN is
+     * taken are written before the checkpoint is journalled, together with the
+     * transactions which are still running.
+     *
+     * This method is called by the {@link PageCleaner} thread.
+     *
+     * @param broker A broker responsible for executing the job
+     */
+    public void fuzzySync(final DBBroker broker) {
+        final long redoLsn = journalManager.map(JournalManager::nextLsn).orElse(Lsn.LSN_INVALID);
+        broker.sync(Sync.MAJOR);
+        if (!FORCE_CORRUPTION && redoLsn != Lsn.LSN_INVALID) {
+            LOG.debug("Fuzzy checkpoint");
+            try {
+                transactionManager.checkpoint(redoLsn);
+            } catch (final TransactionException e) {
+                LOG.warn(e.getMessage(), e);
+            }
+        }
+        lastMajorSync = System.currentTimeMillis();
+    }
+
     /**
      * Schedules a cache synchronization for the database instance. If the database instance is idle,
      * the cache synchronization will be run immediately. Otherwise, the task will be deferred
-     * until all running threads have returned.
+     * until all running threads have returned, unless fuzzy checkpoints are enabled: a major
+     * synchronization is then handed to the {@link PageCleaner}.
      *
      * @param syncEvent One of {@link org.exist.storage.sync.Sync}
      */
@@ -1455,6 +1676,8 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 sync(broker, syncEvent);
                 inactiveBrokers.push(broker);
                 syncRequired = false;
+            } else if(syncEvent == Sync.MAJOR && pageCleaner != null && pageCleaner.isEnabled()) {
+                pageCleaner.requestCheckpoint();
             } else {
                 //Put the synchronization job into the queue
                 //TODO : check that we don't replace high priority Sync.MAJOR_SYNC by a lesser priority sync !
@@ -1522,6 +1745,9 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             //Shutdown the scheduler
             scheduler.shutdown(true);
 
+            //Stop writing pages in the background
+            pageCleaner.stop(this);
+
             final java.util.concurrent.locks.Lock lock = transactionManager.getLock();
             try {
                 // wait for currently running system tasks before we shutdown
@@ -1734,6 +1960,11 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
     //TODO : move this elsewhere
     public void triggerCheckpoint() {
+        if(pageCleaner != null && pageCleaner.isEnabled()) {
+            // do not wait for the database to become idle
+            pageCleaner.requestCheckpoint();
+            return;
+        }
         if(syncRequired) {
             return;
         }
@@ -0,0 +1,79 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import net.jcip.annotations.ThreadSafe;
+import org.exist.EXistException;
+import org.exist.security.Subject;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A number of brokers reserved with {@link BrokerPool#tryReserve(int)}.
+ *
+ * Each call to {@link #get(Optional)} leases one of the reserved brokers
+ * without waiting, so a thread which already holds a broker can hand out
+ * work to other threads without running into a deadlock when the pool is
+ * exhausted. A leased broker is returned to the pool as usual, by closing it.
+ * Brokers which were not leased are returned by {@link #close()}.
+ */
+@ThreadSafe
+public class BrokerReservation implements AutoCloseable {
+
+    private final BrokerPool pool;
+    private final AtomicInteger remaining;
+
+    BrokerReservation(final BrokerPool pool, final int count) {
+        this.pool = pool;
+        this.remaining = new AtomicInteger(count);
+    }
+
+    /**
+     * Leases one of the reserved brokers.
+     *
+     * @param subject Optionally a subject to set on the broker
+     * @return The broker
+     * @throws EXistException If the instance is not available
+     * @throws IllegalStateException If all reserved brokers have been leased
+     */
+    public DBBroker get(final Optional<Subject> subject) throws EXistException {
+        return pool.get(subject, this);
+    }
+
+    /**
+     * Takes one of the reserved permits.
+     *
+     * @throws IllegalStateException If all reserved brokers have been leased
+     */
+    void take() {
+        if (remaining.getAndUpdate(n -> n > 0 ? n - 1 : n) == 0) {
+            throw new IllegalStateException("All reserved brokers are in use");
+        }
+    }
+
+    /**
+     * Returns the brokers which have not been leased to the pool.
+     */
+    @Override
+    public void close() {
+        pool.releaseReservation(remaining.getAndSet(0));
+    }
+}
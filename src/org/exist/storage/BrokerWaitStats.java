@@ -0,0 +1,142 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics about threads waiting for a broker in {@link BrokerPool#get(java.util.Optional)}:
+ * the current and peak number of waiting threads, a histogram of the time
+ * taken to obtain a broker and the number of requests which gave up
+ * because of a timeout or a full wait queue.
+ */
+@ThreadSafe
+public class BrokerWaitStats {
+
+    /** upper bounds (exclusive, in milliseconds) of the wait time histogram buckets */
+    private static final long[] BUCKET_BOUNDS = { 1, 10, 100, 1000, 10000 };
+    private static final String[] BUCKET_NAMES = { "<1ms", "<10ms", "<100ms", "<1s", "<10s", ">=10s" };
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger peakWaiting = new AtomicInteger();
+    private final LongAdder[] buckets = new LongAdder[BUCKET_NAMES.length];
+    private final LongAdder totalWaitTime = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public BrokerWaitStats() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Register a thread which is about to wait for a broker.
+     *
+     * @param maxWaiting the maximum number of waiting threads, or -1 for no limit
+     * @return false if the wait queue is full and the thread should not wait
+     */
+    boolean enterQueue(final int maxWaiting) {
+        int current;
+        do {
+            current = waiting.get();
+            if (maxWaiting > -1 && current >= maxWaiting) {
+                rejections.increment();
+                return false;
+            }
+        } while (!waiting.compareAndSet(current, current + 1));
+
+        peakWaiting.accumulateAndGet(current + 1, Math::max);
+        return true;
+    }
+
+    void leaveQueue() {
+        waiting.decrementAndGet();
+    }
+
+    /**
+     * Record the time a thread took to obtain a broker.
+     *
+     * @param millis the wait time in milliseconds
+     */
+    void recordWait(final long millis) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && millis >= BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        totalWaitTime.add(millis);
+    }
+
+    void recordTimeout() {
+        timeouts.increment();
+    }
+
+    /**
+     * @return the number of threads currently waiting for a broker
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * @return the highest number of threads which have waited for a broker at the same time
+     */
+    public int getPeakWaiting() {
+        return peakWaiting.get();
+    }
+
+    /**
+     * @return the number of requests which timed out while waiting for a broker
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return the number of requests which were rejected as the wait queue was full
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * @return the total time in milliseconds spent waiting for brokers
+     */
+    public long getTotalWaitTime() {
+        return totalWaitTime.sum();
+    }
+
+    /**
+     * @return the number of broker leases per wait time bucket, in ascending order of the buckets
+     */
+    public Map<String, Long> getWaitTimeHistogram() {
+        final Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < buckets.length; i++) {
+            histogram.put(BUCKET_NAMES[i], buckets[i].sum());
+        }
+        return histogram;
+    }
+}
@@ -599,6 +599,23 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
     public abstract void readBinaryResource(final BinaryDocument blob,
         final OutputStream os) throws IOException;
 
+    /**
+     * Writes a range of the data of the binary resource to the output stream.
+     * Where the stream allows it, the data is transferred without copying it
+     * through the Java heap.
+     *
+     * @param blob
+     *            the binary document descriptor
+     * @param offset
+     *            the offset of the first byte to write
+     * @param length
+     *            the number of bytes to write
+     * @param os
+     *            the stream to write to
+     */
+    public abstract void readBinaryResource(final BinaryDocument blob,
+        final long offset, final long length, final OutputStream os) throws IOException;
+
     public abstract Path getBinaryFile(final BinaryDocument blob) throws IOException;
 
 	public abstract InputStream getBinaryResource(final BinaryDocument blob)
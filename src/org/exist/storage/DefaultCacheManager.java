@@ -27,6 +27,7 @@ import org.apache.logging.log4j.Logger;
 import org.exist.management.Agent;
 import org.exist.management.AgentFactory;
 import org.exist.storage.cache.Cache;
+import org.exist.storage.cache.SegmentedCache;
 import org.exist.util.Configuration;
 import org.exist.util.DatabaseConfigurationException;
 
@@ -368,7 +369,13 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
         final Agent agent = AgentFactory.getInstance();
 
         try {
-            agent.addMBean( instanceName, "org.exist.management." + instanceName + ":type=CacheManager.Cache,name=" + cache.getName() + ",cache-type=" + cache.getType(), new org.exist.management.Cache( cache ) );
+            final Object mbean;
+            if( cache instanceof SegmentedCache ) {
+                mbean = new org.exist.management.SegmentedCache( (SegmentedCache)cache );
+            } else {
+                mbean = new org.exist.management.Cache( cache );
+            }
+            agent.addMBean( instanceName, "org.exist.management." + instanceName + ":type=CacheManager.Cache,name=" + cache.getName() + ",cache-type=" + cache.getType(), mbean );
         }
         catch( final DatabaseConfigurationException e ) {
             LOG.warn( "Exception while registering cache mbean.", e );
@@ -69,6 +69,7 @@ import org.exist.storage.sync.Sync;
 import org.exist.storage.txn.TransactionManager;
 import org.exist.storage.txn.Txn;
 import org.exist.util.*;
+import org.exist.util.io.FileChannelTransfer;
 import com.evolvedbinary.j8fu.function.ConsumerE;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.TerminatedException;
@@ -80,10 +81,12 @@ import org.w3c.dom.NodeList;
 
 import javax.xml.stream.XMLStreamException;
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.NumberFormat;
 import java.util.*;
 import java.util.function.Function;
@@ -141,6 +144,10 @@ public class NativeBroker extends DBBroker {
     public static final String INDEX_DEPTH_ATTRIBUTE = "index-depth";
 
     public static final String PROPERTY_INDEX_DEPTH = "indexer.index-depth";
+
+    public static final String REINDEX_THREADS_ATTRIBUTE = "reindex-threads";
+    public static final String PROPERTY_REINDEX_THREADS = "indexer.reindex-threads";
+    public static final int DEFAULT_REINDEX_THREADS = 1;
     private static final byte[] ALL_STORAGE_FILES = {
         COLLECTIONS_DBX_ID, VALUES_DBX_ID, DOM_DBX_ID
     };
@@ -158,9 +165,6 @@ public class NativeBroker extends DBBroker {
 
     public final static String INIT_COLLECTION_CONFIG = "collection.xconf.init";
 
-    /** in-memory buffer size to use when copying binary resources */
-    private final static int BINARY_RESOURCE_BUF_SIZE = 65536;
-
     /** the database files */
     private final CollectionStore collectionsDb;
     private final DOMFile domDb;
@@ -172,6 +176,8 @@ public class NativeBroker extends DBBroker {
 
     private int defaultIndexDepth;
 
+    private final int reindexThreads;
+
     private final Serializer xmlSerializer;
 
     /** used to count the nodes inserted after the last memory check */
@@ -182,6 +188,7 @@ public class NativeBroker extends DBBroker {
     private final Path dataDir;
     private final Path fsDir;
     private final Optional<Path> fsJournalDir;
+    private final Optional<BlobStore> blobStore;
     private int pageSize;
 
     private final byte prepend;
@@ -231,6 +238,8 @@ public class NativeBroker extends DBBroker {
             this.fsJournalDir = Optional.empty();
         }
 
+        this.blobStore = Optional.ofNullable(pool.getBlobStore()).filter(BlobStore::isEnabled);
+
         nodesCountThreshold = config.getInteger(BrokerPool.PROPERTY_NODES_BUFFER);
         if(nodesCountThreshold > 0) {
             nodesCountThreshold = nodesCountThreshold * 1000;
@@ -241,6 +250,9 @@ public class NativeBroker extends DBBroker {
             defaultIndexDepth = DEFAULT_INDEX_DEPTH;
         }
 
+        final int threads = config.getInteger(PROPERTY_REINDEX_THREADS);
+        this.reindexThreads = threads > 0 ? threads : DEFAULT_REINDEX_THREADS;
+
         final String docIdProp = (String) config.getProperty(BrokerPool.DOC_ID_MODE_PROPERTY);
         if(docIdProp != null) {
             incrementalDocIds = docIdProp.equalsIgnoreCase("incremental");
@@ -1179,9 +1191,7 @@ public class NativeBroker extends DBBroker {
                 }
                 newDoc.setDocId(getNextResourceId(transaction, destination));
 
-                try(final InputStream is = getBinaryResource((BinaryDocument) child)) {
-                    storeBinaryResource(transaction, newDoc, is);
-                }
+                copyBinaryResource(transaction, (BinaryDocument) child, newDoc);
                 storeXMLResource(transaction, newDoc);
                 destCollection._2.addDocument(transaction, this, newDoc);
 
@@ -1801,7 +1811,11 @@ public class NativeBroker extends DBBroker {
         try(final Txn transaction = transact.beginTransaction()) {
             LOG.info(String.format("Start indexing collection %s", collection.getURI().toString()));
             pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, collection.getURI());
-            reindexCollection(transaction, collection, mode);
+            if(reindexThreads > 1) {
+                new ParallelReindex(pool, reindexThreads).reindex(this, collection, mode);
+            } else {
+                reindexCollection(transaction, collection, mode);
+            }
             transact.commit(transaction);
 
         } catch(final Exception e) {
@@ -2128,7 +2142,7 @@ public class NativeBroker extends DBBroker {
             throws IOException {
         storeBinaryResource(transaction, blob, dest -> {
             try(final InputStream is = new ByteArrayInputStream(data)) {
-                Files.copy(is, dest);
+                writeBinaryData(is, dest);
             }
         });
     }
@@ -2136,7 +2150,34 @@ public class NativeBroker extends DBBroker {
     @Override
     public void storeBinaryResource(final Txn transaction, final BinaryDocument blob, final InputStream is)
             throws IOException {
-        storeBinaryResource(transaction, blob, dest -> Files.copy(is, dest));
+        storeBinaryResource(transaction, blob, dest -> writeBinaryData(is, dest));
+    }
+
+    private void writeBinaryData(final InputStream is, final Path dest) throws IOException {
+        if(blobStore.isPresent()) {
+            blobStore.get().store(is, dest);
+        } else {
+            Files.copy(is, dest);
+        }
+    }
+
+    /**
+     * Stores the binary document as a copy of the data of another binary document.
+     * With the content addressed store, this only adds a link to the existing data.
+     *
+     * @param transaction
+     * @param source The binary document to copy the data from
+     * @param blob The binary document to store
+     */
+    private void copyBinaryResource(final Txn transaction, final BinaryDocument source, final BinaryDocument blob) throws IOException {
+        final Path sourceFile = getCollectionFile(getFsDir(), source.getURI(), false);
+        storeBinaryResource(transaction, blob, dest -> {
+            if(blobStore.isPresent()) {
+                blobStore.get().copy(sourceFile, dest);
+            } else {
+                Files.copy(sourceFile, dest);
+            }
+        });
     }
 
     /**
@@ -2266,18 +2307,18 @@ public class NativeBroker extends DBBroker {
     @Override
     public void readBinaryResource(final BinaryDocument blob, final OutputStream os)
         throws IOException {
-        InputStream is = null;
-        try {
-            is = getBinaryResource(blob);
-            final byte[] buffer = new byte[BINARY_RESOURCE_BUF_SIZE];
-            int len;
-            while((len = is.read(buffer)) >= 0) {
-                os.write(buffer, 0, len);
-            }
-        } finally {
-            if(is != null) {
-                is.close();
-            }
+        final Path binFile = getCollectionFile(getFsDir(), blob.getURI(), false);
+        try(final FileChannel channel = FileChannel.open(binFile, StandardOpenOption.READ)) {
+            FileChannelTransfer.transfer(channel, 0, channel.size(), os);
+        }
+    }
+
+    @Override
+    public void readBinaryResource(final BinaryDocument blob, final long offset, final long length, final OutputStream os)
+        throws IOException {
+        final Path binFile = getCollectionFile(getFsDir(), blob.getURI(), false);
+        try(final FileChannel channel = FileChannel.open(binFile, StandardOpenOption.READ)) {
+            FileChannelTransfer.transfer(channel, offset, length, os);
         }
     }
 
@@ -1276,7 +1276,8 @@ public class NativeValueIndex implements ContentLoadingObserver {
                     final int storedDocId = is.readInt();
                     final int gidsCount = is.readInt();
                     final int size = is.readFixedInt();
-                    final DocumentImpl storedDocument = docs.getDoc(storedDocId);
+                    //Check the id first, so documents which are not concerned are never looked up
+                    final DocumentImpl storedDocument = docs.contains(storedDocId) ? docs.getDoc(storedDocId) : null;
 
                     //Exit if the document is not concerned
                     if (storedDocument == null) {
@@ -1395,7 +1396,8 @@ public class NativeValueIndex implements ContentLoadingObserver {
                     final int storedDocId = is.readInt();
                     final int gidsCount = is.readInt();
                     final int size = is.readFixedInt();
-                    final DocumentImpl storedDocument = docs.getDoc(storedDocId);
+                    //Check the id first, so documents which are not concerned are never looked up
+                    final DocumentImpl storedDocument = docs.contains(storedDocId) ? docs.getDoc(storedDocId) : null;
 
                     //Exit if the document is not concerned
                     if (storedDocument == null) {
@@ -0,0 +1,374 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.Permission;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.storage.DBBroker.IndexMode;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.sync.Sync;
+import org.exist.storage.txn.TransactionException;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reindexes a collection tree with several brokers in parallel.
+ *
+ * The calling broker drops the old indexes and collects the documents of every
+ * collection, then a pool of worker threads, each with its own broker and
+ * therefore its own chain of index workers, takes documents from a shared queue.
+ * Each document is streamed once through all configured indexes.
+ *
+ * The calling broker holds a write lock on every collection of the tree until
+ * all documents have been reindexed, so documents cannot be stored, removed or
+ * moved while the workers run. Only one parallel reindex may run at a time.
+ *
+ * The index of a collection is dropped in a transaction of its own, and the
+ * workers commit their documents in batches of at most {@value #BATCH_SIZE}, so
+ * no transaction grows with the size of the tree.
+ *
+ * Progress is recorded in the file {@value #STATE_FILE} in the data directory.
+ * Collections are appended to it once the transactions of all their documents
+ * have been committed and the database files have been synced. If the database
+ * crashes, reindexing the same collection again skips the collections which had
+ * already been completed.
+ */
+class ParallelReindex {
+
+    private static final Logger LOG = LogManager.getLogger(ParallelReindex.class);
+
+    static final String STATE_FILE = "reindex.state";
+
+    /**
+     * Interval in which completed collections are synced and written to the state file
+     */
+    private static final long CHECKPOINT_INTERVAL = 30000;
+
+    /**
+     * Maximum number of documents a worker reindexes in one transaction
+     */
+    static final int BATCH_SIZE = 100;
+
+    private final BrokerPool pool;
+    private final int threads;
+    private final Path stateFile;
+    private final ReindexStatus status;
+
+    private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+    private final Queue<XmldbURI> completed = new ConcurrentLinkedQueue<>();
+
+    ParallelReindex(final BrokerPool pool, final int threads) {
+        this.pool = pool;
+        // keep one broker for the caller
+        this.threads = Math.max(1, Math.min(threads, pool.getMax() - 1));
+        this.stateFile = pool.getStoragePlace().resolve(STATE_FILE);
+        this.status = pool.getReindexStatus();
+    }
+
+    void reindex(final NativeBroker broker, final Collection root, final IndexMode mode)
+            throws PermissionDeniedException, IOException, TransactionException {
+        final long start = System.currentTimeMillis();
+        if (!status.start(root.getURI().toString(), threads)) {
+            throw new IOException("Cannot reindex " + root.getURI() + ": a parallel reindex of " +
+                    status.getCollection() + " is already running");
+        }
+        final List<Collection> locked = new ArrayList<>();
+        try {
+            final Set<XmldbURI> done = readState(root.getURI());
+
+            final List<Task> collectionConfigs = new ArrayList<>();
+            synchronized(pool.getCollectionsCache()) {
+                prepare(broker, root, mode, done, collectionConfigs, locked);
+            }
+
+            // a collection configuration is disabled while it is reindexed,
+            // which must not happen while other documents of the collection are indexed
+            final TransactionManager transact = pool.getTransactionManager();
+            for (final Task task : collectionConfigs) {
+                try (final Txn transaction = transact.beginTransaction()) {
+                    reindexDocument(broker, transaction, task);
+                    transact.commit(transaction);
+                }
+                documentCommitted(task);
+            }
+
+            runWorkers(broker, broker.getCurrentSubject());
+
+            if (status.getFailedDocuments() == 0) {
+                Files.deleteIfExists(stateFile);
+            } else {
+                LOG.warn(status.getFailedDocuments() + " documents could not be reindexed. " +
+                        "Reindexing " + root.getURI() + " again will retry the incomplete collections.");
+            }
+        } finally {
+            status.end();
+            for (int i = locked.size() - 1; i >= 0; i--) {
+                locked.get(i).release(LockMode.WRITE_LOCK);
+            }
+            LOG.info(String.format("Parallel reindex of %s with %d threads: %d documents in %d ms.",
+                root.getURI().toString(), threads, status.getIndexedDocuments(), System.currentTimeMillis() - start));
+        }
+    }
+
+    /**
+     * Write lock every collection of the tree, drop the indexes of those which
+     * still need to be reindexed and queue their documents.
+     */
+    private void prepare(final NativeBroker broker, final Collection collection, final IndexMode mode,
+            final Set<XmldbURI> done, final List<Task> collectionConfigs, final List<Collection> locked)
+            throws PermissionDeniedException, IOException, TransactionException {
+        if(!collection.getPermissionsNoLock().validate(broker.getCurrentSubject(), Permission.WRITE)) {
+            throw new PermissionDeniedException("Account " + broker.getCurrentSubject().getName() + " have insufficient privileges on collection " + collection.getURI());
+        }
+        try {
+            collection.getLock().acquire(LockMode.WRITE_LOCK);
+            locked.add(collection);
+        } catch(final LockException e) {
+            LOG.error("LockException while locking collection '" + collection.getURI() + "'. Skipping...", e);
+            return;
+        }
+
+        if (done.contains(collection.getURI())) {
+            status.collectionSkipped();
+        } else {
+            if (mode == IndexMode.STORE) {
+                // committed before any document of the collection is reindexed
+                final TransactionManager transact = pool.getTransactionManager();
+                try (final Txn transaction = transact.beginTransaction()) {
+                    broker.dropCollectionIndex(transaction, collection, true);
+                    transact.commit(transaction);
+                }
+            }
+            try {
+                final List<DocumentImpl> documents = new ArrayList<>();
+                for (final Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
+                    documents.add(i.next());
+                }
+                final Work work = new Work(collection.getURI(), documents.size());
+                status.addCollection(documents.size());
+                if (documents.isEmpty()) {
+                    collectionDone(work);
+                }
+                for (final DocumentImpl document : documents) {
+                    final Task task = new Task(work, document, mode);
+                    if (document.isCollectionConfig()) {
+                        collectionConfigs.add(task);
+                    } else {
+                        tasks.add(task);
+                    }
+                }
+            } catch(final LockException e) {
+                LOG.error("LockException while reindexing documents of collection '" + collection.getURI() + ". Skipping...", e);
+            }
+        }
+
+        try {
+            for (final Iterator<XmldbURI> i = collection.collectionIterator(broker); i.hasNext(); ) {
+                final XmldbURI next = i.next();
+                final Collection child = broker.getCollection(collection.getURI().append(next));
+                if (child == null) {
+                    LOG.warn("Collection '" + next + "' not found");
+                } else {
+                    prepare(broker, child, mode, done, collectionConfigs, locked);
+                }
+            }
+        } catch(final LockException e) {
+            LOG.error("LockException while reindexing child collections of collection '" + collection.getURI() + ". Skipping...", e);
+        }
+    }
+
+    private void runWorkers(final NativeBroker broker, final Subject subject) throws IOException {
+        final AtomicInteger threadId = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads,
+                runnable -> new Thread(runnable, "reindex-" + pool.getId() + "-" + threadId.getAndIncrement()));
+        try {
+            final List<Future<Void>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    final TransactionManager transact = pool.getTransactionManager();
+                    try (final DBBroker workerBroker = pool.get(Optional.of(subject))) {
+                        final List<Task> batch = new ArrayList<>(BATCH_SIZE);
+                        Task task = tasks.poll();
+                        while (task != null) {
+                            try (final Txn transaction = transact.beginTransaction()) {
+                                while (task != null && batch.size() < BATCH_SIZE) {
+                                    reindexDocument(workerBroker, transaction, task);
+                                    batch.add(task);
+                                    task = tasks.poll();
+                                }
+                                transact.commit(transaction);
+                            }
+                            for (final Task committed : batch) {
+                                documentCommitted(committed);
+                            }
+                            batch.clear();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            executor.shutdown();
+
+            while (!executor.awaitTermination(CHECKPOINT_INTERVAL, TimeUnit.MILLISECONDS)) {
+                checkpoint(broker);
+            }
+            checkpoint(broker);
+
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for reindex workers", e);
+        } catch (final ExecutionException e) {
+            throw new IOException("Reindex worker failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void reindexDocument(final DBBroker broker, final Txn transaction, final Task task) {
+        final Lock lock = task.document.getUpdateLock();
+        try {
+            lock.acquire(LockMode.READ_LOCK);
+            try {
+                broker.reindexXMLResource(transaction, task.document, task.mode);
+                status.documentIndexed();
+            } finally {
+                lock.release(LockMode.READ_LOCK);
+            }
+        } catch (final LockException | RuntimeException e) {
+            LOG.error("Failed to reindex document " + task.document.getURI() + ": " + e.getMessage(), e);
+            task.work.failed = true;
+            status.documentFailed();
+        }
+    }
+
+    /**
+     * Count a document whose transaction has been committed, the collection
+     * is complete once all its documents have been committed.
+     */
+    private void documentCommitted(final Task task) {
+        if (task.work.remaining.decrementAndGet() == 0) {
+            collectionDone(task.work);
+        }
+    }
+
+    private void collectionDone(final Work work) {
+        status.collectionCompleted();
+        if (!work.failed) {
+            completed.add(work.collection);
+        }
+    }
+
+    /**
+     * Sync the database files, then record the collections completed since the last checkpoint.
+     */
+    private void checkpoint(final DBBroker broker) throws IOException {
+        if (completed.isEmpty()) {
+            return;
+        }
+        broker.sync(Sync.MAJOR);
+        final StringBuilder lines = new StringBuilder();
+        XmldbURI uri;
+        while ((uri = completed.poll()) != null) {
+            lines.append(uri.toString()).append('\n');
+        }
+        Files.write(stateFile, lines.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+    }
+
+    /**
+     * Read the collections completed by an interrupted reindex of the same collection,
+     * or start a new state file.
+     *
+     * The first line of the state file contains the root collection of the reindex,
+     * all further lines the collections which have been completed.
+     */
+    private Set<XmldbURI> readState(final XmldbURI root) throws IOException {
+        final Set<XmldbURI> done = new HashSet<>();
+        if (Files.exists(stateFile)) {
+            final List<String> lines = Files.readAllLines(stateFile, StandardCharsets.UTF_8);
+            if (!lines.isEmpty() && lines.get(0).equals(root.toString())) {
+                for (final String line : lines.subList(1, lines.size())) {
+                    if (!line.isEmpty()) {
+                        done.add(XmldbURI.create(line));
+                    }
+                }
+                LOG.info("Resuming interrupted reindex of " + root + ": " + done.size() + " collections are already complete.");
+                return done;
+            }
+        }
+        Files.write(stateFile, (root.toString() + '\n').getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.DSYNC);
+        return done;
+    }
+
+    private static class Work {
+        final XmldbURI collection;
+        final AtomicInteger remaining;
+        volatile boolean failed = false;
+
+        Work(final XmldbURI collection, final int documents) {
+            this.collection = collection;
+            this.remaining = new AtomicInteger(documents);
+        }
+    }
+
+    private static class Task {
+        final Work work;
+        final DocumentImpl document;
+        final IndexMode mode;
+
+        Task(final Work work, final DocumentImpl document, final IndexMode mode) {
+            this.work = work;
+            this.document = document;
+            this.mode = mode;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of the currently running (or last) parallel reindex of a
+ * database instance. Read by the JMX agent.
+ */
+@ThreadSafe
+public class ReindexStatus {
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile String collection = null;
+    private volatile int threads = 0;
+    private volatile long startTime = 0;
+    private volatile long endTime = 0;
+
+    private final AtomicLong totalDocuments = new AtomicLong();
+    private final AtomicLong indexedDocuments = new AtomicLong();
+    private final AtomicLong failedDocuments = new AtomicLong();
+    private final AtomicLong totalCollections = new AtomicLong();
+    private final AtomicLong completedCollections = new AtomicLong();
+    private final AtomicLong resumedCollections = new AtomicLong();
+
+    /**
+     * Mark a reindex as running.
+     *
+     * @return false if another reindex is already running
+     */
+    boolean start(final String collection, final int threads) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        this.collection = collection;
+        this.threads = threads;
+        this.startTime = System.currentTimeMillis();
+        this.endTime = 0;
+        totalDocuments.set(0);
+        indexedDocuments.set(0);
+        failedDocuments.set(0);
+        totalCollections.set(0);
+        completedCollections.set(0);
+        resumedCollections.set(0);
+        return true;
+    }
+
+    void end() {
+        endTime = System.currentTimeMillis();
+        running.set(false);
+    }
+
+    void addCollection(final int documents) {
+        totalCollections.incrementAndGet();
+        totalDocuments.addAndGet(documents);
+    }
+
+    void collectionSkipped() {
+        resumedCollections.incrementAndGet();
+    }
+
+    void collectionCompleted() {
+        completedCollections.incrementAndGet();
+    }
+
+    void documentIndexed() {
+        indexedDocuments.incrementAndGet();
+    }
+
+    void documentFailed() {
+        failedDocuments.incrementAndGet();
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return the root collection of the reindex, or null if no reindex ran yet
+     */
+    public String getCollection() {
+        return collection;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the time the reindex took so far, or in total if it has finished
+     */
+    public long getElapsedTime() {
+        if (startTime == 0) {
+            return 0;
+        }
+        return (running.get() ? System.currentTimeMillis() : endTime) - startTime;
+    }
+
+    public long getTotalDocuments() {
+        return totalDocuments.get();
+    }
+
+    public long getIndexedDocuments() {
+        return indexedDocuments.get();
+    }
+
+    public long getFailedDocuments() {
+        return failedDocuments.get();
+    }
+
+    public long getTotalCollections() {
+        return totalCollections.get();
+    }
+
+    public long getCompletedCollections() {
+        return completedCollections.get();
+    }
+
+    /**
+     * @return the number of collections skipped because an interrupted reindex
+     * had already completed them
+     */
+    public long getResumedCollections() {
+        return resumedCollections.get();
+    }
+}
@@ -25,6 +25,7 @@ package org.exist.storage;
 import java.text.NumberFormat;
 import java.util.*;
 
+import antlr.collections.AST;
 import net.jcip.annotations.ThreadSafe;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -45,11 +46,19 @@ import org.exist.xquery.*;
  * expression will be removed from the pool if it has not been used for a
  * pre-defined timeout. These settings can be configured in conf.xml.
  *
+ * Compiled expressions keep their execution state in their
+ * {@link org.exist.xquery.XQueryContext}, so each of them can only be used by
+ * one thread at a time. The syntax tree produced by the parser, however, does not
+ * depend on the context and is never modified afterwards. The pool keeps one
+ * syntax tree per source, which is shared by all threads: if the pool runs out of
+ * compiled copies under concurrent load, a new copy is built from the cached tree
+ * without lexing and parsing the query again.
+ *
  * @author wolf
  */
 @ConfigurationClass("query-pool")
 @ThreadSafe
-public class XQueryPool extends Object2ObjectHashMap implements BrokerPoolService {
+public class XQueryPool extends Object2ObjectHashMap<Source, XQueryPool.PooledXQuery> implements BrokerPoolService {
 
     private final static int MAX_POOL_SIZE = 128;
     private final static int MAX_STACK_SIZE = 5;
@@ -142,18 +151,18 @@ public class XQueryPool extends Object2ObjectHashMap implements BrokerPoolServic
             }
 
             if (size() < maxPoolSize) {
-                Deque<CompiledXQuery> stack = (Deque<CompiledXQuery>)get(source);
-                if (stack == null) {
-                    stack = new ArrayDeque<>();
+                PooledXQuery entry = get(source);
+                if (entry == null) {
+                    entry = new PooledXQuery(source);
                     source.setCacheTimestamp(System.currentTimeMillis());
-                    put(source, stack);
+                    put(source, entry);
                 }
 
-                if (stack.size() < maxStackSize) {
+                if (entry.stack.size() < maxStackSize) {
                     // check if the query is already in pool before adding,
                     // may happen for modules, don't add it a second time!
-                    if(!stack.contains(xquery)) {
-                        stack.push(xquery);
+                    if(!entry.stack.contains(xquery)) {
+                        entry.stack.push(xquery);
                     }
                 }
             }
@@ -164,30 +173,15 @@ public class XQueryPool extends Object2ObjectHashMap implements BrokerPoolServic
         final Source key;
         final CompiledXQuery query;
         synchronized (this) {
-            final int idx = getIndex(source);
-            if (idx < 0) {
-                return null;
-            }
-            key = (Source) keys[idx];
-            int validity = key.isValid(broker);
-            if (validity == Source.UNKNOWN) {
-                validity = key.isValid(source);
-            }
-
-            if (validity == Source.INVALID || validity == Source.UNKNOWN) {
-                keys[idx] = REMOVED;
-                values[idx] = null;
-                LOG.debug(source.getKey() + " is invalid");
-                return null;
-            }
-            final Deque<CompiledXQuery> stack = (Deque<CompiledXQuery>)values[idx];
-            if (stack == null || stack.isEmpty()) {
+            final PooledXQuery entry = getValidEntry(broker, source);
+            if (entry == null || entry.stack.isEmpty()) {
                 return null;
             }
+            key = entry.source;
 
             // now check if the compiled expression is valid
             // it might become invalid if an imported module has changed.
-            query = stack.pop();
+            query = entry.stack.pop();
             final XQueryContext context = query.getContext();
             //context.setBroker(broker);
         }
@@ -209,7 +203,61 @@ public class XQueryPool extends Object2ObjectHashMap implements BrokerPoolServic
         }
     }
 
-    public synchronized CompiledXQuery borrowCompiledXQuery(final DBBroker broker, final Source source) throws PermissionDeniedException {
+    /**
+     * Find the entry for the source and remove it if the source has changed.
+     *
+     * @return the entry or null if there is no valid entry
+     */
+    private PooledXQuery getValidEntry(final DBBroker broker, final Source source) {
+        final PooledXQuery entry = get(source);
+        if (entry == null) {
+            return null;
+        }
+        final Source key = entry.source;
+        int validity = key.isValid(broker);
+        if (validity == Source.UNKNOWN) {
+            validity = key.isValid(source);
+        }
+
+        if (validity == Source.INVALID || validity == Source.UNKNOWN) {
+            remove(key);
+            LOG.debug(source.getKey() + " is invalid");
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Get the shared syntax tree of the source, if the source is pooled and
+     * has not changed since the tree was parsed.
+     *
+     * The returned tree must only be read, it is used concurrently by other threads.
+     *
+     * @param broker the broker used to check the validity of the source
+     * @param source the source of the query
+     * @return the syntax tree or null
+     */
+    public synchronized AST borrowSyntaxTree(final DBBroker broker, final Source source) {
+        final PooledXQuery entry = getValidEntry(broker, source);
+        return entry == null ? null : entry.ast;
+    }
+
+    /**
+     * Share the syntax tree parsed from the source with later compilations.
+     * The tree is only kept if compiled copies of the source are already pooled,
+     * so one-off queries do not take up space in the pool.
+     *
+     * @param source the source of the query
+     * @param ast the syntax tree, which must not be modified afterwards
+     */
+    public synchronized void returnSyntaxTree(final Source source, final AST ast) {
+        final PooledXQuery entry = get(source);
+        if (entry != null && entry.ast == null) {
+            entry.ast = ast;
+        }
+    }
+
+    public CompiledXQuery borrowCompiledXQuery(final DBBroker broker, final Source source) throws PermissionDeniedException {
         final CompiledXQuery query = (CompiledXQuery) borrowObject(broker, source);
         if (query == null) {
             return null;
@@ -228,8 +276,8 @@ public class XQueryPool extends Object2ObjectHashMap implements BrokerPoolServic
     public synchronized void clear() {
         lastTimeOfCleanup = System.currentTimeMillis();
 
-        for (final Iterator i = iterator(); i.hasNext(); ) {
-            final Source next = (Source) i.next();
+        for (final Iterator<Source> i = iterator(); i.hasNext(); ) {
+            final Source next = i.next();
             remove(next);
         }
     }
@@ -244,8 +292,8 @@ public class XQueryPool extends Object2ObjectHashMap implements BrokerPoolServic
             return;
         }
 
-        for (final Iterator i = iterator(); i.hasNext(); ) {
-            final Source next = (Source) i.next();
+        for (final Iterator<Source> i = iterator(); i.hasNext(); ) {
+            final Source next = i.next();
             if (currentTime - next.getCacheTimestamp() > timeout) {
                 remove(next);
             }
@@ -253,4 +301,14 @@ public class XQueryPool extends Object2ObjectHashMap implements BrokerPoolServic
 
         lastTimeOutCheck = currentTime;
     }
+
+    static class PooledXQuery {
+        final Source source;
+        final Deque<CompiledXQuery> stack = new ArrayDeque<>();
+        AST ast = null;
+
+        PooledXQuery(final Source source) {
+            this.source = source;
+        }
+    }
 }
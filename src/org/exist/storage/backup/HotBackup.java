@@ -0,0 +1,591 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.backup;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.BrokerPoolService;
+import org.exist.storage.DBBroker;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.btree.Paged.ChangedPages;
+import org.exist.storage.journal.JournalManager;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.util.Configuration;
+import org.exist.util.FileUtils;
+import org.exist.util.LockException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Online backup of the database files, taken while the database keeps
+ * serving reads and writes.
+ * <p>
+ * The backup starts with a fuzzy checkpoint and holds further checkpoints
+ * until it is complete, so the journal keeps all entries written since. The
+ * paged database files are then copied page by page, a few pages at a time
+ * under the lock of the file. The copy is not consistent by itself: pages may
+ * be copied before or after a change. The journal files are copied after the
+ * database files, so they cover all changes from the checkpoint to the end of
+ * the copy. Pages are allocated by writing the file header at once rather
+ * than through the journal, so the headers are copied after the journal.
+ * Restoring a backup looks like a crash to the database, and recovery brings
+ * the files to the state of the end of the journal.
+ * <p>
+ * Every paged file records the pages written to disk since the last backup,
+ * see {@link org.exist.storage.btree.Paged#takeChangedPages(long)}. An
+ * incremental backup only copies these pages for each file which has been
+ * tracked since the previous backup, and the whole file otherwise, e.g. after
+ * a crash. The symbol table is copied as a whole, the binary resources in the
+ * fs directory if they were added or modified since the previous backup.
+ * <p>
+ * Index data which is not stored in paged files, e.g. the lucene index, is not
+ * part of the backup. A restore leaves a {@link #REINDEX_MARKER} in the data
+ * directory, and the database is reindexed at the next startup, even if the
+ * journal of the backup does not need to be recovered.
+ * <p>
+ * Each backup is written to a directory of its own below the target
+ * directory, with a {@link #MANIFEST_FILE} naming the previous backup of an
+ * incremental one. {@link #restore(Path, Path, Path)} applies a full backup
+ * and the incremental backups following it to an empty data directory.
+ */
+public class HotBackup implements BrokerPoolService {
+
+    private final static Logger LOG = LogManager.getLogger(HotBackup.class);
+
+    public static final String MANIFEST_FILE = "hotbackup.properties";
+    public static final String DELTA_SUFFIX = ".delta";
+    public static final String REINDEX_MARKER = "hotbackup.reindex";
+
+    private static final String JOURNAL_DIR = "journal";
+    private static final String FS_DIR = "fs";
+    private static final String FS_LISTING = "fs.lst";
+
+    private static final String PROP_TYPE = "type";
+    private static final String PROP_ID = "id";
+    private static final String PROP_PREVIOUS = "previous";
+    private static final String PROP_FILES = "files";
+    private static final String PROP_SYMBOLS = "symbols";
+    private static final String PROP_DURATION = "duration";
+    private static final String TYPE_FULL = "full";
+    private static final String TYPE_INCREMENTAL = "incremental";
+
+    private static final int DELTA_MAGIC = 0x48424450;
+    private static final long END_OF_PAGES = -1;
+
+    /**
+     * Number of pages copied while the lock of a file is held
+     */
+    private static final int PAGES_PER_LOCK = 64;
+
+    private final Set<BTree> files = ConcurrentHashMap.newKeySet();
+
+    private Path dataDir = null;
+    private BrokerPool pool = null;
+
+    @Override
+    public void configure(final Configuration configuration) {
+        this.dataDir = (Path) configuration.getProperty(BrokerPool.PROPERTY_DATA_DIR);
+    }
+
+    @Override
+    public void prepare(final BrokerPool brokerPool) {
+        this.pool = brokerPool;
+    }
+
+    /**
+     * @return true if a backup has been restored into the data directory and the
+     *      database has not been reindexed since
+     */
+    public boolean isRestored() {
+        return Files.exists(dataDir.resolve(REINDEX_MARKER));
+    }
+
+    /**
+     * Called once the database has been reindexed after a restore.
+     *
+     * @throws IOException if the marker of the restore cannot be removed
+     */
+    public void restoreCompleted() throws IOException {
+        Files.deleteIfExists(dataDir.resolve(REINDEX_MARKER));
+        LOG.info("Reindexed the database after the restore of a hot backup");
+    }
+
+    /**
+     * Add a database file to the files which are backed up.
+     *
+     * @param file the database file
+     */
+    public void register(final BTree file) {
+        files.add(file);
+    }
+
+    /**
+     * Remove a database file which is closed.
+     *
+     * @param file the database file
+     */
+    public void deregister(final BTree file) {
+        files.remove(file);
+    }
+
+    /**
+     * Create a backup in a new directory below the given directory.
+     *
+     * @param broker the broker used for the checkpoint
+     * @param target the directory which holds the backups
+     * @param incremental true to only copy the changes since the last backup
+     *      found in the target directory. A full backup is created if there is none.
+     * @return the directory of the new backup
+     * @throws EXistException if the backup fails
+     */
+    public synchronized Path backup(final DBBroker broker, final Path target, final boolean incremental) throws EXistException {
+        final JournalManager journalManager = pool.getJournalManager().orElseThrow(() ->
+                new EXistException("Hot backup needs the journal, but recovery is disabled"));
+        final long start = System.currentTimeMillis();
+        final Path dir;
+        final Optional<Backup> previous;
+        try {
+            Files.createDirectories(target);
+            previous = incremental ? Backup.latest(target) : Optional.empty();
+            dir = target.resolve("hotbackup-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date(start)));
+            Files.createDirectory(dir);
+        } catch (final IOException e) {
+            throw new EXistException("Failed to create the backup directory in " + target.toAbsolutePath() + ": " + e.getMessage(), e);
+        }
+        final long backupId = previous.map(p -> Math.max(start, p.id + 1)).orElse(start);
+        LOG.info("Starting " + (previous.isPresent() ? TYPE_INCREMENTAL : TYPE_FULL) + " hot backup to " + dir.toAbsolutePath());
+
+        pool.fuzzySync(broker);
+        journalManager.holdCheckpoints();
+        final Map<BTree, ChangedPages> changes = new HashMap<>();
+        try {
+            for (final BTree file : files) {
+                changes.put(file, file.takeChangedPages(backupId));
+            }
+
+            final Properties manifest = new Properties();
+            manifest.setProperty(PROP_TYPE, previous.isPresent() ? TYPE_INCREMENTAL : TYPE_FULL);
+            manifest.setProperty(PROP_ID, Long.toString(backupId));
+            previous.ifPresent(p -> manifest.setProperty(PROP_PREVIOUS, FileUtils.fileName(p.dir)));
+
+            final List<String> names = new ArrayList<>();
+            final Map<BTree, Path> copies = new HashMap<>();
+            for (final Map.Entry<BTree, ChangedPages> change : changes.entrySet()) {
+                final BTree file = change.getKey();
+                final String name = relativeName(file.getFile());
+                if (previous.isPresent() && change.getValue().getSince() == previous.get().id) {
+                    copies.put(file, copyPages(file, change.getValue().getPages(), dir.resolve(name + DELTA_SUFFIX)));
+                } else {
+                    copies.put(file, copyFile(file, dir.resolve(name)));
+                }
+                names.add(name);
+            }
+            manifest.setProperty(PROP_FILES, String.join(",", names));
+
+            // the journal is copied last: it has to cover all changes to the copied pages
+            journalManager.flush(true, true);
+            final Path journalDir = Files.createDirectory(dir.resolve(JOURNAL_DIR));
+            try (final Stream<Path> journals = journalManager.getFiles()) {
+                for (final Path journal : journals.collect(Collectors.toList())) {
+                    Files.copy(journal, journalDir.resolve(FileUtils.fileName(journal)));
+                }
+            }
+            // the headers are copied after the journal: they have to cover the pages allocated by its entries
+            for (final Map.Entry<BTree, Path> copy : copies.entrySet()) {
+                copyHeader(copy.getKey(), copy.getValue());
+            }
+
+            // symbols and binary resources are not journalled, copy them after the journal
+            final String symbols = relativeName(pool.getSymbols().getFile());
+            try (final OutputStream os = Files.newOutputStream(createParent(dir.resolve(symbols)))) {
+                pool.getSymbols().backupSymbolsTo(os);
+            }
+            manifest.setProperty(PROP_SYMBOLS, symbols);
+            copyBinaries(dir, previous);
+
+            manifest.setProperty(PROP_DURATION, Long.toString(System.currentTimeMillis() - start));
+            try (final OutputStream os = Files.newOutputStream(dir.resolve(MANIFEST_FILE))) {
+                manifest.store(os, "eXist-db hot backup");
+            }
+        } catch (final IOException | LockException | RuntimeException e) {
+            // the next backup has to copy the pages taken by this one
+            changes.forEach(BTree::returnChangedPages);
+            throw new EXistException("Hot backup to " + dir.toAbsolutePath() + " failed: " + e.getMessage(), e);
+        } finally {
+            journalManager.releaseCheckpoints();
+        }
+        LOG.info("Hot backup to " + dir.toAbsolutePath() + " finished in " + (System.currentTimeMillis() - start) + "ms");
+        return dir;
+    }
+
+    private String relativeName(final Path file) {
+        final Path path = file.toAbsolutePath().normalize();
+        final Path base = dataDir.toAbsolutePath().normalize();
+        return (path.startsWith(base) ? base.relativize(path) : path.getFileName()).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Copy a database file as a whole. Its header is copied again by {@link #copyHeader(BTree, Path)}.
+     *
+     * @return the copy
+     */
+    private static Path copyFile(final BTree file, final Path target) throws IOException, LockException {
+        final int chunkSize = file.getFileHeader().getPageSize() * PAGES_PER_LOCK;
+        final byte[] buf = new byte[chunkSize];
+        try (final OutputStream os = Files.newOutputStream(createParent(target))) {
+            long pos = 0;
+            int read;
+            do {
+                final Lock lock = lock(file);
+                try {
+                    read = file.readRaw(pos, buf, chunkSize);
+                } finally {
+                    unlock(lock);
+                }
+                os.write(buf, 0, read);
+                pos += read;
+            } while (read == chunkSize);
+        }
+        return target;
+    }
+
+    /**
+     * Copy the given pages of a database file to a delta file. The file size and
+     * the file header are appended by {@link #copyHeader(BTree, Path)}.
+     *
+     * @return the delta file
+     */
+    private static Path copyPages(final BTree file, final BitSet pages, final Path target) throws IOException, LockException {
+        final int pageSize = file.getFileHeader().getPageSize();
+        final int headerSize = file.getFileHeader().getHeaderSize();
+        final byte[] buf = new byte[pageSize];
+        try (final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(createParent(target))))) {
+            os.writeInt(DELTA_MAGIC);
+            os.writeInt(headerSize);
+            os.writeInt(pageSize);
+            int page = pages.nextSetBit(0);
+            while (page >= 0) {
+                final Lock lock = lock(file);
+                try {
+                    for (int i = 0; i < PAGES_PER_LOCK && page >= 0; i++, page = pages.nextSetBit(page + 1)) {
+                        final int read = file.readRaw(headerSize + (long) page * pageSize, buf, pageSize);
+                        if (read == pageSize) {
+                            os.writeLong(page);
+                            os.write(buf, 0, pageSize);
+                        }
+                    }
+                } finally {
+                    unlock(lock);
+                }
+            }
+            os.writeLong(END_OF_PAGES);
+        }
+        return target;
+    }
+
+    /**
+     * Copy the file header over the header of a copied file, or append it
+     * together with the file size to a delta file.
+     */
+    private static void copyHeader(final BTree file, final Path target) throws IOException, LockException {
+        final byte[] buf = new byte[file.getFileHeader().getHeaderSize()];
+        final long fileSize;
+        final Lock lock = lock(file);
+        try {
+            fileSize = file.getFileSize();
+            file.readRaw(0, buf, buf.length);
+        } finally {
+            unlock(lock);
+        }
+        if (FileUtils.fileName(target).endsWith(DELTA_SUFFIX)) {
+            try (final DataOutputStream os = new DataOutputStream(Files.newOutputStream(target, StandardOpenOption.APPEND))) {
+                os.writeLong(fileSize);
+                os.write(buf);
+            }
+        } else {
+            try (final FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(buf), 0);
+            }
+        }
+    }
+
+    /**
+     * Pages are written under the write lock of the file, also when they are evicted from the cache
+     * by a reader, so the write lock is needed to read complete pages.
+     */
+    private static Lock lock(final BTree file) throws LockException {
+        final Lock lock = file.getLock();
+        if (lock != null) {
+            lock.acquire(LockMode.WRITE_LOCK);
+        }
+        return lock;
+    }
+
+    private static void unlock(final Lock lock) {
+        if (lock != null) {
+            lock.release(LockMode.WRITE_LOCK);
+        }
+    }
+
+    /**
+     * Copy the binary resources which were added or modified since the previous backup,
+     * and list all of them, so a restore can remove the deleted ones.
+     */
+    private void copyBinaries(final Path dir, final Optional<Backup> previous) throws IOException {
+        final Path fsDir = dataDir.resolve(FS_DIR);
+        final Map<String, String> listed = previous.isPresent() ? readListing(previous.get().dir) : Collections.emptyMap();
+        final Path fsTarget = dir.resolve(FS_DIR);
+        try (final BufferedWriter listing = Files.newBufferedWriter(dir.resolve(FS_LISTING), StandardCharsets.UTF_8)) {
+            if (!Files.isDirectory(fsDir)) {
+                return;
+            }
+            Files.walkFileTree(fsDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    final String name = fsDir.relativize(file).toString().replace(File.separatorChar, '/');
+                    final String stamp = attrs.lastModifiedTime().toMillis() + " " + attrs.size();
+                    if (!stamp.equals(listed.get(name))) {
+                        try {
+                            Files.copy(file, createParent(fsTarget.resolve(name)), StandardCopyOption.COPY_ATTRIBUTES);
+                        } catch (final NoSuchFileException e) {
+                            // removed while copying
+                            return FileVisitResult.CONTINUE;
+                        }
+                    }
+                    listing.write(stamp + " " + name);
+                    listing.newLine();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file, final IOException e) throws IOException {
+                    if (e instanceof NoSuchFileException) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    throw e;
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the binary resources of a backup, mapped to their modification time and size
+     */
+    private static Map<String, String> readListing(final Path dir) throws IOException {
+        final Map<String, String> listed = new HashMap<>();
+        final Path listing = dir.resolve(FS_LISTING);
+        if (Files.exists(listing)) {
+            for (final String line : Files.readAllLines(listing, StandardCharsets.UTF_8)) {
+                final int sep = line.indexOf(' ', line.indexOf(' ') + 1);
+                if (sep > 0) {
+                    listed.put(line.substring(sep + 1), line.substring(0, sep));
+                }
+            }
+        }
+        return listed;
+    }
+
+    private static Path createParent(final Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        return file;
+    }
+
+    /**
+     * Restore a backup into an empty data directory. An incremental backup is
+     * applied on top of the backups it is based on, which have to be found in
+     * the same directory. The database has to be started afterwards to
+     * recover from the journal of the backup. It then rebuilds all indexes,
+     * as those which are not stored in .dbx files are not part of the backup.
+     *
+     * @param backupDir the directory of the backup
+     * @param dataDir the data directory of the database, which must not contain database files
+     * @param journalDir the journal directory of the database
+     * @throws IOException if the backup cannot be restored
+     */
+    public static void restore(final Path backupDir, final Path dataDir, final Path journalDir) throws IOException {
+        final Deque<Backup> chain = new ArrayDeque<>();
+        Backup backup = Backup.read(backupDir);
+        chain.push(backup);
+        while (backup.previous != null) {
+            backup = Backup.read(backup.dir.resolveSibling(backup.previous));
+            chain.push(backup);
+        }
+        if (!TYPE_FULL.equals(chain.peek().type)) {
+            throw new IOException("The backup chain of " + backupDir.toAbsolutePath() + " does not start with a full backup");
+        }
+
+        Files.createDirectories(dataDir);
+        try (final Stream<Path> existing = Files.list(dataDir)) {
+            if (existing.anyMatch(p -> FileUtils.fileName(p).endsWith(".dbx"))) {
+                throw new IOException("The data directory " + dataDir.toAbsolutePath() + " already contains database files");
+            }
+        }
+
+        final Set<String> restored = new HashSet<>();
+        for (final Backup step : chain) {
+            LOG.info("Restoring " + step.type + " hot backup " + step.dir.toAbsolutePath());
+            for (final String name : step.files) {
+                final Path delta = step.dir.resolve(name + DELTA_SUFFIX);
+                if (Files.exists(delta)) {
+                    applyPages(delta, dataDir.resolve(name));
+                } else {
+                    Files.copy(step.dir.resolve(name), createParent(dataDir.resolve(name)), StandardCopyOption.REPLACE_EXISTING);
+                }
+                restored.add(name);
+            }
+            Files.copy(step.dir.resolve(step.symbols), createParent(dataDir.resolve(step.symbols)), StandardCopyOption.REPLACE_EXISTING);
+            final Path fs = step.dir.resolve(FS_DIR);
+            if (Files.isDirectory(fs)) {
+                try (final Stream<Path> binaries = Files.walk(fs)) {
+                    for (final Path binary : binaries.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                        Files.copy(binary, createParent(dataDir.resolve(FS_DIR).resolve(fs.relativize(binary).toString())),
+                                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                    }
+                }
+            }
+        }
+
+        // remove what has been deleted since the full backup
+        final Backup last = chain.peekLast();
+        for (final String name : restored) {
+            if (!last.files.contains(name)) {
+                FileUtils.deleteQuietly(dataDir.resolve(name));
+            }
+        }
+        final Path fsDir = dataDir.resolve(FS_DIR);
+        if (Files.isDirectory(fsDir)) {
+            final Set<String> binaries = readListing(last.dir).keySet();
+            try (final Stream<Path> existing = Files.walk(fsDir)) {
+                existing.filter(Files::isRegularFile)
+                        .filter(p -> !binaries.contains(fsDir.relativize(p).toString().replace(File.separatorChar, '/')))
+                        .forEach(FileUtils::deleteQuietly);
+            }
+        }
+
+        Files.createDirectories(journalDir);
+        try (final Stream<Path> journals = Files.list(last.dir.resolve(JOURNAL_DIR))) {
+            for (final Path journal : journals.collect(Collectors.toList())) {
+                Files.copy(journal, journalDir.resolve(FileUtils.fileName(journal)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.write(dataDir.resolve(REINDEX_MARKER), last.dir.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+        LOG.info("Hot backup restored to " + dataDir.toAbsolutePath() + ". The database recovers from the journal and is reindexed at startup.");
+    }
+
+    private static void applyPages(final Path delta, final Path target) throws IOException {
+        try (final DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(delta)));
+                final FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            if (is.readInt() != DELTA_MAGIC) {
+                throw new IOException("Not a delta file: " + delta.toAbsolutePath());
+            }
+            final int headerSize = is.readInt();
+            final int pageSize = is.readInt();
+            final byte[] buf = new byte[Math.max(headerSize, pageSize)];
+            long page;
+            while ((page = is.readLong()) != END_OF_PAGES) {
+                is.readFully(buf, 0, pageSize);
+                channel.write(ByteBuffer.wrap(buf, 0, pageSize), headerSize + page * pageSize);
+            }
+            final long fileSize = is.readLong();
+            is.readFully(buf, 0, headerSize);
+            channel.write(ByteBuffer.wrap(buf, 0, headerSize), 0);
+            if (channel.size() > fileSize) {
+                channel.truncate(fileSize);
+            }
+        }
+    }
+
+    /**
+     * The manifest of a backup.
+     */
+    private static class Backup {
+        private final Path dir;
+        private final String type;
+        private final long id;
+        private final String previous;
+        private final List<String> files;
+        private final String symbols;
+
+        private Backup(final Path dir, final Properties manifest) {
+            this.dir = dir;
+            this.type = manifest.getProperty(PROP_TYPE);
+            this.id = Long.parseLong(manifest.getProperty(PROP_ID));
+            this.previous = manifest.getProperty(PROP_PREVIOUS);
+            final String names = manifest.getProperty(PROP_FILES, "");
+            this.files = names.isEmpty() ? Collections.emptyList() : Arrays.asList(names.split(","));
+            this.symbols = manifest.getProperty(PROP_SYMBOLS);
+        }
+
+        static Backup read(final Path dir) throws IOException {
+            final Path file = dir.resolve(MANIFEST_FILE);
+            if (!Files.exists(file)) {
+                throw new IOException("Not a complete hot backup: " + dir.toAbsolutePath());
+            }
+            final Properties manifest = new Properties();
+            try (final InputStream is = Files.newInputStream(file)) {
+                manifest.load(is);
+            }
+            return new Backup(dir, manifest);
+        }
+
+        /**
+         * @return the complete backup with the highest id in the given directory
+         */
+        static Optional<Backup> latest(final Path target) throws IOException {
+            Backup latest = null;
+            try (final Stream<Path> dirs = Files.list(target)) {
+                for (final Path dir : dirs.filter(d -> Files.exists(d.resolve(MANIFEST_FILE))).collect(Collectors.toList())) {
+                    final Backup backup = read(dir);
+                    if (latest == null || backup.id > latest.id) {
+                        latest = backup;
+                    }
+                }
+            }
+            return Optional.ofNullable(latest);
+        }
+    }
+
+    public static void main(final String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: " + HotBackup.class.getName() + " backup-dir data-dir [journal-dir]");
+            System.exit(1);
+        }
+        final Path dataDir = Paths.get(args[1]);
+        try {
+            restore(Paths.get(args[0]), dataDir, args.length > 2 ? Paths.get(args[2]) : dataDir);
+        } catch (final IOException e) {
+            System.err.println("Restore failed: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+}
@@ -62,4 +62,9 @@ public abstract class BTAbstractLoggable extends AbstractLoggable {
     public int getLogSize() {
         return 1;
     }
+
+    @Override
+    public int getRedoFileId() {
+        return fileId;
+    }
 }
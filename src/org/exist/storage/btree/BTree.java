@@ -86,6 +86,7 @@ import org.exist.storage.txn.Txn;
 import org.exist.util.ByteConversion;
 import org.exist.util.FileUtils;
 import org.exist.util.Lockable;
+import org.exist.util.hashtable.LongHashSet;
 import org.exist.xquery.TerminatedException;
 
 import java.io.*;
@@ -227,6 +228,12 @@ public class BTree extends Paged implements Lockable {
     public void closeAndRemove() {
         super.closeAndRemove();
         cacheManager.deregisterCache(cache);
+        if (pool.getPageCleaner() != null) {
+            pool.getPageCleaner().deregister(this);
+        }
+        if (pool.getHotBackup() != null) {
+            pool.getHotBackup().deregister(this);
+        }
     }
 
     /**
@@ -240,9 +247,21 @@ public class BTree extends Paged implements Lockable {
     }
 
     protected void initCache() {
-        this.cache = new BTreeCache<>(FileUtils.fileName(getFile()), cacheManager.getDefaultInitialSize(), 1.5,
-            0, CacheManager.BTREE_CACHE);
+        final int segments = SegmentedCache.getConfiguredSegments(pool.getConfiguration(), CacheManager.BTREE_CACHE);
+        if (segments > 0) {
+            this.cache = new SegmentedCache<>(FileUtils.fileName(getFile()), cacheManager.getDefaultInitialSize(),
+                segments, 1.5, 0, CacheManager.BTREE_CACHE);
+        } else {
+            this.cache = new BTreeCache<>(FileUtils.fileName(getFile()), cacheManager.getDefaultInitialSize(), 1.5,
+                0, CacheManager.BTREE_CACHE);
+        }
         cacheManager.registerCache(cache);
+        if (pool.getPageCleaner() != null) {
+            pool.getPageCleaner().register(this);
+        }
+        if (pool.getHotBackup() != null) {
+            pool.getHotBackup().register(this);
+        }
     }
 
     protected void setSplitFactor(final double factor) {
@@ -545,11 +564,29 @@ public class BTree extends Paged implements Lockable {
         return flushed;
     }
 
+    /**
+     * Write up to max dirty pages to disk, leaving them in the cache.
+     * Called by the {@link org.exist.storage.sync.PageCleaner} while
+     * it holds the lock on the file.
+     *
+     * @param max the maximum number of pages to write
+     * @return the number of pages written
+     */
+    public int flushDirtyPages(final int max) {
+        return cache.flushDirty(max);
+    }
+
     @Override
 	public void close() throws DBException {
         if (!isReadOnly()) {
             flush();
         }
+        if (pool.getPageCleaner() != null) {
+            pool.getPageCleaner().deregister(this);
+        }
+        if (pool.getHotBackup() != null) {
+            pool.getHotBackup().deregister(this);
+        }
         super.close();
     }
 
@@ -598,8 +635,8 @@ public class BTree extends Paged implements Lockable {
      * @throws DBException
      */
     private TreeInfo scanTree(final boolean removeBranches) throws IOException, TerminatedException, DBException {
-        final Set<Long> pagePointers = new HashSet<>();
-        final Set<Long> nextPages = new HashSet<>();
+        final LongHashSet pagePointers = new LongHashSet();
+        final LongHashSet nextPages = new LongHashSet();
         final List<Long> branchPages = new ArrayList<>();
 
         int pageCount = 0;
@@ -632,7 +669,7 @@ public class BTree extends Paged implements Lockable {
         }
         pagePointers.removeAll(nextPages);
         if (pagePointers.size() > 1) {
-            LOG.error("Found multiple start pages: [" + pagePointers.stream().map(l -> Long.toString(l)).collect(Collectors.joining(", ")) + "]");
+            LOG.error("Found multiple start pages: [" + Arrays.stream(pagePointers.toArray()).mapToObj(Long::toString).collect(Collectors.joining(", ")) + "]");
             throw new DBException("More than one start page found for btree: " + FileUtils.fileName(getFile()));
         }
         if (removeBranches) {
@@ -646,7 +683,7 @@ public class BTree extends Paged implements Lockable {
                 page.getPageHeader().setDirty(true);
             }
         }
-        return new TreeInfo(pagePointers.iterator().next(), pageCount);
+        return new TreeInfo(pagePointers.iterator().nextLong(), pageCount);
     }
 
     public void scanSequential(final PrintStream out, long pageNum, final BTreeCallback callback) throws IOException, TerminatedException {
@@ -1019,10 +1056,11 @@ public class BTree extends Paged implements Lockable {
         public boolean sync(final boolean syncJournal) {
             if(isDirty()) {
                 try {
-                    write();
-                    if (isRecoveryEnabled() && syncJournal) {
+                    // write-ahead: the journal entries for this page must be written before the page
+                    if (isRecoveryEnabled() && syncJournal && logManager.get().lastWrittenLsn() < page.getPageHeader().getLsn()) {
                         logManager.get().flush(true, false);
                     }
+                    write();
                     return true;
                 } catch (final IOException e) {
                     LOG.error("IO error while writing page: " + page.getPageNum(), e);
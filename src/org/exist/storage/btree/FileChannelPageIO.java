@@ -0,0 +1,87 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Page I/O through positional reads and writes on a {@link FileChannel}.
+ * Avoids the seek system call needed by {@link RandomAccessPageIO}.
+ */
+public class FileChannelPageIO implements PageIO {
+
+    protected final FileChannel channel;
+
+    public FileChannelPageIO(final Path file, final boolean readOnly) throws IOException {
+        if (readOnly) {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        } else {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        }
+    }
+
+    @Override
+    public void read(final long position, final byte[] buf, final int off, final int len) throws IOException {
+        final ByteBuffer dst = ByteBuffer.wrap(buf, off, len);
+        long pos = position;
+        while (dst.hasRemaining()) {
+            final int n = channel.read(dst, pos);
+            if (n < 0) {
+                Arrays.fill(buf, dst.position(), off + len, (byte) 0);
+                break;
+            }
+            pos += n;
+        }
+    }
+
+    @Override
+    public void write(final long position, final byte[] buf, final int off, final int len) throws IOException {
+        final ByteBuffer src = ByteBuffer.wrap(buf, off, len);
+        long pos = position;
+        while (src.hasRemaining()) {
+            pos += channel.write(src, pos);
+        }
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public Mode getMode() {
+        return Mode.CHANNEL;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Page I/O which serves reads from read-only memory-mapped regions of the
+ * file, so that a page read is a copy out of the OS page cache without a
+ * system call. Writes go through positional writes on the
+ * {@link FileChannel}, which the OS keeps coherent with the shared mapping.
+ *
+ * The file is mapped in regions of {@link #REGION_SIZE} bytes. A region is
+ * only mapped once the file has grown beyond its end; reads from the
+ * (partially filled) last region fall back to positional channel reads.
+ *
+ * Mapped regions are released by the garbage collector after the file has
+ * been closed. On some platforms (e.g. Windows) a mapped file cannot be
+ * deleted until then.
+ */
+public class MappedPageIO extends FileChannelPageIO {
+
+    static final int REGION_SHIFT = 26;
+
+    /** size of a mapped region: 64MB */
+    static final long REGION_SIZE = 1L << REGION_SHIFT;
+
+    private MappedByteBuffer[] regions = new MappedByteBuffer[16];
+
+    /** the file size as far as known, updated on writes */
+    private long size;
+
+    public MappedPageIO(final Path file, final boolean readOnly) throws IOException {
+        super(file, readOnly);
+        this.size = channel.size();
+    }
+
+    @Override
+    public void read(final long position, final byte[] buf, final int off, final int len) throws IOException {
+        long pos = position;
+        int bufOff = off;
+        int remaining = len;
+        while (remaining > 0) {
+            final int regionIdx = (int) (pos >>> REGION_SHIFT);
+            final int regionOff = (int) (pos & (REGION_SIZE - 1));
+            final int n = (int) Math.min(remaining, REGION_SIZE - regionOff);
+
+            final MappedByteBuffer region = getRegion(regionIdx);
+            if (region != null) {
+                final ByteBuffer src = region.duplicate();
+                src.position(regionOff);
+                src.get(buf, bufOff, n);
+            } else if (pos >= size) {
+                Arrays.fill(buf, bufOff, bufOff + remaining, (byte) 0);
+                return;
+            } else {
+                super.read(pos, buf, bufOff, n);
+            }
+
+            pos += n;
+            bufOff += n;
+            remaining -= n;
+        }
+    }
+
+    @Override
+    public void write(final long position, final byte[] buf, final int off, final int len) throws IOException {
+        super.write(position, buf, off, len);
+        if (position + len > size) {
+            size = position + len;
+        }
+    }
+
+    @Override
+    public long size() throws IOException {
+        return size;
+    }
+
+    /**
+     * Returns the mapped region with the given index, mapping it if the
+     * file already covers the complete region.
+     *
+     * @param regionIdx the index of the region
+     * @return the mapped region or null if the file does not cover the region yet
+     */
+    private MappedByteBuffer getRegion(final int regionIdx) throws IOException {
+        if (regionIdx < regions.length && regions[regionIdx] != null) {
+            return regions[regionIdx];
+        }
+        final long regionStart = (long) regionIdx << REGION_SHIFT;
+        if (regionStart + REGION_SIZE > size) {
+            return null;
+        }
+        if (regionIdx >= regions.length) {
+            regions = Arrays.copyOf(regions, Math.max(regions.length * 2, regionIdx + 1));
+        }
+        final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, REGION_SIZE);
+        regions[regionIdx] = region;
+        return region;
+    }
+
+    @Override
+    public Mode getMode() {
+        return Mode.MAPPED;
+    }
+
+    @Override
+    public void close() throws IOException {
+        regions = new MappedByteBuffer[0];
+        super.close();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Low-level page I/O used by {@link Paged}. Implementations read and write
+ * byte ranges at absolute positions in the underlying file; the page and
+ * file header logic stays in {@link Paged}.
+ *
+ * Reads beyond the end of the file must fill the remainder of the
+ * buffer with zeros, as new pages are read before they are written
+ * for the first time.
+ *
+ * Implementations do not need to be thread-safe: {@link Paged} files
+ * are accessed while holding the lock of the owning file.
+ */
+public interface PageIO extends Closeable {
+
+    /**
+     * The available page I/O backends, selectable per file
+     * in the page-io section of conf.xml.
+     */
+    enum Mode {
+        /** seek + read/write through a {@link java.io.RandomAccessFile} */
+        RANDOM_ACCESS("random-access"),
+
+        /** positional reads and writes through a {@link FileChannel}, no seeks */
+        CHANNEL("channel"),
+
+        /** reads from memory-mapped regions of the file, positional writes through a {@link FileChannel} */
+        MAPPED("mmap");
+
+        private final String name;
+
+        Mode(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @param name the name of the mode as used in conf.xml
+         * @return the mode, or null if there is no mode with that name
+         */
+        public static Mode fromName(final String name) {
+            for (final Mode mode : values()) {
+                if (mode.name.equalsIgnoreCase(name)) {
+                    return mode;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Open a file with the given backend.
+     *
+     * @param mode the backend to use
+     * @param file the file to open, created if it does not exist and readOnly is false
+     * @param readOnly true to open the file for reading only
+     * @return the page I/O
+     * @throws IOException if the file cannot be opened
+     */
+    static PageIO open(final Mode mode, final Path file, final boolean readOnly) throws IOException {
+        switch (mode) {
+            case CHANNEL:
+                return new FileChannelPageIO(file, readOnly);
+            case MAPPED:
+                return new MappedPageIO(file, readOnly);
+            case RANDOM_ACCESS:
+            default:
+                return new RandomAccessPageIO(file, readOnly);
+        }
+    }
+
+    /**
+     * Read <code>len</code> bytes starting at <code>position</code>.
+     * Bytes beyond the end of the file are set to zero.
+     *
+     * @param position the position in the file
+     * @param buf the buffer to read into
+     * @param off the offset in the buffer
+     * @param len the number of bytes to read
+     * @throws IOException if reading fails
+     */
+    void read(long position, byte[] buf, int off, int len) throws IOException;
+
+    /**
+     * Write <code>len</code> bytes starting at <code>position</code>.
+     *
+     * @param position the position in the file
+     * @param buf the buffer to write from
+     * @param off the offset in the buffer
+     * @param len the number of bytes to write
+     * @throws IOException if writing fails
+     */
+    void write(long position, byte[] buf, int off, int len) throws IOException;
+
+    /**
+     * @return the current size of the file
+     * @throws IOException if the size cannot be determined
+     */
+    long size() throws IOException;
+
+    /**
+     * @return the channel of the underlying file, e.g. for locking
+     */
+    FileChannel getChannel();
+
+    /**
+     * @return the backend implemented by this page I/O
+     */
+    Mode getMode();
+}
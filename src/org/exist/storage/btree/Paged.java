@@ -76,20 +76,25 @@ import org.apache.logging.log4j.Logger;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.journal.Lsn;
 import org.exist.util.ByteConversion;
+import org.exist.util.Configuration;
 import org.exist.util.FileUtils;
 import org.exist.xquery.Constants;
 
 import java.io.*;
-import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.NonWritableChannelException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
 
 /**
  *  Paged is a paged file foundation that is used by the BTree class and
  *  its subclasses.
+ *
+ *  All file access goes through a {@link PageIO} backend, which can be
+ *  selected per file in the page-io section of conf.xml.
  */
 public abstract class Paged implements AutoCloseable {
 
@@ -124,7 +129,21 @@ public abstract class Paged implements AutoCloseable {
 
     protected static int PAGE_SIZE = 4096;
 
-    private RandomAccessFile raf;
+    public static final String CONFIGURATION_PAGE_IO_ELEMENT_NAME = "page-io";
+    public static final String CONFIGURATION_PAGE_IO_FILE_ELEMENT_NAME = "file";
+    public static final String PAGE_IO_DEFAULT_ATTRIBUTE = "default";
+    public static final String PAGE_IO_FILE_NAME_ATTRIBUTE = "name";
+    public static final String PAGE_IO_FILE_MODE_ATTRIBUTE = "mode";
+    public static final String PROPERTY_PAGE_IO_DEFAULT = "db-connection.page-io.default";
+    public static final String PROPERTY_PAGE_IO_FILES = "db-connection.page-io.files";
+
+    /**
+     * Suffix of the file which keeps the pages changed since the last backup while the file is closed
+     */
+    public static final String CHANGED_PAGES_SUFFIX = ".chg";
+
+    private final Configuration configuration;
+    private PageIO io;
     private Path file;
     private final FileHeader fileHeader;
     private boolean readOnly = false;
@@ -132,8 +151,14 @@ public abstract class Paged implements AutoCloseable {
 
     private final byte[] tempPageData;
     private final byte[] tempHeaderData;
+
+    private final Object changesLock = new Object();
+    // guarded by changesLock
+    private BitSet changedPages = new BitSet();
+    private long changesSince = ChangedPages.UNKNOWN;
 	
     public Paged(final BrokerPool pool) {
+        this.configuration = pool.getConfiguration();
         this.fileHeader = createFileHeader(pool.getPageSize());
         this.tempPageData = new byte[fileHeader.pageSize];
         this.tempHeaderData = new byte[fileHeader.pageHeaderSize];
@@ -161,10 +186,13 @@ public abstract class Paged implements AutoCloseable {
     @Override
     public void close() throws DBException {
         try {
-            raf.close();
+            io.close();
         } catch (final IOException e) {
             throw new DBException("an error occurred while closing database file: " + e.getMessage());
         }
+        if (!readOnly) {
+            saveChangedPages();
+        }
     }
 
     public boolean create() throws DBException {
@@ -223,10 +251,11 @@ public abstract class Paged implements AutoCloseable {
      * @throws IOException
      */
     public void backupToStream(final OutputStream os) throws IOException {
-        raf.seek(0);
         final byte[] buf = new byte[4096];
-        int len;
-        while ((len = raf.read(buf)) > 0) {
+        final long size = io.size();
+        for (long pos = 0; pos < size; pos += buf.length) {
+            final int len = (int) Math.min(buf.length, size - pos);
+            io.read(pos, buf, 0, len);
             os.write(buf, 0, len);
         }
     }
@@ -255,12 +284,162 @@ public abstract class Paged implements AutoCloseable {
      */
     public void closeAndRemove() {
         try {
-            raf.close();
+            io.close();
         } catch (final IOException e) {
             //TODO : forward the exception ? -pb
             LOG.error("Failed to close data file: " + file.toAbsolutePath().toString());
         }
         FileUtils.deleteQuietly(file);
+        FileUtils.deleteQuietly(getChangedPagesFile());
+    }
+
+    /**
+     * Read a range of the underlying file as it is on disk, e.g. to copy it.
+     * Pages are written in one piece while the lock of the file is held, so
+     * the caller should hold the lock to read complete pages.
+     *
+     * @param pos the position in the file
+     * @param buf the buffer to read into
+     * @param len the number of bytes to read
+     * @return the number of bytes read, less than len at the end of the file
+     * @throws IOException
+     */
+    public int readRaw(final long pos, final byte[] buf, final int len) throws IOException {
+        final long size = io.size();
+        if (pos >= size) {
+            return 0;
+        }
+        final int read = (int) Math.min(len, size - pos);
+        io.read(pos, buf, 0, read);
+        return read;
+    }
+
+    /**
+     * @return the size of the underlying file in bytes
+     * @throws IOException
+     */
+    public long getFileSize() throws IOException {
+        return io.size();
+    }
+
+    /**
+     * Take the pages written to disk since the last call, and start to record
+     * the pages written from now on as changed since the given backup.
+     *
+     * @param backupId the id of the backup which copies the changed pages
+     * @return the pages written since the backup they have been taken by before
+     */
+    public ChangedPages takeChangedPages(final long backupId) {
+        synchronized (changesLock) {
+            final ChangedPages changes = new ChangedPages(changesSince, changedPages);
+            changedPages = new BitSet();
+            changesSince = backupId;
+            return changes;
+        }
+    }
+
+    /**
+     * Give back the pages taken by a backup which failed, so they are
+     * copied by the next backup.
+     *
+     * @param changes as returned by {@link #takeChangedPages(long)}
+     */
+    public void returnChangedPages(final ChangedPages changes) {
+        synchronized (changesLock) {
+            changedPages.or(changes.pages);
+            changesSince = changes.since;
+        }
+    }
+
+    private void pageWritten(final long pageNum) {
+        synchronized (changesLock) {
+            if (pageNum > Integer.MAX_VALUE) {
+                changesSince = ChangedPages.UNKNOWN;
+            } else {
+                changedPages.set((int) pageNum);
+            }
+        }
+    }
+
+    private Path getChangedPagesFile() {
+        return file.resolveSibling(FileUtils.fileName(file) + CHANGED_PAGES_SUFFIX);
+    }
+
+    /**
+     * Load the pages changed since the last backup, as saved when the file was
+     * closed. The saved pages are removed, so they are lost if the database
+     * crashes, and the next backup copies the whole file.
+     */
+    private void loadChangedPages() {
+        final Path changesFile = getChangedPagesFile();
+        if (!Files.exists(changesFile)) {
+            return;
+        }
+        try (final DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(changesFile)))) {
+            final long since = is.readLong();
+            final long[] words = new long[is.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = is.readLong();
+            }
+            synchronized (changesLock) {
+                changedPages = BitSet.valueOf(words);
+                changesSince = since;
+            }
+        } catch (final IOException e) {
+            LOG.warn("Failed to read the changed pages of " + FileUtils.fileName(file) + ": " + e.getMessage(), e);
+        }
+        FileUtils.deleteQuietly(changesFile);
+    }
+
+    private void saveChangedPages() {
+        final long since;
+        final long[] words;
+        synchronized (changesLock) {
+            if (changesSince == ChangedPages.UNKNOWN) {
+                return;
+            }
+            since = changesSince;
+            words = changedPages.toLongArray();
+        }
+        try (final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(getChangedPagesFile())))) {
+            os.writeLong(since);
+            os.writeInt(words.length);
+            for (final long word : words) {
+                os.writeLong(word);
+            }
+        } catch (final IOException e) {
+            LOG.warn("Failed to save the changed pages of " + FileUtils.fileName(file) + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The pages written to disk since a backup.
+     */
+    public static final class ChangedPages {
+
+        /**
+         * Changes are not known since any backup, e.g. after a crash
+         */
+        public static final long UNKNOWN = 0;
+
+        private final long since;
+        private final BitSet pages;
+
+        private ChangedPages(final long since, final BitSet pages) {
+            this.since = since;
+            this.pages = pages;
+        }
+
+        /**
+         * @return the id of the backup since which the pages have changed, or {@link #UNKNOWN}
+         */
+        public long getSince() {
+            return since;
+        }
+
+        public BitSet getPages() {
+            return pages;
+        }
     }
 
     protected final Page getFreePage() throws IOException {
@@ -382,12 +561,12 @@ public abstract class Paged implements AutoCloseable {
     protected final void setFile(final Path file) throws DBException {
         this.file = file;
         fileIsNew = !Files.exists(file);
+        final PageIO.Mode mode = getPageIOMode(file);
         try {
             if ((!Files.exists(file)) || Files.isWritable(file)) {
                 try {
-                    raf = new RandomAccessFile(file.toFile(), "rw");
-                    final FileChannel channel = raf.getChannel();   
-                    final FileLock lock = channel.tryLock();
+                    io = PageIO.open(mode, file, false);
+                    final FileLock lock = io.getChannel().tryLock();
                     if (lock == null) {
                         readOnly = true;
                     }
@@ -395,12 +574,18 @@ public abstract class Paged implements AutoCloseable {
                 } catch (final NonWritableChannelException e) {
                     //No way : switch to read-only mode
                     readOnly = true;
-                    raf = new RandomAccessFile(file.toFile(), "r");
+                    io = PageIO.open(mode, file, true);
                     LOG.warn(e);
                 }
             } else {
                 readOnly = true;
-                raf = new RandomAccessFile(file.toFile(), "r");
+                io = PageIO.open(mode, file, true);
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Using " + mode.getName() + " page I/O for " + FileUtils.fileName(file));
+            }
+            if (!readOnly) {
+                loadChangedPages();
             }
         } catch (final IOException e) {
             LOG.warn("An exception occurred while opening database file " +
@@ -408,6 +593,37 @@ public abstract class Paged implements AutoCloseable {
         }
     }
 
+    /**
+     * Determine the page I/O backend configured for the given file. A mode
+     * configured for the file name takes precedence over the default mode.
+     *
+     * @param file the file
+     * @return the page I/O backend to use
+     */
+    @SuppressWarnings("unchecked")
+    private PageIO.Mode getPageIOMode(final Path file) {
+        if (configuration == null) {
+            return PageIO.Mode.RANDOM_ACCESS;
+        }
+        String modeName = null;
+        final Map<String, String> fileModes = (Map<String, String>) configuration.getProperty(PROPERTY_PAGE_IO_FILES);
+        if (fileModes != null) {
+            modeName = fileModes.get(FileUtils.fileName(file));
+        }
+        if (modeName == null) {
+            modeName = (String) configuration.getProperty(PROPERTY_PAGE_IO_DEFAULT);
+        }
+        if (modeName == null) {
+            return PageIO.Mode.RANDOM_ACCESS;
+        }
+        final PageIO.Mode mode = PageIO.Mode.fromName(modeName);
+        if (mode == null) {
+            LOG.warn("Unknown page I/O mode '" + modeName + "' for " + FileUtils.fileName(file) + ". Using " + PageIO.Mode.RANDOM_ACCESS.getName());
+            return PageIO.Mode.RANDOM_ACCESS;
+        }
+        return mode;
+    }
+
     /**
      * Unlinks a set of pages starting at the specified page.
      *
@@ -665,8 +881,7 @@ public abstract class Paged implements AutoCloseable {
         }
 
         public final synchronized void read() throws IOException {
-            raf.seek(0);
-            raf.read(buf);
+            io.read(0, buf, 0, buf.length);
             read(buf);
             calculateWorkSize();
             dirty = false;
@@ -802,9 +1017,8 @@ public abstract class Paged implements AutoCloseable {
         }
 
         public final synchronized void write() throws IOException {
-            raf.seek(0);
             write(buf);
-            raf.write(buf);
+            io.write(0, buf, 0, buf.length);
             dirty = false;
         }
     }
@@ -898,16 +1112,12 @@ public abstract class Paged implements AutoCloseable {
 
         public byte[] read() throws IOException {
             try {
-                if (raf.getFilePointer() != offset) {
-                    raf.seek(offset);
-                }
-                Arrays.fill(tempHeaderData, (byte)0);
-                raf.read(tempHeaderData);
+                io.read(offset, tempHeaderData, 0, tempHeaderData.length);
                 // Read in the header
                 header.read(tempHeaderData, 0);
                 // Read the working data
                 final byte[] workData = new byte[header.dataLen];
-                raf.read(workData);
+                io.read(offset + tempHeaderData.length, workData, 0, workData.length);
                 return workData;
             } catch(final Exception e) {
                 LOG.warn("error while reading page: " + getPageInfo(), e);
@@ -940,10 +1150,8 @@ public abstract class Paged implements AutoCloseable {
                     System.arraycopy(data, 0, tempPageData, fileHeader.pageHeaderSize, data.length);
                 }
             }
-            if (raf.getFilePointer() != offset) {
-                raf.seek(offset);
-            }
-            raf.write(tempPageData);
+            io.write(offset, tempPageData, 0, tempPageData.length);
+            pageWritten(pageNum);
         }
 
         @Override
@@ -963,11 +1171,8 @@ public abstract class Paged implements AutoCloseable {
         }
 
         public void dumpPage() throws IOException {
-            if (raf.getFilePointer() != offset) {
-                raf.seek(offset);
-            }
             final byte[] data = new byte[fileHeader.pageSize];
-            raf.read(data);
+            io.read(offset, data, 0, data.length);
             LOG.debug("Contents of page " + pageNum + ": " + hexDump(data));
         }
     }
@@ -0,0 +1,84 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Page I/O through a {@link RandomAccessFile}. This is the classic
+ * backend: every access seeks unless the file pointer is already
+ * at the requested position.
+ */
+public class RandomAccessPageIO implements PageIO {
+
+    private final RandomAccessFile raf;
+
+    public RandomAccessPageIO(final Path file, final boolean readOnly) throws IOException {
+        this.raf = new RandomAccessFile(file.toFile(), readOnly ? "r" : "rw");
+    }
+
+    @Override
+    public void read(final long position, final byte[] buf, final int off, final int len) throws IOException {
+        if (raf.getFilePointer() != position) {
+            raf.seek(position);
+        }
+        int read = 0;
+        while (read < len) {
+            final int n = raf.read(buf, off + read, len - read);
+            if (n < 0) {
+                Arrays.fill(buf, off + read, off + len, (byte) 0);
+                break;
+            }
+            read += n;
+        }
+    }
+
+    @Override
+    public void write(final long position, final byte[] buf, final int off, final int len) throws IOException {
+        if (raf.getFilePointer() != position) {
+            raf.seek(position);
+        }
+        raf.write(buf, off, len);
+    }
+
+    @Override
+    public long size() throws IOException {
+        return raf.length();
+    }
+
+    @Override
+    public FileChannel getChannel() {
+        return raf.getChannel();
+    }
+
+    @Override
+    public Mode getMode() {
+        return Mode.RANDOM_ACCESS;
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+}
@@ -23,7 +23,7 @@ package org.exist.storage.cache;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.exist.util.hashtable.SequencedLongHashMap;
+import org.exist.util.hashtable.LongHashSet;
 
 /**
  * Keeps track of various cache parameters. Most important,
@@ -41,8 +41,6 @@ public class Accounting {
     
     private final static Logger LOG = LogManager.getLogger(Accounting.class);
 
-    private final static Object DUMMY = new Object();
-    
     /** the period (in milliseconds) for which trashing is recorded. */
     private int checkPeriod = 30000;
     
@@ -69,11 +67,16 @@ public class Accounting {
      */
     private double thrashingFactor;
     
-    /** the map used to track replaced page numbers */
-    private SequencedLongHashMap<Object> map;
+    /** the set used to track replaced page numbers */
+    private final LongHashSet replaced;
+
+    /** the replaced page numbers in insertion order, used as a ring buffer */
+    private final long[] replacedOrder;
+    private int oldest = 0;
     
     public Accounting(double thrashingFactor) {
-        map = new SequencedLongHashMap<Object>((maxEntries * 3) / 2);
+        replaced = new LongHashSet(maxEntries);
+        replacedOrder = new long[maxEntries];
         this.thrashingFactor = thrashingFactor;
     }
     
@@ -127,19 +130,28 @@ public class Accounting {
      */
     public void replacedPage(Cacheable cacheable) {
         if (System.currentTimeMillis() - checkPeriodStart > checkPeriod) {
-            map.clear();
+            clearReplaced();
             thrashing = 0;
             checkPeriodStart = System.currentTimeMillis();
         }
     
-        if (map.size() == maxEntries) {
-            map.removeFirst();
+        if (replaced.size() == maxEntries) {
+            replaced.remove(replacedOrder[oldest]);
+            oldest = (oldest + 1) % maxEntries;
         }
         
-        if (map.get(cacheable.getKey()) != null) {
+        final long key = cacheable.getKey();
+        if (replaced.contains(key)) {
             ++thrashing;
-        } else
-            {map.put(cacheable.getKey(), DUMMY);}
+        } else {
+            replacedOrder[(oldest + replaced.size()) % maxEntries] = key;
+            replaced.add(key);
+        }
+    }
+
+    private void clearReplaced() {
+        replaced.clear();
+        oldest = 0;
     }
     
     /**
@@ -164,7 +176,7 @@ public class Accounting {
     }
     
     public void reset() {
-        map.clear();
+        clearReplaced();
         thrashing = 0;
         checkPeriodStart = System.currentTimeMillis();
     }
@@ -96,6 +96,16 @@ public interface Cache<T extends Cacheable> {
      */
     boolean flush();
 
+    /**
+     * Write up to max dirty items to disk, without removing
+     * them from the cache. Items which have not been used
+     * recently are written first.
+     *
+     * @param max the maximum number of items to write
+     * @return the number of items written
+     */
+    int flushDirty(int max);
+
     /**
      * Get the size of this cache.
      * 
@@ -157,6 +157,17 @@ public class GClockCache<T extends Cacheable> implements Cache<T> {
 		return flushed;
 	}
 
+	@Override
+	public int flushDirty(final int max) {
+		int written = 0;
+		for (int i = 0; i < count && written < max; i++) {
+			if (items[i] != null && items[i].isDirty() && items[i].sync(true)) {
+				++written;
+			}
+		}
+		return written;
+	}
+
 	@Override
 	public boolean hasDirtyItems() {
 	    for(int i = 0; i < count; i++) {
@@ -121,6 +121,18 @@ public class LRUCache<T extends Cacheable> implements Cache<T> {
 		return flushed;
 	}
 
+
+	@Override
+	public int flushDirty(final int max) {
+		int written = 0;
+		for(SequencedLongHashMap.Entry<T> next = map.getFirstEntry(); next != null && written < max; next = next.getNext()) {
+			final T cacheable = next.getValue();
+			if(cacheable.isDirty() && cacheable.sync(true)) {
+				written++;
+			}
+		}
+		return written;
+	}
 	
     @Override
     public boolean hasDirtyItems() {
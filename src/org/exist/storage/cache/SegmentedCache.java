@@ -0,0 +1,589 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.cache;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.CacheManager;
+import org.exist.util.Configuration;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe cache which splits its buffers into a number of
+ * independent segments. An item is assigned to a segment by its key.
+ *
+ * Lookups do not take any lock. Adding and removing items only locks the
+ * segment the item belongs to, so that concurrent accesses to different
+ * pages of the same file do not contend with each other.
+ *
+ * Each segment runs its own GClock replacement (see {@link GClockCache}),
+ * using a clock hand which moves over the segment's buffers and decrements
+ * the reference count of each item it passes until it finds an item with
+ * a reference count of 0. Inner pages of a B+-tree ({@link BTreeCacheable})
+ * are only replaced if there is no leaf page left which could be unloaded.
+ *
+ * Hits, misses and evictions are counted per segment. When the
+ * {@link CacheManager} resizes the cache, the buffers are redistributed
+ * between the segments according to the misses each segment had since the
+ * last resize, so that hot segments get more buffers.
+ *
+ * The cache is a drop-in replacement for the default page caches and is
+ * enabled per cache type in the page-cache section of conf.xml.
+ */
+@ThreadSafe
+public class SegmentedCache<T extends Cacheable> implements Cache<T> {
+    private final static Logger LOG = LogManager.getLogger(SegmentedCache.class);
+
+    public static final String CONFIGURATION_ELEMENT_NAME = "page-cache";
+    public static final String TYPE_ATTRIBUTE = "type";
+    public static final String IMPLEMENTATION_ATTRIBUTE = "implementation";
+    public static final String SEGMENTS_ATTRIBUTE = "segments";
+    public static final String IMPLEMENTATION_DEFAULT = "default";
+    public static final String IMPLEMENTATION_SEGMENTED = "segmented";
+
+    /** Map of cache type to number of segments, for all cache types configured to use a segmented cache */
+    public static final String PROPERTY_SEGMENTS = "db-connection.page-cache.segments";
+
+    /** the minimum number of buffers assigned to a single segment */
+    public static final int MIN_SEGMENT_SIZE = 4;
+
+    private final String name;
+    private final String type;
+    private final double growthFactor;
+    private final Segment<T>[] segments;
+    private final int segmentMask;
+    private volatile int size;
+    private int hitsOld = 0;
+    private volatile CacheManager cacheManager = null;
+
+    public SegmentedCache(final String name, final int size, final int segmentCount, final double growthFactor,
+            final double growthThreshold, final String type) {
+        this.name = name;
+        this.type = type;
+        this.growthFactor = growthFactor;
+
+        // the number of segments is a power of two, and each segment needs a minimum number of buffers
+        int n = Integer.highestOneBit(Math.max(1, segmentCount));
+        while (n > 1 && size / n < MIN_SEGMENT_SIZE) {
+            n >>>= 1;
+        }
+        @SuppressWarnings("unchecked")
+        final Segment<T>[] segments = (Segment<T>[]) new Segment<?>[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment<>(share(size, n, i), growthThreshold);
+        }
+        this.segments = segments;
+        this.segmentMask = n - 1;
+        this.size = size;
+    }
+
+    /**
+     * Returns the number of segments configured for the given cache type.
+     *
+     * @param configuration the database configuration
+     * @param type the cache type, one of the constants defined in {@link CacheManager}
+     * @return the number of segments, or 0 if the default cache implementation
+     *     should be used for the type
+     */
+    @SuppressWarnings("unchecked")
+    public static int getConfiguredSegments(final Configuration configuration, final String type) {
+        if (configuration == null) {
+            return 0;
+        }
+        final Map<String, Integer> segments = (Map<String, Integer>) configuration.getProperty(PROPERTY_SEGMENTS);
+        if (segments == null) {
+            return 0;
+        }
+        final Integer count = segments.get(type);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @return the default number of segments, based on the number of available processors
+     */
+    public static int getDefaultSegments() {
+        return Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    private static int share(final int size, final int segmentCount, final int segment) {
+        final int share = size / segmentCount + (segment < size % segmentCount ? 1 : 0);
+        return Math.max(MIN_SEGMENT_SIZE, share);
+    }
+
+    private Segment<T> segmentFor(final long key) {
+        // spread the bits, as page numbers are mostly sequential
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return segments[(int) h & segmentMask];
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public void add(final T item) {
+        add(item, 1);
+    }
+
+    @Override
+    public void add(final T item, final int initialRefCount) {
+        if (segmentFor(item.getKey()).add(item, initialRefCount) && growthFactor > 1.0) {
+            // called outside of the segment lock, as the cache manager may resize the cache
+            final CacheManager manager = cacheManager;
+            if (manager != null) {
+                manager.requestMem(this);
+            }
+        }
+    }
+
+    @Override
+    public T get(final T item) {
+        return get(item.getKey());
+    }
+
+    @Override
+    public T get(final long key) {
+        return segmentFor(key).get(key);
+    }
+
+    @Override
+    public void remove(final T item) {
+        segmentFor(item.getKey()).remove(item);
+    }
+
+    @Override
+    public boolean hasDirtyItems() {
+        for (final Segment<T> segment : segments) {
+            if (segment.hasDirtyItems()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean flush() {
+        boolean flushed = false;
+        for (final Segment<T> segment : segments) {
+            flushed |= segment.flush();
+        }
+        return flushed;
+    }
+
+    @Override
+    public int flushDirty(final int max) {
+        int written = 0;
+        for (final Segment<T> segment : segments) {
+            if (written >= max) {
+                break;
+            }
+            written += segment.flushDirty(max - written);
+        }
+        return written;
+    }
+
+    @Override
+    public int getBuffers() {
+        return size;
+    }
+
+    @Override
+    public double getGrowthFactor() {
+        return growthFactor;
+    }
+
+    /**
+     * Resize the cache. The new buffers are distributed between the segments
+     * in proportion to the misses each segment had since the last resize, but
+     * every segment keeps at least {@link #MIN_SEGMENT_SIZE} buffers.
+     *
+     * @param newSize the new size of the cache.
+     */
+    @Override
+    public void resize(final int newSize) {
+        for (final Segment<T> segment : segments) {
+            segment.lock.lock();
+        }
+        try {
+            final long[] demand = new long[segments.length];
+            long totalDemand = 0;
+            for (int i = 0; i < segments.length; i++) {
+                demand[i] = segments[i].missesSinceResize() + 1;
+                totalDemand += demand[i];
+            }
+
+            final int available = Math.max(0, newSize - MIN_SEGMENT_SIZE * segments.length);
+            int assigned = 0;
+            for (int i = 0; i < segments.length; i++) {
+                final int capacity = MIN_SEGMENT_SIZE + (int) (available * demand[i] / totalDemand);
+                segments[i].resize(capacity);
+                assigned += capacity;
+            }
+            this.size = assigned;
+        } finally {
+            for (int i = segments.length - 1; i >= 0; i--) {
+                segments[i].lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void setCacheManager(final CacheManager manager) {
+        this.cacheManager = manager;
+    }
+
+    @Override
+    public int getUsedBuffers() {
+        int used = 0;
+        for (final Segment<T> segment : segments) {
+            used += segment.map.size();
+        }
+        return used;
+    }
+
+    @Override
+    public int getHits() {
+        long hits = 0;
+        for (final Segment<T> segment : segments) {
+            hits += segment.hits.sum();
+        }
+        return (int) hits;
+    }
+
+    @Override
+    public int getFails() {
+        long misses = 0;
+        for (final Segment<T> segment : segments) {
+            misses += segment.misses.sum();
+        }
+        return (int) misses;
+    }
+
+    @Override
+    public int getLoad() {
+        final int hits = getHits();
+        if (hitsOld == 0) {
+            hitsOld = hits;
+            return Integer.MAX_VALUE;
+        }
+        final int load = hits - hitsOld;
+        hitsOld = hits;
+        return load;
+    }
+
+    /**
+     * @return the number of segments
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * @return the number of buffers assigned to each segment
+     */
+    public int[] getSegmentSizes() {
+        final int[] sizes = new int[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            sizes[i] = segments[i].capacity;
+        }
+        return sizes;
+    }
+
+    /**
+     * @return the number of cache hits of each segment
+     */
+    public long[] getSegmentHits() {
+        final long[] hits = new long[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            hits[i] = segments[i].hits.sum();
+        }
+        return hits;
+    }
+
+    /**
+     * @return the number of cache misses of each segment
+     */
+    public long[] getSegmentFails() {
+        final long[] misses = new long[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            misses[i] = segments[i].misses.sum();
+        }
+        return misses;
+    }
+
+    /**
+     * @return the number of items replaced in each segment
+     */
+    public long[] getSegmentEvictions() {
+        final long[] evictions = new long[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            evictions[i] = segments[i].evictions.sum();
+        }
+        return evictions;
+    }
+
+    /**
+     * A single segment of the cache: a GClock cache over a part of the
+     * key space.
+     */
+    private static final class Segment<T extends Cacheable> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ConcurrentHashMap<Long, T> map;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        @GuardedBy("lock") private final Accounting accounting;
+        @GuardedBy("lock") private Cacheable[] items;
+        @GuardedBy("lock") private int count = 0;
+        @GuardedBy("lock") private int hand = 0;
+        @GuardedBy("lock") private long missesAtResize = 0;
+        private volatile int capacity;
+
+        Segment(final int capacity, final double growthThreshold) {
+            this.capacity = capacity;
+            this.items = new Cacheable[capacity];
+            this.map = new ConcurrentHashMap<>(capacity * 2);
+            this.accounting = new Accounting(growthThreshold);
+            this.accounting.setTotalSize(capacity);
+        }
+
+        T get(final long key) {
+            final T item = map.get(key);
+            if (item == null) {
+                misses.increment();
+            } else {
+                hits.increment();
+            }
+            return item;
+        }
+
+        /**
+         * @return true if an item was replaced and the segment would benefit from more buffers
+         */
+        boolean add(final T item, final int initialRefCount) {
+            final long key = item.getKey();
+            lock.lock();
+            try {
+                final T old = map.get(key);
+                if (old != null) {
+                    old.incReferenceCount();
+                    return false;
+                }
+                item.setReferenceCount(initialRefCount);
+
+                final int slot;
+                boolean replaced = false;
+                if (count < capacity) {
+                    slot = count++;
+                } else {
+                    final int victim = evict(true);
+                    if (victim < 0) {
+                        // nothing can be unloaded right now: temporarily exceed the capacity
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("No page can be unloaded, growing segment beyond " + capacity);
+                        }
+                        if (count == items.length) {
+                            items = Arrays.copyOf(items, count + 1);
+                        }
+                        slot = count++;
+                    } else {
+                        if (items[victim] != null) {
+                            unload(victim);
+                            accounting.replacedPage(item);
+                            replaced = true;
+                        }
+                        slot = victim;
+                    }
+                }
+                items[slot] = item;
+                map.put(key, item);
+                return replaced && accounting.resizeNeeded();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Moves the clock hand to the next slot which can be reused, decrementing
+         * the reference count of every item passed.
+         *
+         * @param acceptEmpty true if an empty slot may be returned
+         * @return the index of the slot, or -1 if no item can be unloaded
+         */
+        @GuardedBy("lock")
+        private int evict(final boolean acceptEmpty) {
+            if (count == 0) {
+                return -1;
+            }
+            boolean allowInner = false;
+            boolean candidate = false;
+            for (int sweep = 0; sweep <= Cacheable.MAX_REF + 1; ) {
+                final int i = hand;
+                hand = (hand + 1) % count;
+                final Cacheable item = items[i];
+                if (item == null) {
+                    if (acceptEmpty) {
+                        return i;
+                    }
+                } else if (item.allowUnload() && (allowInner || !isInnerPage(item))) {
+                    candidate = true;
+                    if (item.decReferenceCount() < 1) {
+                        return i;
+                    }
+                }
+
+                if (hand == 0) {
+                    // completed a full sweep
+                    if (!candidate) {
+                        if (allowInner) {
+                            return -1;
+                        }
+                        allowInner = true;
+                    }
+                    candidate = false;
+                    sweep++;
+                }
+            }
+            return -1;
+        }
+
+        @GuardedBy("lock")
+        private void unload(final int slot) {
+            final Cacheable item = items[slot];
+            map.remove(item.getKey());
+            item.sync(true);
+            evictions.increment();
+            items[slot] = null;
+        }
+
+        private static boolean isInnerPage(final Cacheable item) {
+            return item instanceof BTreeCacheable && ((BTreeCacheable) item).isInnerPage();
+        }
+
+        void remove(final T item) {
+            final long key = item.getKey();
+            lock.lock();
+            try {
+                if (map.remove(key) == null) {
+                    return;
+                }
+                for (int i = 0; i < count; i++) {
+                    if (items[i] != null && items[i].getKey() == key) {
+                        items[i] = null;
+                        return;
+                    }
+                }
+                LOG.error("item not found in list");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean flush() {
+            lock.lock();
+            try {
+                boolean flushed = false;
+                for (int i = 0; i < count; i++) {
+                    if (items[i] != null && items[i].sync(false)) {
+                        flushed = true;
+                    }
+                }
+                return flushed;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int flushDirty(final int max) {
+            lock.lock();
+            try {
+                int written = 0;
+                for (int i = 0; i < count && written < max; i++) {
+                    if (items[i] != null && items[i].isDirty() && items[i].sync(true)) {
+                        written++;
+                    }
+                }
+                return written;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean hasDirtyItems() {
+            for (final T item : map.values()) {
+                if (item.isDirty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @GuardedBy("lock")
+        long missesSinceResize() {
+            return misses.sum() - missesAtResize;
+        }
+
+        /**
+         * Change the capacity of the segment. When shrinking, the items with
+         * the lowest reference counts are replaced until the remaining items fit.
+         */
+        @GuardedBy("lock")
+        void resize(final int newCapacity) {
+            while (map.size() > newCapacity) {
+                final int victim = evict(false);
+                if (victim < 0) {
+                    break;
+                }
+                unload(victim);
+            }
+
+            // compact the remaining items
+            final Cacheable[] newItems = new Cacheable[Math.max(newCapacity, map.size())];
+            int newCount = 0;
+            for (int i = 0; i < count; i++) {
+                if (items[i] != null) {
+                    newItems[newCount++] = items[i];
+                }
+            }
+            items = newItems;
+            count = newCount;
+            hand = 0;
+            capacity = newCapacity;
+            missesAtResize = misses.sum();
+            accounting.reset();
+            accounting.setTotalSize(newCapacity);
+        }
+    }
+}
@@ -100,4 +100,9 @@ public class AddValueLoggable extends AbstractLoggable {
     public String dump() {
         return super.dump() + " - added value; tid = " + tid + " to page " + pageNum;
     }
+
+    @Override
+    public int getRedoFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
 }
@@ -90,4 +90,9 @@ public class CreatePageLoggable extends AbstractLoggable {
     public String dump() {
         return super.dump() + " - new page created: " + newPage + "; prev. page: " + prevPage + "; next page: " + nextPage;
     }
+
+    @Override
+    public int getRedoFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
 }
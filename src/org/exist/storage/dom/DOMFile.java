@@ -62,6 +62,7 @@ import org.exist.storage.btree.Value;
 import org.exist.storage.cache.Cache;
 import org.exist.storage.cache.Cacheable;
 import org.exist.storage.cache.LRUCache;
+import org.exist.storage.cache.SegmentedCache;
 import org.exist.storage.journal.JournalException;
 import org.exist.storage.journal.LogEntryTypes;
 import org.exist.storage.journal.Loggable;
@@ -192,7 +193,12 @@ public class DOMFile extends BTree implements Lockable {
         fileHeader = (BTreeFileHeader)getFileHeader();
         fileHeader.setPageCount(0);
         fileHeader.setTotalCount(0);
-        dataCache = new LRUCache<>(getFileName(), 256, 0.0, 1.0, CacheManager.DATA_CACHE);
+        final int segments = SegmentedCache.getConfiguredSegments(config, CacheManager.DATA_CACHE);
+        if (segments > 0) {
+            dataCache = new SegmentedCache<>(getFileName(), 256, segments, 0.0, 1.0, CacheManager.DATA_CACHE);
+        } else {
+            dataCache = new LRUCache<>(getFileName(), 256, 0.0, 1.0, CacheManager.DATA_CACHE);
+        }
         cacheManager.registerCache(dataCache);
         final Path file = dataDir.resolve(getFileName());
         setFile(file);
@@ -1370,6 +1376,12 @@ public class DOMFile extends BTree implements Lockable {
         return flushed;
     }
 
+    @Override
+    public int flushDirtyPages(final int max) {
+        final int written = super.flushDirtyPages(max);
+        return written + dataCache.flushDirty(max - written);
+    }
+
     @Override
     public void printStatistics() {
         super.printStatistics();
@@ -3174,10 +3186,11 @@ public class DOMFile extends BTree implements Lockable {
         @Override
         public boolean sync(final boolean syncJournal) {
             if (isDirty()) {
-                write();
+                // write-ahead: the journal entries for this page must be written before the page
                 if (isRecoveryEnabled() && syncJournal && logManager.get().lastWrittenLsn() < pageHeader.getLsn()) {
                     logManager.get().flush(true, false);
                 }
+                write();
                 return true;
             }
             return false;
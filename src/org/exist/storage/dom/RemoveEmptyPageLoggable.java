@@ -82,4 +82,9 @@ public class RemoveEmptyPageLoggable extends AbstractLoggable {
     public String dump() {
         return super.dump() + " - removed page " + pageNum;
     }
+
+    @Override
+    public int getRedoFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
 }
@@ -86,4 +86,9 @@ public class RemoveOverflowLoggable extends AbstractLoggable {
     public String dump() {
         return super.dump() + " - removed overflow page " + pageNum;
     }
+
+    @Override
+    public int getRedoFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
 }
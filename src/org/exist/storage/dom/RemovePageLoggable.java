@@ -101,4 +101,9 @@ public class RemovePageLoggable extends AbstractLoggable {
     public String dump() {
         return super.dump() + " - removed page " + pageNum;
     }
+
+    @Override
+    public int getRedoFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
 }
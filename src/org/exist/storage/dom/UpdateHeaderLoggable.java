@@ -92,4 +92,9 @@ public class UpdateHeaderLoggable extends AbstractLoggable {
         return super.dump() + " - update header of page " + pageNum + ": prev = " + prevPage +
                 "; next = " + nextPage + "; oldPrev = " + oldPrev + "; oldNext = " + oldNext;
     }
+
+    @Override
+    public int getRedoFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
 }
@@ -83,4 +83,9 @@ public class UpdateLinkLoggable extends AbstractLoggable {
     public String dump() {
         return super.dump() + " - updated link on page: " + pageNum + " at offset: " + offset;
     }
+
+    @Override
+    public int getRedoFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
 }
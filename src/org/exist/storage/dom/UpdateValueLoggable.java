@@ -94,4 +94,9 @@ public class UpdateValueLoggable extends AbstractLoggable {
     public String dump() {
         return super.dump() + " - updated value; tid = " + ItemId.getId(tid) + " to page " + pageNum;
     }
+
+    @Override
+    public int getRedoFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
 }
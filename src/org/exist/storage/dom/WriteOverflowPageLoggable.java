@@ -87,4 +87,9 @@ public class WriteOverflowPageLoggable extends AbstractLoggable {
     public String dump() {
         return super.dump() + " - writing overflow page " + pageNum + "; next: " + nextPage;
     }
+
+    @Override
+    public int getRedoFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
 }
\ No newline at end of file
@@ -67,4 +67,9 @@ public abstract class AbstractBFileLoggable extends AbstractLoggable {
     public String dump() {
         return super.dump() + " [BFile]";
     }
+
+    @Override
+    public int getRedoFileId() {
+        return fileId;
+    }
 }
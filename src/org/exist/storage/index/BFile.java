@@ -38,6 +38,7 @@ import org.exist.storage.btree.Value;
 import org.exist.storage.cache.Cache;
 import org.exist.storage.cache.Cacheable;
 import org.exist.storage.cache.LRUCache;
+import org.exist.storage.cache.SegmentedCache;
 import org.exist.storage.io.VariableByteArrayInput;
 import org.exist.storage.io.VariableByteInput;
 import org.exist.storage.io.VariableByteOutputStream;
@@ -148,7 +149,13 @@ public class BFile extends BTree {
             final double cacheGrowth, final double thresholdData) throws DBException {
         super(pool, fileId, recoveryEnabled, cacheManager, file);
         fileHeader = (BFileHeader) getFileHeader();
-        dataCache = new LRUCache<>(FileUtils.fileName(file), 64, cacheGrowth, thresholdData, CacheManager.DATA_CACHE);
+        final int segments = SegmentedCache.getConfiguredSegments(pool.getConfiguration(), CacheManager.DATA_CACHE);
+        if (segments > 0) {
+            dataCache = new SegmentedCache<>(FileUtils.fileName(file), 64, segments, cacheGrowth, thresholdData,
+                CacheManager.DATA_CACHE);
+        } else {
+            dataCache = new LRUCache<>(FileUtils.fileName(file), 64, cacheGrowth, thresholdData, CacheManager.DATA_CACHE);
+        }
         cacheManager.registerCache(dataCache);
         minFree = PAGE_MIN_FREE;
         lock = new ReentrantReadWriteLock(FileUtils.fileName(file));
@@ -385,6 +392,12 @@ public class BFile extends BTree {
         return flushed;
     }
 
+    @Override
+    public int flushDirtyPages(final int max) {
+        final int written = super.flushDirtyPages(max);
+        return written + dataCache.flushDirty(max - written);
+    }
+
     public BufferStats getDataBufferStats() {
         if (dataCache == null) {
             return null;
@@ -1636,10 +1649,11 @@ public class BFile extends BTree {
         public boolean sync(final boolean syncJournal) {
             if (isDirty()) {
                 try {
-                    write();
+                    // write-ahead: the journal entries for this page must be written before the page
                     if (isRecoveryEnabled() && syncJournal && logManager.get().lastWrittenLsn() < getPageHeader().getLsn()) {
                         logManager.get().flush(true, false);
                     }
+                    write();
                     return true;
                 } catch (final IOException e) {
                     LOG.error("IO exception occurred while saving page "
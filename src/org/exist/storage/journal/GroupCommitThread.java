@@ -0,0 +1,122 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.journal;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Background flusher used by the {@link Journal} in group-commit mode.
+ *
+ * Committing transactions only append their commit record to the
+ * {@link JournalRingBuffer} and then request a flush. The flusher waits
+ * up to the configured maximum commit latency for further commits to
+ * arrive, then writes all published records with a single write and
+ * (optionally) a single fsync, and wakes up every committer whose
+ * record is now durable.
+ */
+public class GroupCommitThread extends Thread {
+
+    private static final Logger LOG = LogManager.getLogger(GroupCommitThread.class);
+
+    private final Journal journal;
+    private final long maxLatency;
+
+    // guarded by this
+    private boolean flushRequested = false;
+    private boolean flushImmediately = false;
+
+    // used as termination flag, volatile semantics are sufficient
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param journal the journal to flush
+     * @param maxLatency the maximum time in milliseconds a commit waits
+     *                   for other commits to join its batch
+     */
+    public GroupCommitThread(final Journal journal, final long maxLatency) {
+        super("exist-journal-group-commit");
+        setDaemon(true);
+        this.journal = journal;
+        this.maxLatency = maxLatency;
+    }
+
+    /**
+     * Request a flush of the journal buffer. Commits will be grouped
+     * for at most the maximum commit latency.
+     */
+    public synchronized void requestFlush() {
+        flushRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * Request a flush of the journal buffer without waiting for
+     * other commits, e.g. because the buffer is full.
+     */
+    public synchronized void requestImmediateFlush() {
+        flushRequested = true;
+        flushImmediately = true;
+        notifyAll();
+    }
+
+    /**
+     * Shutdown the flusher. Pending records are flushed by the {@link Journal}.
+     */
+    public void shutdown() {
+        shutdown = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!shutdown) {
+            try {
+                synchronized (this) {
+                    while (!flushRequested && !shutdown) {
+                        wait();
+                    }
+                    if (shutdown) {
+                        break;
+                    }
+
+                    // give other committers the chance to join this batch, unless there are no
+                    // other open transactions which could join it
+                    final long deadline = System.currentTimeMillis() + maxLatency;
+                    long remaining = maxLatency;
+                    while (!flushImmediately && !shutdown && remaining > 0
+                            && journal.hasActiveTransactions() && !journal.isGroupCommitBufferHalfFull()) {
+                        wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                    flushRequested = false;
+                    flushImmediately = false;
+                }
+                journal.flushGroup();
+            } catch (final InterruptedException e) {
+                // interrupted by shutdown
+            } catch (final RuntimeException e) {
+                LOG.error("Error while flushing journal group: " + e.getMessage(), e);
+            }
+        }
+    }
+}
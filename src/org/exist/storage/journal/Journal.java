@@ -30,6 +30,9 @@ import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
@@ -42,6 +45,7 @@ import org.exist.storage.lock.FileLock;
 import org.exist.storage.txn.Checkpoint;
 import org.exist.util.FileUtils;
 import org.exist.util.ReadOnlyException;
+import org.exist.util.hashtable.Long2LongHashMap;
 import org.exist.util.sanity.SanityCheck;
 
 /**
@@ -54,6 +58,11 @@ import org.exist.util.sanity.SanityCheck;
  * A buffer is used to temporarily buffer journal entries. To guarantee consistency, the buffer will be flushed
  * and the journal is synched after every commit or whenever a db page is written to disk.
  * 
+ * If group commit is enabled, writers do not serialize on the journal. Instead they reserve space in a
+ * {@link JournalRingBuffer}, and a {@link GroupCommitThread} writes the records of many transactions
+ * with a single write and sync. A committing transaction only waits until its commit record is durable,
+ * see {@link #awaitDurable(long)}.
+ * 
  * Each entry has the structure:
  * 
  * <pre>[byte: entryType, long: transactionId, short length, byte[] data, short backLink]</pre>
@@ -80,10 +89,14 @@ public class Journal {
     public final static String RECOVERY_SYNC_ON_COMMIT_ATTRIBUTE = "sync-on-commit";
     public final static String RECOVERY_JOURNAL_DIR_ATTRIBUTE = "journal-dir";
     public final static String RECOVERY_SIZE_LIMIT_ATTRIBUTE = "size"; 
+    public final static String RECOVERY_GROUP_COMMIT_THREAD_ATTRIBUTE = "group-commit-thread";
+    public final static String RECOVERY_GROUP_COMMIT_LATENCY_ATTRIBUTE = "group-commit-latency";
 
     public final static String PROPERTY_RECOVERY_SIZE_LIMIT = "db-connection.recovery.size-limit";
     public final static String PROPERTY_RECOVERY_JOURNAL_DIR = "db-connection.recovery.journal-dir";
     public final static String PROPERTY_RECOVERY_SYNC_ON_COMMIT = "db-connection.recovery.sync-on-commit";
+    public final static String PROPERTY_RECOVERY_GROUP_COMMIT_THREAD = "db-connection.recovery.group-commit-thread";
+    public final static String PROPERTY_RECOVERY_GROUP_COMMIT_LATENCY = "db-connection.recovery.group-commit-latency";
 
     public final static String LOG_FILE_SUFFIX = "log";
     public final static String BAK_FILE_SUFFIX = ".bak";
@@ -99,6 +112,12 @@ public class Journal {
     /** default maximum journal size */
     public final static int DEFAULT_MAX_SIZE = 10; //MB
 
+    /** default maximum time a commit waits for other commits to join its group */
+    public final static int DEFAULT_GROUP_COMMIT_LATENCY = 5; //ms
+
+    /** size of the journal buffer */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
     /** minimal size the journal needs to have to be replaced by a new file during a checkpoint */
     private static final long MIN_REPLACE = 1024 * 1024;
 
@@ -160,11 +179,47 @@ public class Journal {
 
     private final Path fsJournalDir;
 
+    /** if set to true, commits are grouped and written by the {@link GroupCommitThread} */
+    private final boolean groupCommit;
+
+    /** the buffer shared by all writers in group-commit mode, null after shutdown */
+    private volatile JournalRingBuffer ringBuffer = null;
+
+    /** the thread which flushes the ring buffer in group-commit mode */
+    private GroupCommitThread groupCommitThread = null;
+
+    /**
+     * Held shared by writers in group-commit mode and exclusively when switching
+     * files, so that the LSNs handed out always refer to the current file.
+     */
+    private final ReentrantReadWriteLock switchLock = new ReentrantReadWriteLock();
+
+    /** ring buffer sequence corresponding to the start of the current file */
+    private long fileStartSeq = 0;
+
+    /** ring buffer sequence of the last file sync */
+    private long lastSyncSeq = 0;
+
+    /** the last LSN which has been written and, if required, synced in group-commit mode */
+    private volatile long durableLsn = Lsn.LSN_INVALID;
+
+    /** monitor for transactions waiting for their commit record to become durable */
+    private final Object durableLatch = new Object();
+
+    /** per-thread buffer used to serialize a record before it is copied into the ring buffer */
+    private final ThreadLocal<ByteBuffer> recordBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4096));
+
+    /** number of commit records written since the last group flush */
+    private final AtomicInteger pendingCommits = new AtomicInteger();
+
+    /** group commit statistics */
+    private final AtomicLong groupCommitBatches = new AtomicLong();
+    private final AtomicLong groupCommitCommits = new AtomicLong();
+    private final AtomicInteger groupCommitMaxBatchSize = new AtomicInteger();
+
     public Journal(final BrokerPool pool, final Path directory) throws EXistException {
         this.pool = pool;
         this.fsJournalDir = directory.resolve("fs.journal");
-        // we use a 1 megabyte buffer:
-        currentBuffer = ByteBuffer.allocateDirect(1024 * 1024);
 
         syncThread = new FileSyncThread(latch);
         syncThread.start();
@@ -174,6 +229,20 @@ public class Journal {
             LOG.debug("SyncOnCommit = " + syncOnCommit);
         }
 
+        this.groupCommit = pool.getConfiguration().getProperty(PROPERTY_RECOVERY_GROUP_COMMIT_THREAD, false);
+        if (groupCommit) {
+            final int maxLatency = pool.getConfiguration().getProperty(PROPERTY_RECOVERY_GROUP_COMMIT_LATENCY, DEFAULT_GROUP_COMMIT_LATENCY);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("GroupCommitThread enabled, max. commit latency = " + maxLatency + "ms");
+            }
+            ringBuffer = new JournalRingBuffer(BUFFER_SIZE);
+            groupCommitThread = new GroupCommitThread(this, maxLatency);
+            groupCommitThread.start();
+        } else {
+            // we use a 1 megabyte buffer:
+            currentBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
         final Optional<Path> logDir = Optional.ofNullable((Path) pool.getConfiguration().getProperty(PROPERTY_RECOVERY_JOURNAL_DIR));
         if (logDir.isPresent()) {
             Path f = logDir.get();
@@ -230,7 +299,15 @@ public class Journal {
      * @param loggable
      * @throws JournalException
      */
-    public synchronized void writeToLog(final Loggable loggable) throws JournalException {
+    public void writeToLog(final Loggable loggable) throws JournalException {
+        if (groupCommit) {
+            writeToRingBuffer(loggable);
+        } else {
+            writeToBuffer(loggable);
+        }
+    }
+
+    private synchronized void writeToBuffer(final Loggable loggable) throws JournalException {
         if (currentBuffer == null) {
             throw new JournalException("Database is shut down.");
         }
@@ -254,6 +331,167 @@ public class Journal {
         pool.getTransactionManager().trackOperation(loggable.getTransactionId());
     }
 
+    /**
+     * Write a log entry in group-commit mode. The record is serialized into a
+     * per-thread buffer first, so the only shared state touched is the
+     * reservation in the ring buffer.
+     */
+    private void writeToRingBuffer(final Loggable loggable) throws JournalException {
+        SanityCheck.ASSERT(!inRecovery, "Write to log during recovery. Should not happen!");
+        final int size = loggable.getLogSize();
+        final int required = size + LOG_ENTRY_BASE_LEN;
+
+        ByteBuffer record = recordBuffer.get();
+        if (record.capacity() < required) {
+            record = ByteBuffer.allocate(required);
+            recordBuffer.set(record);
+        }
+        record.clear();
+        try {
+            record.put(loggable.getLogType());
+            record.putLong(loggable.getTransactionId());
+            record.putShort((short) size);
+            loggable.write(record);
+            record.putShort((short) (size + LOG_ENTRY_HEADER_LEN));
+        } catch (final BufferOverflowException e) {
+            throw new JournalException("Buffer overflow while writing log record: " + loggable.dump(), e);
+        }
+        record.flip();
+        if (record.remaining() != required) {
+            throw new JournalException("Log record size does not match the announced size: " + loggable.dump());
+        }
+
+        switchLock.readLock().lock();
+        try {
+            final JournalRingBuffer ring = ringBuffer;
+            if (ring == null) {
+                throw new JournalException("Database is shut down.");
+            }
+            final long start = ring.reserve(required, groupCommitThread::requestImmediateFlush);
+            loggable.setLsn(Lsn.create(currentFile, (int) (start - fileStartSeq) + 1));
+            ring.put(start, record);
+            ring.publish(start, required);
+        } finally {
+            switchLock.readLock().unlock();
+        }
+
+        if (loggable.getLogType() == LogEntryTypes.TXN_COMMIT) {
+            pendingCommits.incrementAndGet();
+        }
+        pool.getTransactionManager().trackOperation(loggable.getTransactionId());
+    }
+
+    /**
+     * Wait until the log record with the given LSN has been written
+     * to the journal and, if sync-on-commit is enabled, synced to disk.
+     * Only has an effect in group-commit mode; otherwise the record
+     * has been flushed by the committing thread already.
+     *
+     * @param lsn the LSN of the commit record
+     * @throws JournalException if interrupted while waiting
+     */
+    public void awaitDurable(final long lsn) throws JournalException {
+        if (!groupCommit || lsn == Lsn.LSN_INVALID || durableLsn >= lsn) {
+            return;
+        }
+        final GroupCommitThread flusher = groupCommitThread;
+        flusher.requestFlush();
+        synchronized (durableLatch) {
+            while (durableLsn < lsn && ringBuffer != null) {
+                try {
+                    durableLatch.wait(100);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new JournalException("Interrupted while waiting for commit to be written to the journal", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by the {@link GroupCommitThread} to write the records
+     * of all transactions published so far.
+     */
+    void flushGroup() {
+        flushRingBuffer(syncOnCommit);
+        checkJournalSize();
+    }
+
+    /**
+     * @return true if there are open transactions which might join the next group commit
+     */
+    boolean hasActiveTransactions() {
+        return pool.getTransactionManager().getActiveTransactionCount() > 0;
+    }
+
+    /**
+     * @return true if more than half of the group-commit buffer is waiting to be written
+     */
+    boolean isGroupCommitBufferHalfFull() {
+        final JournalRingBuffer ring = ringBuffer;
+        return ring != null && ring.getPending() > ring.getCapacity() / 2;
+    }
+
+    private void flushRingBuffer(final boolean fsync) {
+        final JournalRingBuffer ring = ringBuffer;
+        if (ring == null || channel == null) {
+            return; // the db has probably been shut down already or not fully initialized
+        }
+        final int batchSize;
+        synchronized (latch) {
+            try {
+                final long end = ring.drainTo(channel);
+                if (fsync && end > lastSyncSeq) {
+                    channel.force(false);
+                    lastSyncSeq = end;
+                }
+                final long lsn = Lsn.create(currentFile, (int) (end - fileStartSeq));
+                lastLsnWritten = lsn;
+                if (fsync || !syncOnCommit) {
+                    durableLsn = lsn;
+                }
+            } catch (final IOException e) {
+                LOG.warn("Flushing log file failed!", e);
+                return;
+            }
+            batchSize = pendingCommits.getAndSet(0);
+        }
+
+        if (batchSize > 0) {
+            groupCommitBatches.incrementAndGet();
+            groupCommitCommits.addAndGet(batchSize);
+            groupCommitMaxBatchSize.accumulateAndGet(batchSize, Math::max);
+        }
+        synchronized (durableLatch) {
+            durableLatch.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of group flushes which contained at least one commit
+     */
+    public long getGroupCommitBatches() {
+        return groupCommitBatches.get();
+    }
+
+    /**
+     * @return the number of commits written by group flushes
+     */
+    public long getGroupCommitCommits() {
+        return groupCommitCommits.get();
+    }
+
+    /**
+     * @return the largest number of commits written by a single group flush
+     */
+    public int getGroupCommitMaxBatchSize() {
+        return groupCommitMaxBatchSize.get();
+    }
+
+    public boolean isGroupCommitThread() {
+        return groupCommit;
+    }
+
     /**
      * Returns the last LSN physically written to the journal.
      * 
@@ -263,6 +501,32 @@ public class Journal {
         return lastLsnWritten;
     }
 
+    /**
+     * Returns the LSN the next entry written to the journal will get.
+     *
+     * @return the next LSN, or {@link Lsn#LSN_INVALID} if the journal is closed
+     */
+    public long nextLsn() {
+        if (groupCommit) {
+            switchLock.readLock().lock();
+            try {
+                final JournalRingBuffer ring = ringBuffer;
+                if (ring == null) {
+                    return Lsn.LSN_INVALID;
+                }
+                return Lsn.create(currentFile, (int) (ring.getReserved() - fileStartSeq) + 1);
+            } finally {
+                switchLock.readLock().unlock();
+            }
+        }
+        synchronized (this) {
+            if (currentBuffer == null) {
+                return Lsn.LSN_INVALID;
+            }
+            return Lsn.create(currentFile, inFilePos + currentBuffer.position() + 1);
+        }
+    }
+
     /**
      * Flush the current buffer to disk. If fsync is true, a sync will
      * be called on the file to force all changes to disk.
@@ -280,7 +544,28 @@ public class Journal {
      * @param fsync forces all changes to disk if true and syncMode is set to SYNC_ON_COMMIT.
      * @param forceSync force changes to disk even if syncMode doesn't require it.
      */
-    public synchronized void flushToLog(final boolean fsync, final boolean forceSync) {
+    public void flushToLog(final boolean fsync, final boolean forceSync) {
+        if (groupCommit) {
+            if (inRecovery) {
+                return;
+            }
+            final JournalRingBuffer ring = ringBuffer;
+            if (ring != null) {
+                // make sure records of concurrent writers which have already been assigned an LSN are included
+                ring.awaitPublished(ring.getReserved());
+                flushRingBuffer(forceSync);
+                if (!forceSync && fsync && syncOnCommit) {
+                    // as without group commit, the sync is left to the background thread
+                    syncThread.triggerSync();
+                }
+            }
+            checkJournalSize();
+        } else {
+            flushBufferAndSync(fsync, forceSync);
+        }
+    }
+
+    private synchronized void flushBufferAndSync(final boolean fsync, final boolean forceSync) {
         if (inRecovery) {
             return;
         }
@@ -289,6 +574,10 @@ public class Journal {
             syncThread.triggerSync();
             lastSyncLsn = currentLsn;
         }
+        checkJournalSize();
+    }
+
+    private void checkJournalSize() {
         try {
             if (channel != null && channel.size() >= journalSizeLimit) {
                 pool.triggerCheckpoint();
@@ -302,6 +591,14 @@ public class Journal {
      * 
      */
     private void flushBuffer() {
+        if (groupCommit) {
+            final JournalRingBuffer ring = ringBuffer;
+            if (ring != null) {
+                ring.awaitPublished(ring.getReserved());
+                flushRingBuffer(false);
+            }
+            return;
+        }
         if (currentBuffer == null || channel == null) {
             return; // the db has probably been shut down already or not fully initialized
         }
@@ -345,6 +642,7 @@ public class Journal {
             flushToLog(true, true);
         }
         try {
+            final int oldFileNum = currentFile;
             if (switchLogFiles && channel != null && channel.position() > MIN_REPLACE) {
                 final Path oldFile = getFile(currentFile);
                 final RemoveThread rt = new RemoveThread(channel, oldFile);
@@ -355,12 +653,80 @@ public class Journal {
                 }
                 rt.start();
             }
+            // files kept by fuzzy checkpoints are not needed any more
+            removeFilesBefore(oldFileNum);
             clearBackupFiles();
         } catch (final IOException e) {
             LOG.warn("IOException while writing checkpoint", e);
         }
     }
 
+    /**
+     * Write a fuzzy checkpoint record to the journal and flush it. Unlike
+     * {@link #checkpoint(long, boolean)}, this may be called while transactions
+     * are running: the record is written to a new journal if the current one is
+     * larger than {@link #MIN_REPLACE}, and only the journals which are neither
+     * needed to redo from the redo LSN nor to undo the running transactions
+     * are removed.
+     *
+     * If no transaction is running and nothing has been written since the redo
+     * LSN was taken, a regular checkpoint is written instead.
+     *
+     * @param txnId The transaction id
+     * @param redoLsn The LSN from which recovery has to redo the journal
+     * @param activeTxns The running transactions, mapped to the LSN of their start entry
+     * @throws JournalException
+     */
+    public void checkpoint(final long txnId, final long redoLsn, final Long2LongHashMap activeTxns) throws JournalException {
+        if (activeTxns.isEmpty() && nextLsn() == redoLsn) {
+            checkpoint(txnId, true);
+            return;
+        }
+        LOG.debug("Fuzzy checkpoint reached");
+        try {
+            if (channel != null && channel.position() > MIN_REPLACE) {
+                if (groupCommit) {
+                    switchFiles();
+                } else {
+                    synchronized (this) {
+                        flushBuffer();
+                        switchFile();
+                    }
+                }
+            }
+        } catch (final IOException | LogException e) {
+            LOG.warn("Failed to create new journal: " + e.getMessage(), e);
+        }
+        writeToLog(new Checkpoint(txnId, redoLsn, activeTxns));
+        flushToLog(true, true);
+
+        final long[] keepFrom = { redoLsn };
+        activeTxns.forEach((activeTxnId, startLsn) -> {
+            if (startLsn > 0 && startLsn < keepFrom[0]) {
+                keepFrom[0] = startLsn;
+            }
+        });
+        removeFilesBefore((int) Lsn.getFileNumber(keepFrom[0]));
+    }
+
+    /**
+     * Remove the journal files with a file number lower than the given one.
+     *
+     * @param fileNum the number of the first file to keep
+     */
+    private void removeFilesBefore(final int fileNum) {
+        try (final Stream<Path> files = getFiles()) {
+            files.filter(p -> journalFileNum(p) < fileNum).forEach(p -> {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Checkpoint deleting journal: " + p.toAbsolutePath().toString());
+                }
+                FileUtils.deleteQuietly(p);
+            });
+        } catch (final IOException e) {
+            LOG.warn("Failed to remove old journal files: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Set the file number of the last file used.
      * 
@@ -392,6 +758,19 @@ public class Journal {
      * @throws LogException
      */
     public void switchFiles() throws LogException {
+        switchLock.writeLock().lock();
+        try {
+            if (groupCommit) {
+                // all records must go to the old file before the LSNs start over
+                flushBuffer();
+            }
+            switchFile();
+        } finally {
+            switchLock.writeLock().unlock();
+        }
+    }
+
+    private void switchFile() throws LogException {
         ++currentFile;
         final String fname = getFileName(currentFile);
         final Path file = dir.resolve(fname);
@@ -425,6 +804,14 @@ public class Journal {
             } catch (final FileNotFoundException e) {
                 throw new LogException("Failed to open new journal: " + file.toAbsolutePath().toString(), e);
             }
+
+            final JournalRingBuffer ring = ringBuffer;
+            if (ring != null) {
+                fileStartSeq = ring.getDrained();
+                lastSyncSeq = fileStartSeq;
+                lastLsnWritten = Lsn.create(currentFile, 0);
+                durableLsn = lastLsnWritten;
+            }
         }
         inFilePos = 0;
     }
@@ -461,7 +848,19 @@ public class Journal {
     public final static int findLastFile(final Stream<Path> files) {
         return files
                 .map(Journal::journalFileNum)
-                .max(Integer::max)
+                .max(Integer::compare)
+                .orElse(-1);
+    }
+
+    /**
+     * Find the journal file with the lowest file number.
+     *
+     * @param files
+     */
+    public final static int findFirstFile(final Stream<Path> files) {
+        return files
+                .map(Journal::journalFileNum)
+                .min(Integer::compare)
                 .orElse(-1);
     }
 
@@ -499,7 +898,7 @@ public class Journal {
      * @param txnId
      */
     public void shutdown(final long txnId, final boolean checkpoint) {
-        if (currentBuffer == null) {
+        if (currentBuffer == null && ringBuffer == null) {
             return; // the db has probably shut down already
         }
         if (!BrokerPool.FORCE_CORRUPTION) {
@@ -514,6 +913,18 @@ public class Journal {
             flushBuffer();
         }
         fileLock.release();
+        if (groupCommitThread != null) {
+            groupCommitThread.shutdown();
+            try {
+                groupCommitThread.join();
+            } catch (final InterruptedException e) {
+                //Nothing to do
+            }
+            ringBuffer = null;
+            synchronized (durableLatch) {
+                durableLatch.notifyAll();
+            }
+        }
         syncThread.shutdown();
         try {
             syncThread.join();
@@ -28,6 +28,7 @@ import org.exist.storage.BrokerPoolServiceException;
 import org.exist.storage.recovery.RecoveryManager;
 import org.exist.util.Configuration;
 import org.exist.util.ReadOnlyException;
+import org.exist.util.hashtable.Long2LongHashMap;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -43,17 +44,21 @@ public class JournalManager implements BrokerPoolService {
 
     private Path journalDir;
     private boolean groupCommits;
+    private boolean groupCommitThread;
     private Journal journal;
     private boolean journallingDisabled = false;
     private boolean initialized = false;
+    // guarded by this
+    private int checkpointHolds = 0;
 
     @Override
     public void configure(final Configuration configuration) {
         this.journalDir = (Path) Optional.ofNullable(configuration.getProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR))
                 .orElse(configuration.getProperty(BrokerPool.PROPERTY_DATA_DIR));
         this.groupCommits = configuration.getProperty(BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, false);
+        this.groupCommitThread = configuration.getProperty(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_THREAD, false);
         if (LOG.isDebugEnabled()) {
-            LOG.debug("GroupCommits = " + groupCommits);
+            LOG.debug("GroupCommits = " + groupCommits + ", GroupCommitThread = " + groupCommitThread);
         }
     }
 
@@ -81,9 +86,16 @@ public class JournalManager implements BrokerPoolService {
      *
      * @param loggable The entry to write in the journal
      */
-    public synchronized void journal(final Loggable loggable) throws JournalException {
+    public void journal(final Loggable loggable) throws JournalException {
         if(!journallingDisabled) {
-            journal.writeToLog(loggable);
+            if (groupCommitThread) {
+                // the journal handles concurrent writers itself
+                journal.writeToLog(loggable);
+            } else {
+                synchronized (this) {
+                    journal.writeToLog(loggable);
+                }
+            }
         }
     }
 
@@ -95,15 +107,37 @@ public class JournalManager implements BrokerPoolService {
      *
      * @param loggable The entry to write in the journalGroup
      */
-    public synchronized void journalGroup(final Loggable loggable) throws JournalException {
+    public void journalGroup(final Loggable loggable) throws JournalException {
         if(!journallingDisabled) {
-            journal.writeToLog(loggable);
-            if (!groupCommits) {
-                journal.flushToLog(true);
+            if (groupCommitThread) {
+                // flushed by the group commit thread, see awaitDurable
+                journal.writeToLog(loggable);
+            } else {
+                synchronized (this) {
+                    journal.writeToLog(loggable);
+                    if (!groupCommits) {
+                        journal.flushToLog(true);
+                    }
+                }
             }
         }
     }
 
+    /**
+     * Wait until the entry with the given LSN is durable.
+     * Does nothing unless the group commit thread is enabled. If group-commit
+     * is enabled as well, commits do not wait for their commit record.
+     *
+     * @see Journal#awaitDurable(long)
+     *
+     * @param lsn The LSN of the entry, usually a commit record
+     */
+    public void awaitDurable(final long lsn) throws JournalException {
+        if(!journallingDisabled && groupCommitThread && !groupCommits) {
+            journal.awaitDurable(lsn);
+        }
+    }
+
     /**
      * @see Journal#checkpoint(long, boolean)
      *
@@ -121,11 +155,66 @@ public class JournalManager implements BrokerPoolService {
      * @throws JournalException
      */
     public synchronized void checkpoint(final long transactionId, final boolean switchFiles) throws JournalException {
-        if(!journallingDisabled) {
+        if(checkpointHolds > 0) {
+            LOG.debug("Checkpoint skipped while checkpoints are held");
+        } else if(!journallingDisabled) {
             journal.checkpoint(transactionId, switchFiles);
         }
     }
 
+    /**
+     * @see Journal#checkpoint(long, long, Long2LongHashMap)
+     *
+     * Create a fuzzy checkpoint while transactions may be running. All pages
+     * which were dirty when the redo LSN was taken must have been written.
+     *
+     * @param transactionId The id of the transaction for the checkpoint
+     * @param redoLsn The LSN from which recovery has to redo the journal
+     * @param activeTxns The running transactions, mapped to the LSN of their start entry
+     *
+     * @throws JournalException
+     */
+    public synchronized void checkpoint(final long transactionId, final long redoLsn, final Long2LongHashMap activeTxns) throws JournalException {
+        if(checkpointHolds > 0) {
+            LOG.debug("Fuzzy checkpoint skipped while checkpoints are held");
+        } else if(!journallingDisabled) {
+            journal.checkpoint(transactionId, redoLsn, activeTxns);
+        }
+    }
+
+    /**
+     * Stop writing checkpoints until {@link #releaseCheckpoints()} is called.
+     * While checkpoints are held, the journal files are neither switched nor
+     * removed, so all entries since the last checkpoint stay in the journal,
+     * e.g. while a hot backup copies the database files.
+     */
+    public synchronized void holdCheckpoints() {
+        checkpointHolds++;
+    }
+
+    /**
+     * Release a hold taken by {@link #holdCheckpoints()}.
+     */
+    public synchronized void releaseCheckpoints() {
+        if(checkpointHolds > 0) {
+            checkpointHolds--;
+        }
+    }
+
+    /**
+     * @see Journal#getFiles()
+     */
+    public Stream<Path> getFiles() throws IOException {
+        return journallingDisabled ? Stream.empty() : journal.getFiles();
+    }
+
+    /**
+     * @see Journal#nextLsn()
+     */
+    public long nextLsn() {
+        return journallingDisabled ? Lsn.LSN_INVALID : journal.nextLsn();
+    }
+
     /**
      * @see Journal#flushToLog(boolean, boolean)
      */
@@ -157,6 +246,31 @@ public class JournalManager implements BrokerPoolService {
         return journal.lastWrittenLsn();
     }
 
+    public boolean isGroupCommitThread() {
+        return groupCommitThread;
+    }
+
+    /**
+     * @see Journal#getGroupCommitBatches()
+     */
+    public long getGroupCommitBatches() {
+        return initialized ? journal.getGroupCommitBatches() : 0;
+    }
+
+    /**
+     * @see Journal#getGroupCommitCommits()
+     */
+    public long getGroupCommitCommits() {
+        return initialized ? journal.getGroupCommitCommits() : 0;
+    }
+
+    /**
+     * @see Journal#getGroupCommitMaxBatchSize()
+     */
+    public int getGroupCommitMaxBatchSize() {
+        return initialized ? journal.getGroupCommitMaxBatchSize() : 0;
+    }
+
 
 
     public RecoveryManager.JournalRecoveryAccessor getRecoveryAccessor(final RecoveryManager recoveryManager) {
@@ -0,0 +1,222 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed size ring buffer used by the {@link Journal} in group-commit mode.
+ *
+ * Writers reserve space for a log record by atomically advancing the
+ * reservation sequence, copy their record into the reserved region and
+ * then publish it. Publishing happens in reservation order, so that the
+ * published sequence always marks a contiguous run of complete records.
+ * Only a single thread (the flusher) drains the buffer at a time.
+ *
+ * All positions are absolute byte sequences which keep growing during the
+ * lifetime of the buffer. The position within the buffer is the sequence
+ * modulo the capacity.
+ */
+public class JournalRingBuffer {
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+
+    /** end of the space reserved by writers */
+    private final AtomicLong reserved = new AtomicLong();
+
+    /** end of the records which have been completely copied into the buffer */
+    private final AtomicLong published = new AtomicLong();
+
+    /** end of the records which have been written to the channel */
+    private volatile long drained = 0;
+
+    /** monitor used by writers waiting for free space */
+    private final Object spaceLatch = new Object();
+
+    public JournalRingBuffer(final int capacity) {
+        this.capacity = capacity;
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Reserve space for a record of the given length. If the ring is full,
+     * the caller will block until the flusher has drained enough data.
+     *
+     * @param length the length of the record
+     * @param onFull called before the writer starts to wait for free space,
+     *               usually to wake up the flusher
+     * @return the sequence at which the record starts
+     * @throws JournalException if the record can never fit into the buffer
+     */
+    public long reserve(final int length, final Runnable onFull) throws JournalException {
+        if (length > capacity) {
+            throw new JournalException("Log record of " + length + " bytes exceeds the journal buffer size of " + capacity);
+        }
+        while (true) {
+            final long start = reserved.get();
+            final long end = start + length;
+            if (end - drained > capacity) {
+                onFull.run();
+                awaitSpace(end);
+                continue;
+            }
+            if (reserved.compareAndSet(start, end)) {
+                return start;
+            }
+        }
+    }
+
+    private void awaitSpace(final long end) throws JournalException {
+        synchronized (spaceLatch) {
+            while (end - drained > capacity) {
+                try {
+                    spaceLatch.wait(10);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new JournalException("Interrupted while waiting for space in the journal buffer", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy a serialized record into the region previously reserved
+     * at <code>start</code>, wrapping around the end of the ring if necessary.
+     *
+     * @param start the sequence returned by {@link #reserve(int, Runnable)}
+     * @param record the serialized record, flipped for reading
+     */
+    public void put(final long start, final ByteBuffer record) {
+        final ByteBuffer target = buffer.duplicate();
+        final int offset = (int) (start % capacity);
+        final int length = record.remaining();
+        final int firstPart = Math.min(length, capacity - offset);
+        target.position(offset);
+        if (firstPart == length) {
+            target.put(record);
+        } else {
+            final ByteBuffer head = record.duplicate();
+            head.limit(head.position() + firstPart);
+            target.put(head);
+            record.position(record.position() + firstPart);
+            target.position(0);
+            target.put(record);
+        }
+    }
+
+    /**
+     * Publish a record after it has been copied into the buffer. Records
+     * are published in reservation order: the call spins until all preceding
+     * records have been published.
+     *
+     * @param start the start sequence of the record
+     * @param length the length of the record
+     */
+    public void publish(final long start, final int length) {
+        while (published.get() != start) {
+            Thread.yield();
+        }
+        published.set(start + length);
+    }
+
+    /**
+     * Wait until all records reserved up to <code>sequence</code> have been published.
+     *
+     * @param sequence the sequence to wait for
+     */
+    public void awaitPublished(final long sequence) {
+        while (published.get() < sequence) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Write all published records to the channel. Must only be called
+     * by one thread at a time.
+     *
+     * @param channel the channel to write to
+     * @return the end of the data written to the channel
+     * @throws IOException if writing to the channel fails
+     */
+    public long drainTo(final FileChannel channel) throws IOException {
+        final long start = drained;
+        final long end = published.get();
+        if (end == start) {
+            return end;
+        }
+        final int offset = (int) (start % capacity);
+        final int length = (int) (end - start);
+        final int firstPart = Math.min(length, capacity - offset);
+
+        final ByteBuffer src = buffer.duplicate();
+        src.limit(offset + firstPart).position(offset);
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+        if (firstPart < length) {
+            src.limit(length - firstPart).position(0);
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        }
+
+        drained = end;
+        synchronized (spaceLatch) {
+            spaceLatch.notifyAll();
+        }
+        return end;
+    }
+
+    /**
+     * @return the end of the space reserved by writers
+     */
+    public long getReserved() {
+        return reserved.get();
+    }
+
+    /**
+     * @return the end of the published records
+     */
+    public long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * @return the end of the records written to the channel
+     */
+    public long getDrained() {
+        return drained;
+    }
+
+    /**
+     * @return the number of bytes published but not yet drained
+     */
+    public long getPending() {
+        return published.get() - drained;
+    }
+}
@@ -100,6 +100,19 @@ public interface Loggable {
      * @throws LogException
      */
     public void undo() throws LogException;
+
+    /**
+     * Returns the id of the database file whose pages are changed by
+     * {@link #redo()}. During recovery, the entries of different files may be
+     * redone concurrently, while the entries of the same file are redone in
+     * the order of the journal.
+     *
+     * @return the id of the file, or -1 if the entry must be redone after all
+     * entries preceding it and before all entries following it
+     */
+    public default int getRedoFileId() {
+        return -1;
+    }
     
     /**
      * Returns a description of the entry for debugging purposes.
@@ -27,10 +27,18 @@ import org.apache.logging.log4j.Logger;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Deadlock detection for resource and collection locks. The static methods in this class
@@ -56,13 +64,20 @@ import java.util.Map;
  * the meantime, DeadlockDetection is used to detect deadlock situations as the one described
  * above. The lock classes can
  * then try to resolve the deadlock by suspending one thread.
+ *
+ * The waiting threads are kept in concurrent maps, so registering a waiter and walking
+ * the wait-for chain of a blocked thread does not serialize all lock waits on a single
+ * monitor. Each check therefore works on a snapshot of the waiters, which is sufficient
+ * since a thread only enters or leaves the maps while it is about to block or has been
+ * granted a lock. {@link #getDeadlockedThreads()} builds the complete wait-for graph from
+ * such a snapshot and can be polled periodically, e.g. through JMX.
  */
 public class DeadlockDetection {
 
     private final static Logger LOG = LogManager.getLogger(DeadlockDetection.class);
 
-    private final static Map<Thread, WaitingThread> waitForResource = new HashMap<>();
-    private final static Map<Thread, Lock> waitForCollection = new HashMap<>();
+    private final static Map<Thread, WaitingThread> waitForResource = new ConcurrentHashMap<>();
+    private final static Map<Thread, Lock> waitForCollection = new ConcurrentHashMap<>();
 
     /**
      * Register a thread as waiting for a resource lock.
@@ -71,9 +86,7 @@ public class DeadlockDetection {
      * @param waiter the WaitingThread object which wraps around the thread
      */
     public static void addResourceWaiter(final Thread thread, final WaitingThread waiter) {
-        synchronized (DeadlockDetection.class) {
-            waitForResource.put(thread, waiter);
-        }
+        waitForResource.put(thread, waiter);
     }
 
     /**
@@ -83,18 +96,14 @@ public class DeadlockDetection {
      * @return lock
      */
     public static Lock clearResourceWaiter(final Thread thread) {
-        synchronized (DeadlockDetection.class) {
-            final WaitingThread waiter = waitForResource.remove(thread);
-            if (waiter != null)
-                {return waiter.getLock();}
-            return null;
-        }
+        final WaitingThread waiter = waitForResource.remove(thread);
+        if (waiter != null)
+            {return waiter.getLock();}
+        return null;
     }
 
     public static WaitingThread getResourceWaiter(final Thread thread) {
-        synchronized (DeadlockDetection.class) {
-            return waitForResource.get(thread);
-        }
+        return waitForResource.get(thread);
     }
 
     /**
@@ -109,15 +118,13 @@ public class DeadlockDetection {
      * @return waiting thread
      */
     public static WaitingThread deadlockCheckResource(final Thread threadA, final Thread threadB) {
-        synchronized (DeadlockDetection.class) {
-            //Check if threadB is waiting for a resource lock
-            final WaitingThread waitingThread = waitForResource.get(threadB);
-            //If lock != null, check if thread B waits for a resource lock currently held by thread A
-            if (waitingThread != null) {
-                return waitingThread.getLock().hasLock(threadA) ? waitingThread : null;
-            }
-            return null;
+        //Check if threadB is waiting for a resource lock
+        final WaitingThread waitingThread = waitForResource.get(threadB);
+        //If lock != null, check if thread B waits for a resource lock currently held by thread A
+        if (waitingThread != null) {
+            return waitingThread.getLock().hasLock(threadA) ? waitingThread : null;
         }
+        return null;
     }
 
     /**
@@ -129,53 +136,52 @@ public class DeadlockDetection {
      * @return true if threadB is currently blocked by a lock held by threadA
      */
     public static boolean isBlockedBy(final Thread threadA, final Thread threadB) {
-        synchronized (DeadlockDetection.class) {
-            //Check if threadB is waiting for a resource lock
-            final WaitingThread waitingThread = waitForResource.get(threadB);
-            //If lock != null, check if thread B waits for a resource lock currently held by thread A
-            if (waitingThread != null) {
-                return waitingThread.getLock().hasLock(threadA);
-            }
-            return false;
+        //Check if threadB is waiting for a resource lock
+        final WaitingThread waitingThread = waitForResource.get(threadB);
+        //If lock != null, check if thread B waits for a resource lock currently held by thread A
+        if (waitingThread != null) {
+            return waitingThread.getLock().hasLock(threadA);
         }
+        return false;
     }
 
     public static boolean wouldDeadlock(final Thread waiter, final Thread owner, final List<WaitingThread> waiters) {
-        synchronized (DeadlockDetection.class) {
-            final WaitingThread wt = waitForResource.get(owner);
-            if (wt != null) {
-                if (waiters.contains(wt)) {
-                    // probably a deadlock, but not directly connected to the current thread
-                    // return to avoid endless loop
-                    return false;
-                }
-                waiters.add(wt);
-                final Lock l = wt.getLock();
-                final Thread t = ((MultiReadReentrantLock) l).getWriteLockedThread();
-                if (t == owner) {
-                    return false;
-                }
-                if (t != null) {
-                    if (t == waiter)
-                        {return true;}
-                    return wouldDeadlock(waiter, t, waiters);
-                }
+        final WaitingThread wt = waitForResource.get(owner);
+        if (wt != null) {
+            if (waiters.contains(wt)) {
+                // probably a deadlock, but not directly connected to the current thread
+                // return to avoid endless loop
                 return false;
             }
-            final Lock l = waitForCollection.get(owner);
-            if (l != null) {
-                final Thread t = ((ReentrantReadWriteLock) l).getOwner();
-                if (t == owner) {
-                    return false;
-                }
-                if (t != null) {
-                    if (t == waiter)
-                        {return true;}
-                    return wouldDeadlock(waiter, t, waiters);
-                }
+            waiters.add(wt);
+            final Lock l = wt.getLock();
+            if (!(l instanceof MultiReadReentrantLock)) {
+                return false;
+            }
+            final Thread t = ((MultiReadReentrantLock) l).getWriteLockedThread();
+            if (t == owner) {
+                return false;
+            }
+            if (t != null) {
+                if (t == waiter)
+                    {return true;}
+                return wouldDeadlock(waiter, t, waiters);
             }
             return false;
         }
+        final Lock l = waitForCollection.get(owner);
+        if (l instanceof ReentrantReadWriteLock) {
+            final Thread t = ((ReentrantReadWriteLock) l).getOwner();
+            if (t == owner) {
+                return false;
+            }
+            if (t != null) {
+                if (t == waiter)
+                    {return true;}
+                return wouldDeadlock(waiter, t, waiters);
+            }
+        }
+        return false;
     }
 
     /**
@@ -185,21 +191,15 @@ public class DeadlockDetection {
      * @param lock the lock object
      */
     public static void addCollectionWaiter(final Thread waiter, final Lock lock) {
-        synchronized (DeadlockDetection.class) {
-            waitForCollection.put(waiter, lock);
-        }
+        waitForCollection.put(waiter, lock);
     }
 
     public static Lock clearCollectionWaiter(final Thread waiter) {
-        synchronized (DeadlockDetection.class) {
-            return waitForCollection.remove(waiter);
-        }
+        return waitForCollection.remove(waiter);
     }
 
     public static Lock isWaitingFor(final Thread waiter) {
-        synchronized (DeadlockDetection.class) {
-            return waitForCollection.get(waiter);
-        }
+        return waitForCollection.get(waiter);
     }
 
     public static Map<String, LockInfo> getWaitingThreads() {
@@ -213,6 +213,79 @@ public class DeadlockDetection {
         return table;
     }
 
+    /**
+     * Build the wait-for graph of all threads currently waiting for a resource or
+     * collection lock and return the threads which are part of a cycle.
+     *
+     * @return the names of the deadlocked threads, empty if there is no deadlock
+     */
+    public static List<String> getDeadlockedThreads() {
+        final Map<Thread, Set<Thread>> graph = new HashMap<>();
+        for (final Map.Entry<Thread, WaitingThread> entry : waitForResource.entrySet()) {
+            addEdges(graph, entry.getKey(), entry.getValue().getLock());
+        }
+        for (final Map.Entry<Thread, Lock> entry : waitForCollection.entrySet()) {
+            addEdges(graph, entry.getKey(), entry.getValue());
+        }
+
+        final Set<Thread> deadlocked = new HashSet<>();
+        final Set<Thread> visited = new HashSet<>();
+        final Deque<Thread> path = new ArrayDeque<>();
+        for (final Thread thread : graph.keySet()) {
+            findCycles(graph, thread, visited, path, deadlocked);
+        }
+
+        final List<String> names = new ArrayList<>(deadlocked.size());
+        for (final Thread thread : deadlocked) {
+            names.add(thread.getName());
+        }
+        return names;
+    }
+
+    private static void addEdges(final Map<Thread, Set<Thread>> graph, final Thread waiter, final Lock lock) {
+        final Set<Thread> owners;
+        if (lock instanceof MultiReadReentrantLock) {
+            owners = ((MultiReadReentrantLock) lock).getOwners();
+        } else if (lock instanceof ReentrantReadWriteLock) {
+            final Thread owner = ((ReentrantReadWriteLock) lock).getOwner();
+            owners = owner == null ? Collections.emptySet() : Collections.singleton(owner);
+        } else {
+            owners = Collections.emptySet();
+        }
+        final Set<Thread> edges = graph.computeIfAbsent(waiter, k -> new HashSet<>());
+        for (final Thread owner : owners) {
+            if (owner != waiter) {
+                edges.add(owner);
+            }
+        }
+    }
+
+    private static void findCycles(final Map<Thread, Set<Thread>> graph, final Thread thread, final Set<Thread> visited,
+            final Deque<Thread> path, final Set<Thread> deadlocked) {
+        if (path.contains(thread)) {
+            // all threads on the path since the last visit of thread form a cycle
+            for (final Iterator<Thread> i = path.iterator(); i.hasNext(); ) {
+                final Thread next = i.next();
+                deadlocked.add(next);
+                if (next == thread) {
+                    break;
+                }
+            }
+            return;
+        }
+        if (!visited.add(thread)) {
+            return;
+        }
+        final Set<Thread> owners = graph.get(thread);
+        if (owners != null) {
+            path.push(thread);
+            for (final Thread owner : owners) {
+                findCycles(graph, owner, visited, path, deadlocked);
+            }
+            path.pop();
+        }
+    }
+
     public static void debug(final String name, final LockInfo info) {
         try(final StringWriter sout = new StringWriter();
                 final PrintWriter writer = new PrintWriter(sout)) {
@@ -0,0 +1,99 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.lock;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics on the time threads spent blocked on a lock.
+ *
+ * Only acquisitions which actually had to wait are recorded. The counters are striped
+ * ({@link LongAdder}), so recording a wait does not add another point of contention
+ * to a lock which is already contended.
+ */
+@ThreadSafe
+public class LockWaitStatistics {
+
+    /**
+     * Waits on {@link ReentrantReadWriteLock}, i.e. collection and paged file locks
+     */
+    public static final LockWaitStatistics COLLECTION_LOCKS = new LockWaitStatistics(LockInfo.COLLECTION_LOCK);
+
+    /**
+     * Waits on {@link MultiReadReentrantLock}, i.e. document locks
+     */
+    public static final LockWaitStatistics RESOURCE_LOCKS = new LockWaitStatistics(LockInfo.RESOURCE_LOCK);
+
+    private final String lockType;
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitTime = new LongAdder();
+    private final LongAccumulator maxWaitTime = new LongAccumulator(Math::max, 0);
+
+    private LockWaitStatistics(final String lockType) {
+        this.lockType = lockType;
+    }
+
+    public String getLockType() {
+        return lockType;
+    }
+
+    /**
+     * Record a wait for a lock.
+     *
+     * @param startTime the value of {@link System#nanoTime()} when the thread started waiting
+     */
+    void waited(final long startTime) {
+        final long time = System.nanoTime() - startTime;
+        waits.increment();
+        waitTime.add(time);
+        maxWaitTime.accumulate(time);
+    }
+
+    /**
+     * @return the number of lock acquisitions which had to wait
+     */
+    public long getWaits() {
+        return waits.sum();
+    }
+
+    /**
+     * @return the total time in milliseconds threads were waiting for a lock
+     */
+    public long getTotalWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.sum());
+    }
+
+    /**
+     * @return the longest time in milliseconds a thread was waiting for a lock
+     */
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+    }
+
+    public void reset() {
+        waits.reset();
+        waitTime.reset();
+        maxWaitTime.reset();
+    }
+}
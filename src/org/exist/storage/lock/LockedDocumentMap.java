@@ -28,11 +28,15 @@ import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.DocumentSet;
 import org.exist.dom.persistent.MutableDocumentSet;
 import org.exist.storage.lock.Lock.LockMode;
+import org.exist.util.hashtable.Int2IntHashMap;
 import org.exist.util.hashtable.Int2ObjectHashMap;
 
 /**
  * This map is used by the XQuery engine to track how many read locks were
  * acquired for a document during query execution.
+ *
+ * The documents are mapped by their id, the number of locks acquired is kept
+ * in a separate primitive map, so no entry object is created per document.
  */
 @NotThreadSafe
 public class LockedDocumentMap extends Int2ObjectHashMap<Object> {
@@ -40,17 +44,16 @@ public class LockedDocumentMap extends Int2ObjectHashMap<Object> {
     private final static int DEFAULT_SIZE = 29;
     private final static double DEFAULT_GROWTH = 1.75;
 
+    private final Int2IntHashMap locksAcquired = new Int2IntHashMap(DEFAULT_SIZE, 0);
+
     public LockedDocumentMap() {
         super(DEFAULT_SIZE, DEFAULT_GROWTH);
     }
 
     public void add(final DocumentImpl document) {
-        LockedDocument entry = (LockedDocument) get(document.getDocId());
-        if (entry == null) {
-            entry = new LockedDocument(document);
-            put(document.getDocId(), entry);
+        if (locksAcquired.addTo(document.getDocId(), 1) == 1) {
+            put(document.getDocId(), document);
         }
-        entry.locksAcquired++;
     }
 
     public MutableDocumentSet toDocumentSet() {
@@ -59,8 +62,7 @@ public class LockedDocumentMap extends Int2ObjectHashMap<Object> {
             if (values[idx] == null || values[idx] == REMOVED) {
                 continue;
             }
-            final LockedDocument lockedDocument = (LockedDocument) values[idx];
-            docs.add(lockedDocument.document);
+            docs.add((DocumentImpl) values[idx]);
         }
         return docs;
     }
@@ -73,9 +75,9 @@ public class LockedDocumentMap extends Int2ObjectHashMap<Object> {
             if (values[idx] == null || values[idx] == REMOVED) {
                 continue;
             }
-            final LockedDocument lockedDocument = (LockedDocument) values[idx];
-            if (lockedDocument.document.getCollection().getURI().startsWith(collection.getURI())) {
-                targetSet.add(lockedDocument.document);
+            final DocumentImpl document = (DocumentImpl) values[idx];
+            if (document.getCollection().getURI().startsWith(collection.getURI())) {
+                targetSet.add(document);
             }
         }
         return targetSet;
@@ -86,8 +88,7 @@ public class LockedDocumentMap extends Int2ObjectHashMap<Object> {
             if (values[idx] == null || values[idx] == REMOVED) {
                 continue;
             }
-            final LockedDocument lockedDocument = (LockedDocument) values[idx];
-            unlockDocument(lockedDocument);
+            unlockDocument((DocumentImpl) values[idx]);
         }
     }
 
@@ -96,26 +97,18 @@ public class LockedDocumentMap extends Int2ObjectHashMap<Object> {
             if (values[idx] == null || values[idx] == REMOVED) {
                 continue;
             }
-            final LockedDocument lockedDocument = (LockedDocument) values[idx];
-            if (!keep.contains(lockedDocument.document.getDocId())) {
+            final DocumentImpl document = (DocumentImpl) values[idx];
+            if (!keep.contains(document.getDocId())) {
                 values[idx] = REMOVED;
-                unlockDocument(lockedDocument);
+                unlockDocument(document);
+                locksAcquired.remove(document.getDocId());
             }
         }
         return this;
     }
 
-    private void unlockDocument(final LockedDocument lockedDocument) {
-        final Lock documentLock = lockedDocument.document.getUpdateLock();
-        documentLock.release(LockMode.WRITE_LOCK, lockedDocument.locksAcquired);
-    }
-
-    private static class LockedDocument {
-        private final DocumentImpl document;
-        private int locksAcquired = 0;
-
-        LockedDocument(final DocumentImpl document) {
-            this.document = document;
-        }
+    private void unlockDocument(final DocumentImpl document) {
+        final Lock documentLock = document.getUpdateLock();
+        documentLock.release(LockMode.WRITE_LOCK, locksAcquired.get(document.getDocId()));
     }
 }
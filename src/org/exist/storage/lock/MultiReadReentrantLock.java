@@ -44,7 +44,10 @@ import org.exist.util.LockException;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A reentrant read/write lock, which allows multiple readers to acquire a lock.
@@ -72,7 +75,7 @@ public class MultiReadReentrantLock implements Lock {
     /**
      * The thread that has the write lock or null.
      */
-    private Thread writeLockedThread;
+    private volatile Thread writeLockedThread;
 
     /**
      * The number of (nested) write locks that have been requested from
@@ -166,13 +169,16 @@ public class MultiReadReentrantLock implements Lock {
            if (!waitIfNecessary) {return false;}
             final WaitingThread waiter = new WaitingThread(thisThread, this, this, LockMode.READ_LOCK);
             DeadlockDetection.addResourceWaiter(thisThread, waiter);
+            final long waitStart = System.nanoTime();
             while (writeLockedThread != null) {
                 //LOG.debug("readLock wait by " + thisThread.getName() + " for " + getId());
                 waiter.doWait();
                 //LOG.debug("wake up from readLock wait");
             }
             DeadlockDetection.clearResourceWaiter(thisThread);
-        }        waitingForReadLock--;
+            LockWaitStatistics.RESOURCE_LOCKS.waited(waitStart);
+        }
+        waitingForReadLock--;
         //Add acquired lock to the current list of read locks
         outstandingReadLocks.add(new LockOwner(thisThread));
         return true;
@@ -205,6 +211,7 @@ public class MultiReadReentrantLock implements Lock {
             addWaitingWrite(waiter);
             DeadlockDetection.addResourceWaiter(thisThread, waiter);
         }
+        final long waitStart = System.nanoTime();
         List<WaitingThread> deadlockedThreads = null;
         LockException exceptionCaught = null;
         synchronized (thisThread) {
@@ -247,6 +254,7 @@ public class MultiReadReentrantLock implements Lock {
             }
             throw new DeadlockException();
         }
+        LockWaitStatistics.RESOURCE_LOCKS.waited(waitStart);
         return true;
     }
 
@@ -500,6 +508,21 @@ public class MultiReadReentrantLock implements Lock {
     public Thread getWriteLockedThread() {
         return writeLockedThread;
     }
+
+    /**
+     * @return the thread holding the write lock or, if there is none,
+     * the threads holding a read lock
+     */
+    synchronized Set<Thread> getOwners() {
+        if (writeLockedThread != null) {
+            return Collections.singleton(writeLockedThread);
+        }
+        final Set<Thread> owners = new HashSet<>();
+        for (final LockOwner next : outstandingReadLocks) {
+            owners.add(next.getOwner());
+        }
+        return owners;
+    }
     
     /**
      * Check if the specified thread holds either a write or a read lock
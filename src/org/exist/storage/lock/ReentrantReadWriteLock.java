@@ -68,7 +68,7 @@ public class ReentrantReadWriteLock implements Lock {
     private final static Logger LOG = LogManager.getLogger(ReentrantReadWriteLock.class);
 
     private final Object id_;
-	private Thread owner_ = null;
+	private volatile Thread owner_ = null;
     private final Deque<SuspendedWaiter> suspendedThreads = new ArrayDeque<>();
 
     private int holds_ = 0;
@@ -154,10 +154,12 @@ public class ReentrantReadWriteLock implements Lock {
                 return true;
             } else {
                 DeadlockDetection.addCollectionWaiter(caller, this);
+                final long waitStart = System.nanoTime();
                 try {
                     for (;;) {
                         wait(WAIT_CHECK_PERIOD);
-                        if ((waitingOnResource = DeadlockDetection.deadlockCheckResource(caller, owner_)) != null) {
+                        // the lock may have been released while we were waiting
+                        if (owner_ != null && (waitingOnResource = DeadlockDetection.deadlockCheckResource(caller, owner_)) != null) {
                             waitingOnResource.suspendWaiting();
                             final SuspendedWaiter suspended = new SuspendedWaiter(owner_, mode_, holds_);
                             suspendedThreads.push(suspended);
@@ -170,6 +172,7 @@ public class ReentrantReadWriteLock implements Lock {
                             mode_ = mode;
                             listener = waitingOnResource;
                             DeadlockDetection.clearCollectionWaiter(owner_);
+                            LockWaitStatistics.COLLECTION_LOCKS.waited(waitStart);
                             return true;
                         } else if (caller == owner_) {
                             ++holds_;
@@ -183,6 +186,7 @@ public class ReentrantReadWriteLock implements Lock {
                             }
                             mode_ = mode;
                             DeadlockDetection.clearCollectionWaiter(owner_);
+                            LockWaitStatistics.COLLECTION_LOCKS.waited(waitStart);
                             return true;
                         } else if (owner_ == null) {
                             owner_ = caller;
@@ -197,10 +201,12 @@ public class ReentrantReadWriteLock implements Lock {
                             }
                             mode_ = mode;
                             DeadlockDetection.clearCollectionWaiter(owner_);
+                            LockWaitStatistics.COLLECTION_LOCKS.waited(waitStart);
                             return true;
                         }
                     }
                 } catch (final InterruptedException ex) {
+                    DeadlockDetection.clearCollectionWaiter(caller);
                     notify();
                     throw new LockException("Interrupted while waiting for lock");
                 }
@@ -0,0 +1,192 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.recovery;
+
+import org.exist.storage.journal.LogException;
+import org.exist.storage.journal.Loggable;
+import org.exist.util.hashtable.Int2ObjectHashMap;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redoes journal entries on a pool of threads during recovery.
+ *
+ * The entries are distributed on lanes by {@link Loggable#getRedoFileId()}.
+ * Each lane is a bounded queue processed by a single thread, so the entries of
+ * a database file are redone in the order of the journal, while different
+ * files are redone concurrently. The pages, caches and file headers of a file
+ * are only accessed by the thread of its lane. Entries which do not belong to
+ * a file are redone by the reading thread, after the lanes have been drained.
+ */
+class ParallelRedo implements AutoCloseable {
+
+    private static final int QUEUE_SIZE = 4096;
+
+    private final Lane[] lanes;
+    private final Int2ObjectHashMap<Lane> fileLanes = new Int2ObjectHashMap<>();
+    private int nextLane = 0;
+
+    // guarded by this
+    private Loggable failedEntry = null;
+    private Exception failure = null;
+
+    ParallelRedo(final int threads) {
+        this.lanes = new Lane[threads];
+        for (int i = 0; i < threads; i++) {
+            lanes[i] = new Lane("recovery-redo-" + i);
+        }
+    }
+
+    /**
+     * Queues the entry on the lane of its file, blocking while the lane is full.
+     *
+     * @param entry the journal entry to redo
+     * @throws LogException if the redo of an earlier entry failed
+     */
+    void redo(final Loggable entry) throws LogException {
+        checkFailure();
+        final int fileId = entry.getRedoFileId();
+        if (fileId < 0) {
+            drain();
+            entry.redo();
+            return;
+        }
+        Lane lane = fileLanes.get(fileId);
+        if (lane == null) {
+            lane = lanes[nextLane++ % lanes.length];
+            fileLanes.put(fileId, lane);
+        }
+        lane.submit(entry);
+    }
+
+    /**
+     * Waits until all queued entries have been redone.
+     *
+     * @throws LogException if the redo of an entry failed
+     */
+    void drain() throws LogException {
+        for (final Lane lane : lanes) {
+            lane.await();
+        }
+        checkFailure();
+    }
+
+    @Override
+    public void close() {
+        for (final Lane lane : lanes) {
+            lane.thread.interrupt();
+        }
+        for (final Lane lane : lanes) {
+            try {
+                lane.thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    private synchronized void failed(final Loggable entry, final Exception e) {
+        if (failure == null) {
+            failedEntry = entry;
+            failure = e;
+        }
+    }
+
+    private synchronized boolean hasFailed() {
+        return failure != null;
+    }
+
+    private synchronized void checkFailure() throws LogException {
+        if (failure != null) {
+            throw new LogException("Redo failed for log entry " + failedEntry.dump() + ": " + failure.getMessage(), failure);
+        }
+    }
+
+    private class Lane implements Runnable {
+        final BlockingQueue<Loggable> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final Thread thread;
+
+        // guarded by this
+        private long submitted = 0;
+        private long applied = 0;
+
+        Lane(final String name) {
+            this.thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void submit(final Loggable entry) throws LogException {
+            synchronized (this) {
+                submitted++;
+            }
+            try {
+                queue.put(entry);
+            } catch (final InterruptedException e) {
+                synchronized (this) {
+                    submitted--;
+                    notifyAll();
+                }
+                Thread.currentThread().interrupt();
+                throw new LogException("Interrupted while queuing a log entry for redo", e);
+            }
+        }
+
+        synchronized void await() throws LogException {
+            while (applied < submitted) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new LogException("Interrupted while waiting for the redo of log entries", e);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Loggable entry;
+                try {
+                    entry = queue.take();
+                } catch (final InterruptedException e) {
+                    // only interrupted by close
+                    return;
+                }
+                try {
+                    // once an entry failed, the recovery is aborted: skip the remaining entries
+                    if (!hasFailed()) {
+                        entry.redo();
+                    }
+                } catch (final Exception e) {
+                    failed(entry, e);
+                } finally {
+                    synchronized (this) {
+                        applied++;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -22,6 +22,7 @@
 package org.exist.storage.recovery;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.function.Consumer;
@@ -32,16 +33,18 @@ import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.exist.management.Agent;
+import org.exist.management.AgentFactory;
 import org.exist.storage.DBBroker;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.journal.*;
 import org.exist.storage.sync.Sync;
 import org.exist.storage.txn.Checkpoint;
+import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.FileUtils;
 import org.exist.util.ProgressBar;
 import com.evolvedbinary.j8fu.function.SupplierE;
 import org.exist.util.hashtable.Long2ObjectHashMap;
-import org.exist.util.sanity.SanityCheck;
 
 /**
  * Database recovery. This class is used once during startup to check
@@ -54,14 +57,36 @@ public class RecoveryManager {
 	
 	private final static Logger LOG = LogManager.getLogger(RecoveryManager.class);
 
+    public static final String RECOVERY_REDO_THREADS_ATTRIBUTE = "redo-threads";
+    public static final String PROPERTY_RECOVERY_REDO_THREADS = "db-connection.recovery.redo-threads";
+
+    /** interval in milliseconds between two progress messages in the log */
+    private static final long PROGRESS_LOG_INTERVAL = 10000;
+
     private final DBBroker broker;
     private final JournalRecoveryAccessor journalRecovery;
     private final boolean restartOnError;
+    private final int redoThreads;
+    private final RecoveryStatus status = new RecoveryStatus();
+    private long lastProgressLog = 0;
 
     public RecoveryManager(final DBBroker broker, final JournalManager journalManager, final boolean restartOnError) {
+        this(broker, journalManager, restartOnError, 1);
+    }
+
+    /**
+     * @param broker the system broker
+     * @param journalManager the journal to recover from
+     * @param restartOnError true if the database should be started even if the recovery failed
+     * @param redoThreads the number of threads redoing the journal entries. With more than one
+     *                    thread, the entries of different database files are redone concurrently.
+     */
+    public RecoveryManager(final DBBroker broker, final JournalManager journalManager, final boolean restartOnError,
+            final int redoThreads) {
         this.broker = broker;
         this.journalRecovery = journalManager.getRecoveryAccessor(this);
         this.restartOnError = restartOnError;
+        this.redoThreads = redoThreads;
 	}
 
 	/**
@@ -98,7 +123,7 @@ public class RecoveryManager {
                     	final Checkpoint checkpoint = (Checkpoint) lastLog;
                     	// Found a checkpoint. To be sure it is indeed a valid checkpoint
                     	// record, we compare the LSN stored in it with the current LSN.
-                    	if (checkpoint.getStoredLsn() == checkpoint.getLsn()) {
+                    	if (checkpoint.getStoredLsn() == checkpoint.getLsn() && !checkpoint.isFuzzy()) {
                     		checkpointFound = true;
                     		LOG.debug("Database is in clean state. Last checkpoint: " + 
                     				checkpoint.getDateString());
@@ -113,6 +138,9 @@ public class RecoveryManager {
     			if (!checkpointFound) {
                     LOG.info("Unclean shutdown detected. Scanning journal...");
                     broker.getBrokerPool().reportStatus("Unclean shutdown detected. Scanning log...");
+                    status.start(redoThreads);
+                    registerMBean();
+                    status.startPhase("scan");
     				reader.position(1);
     				final Long2ObjectHashMap<Loggable> txnsStarted = new Long2ObjectHashMap<>();
 	    			Checkpoint lastCheckpoint = null;
@@ -123,6 +151,7 @@ public class RecoveryManager {
 	        			while ((next = reader.nextEntry()) != null) {
 //	                        LOG.debug(next.dump());
 							progress.set(Lsn.getOffset(next.getLsn()));
+							entryRead(next);
 							if (next.getLogType() == LogEntryTypes.TXN_START) {
 				                // new transaction starts: add it to the transactions table
 				                txnsStarted.put(next.getTransactionId(), next);
@@ -131,7 +160,10 @@ public class RecoveryManager {
 				            	txnsStarted.remove(next.getTransactionId());
 				            } else if (next.getLogType() == LogEntryTypes.CHECKPOINT) {
 				            	txnsStarted.clear();
-	        					lastCheckpoint = (Checkpoint) next;
+	        					final Checkpoint checkpointEntry = (Checkpoint) next;
+	        					lastCheckpoint = checkpointEntry;
+	        					// transactions running at a fuzzy checkpoint may still be dirty
+	        					checkpointEntry.getActiveTransactions().forEach((txnId, startLsn) -> txnsStarted.put(txnId, checkpointEntry));
 				            }
 	        				lastLsn = next.getLsn();
 	        			}
@@ -141,14 +173,17 @@ public class RecoveryManager {
                         }
                         LOG.warn("Last readable journal log entry lsn: " + Lsn.dump(lastLsn));
                     }
+                    status.setLastLsn(lastLsn);
 
 	    			// if the last checkpoint record is not the last record in the file
-	    			// we need a recovery.
-	    			if ((lastCheckpoint == null || lastCheckpoint.getLsn() != lastLsn) &&
-	    					txnsStarted.size() > 0) {
+	    			// we need a recovery. Pages changed after the redo LSN of a fuzzy
+	    			// checkpoint may not have been written, so it always needs a recovery.
+	    			if ((lastCheckpoint != null && lastCheckpoint.isFuzzy()) ||
+	    					((lastCheckpoint == null || lastCheckpoint.getLsn() != lastLsn) &&
+	    					txnsStarted.size() > 0)) {
 	    				LOG.info("Dirty transactions: " + txnsStarted.size());
 	    				// starting recovery: reposition the log reader to the last checkpoint
-						if (lastCheckpoint == null)
+						if (lastCheckpoint == null || lastCheckpoint.isFuzzy())
 						    {reader.position(1);}
 						else {
 						    reader.position(lastCheckpoint.getLsn());
@@ -158,7 +193,8 @@ public class RecoveryManager {
                         try {
                             LOG.info("Running recovery...");
                             broker.getBrokerPool().reportStatus("Running recovery...");
-                            doRecovery(txnsStarted.size(), last, reader, lastLsn);
+                            final int firstNum = Journal.findFirstFile(files.stream());
+                            doRecovery(txnsStarted.size(), firstNum, lastNum, reader, lastLsn, lastCheckpoint);
                         } catch (final LogException e) {
                             // if restartOnError == true, we try to bring up the database even if there
                             // are errors. Otherwise, an exception is thrown, which will stop the db initialization
@@ -176,6 +212,9 @@ public class RecoveryManager {
     			}
             } finally {
                 reader.close();
+                if (status.isRunning()) {
+                    status.end();
+                }
                 // remove .log files from directory even if recovery failed.
                 // Re-applying them on a second start up attempt would definitely damage the db, so we better
                 // delete them before user tries to launch again.
@@ -218,14 +257,22 @@ public class RecoveryManager {
     /**
      * Called by {@link #recover()} to do the actual recovery.
      *
+     * If the last checkpoint is a fuzzy checkpoint, the redo pass starts at its
+     * redo LSN, which may be in an earlier journal file, and the undo pass scans
+     * back until the start of the transactions which were running at the checkpoint.
+     *
      * @param txnCount
-     * @param last
-     * @param reader
+     * @param firstNum the number of the first journal file
+     * @param lastNum the number of the last journal file
+     * @param reader the reader of the last journal file, positioned after the last
+     *               regular checkpoint
      * @param lastLsn
+     * @param checkpoint the last checkpoint, or null
      *
      * @throws LogException
      */
-    private void doRecovery(final int txnCount, final Path last, final JournalReader reader, final long lastLsn) throws LogException {
+    private void doRecovery(final int txnCount, final int firstNum, final int lastNum, final JournalReader reader,
+            final long lastLsn, final Checkpoint checkpoint) throws LogException {
         if (LOG.isInfoEnabled()) {
             LOG.info("Running recovery ...");
         }
@@ -235,38 +282,76 @@ public class RecoveryManager {
             // map to track running transactions
             final Long2ObjectHashMap<Loggable> runningTxns = new Long2ObjectHashMap<>();
 
+            int redoNum = lastNum;
+            if (checkpoint != null && checkpoint.isFuzzy()) {
+                checkpoint.getActiveTransactions().forEach((txnId, startLsn) -> runningTxns.put(txnId, checkpoint));
+                redoNum = (int) Lsn.getFileNumber(checkpoint.getRedoLsn());
+                if (LOG.isInfoEnabled()) {
+                    LOG.info("Redo starts at " + Lsn.dump(checkpoint.getRedoLsn()) + " from fuzzy checkpoint " +
+                            checkpoint.getDateString());
+                }
+            }
+
             // ------- REDO ---------
             if (LOG.isInfoEnabled())
-                {LOG.info("First pass: redoing " + txnCount + " transactions...");}
-            final ProgressBar progress = new ProgressBar("Redo ", FileUtils.sizeQuietly(last));
+                {LOG.info("First pass: redoing " + txnCount + " transactions" +
+                        (redoThreads > 1 ? " on " + redoThreads + " threads..." : "..."));}
+            status.startPhase("redo");
             Loggable next = null;
             int redoCnt = 0;
-            try {
-                while ((next = reader.nextEntry()) != null) {
-                    SanityCheck.ASSERT(next.getLogType() != LogEntryTypes.CHECKPOINT,
-                            "Found a checkpoint during recovery run! This should not ever happen.");
-                    if (next.getLogType() == LogEntryTypes.TXN_START) {
-                        // new transaction starts: add it to the transactions table
-                        runningTxns.put(next.getTransactionId(), next);
-                    } else if (next.getLogType() == LogEntryTypes.TXN_COMMIT) {
-                        // transaction committed: remove it from the transactions table
-                        runningTxns.remove(next.getTransactionId());
-                        redoCnt++;
-                    } else if (next.getLogType() == LogEntryTypes.TXN_ABORT) {
-                        // transaction aborted: remove it from the transactions table
-                        runningTxns.remove(next.getTransactionId());
+            try (final ParallelRedo parallelRedo = redoThreads > 1 ? new ParallelRedo(redoThreads) : null) {
+                redo:
+                for (int fileNum = Math.max(redoNum, firstNum); fileNum <= lastNum; fileNum++) {
+                    final Path file = journalRecovery.getFile.apply(fileNum);
+                    if (fileNum != lastNum && !Files.exists(file)) {
+                        continue;
+                    }
+                    final JournalReader fileReader = fileNum == lastNum ? reader : new JournalReader(broker, file, fileNum);
+                    try {
+                        if (fileNum == redoNum && checkpoint != null && checkpoint.isFuzzy()) {
+                            fileReader.position(checkpoint.getRedoLsn());
+                        }
+                        final ProgressBar progress = new ProgressBar("Redo ", FileUtils.sizeQuietly(file));
+                        while ((next = fileReader.nextEntry()) != null) {
+                            entryRead(next);
+                            if (next.getLogType() == LogEntryTypes.TXN_START) {
+                                // new transaction starts: add it to the transactions table
+                                runningTxns.put(next.getTransactionId(), next);
+                            } else if (next.getLogType() == LogEntryTypes.TXN_COMMIT) {
+                                // transaction committed: remove it from the transactions table
+                                runningTxns.remove(next.getTransactionId());
+                                redoCnt++;
+                            } else if (next.getLogType() == LogEntryTypes.TXN_ABORT) {
+                                // transaction aborted: remove it from the transactions table
+                                runningTxns.remove(next.getTransactionId());
+                            } else if (parallelRedo != null && next.getLogType() != LogEntryTypes.CHECKPOINT) {
+                                // transaction records and checkpoints have nothing to redo
+                                parallelRedo.redo(next);
+                            }
+                //            LOG.debug("Redo: " + next.dump());
+                            // redo the log entry. Checkpoints found after the redo LSN have nothing to redo.
+                            if (parallelRedo == null) {
+                                next.redo();
+                            }
+                            progress.set(Lsn.getOffset(next.getLsn()));
+                            if (next.getLsn() == lastLsn)
+                                {break redo;} // last readable entry reached. Stop here.
+                        }
+                    } finally {
+                        if (fileReader != reader) {
+                            fileReader.close();
+                        }
                     }
-        //            LOG.debug("Redo: " + next.dump());
-                    // redo the log entry
-                    next.redo();
-                    progress.set(Lsn.getOffset(next.getLsn()));
-                    if (next.getLsn() == lastLsn)
-                        {break;} // last readable entry reached. Stop here.
+                }
+                if (parallelRedo != null) {
+                    // all pages must be redone before the undo pass starts
+                    parallelRedo.drain();
                 }
             } catch (final Exception e) {
                 LOG.error("Exception caught while redoing transactions. Aborting recovery to avoid possible damage. " +
                     "Before starting again, make sure to run a check via the emergency export tool.", e);
-                if (next != null)
+                // with parallel redo, the failed entry is reported by the exception
+                if (next != null && redoThreads <= 1)
                     {LOG.info("Log entry that caused the exception: " + next.dump());}
                 throw new LogException("Recovery aborted. ");
             } finally {
@@ -277,29 +362,48 @@ public class RecoveryManager {
             if (LOG.isInfoEnabled())
                 {LOG.info("Second pass: undoing dirty transactions. Uncommitted transactions: " +
                         runningTxns.size());}
+            status.startPhase("undo");
             // see if there are uncommitted transactions pending
             if (runningTxns.size() > 0) {
                 // do a reverse scan of the log, undoing all uncommitted transactions
                 try {
-                    while((next = reader.previousEntry()) != null) {
-                        if (next.getLogType() == LogEntryTypes.TXN_START) {
-                            if (runningTxns.get(next.getTransactionId()) != null) {
-                                runningTxns.remove(next.getTransactionId());
-                                if (runningTxns.size() == 0)
-                                    // all dirty transactions undone
-                                    {break;}
-                            }
-                        } else if (next.getLogType() == LogEntryTypes.TXN_COMMIT) {
-                            // ignore already committed transaction
-                        } else if (next.getLogType() == LogEntryTypes.CHECKPOINT) {
-                            // found last checkpoint: undo is completed
-                            break;
+                    undo:
+                    for (int fileNum = lastNum; fileNum >= firstNum; fileNum--) {
+                        final Path file = journalRecovery.getFile.apply(fileNum);
+                        if (fileNum != lastNum && !Files.exists(file)) {
+                            continue;
                         }
+                        final JournalReader fileReader = fileNum == lastNum ? reader : new JournalReader(broker, file, fileNum);
+                        try {
+                            next = fileReader == reader ? reader.previousEntry() : fileReader.lastEntry();
+                            for (; next != null; next = fileReader.previousEntry()) {
+                                entryRead(next);
+                                if (next.getLogType() == LogEntryTypes.TXN_START) {
+                                    if (runningTxns.get(next.getTransactionId()) != null) {
+                                        runningTxns.remove(next.getTransactionId());
+                                        if (runningTxns.size() == 0)
+                                            // all dirty transactions undone
+                                            {break undo;}
+                                    }
+                                } else if (next.getLogType() == LogEntryTypes.TXN_COMMIT) {
+                                    // ignore already committed transaction
+                                } else if (next.getLogType() == LogEntryTypes.CHECKPOINT) {
+                                    // found a regular checkpoint: undo is completed. Transactions running
+                                    // at a fuzzy checkpoint started before it, so continue the scan.
+                                    if (!((Checkpoint) next).isFuzzy())
+                                        {break undo;}
+                                }
 
-                        // undo the log entry if it belongs to an uncommitted transaction
-                        if (runningTxns.get(next.getTransactionId()) != null) {
-    //					LOG.debug("Undo: " + next.dump());
-                            next.undo();
+                                // undo the log entry if it belongs to an uncommitted transaction
+                                if (runningTxns.get(next.getTransactionId()) != null) {
+        //					LOG.debug("Undo: " + next.dump());
+                                    next.undo();
+                                }
+                            }
+                        } finally {
+                            if (fileReader != reader) {
+                                fileReader.close();
+                            }
                         }
                     }
                 } catch (final Exception e) {
@@ -317,6 +421,27 @@ public class RecoveryManager {
         }
     }
     
+    private void entryRead(final Loggable entry) {
+        status.entryRead(entry.getLsn());
+        final long now = System.currentTimeMillis();
+        if (now - lastProgressLog >= PROGRESS_LOG_INTERVAL) {
+            if (lastProgressLog > 0) {
+                LOG.info("Recovery progress: " + status);
+            }
+            lastProgressLog = now;
+        }
+    }
+
+    private void registerMBean() {
+        final Agent agent = AgentFactory.getInstance();
+        final String instanceId = broker.getBrokerPool().getId();
+        try {
+            agent.addMBean(instanceId, "org.exist.management." + instanceId + ".tasks:type=Recovery", status);
+        } catch (final DatabaseConfigurationException e) {
+            LOG.warn("Exception while registering recovery mbean.", e);
+        }
+    }
+
 	private void cleanDirectory(final Stream<Path> files) {
         files.forEach(FileUtils::deleteQuietly);
 	}
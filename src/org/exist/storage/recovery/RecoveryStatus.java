@@ -0,0 +1,120 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.recovery;
+
+import net.jcip.annotations.ThreadSafe;
+import org.exist.storage.journal.Lsn;
+
+/**
+ * Progress of the crash recovery of a database instance. Written by the
+ * {@link RecoveryManager} and read by the JMX agent.
+ */
+@ThreadSafe
+public class RecoveryStatus implements RecoveryStatusMXBean {
+
+    private volatile boolean running = false;
+    private volatile String phase = null;
+    private volatile int redoThreads = 1;
+    private volatile long startTime = 0;
+    private volatile long endTime = 0;
+    private volatile long phaseStartTime = 0;
+    private volatile long lsn = Lsn.LSN_INVALID;
+    private volatile long lastLsn = Lsn.LSN_INVALID;
+
+    // only written by the recovery thread
+    private volatile long entries = 0;
+
+    void start(final int redoThreads) {
+        this.redoThreads = redoThreads;
+        this.startTime = System.currentTimeMillis();
+        this.endTime = 0;
+        this.running = true;
+    }
+
+    void end() {
+        running = false;
+        endTime = System.currentTimeMillis();
+    }
+
+    void startPhase(final String phase) {
+        this.phase = phase;
+        this.phaseStartTime = System.currentTimeMillis();
+        this.entries = 0;
+    }
+
+    void setLastLsn(final long lastLsn) {
+        this.lastLsn = lastLsn;
+    }
+
+    void entryRead(final long lsn) {
+        this.lsn = lsn;
+        entries++;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public String getPhase() {
+        return phase;
+    }
+
+    @Override
+    public int getRedoThreads() {
+        return redoThreads;
+    }
+
+    @Override
+    public long getElapsedTime() {
+        if (startTime == 0) {
+            return 0;
+        }
+        return (running ? System.currentTimeMillis() : endTime) - startTime;
+    }
+
+    @Override
+    public String getLsn() {
+        return Lsn.dump(lsn);
+    }
+
+    @Override
+    public String getLastLsn() {
+        return Lsn.dump(lastLsn);
+    }
+
+    @Override
+    public long getEntries() {
+        return entries;
+    }
+
+    @Override
+    public long getEntriesPerSecond() {
+        final long elapsed = (running ? System.currentTimeMillis() : endTime) - phaseStartTime;
+        return elapsed <= 0 ? 0 : entries * 1000 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return phase + " at " + getLsn() + " of " + getLastLsn() + ": " + entries + " entries, " +
+                getEntriesPerSecond() + " entries/s";
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.recovery;
+
+/**
+ * Progress of the crash recovery, which runs while the database is starting.
+ */
+public interface RecoveryStatusMXBean {
+
+    boolean isRunning();
+
+    /**
+     * @return the pass of the recovery: scan, redo or undo
+     */
+    String getPhase();
+
+    int getRedoThreads();
+
+    long getElapsedTime();
+
+    /**
+     * @return the LSN of the journal entry last read by the current pass
+     */
+    String getLsn();
+
+    /**
+     * @return the LSN of the last readable journal entry
+     */
+    String getLastLsn();
+
+    /**
+     * @return the number of journal entries read by the current pass
+     */
+    long getEntries();
+
+    /**
+     * @return the number of journal entries read per second by the current pass
+     */
+    long getEntriesPerSecond();
+}
@@ -88,8 +88,8 @@ public class XIncludeFilter implements Receiver {
 
     private static final QName HREF_ATTRIB = new QName("href", XMLConstants.NULL_NS_URI);
     private static final QName XPOINTER_ATTRIB = new QName("xpointer", XMLConstants.NULL_NS_URI);
-    private static final String XI_INCLUDE = "include";
-    private static final String XI_FALLBACK = "fallback";
+    public static final String XI_INCLUDE = "include";
+    public static final String XI_FALLBACK = "fallback";
 
     private static class ResourceError {
         private final String message;
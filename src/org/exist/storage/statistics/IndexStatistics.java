@@ -71,11 +71,11 @@ public class IndexStatistics extends AbstractIndex implements RawBackupSupport {
         return dataGuide.getMaxParentDepth(qname);
     }
 
-    protected void mergeStats(DataGuide other) {
+    protected synchronized void mergeStats(DataGuide other) {
         dataGuide = other.mergeInto(dataGuide);
     }
 
-    protected void updateStats(DataGuide newGuide) {
+    protected synchronized void updateStats(DataGuide newGuide) {
         dataGuide = newGuide;
     }
 
@@ -109,7 +109,7 @@ public class IndexStatistics extends AbstractIndex implements RawBackupSupport {
     public void close() throws DBException {
     }
 
-    public void sync() throws DBException {
+    public synchronized void sync() throws DBException {
         try(final SeekableByteChannel chan = Files.newByteChannel(dataFile,StandardOpenOption.WRITE)) {
             dataGuide.write(chan, getBrokerPool().getSymbols());
         } catch (final IOException e) {
@@ -22,7 +22,9 @@ package org.exist.storage.structural;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.dom.TypedQNameComparator;
+import org.exist.dom.persistent.AbstractArrayNodeSet;
 import org.exist.dom.persistent.AttrImpl;
+import org.exist.dom.persistent.BitmapDocumentSet;
 import org.exist.dom.persistent.NodeProxy;
 import org.exist.dom.QName;
 import org.exist.dom.persistent.ElementImpl;
@@ -31,6 +33,7 @@ import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.IStoredNode;
 import org.exist.dom.persistent.SymbolTable;
 import org.exist.dom.persistent.NewArrayNodeSet;
+import org.exist.dom.persistent.PackedNodeSet;
 import org.exist.dom.persistent.ExtNodeSet;
 import org.exist.dom.persistent.NodeSet;
 import org.exist.collections.Collection;
@@ -106,8 +109,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
 
     public NodeSet findElementsByTagName(byte type, DocumentSet docs, QName qname, NodeSelector selector, Expression parent) {
         final Lock lock = index.btree.getLock();
-        final NewArrayNodeSet result = new NewArrayNodeSet();
-        final FindElementsCallback callback = new FindElementsCallback(type, qname, result, docs, selector, parent);
+        final FindElementsCallback callback = new FindElementsCallback(type, qname, docs, selector, parent);
 
         // for each document id range, scan the index to find matches
         for (final Range range : getDocIdRanges(docs)) {
@@ -127,7 +129,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                 lock.release(LockMode.READ_LOCK);
             }
         }
-        return result;
+        return callback.result;
     }
 
     /**
@@ -139,15 +141,14 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     List<Range> getDocIdRanges(final DocumentSet docs) {
         final List<Range> ranges = new ArrayList<>();
         Range next = null;
-        for (final Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
-            final DocumentImpl doc = i.next();
-            if (next == null) {
-                next = new Range(doc.getDocId());
-            } else if (next.end + 1 == doc.getDocId()) {
-                next.end++;
-            } else {
-                ranges.add(next);
-                next = new Range(doc.getDocId());
+        if (docs instanceof BitmapDocumentSet) {
+            // the ids are known without looking up the documents
+            for (final PrimitiveIterator.OfInt i = ((BitmapDocumentSet) docs).getDocIds().iterator(); i.hasNext(); ) {
+                next = addToRange(ranges, next, i.nextInt());
+            }
+        } else {
+            for (final Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
+                next = addToRange(ranges, next, i.next().getDocId());
             }
         }
         if (next != null) {
@@ -157,6 +158,18 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         return ranges;
     }
 
+    private static Range addToRange(final List<Range> ranges, final Range current, final int docId) {
+        if (current == null) {
+            return new Range(docId);
+        } else if (current.end + 1 == docId) {
+            current.end++;
+            return current;
+        } else {
+            ranges.add(current);
+            return new Range(docId);
+        }
+    }
+
     /**
      * Internal helper class used by
      * {@link NativeStructuralIndexWorker#findElementsByTagName(byte, org.exist.dom.persistent.DocumentSet, org.exist.dom.QName, org.exist.xquery.NodeSelector)}.
@@ -305,13 +318,12 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         byte type;
         QName qname;
         DocumentSet docs;
-        NewArrayNodeSet result;
+        AbstractArrayNodeSet result;
         NodeSelector selector;
         Expression parent;
 
-        FindElementsCallback(byte type, QName qname, NewArrayNodeSet result, DocumentSet docs, NodeSelector selector, Expression parent) {
+        FindElementsCallback(byte type, QName qname, DocumentSet docs, NodeSelector selector, Expression parent) {
             this.type = type;
-            this.result = result;
             this.docs = docs;
             this.selector = selector;
             this.parent = parent;
@@ -320,6 +332,8 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             } else {
                 this.qname = qname;
             }
+            // without a selector, the result is only used for joins and can be kept packed
+            this.result = selector == null ? new PackedNodeSet(this.qname) : new NewArrayNodeSet();
         }
 
         public boolean indexInfo(Value value, long pointer) throws TerminatedException {
@@ -331,12 +345,8 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             final DocumentImpl doc = docs.getDoc(readDocId(key));
             if (doc != null) {
                 if (selector == null) {
-                    final NodeProxy storedNode = new NodeProxy(doc, nodeId,
+                    ((PackedNodeSet) result).add(doc, nodeId,
                         type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE, pointer);
-                    if (qname != null) {
-                        storedNode.setQName(qname);
-                    }
-                    result.add(storedNode);
                 } else {
                     final NodeProxy storedNode = selector.match(doc, nodeId);
                     if (storedNode != null) {
@@ -0,0 +1,229 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.sync;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.BrokerPoolService;
+import org.exist.storage.DBBroker;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.util.Configuration;
+import org.exist.util.FileUtils;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes dirty pages to disk in the background and creates fuzzy checkpoints.
+ * <p>
+ * A regular checkpoint needs the database to be idle: under continuous load,
+ * the major sync is deferred again and again while the journal grows. With
+ * fuzzy checkpoints enabled, the page cleaner writes a few dirty pages of
+ * each database file at every round, skipping the files which are locked by
+ * a broker. When a checkpoint is due, it takes the redo LSN, writes all dirty
+ * pages and journals a fuzzy checkpoint with the running transactions, while
+ * the other brokers continue to work.
+ * <p>
+ * Pages are written through {@link org.exist.storage.cache.Cacheable#sync(boolean)},
+ * which flushes the journal first if it has not been written up to the LSN of
+ * the page.
+ */
+public class PageCleaner implements BrokerPoolService, Runnable {
+
+    private final static Logger LOG = LogManager.getLogger(PageCleaner.class);
+
+    public static final String RECOVERY_FUZZY_CHECKPOINTS_ATTRIBUTE = "fuzzy-checkpoints";
+    public static final String PROPERTY_RECOVERY_FUZZY_CHECKPOINTS = "db-connection.recovery.fuzzy-checkpoints";
+
+    public static final String RECOVERY_PAGE_CLEANER_INTERVAL_ATTRIBUTE = "page-cleaner-interval";
+    public static final String PROPERTY_RECOVERY_PAGE_CLEANER_INTERVAL = "db-connection.recovery.page-cleaner-interval";
+
+    public static final String RECOVERY_PAGE_CLEANER_PAGES_ATTRIBUTE = "page-cleaner-pages";
+    public static final String PROPERTY_RECOVERY_PAGE_CLEANER_PAGES = "db-connection.recovery.page-cleaner-pages";
+
+    public static final long DEFAULT_INTERVAL = 1000; //ms
+    public static final int DEFAULT_PAGES = 128;
+
+    private final Set<BTree> files = ConcurrentHashMap.newKeySet();
+
+    private boolean enabled = false;
+    private long interval = DEFAULT_INTERVAL;
+    private int maxPages = DEFAULT_PAGES;
+
+    private BrokerPool pool = null;
+    private Thread thread = null;
+
+    // guarded by this
+    private boolean running = false;
+    private boolean checkpointRequested = false;
+
+    @Override
+    public void configure(final Configuration configuration) {
+        this.enabled = configuration.getProperty(BrokerPool.PROPERTY_RECOVERY_ENABLED, false) &&
+                configuration.getProperty(PROPERTY_RECOVERY_FUZZY_CHECKPOINTS, false);
+        this.interval = configuration.getProperty(PROPERTY_RECOVERY_PAGE_CLEANER_INTERVAL, DEFAULT_INTERVAL);
+        this.maxPages = configuration.getProperty(PROPERTY_RECOVERY_PAGE_CLEANER_PAGES, DEFAULT_PAGES);
+    }
+
+    @Override
+    public void prepare(final BrokerPool brokerPool) {
+        this.pool = brokerPool;
+    }
+
+    @Override
+    public void startMultiUser(final BrokerPool brokerPool) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            running = true;
+        }
+        thread = new Thread(this, "page-cleaner-" + brokerPool.getId());
+        thread.setDaemon(true);
+        thread.start();
+        LOG.info("Fuzzy checkpoints enabled. Page cleaner writes up to " + maxPages + " pages per file every " + interval + "ms");
+    }
+
+    @Override
+    public void stop(final BrokerPool brokerPool) {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            notifyAll();
+        }
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * @return true if checkpoints are created by the page cleaner while the database is busy
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Add a database file to the files whose dirty pages are written in the background.
+     *
+     * @param file the database file
+     */
+    public void register(final BTree file) {
+        if (enabled) {
+            files.add(file);
+        }
+    }
+
+    /**
+     * Remove a database file which is closed.
+     *
+     * @param file the database file
+     */
+    public void deregister(final BTree file) {
+        files.remove(file);
+    }
+
+    /**
+     * Request a fuzzy checkpoint. The checkpoint is created by the page cleaner
+     * thread, so this method returns immediately.
+     */
+    public synchronized void requestCheckpoint() {
+        checkpointRequested = true;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            final boolean checkpoint;
+            synchronized (this) {
+                if (running && !checkpointRequested) {
+                    try {
+                        wait(interval);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                checkpoint = checkpointRequested ||
+                        System.currentTimeMillis() - pool.getLastMajorSync() > pool.getMajorSyncPeriod();
+                checkpointRequested = false;
+            }
+
+            if (BrokerPool.FORCE_CORRUPTION || !pool.isOperational()) {
+                continue;
+            }
+            if (checkpoint) {
+                checkpoint();
+            } else {
+                writeDirtyPages();
+            }
+        }
+    }
+
+    /**
+     * Write up to {@link #maxPages} dirty pages of each file which is not locked.
+     */
+    private void writeDirtyPages() {
+        int written = 0;
+        for (final BTree file : files) {
+            final Lock lock = file.getLock();
+            if (lock == null || !lock.attempt(LockMode.WRITE_LOCK)) {
+                continue;
+            }
+            try {
+                written += file.flushDirtyPages(maxPages);
+            } catch (final RuntimeException e) {
+                LOG.warn("Failed to write dirty pages of " + FileUtils.fileName(file.getFile()) + ": " + e.getMessage(), e);
+            } finally {
+                lock.release(LockMode.WRITE_LOCK);
+            }
+        }
+        if (written > 0 && LOG.isTraceEnabled()) {
+            LOG.trace(written + " dirty pages written");
+        }
+    }
+
+    private void checkpoint() {
+        final long start = System.currentTimeMillis();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            pool.fuzzySync(broker);
+        } catch (final EXistException e) {
+            LOG.warn("Failed to create a fuzzy checkpoint: " + e.getMessage(), e);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Fuzzy checkpoint took " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+}
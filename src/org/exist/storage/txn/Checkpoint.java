@@ -27,13 +27,28 @@ import java.util.Date;
 import org.exist.storage.DBBroker;
 import org.exist.storage.journal.AbstractLoggable;
 import org.exist.storage.journal.LogEntryTypes;
+import org.exist.storage.journal.Lsn;
+import org.exist.util.hashtable.Long2LongHashMap;
 
 /**
+ * Checkpoint record. A regular checkpoint is written while no transaction
+ * is running, after all dirty pages have been written: recovery starts at
+ * the checkpoint.
+ *
+ * A fuzzy checkpoint is written while transactions are running. It records
+ * the redo LSN, i.e. the LSN of the first journal entry written after the
+ * checkpoint started flushing the dirty pages, and the transactions which
+ * were running, with the LSN of their start entry. Recovery redoes the
+ * journal from the redo LSN and undoes the running transactions, scanning
+ * back to their start.
+ *
  * @author wolf
  */
 public class Checkpoint extends AbstractLoggable {
 	private long timestamp;
 	private long storedLsn;
+	private long redoLsn = Lsn.LSN_INVALID;
+	private Long2LongHashMap activeTxns = new Long2LongHashMap(0, Lsn.LSN_INVALID);
 	
 	private final DateFormat df =
 		DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM);
@@ -46,26 +61,78 @@ public class Checkpoint extends AbstractLoggable {
         super(LogEntryTypes.CHECKPOINT, transactionId);
 		timestamp = new Date().getTime();
     }
+
+    /**
+     * Create a fuzzy checkpoint.
+     *
+     * @param transactionId the id of the checkpoint
+     * @param redoLsn the LSN from which recovery has to redo the journal
+     * @param activeTxns the running transactions, mapped to the LSN of their start entry
+     */
+    public Checkpoint(final long transactionId, final long redoLsn, final Long2LongHashMap activeTxns) {
+        this(null, transactionId);
+        this.redoLsn = redoLsn;
+        this.activeTxns = activeTxns;
+    }
     
     @Override
     public void write(final ByteBuffer out) {
     	out.putLong(lsn);
 		out.putLong(timestamp);
+		if (isFuzzy()) {
+			out.putLong(redoLsn);
+			out.putInt(activeTxns.size());
+			activeTxns.forEach((txnId, startLsn) -> {
+				out.putLong(txnId);
+				out.putLong(startLsn);
+			});
+		}
     }
 
     @Override
     public void read(final ByteBuffer in) {
     	storedLsn = in.getLong();
 		timestamp = in.getLong();
+		// the payload is followed by the 2 byte back-link
+		if (in.remaining() > 2) {
+			redoLsn = in.getLong();
+			final int count = in.getInt();
+			activeTxns = new Long2LongHashMap(count, Lsn.LSN_INVALID);
+			for (int i = 0; i < count; i++) {
+				activeTxns.put(in.getLong(), in.getLong());
+			}
+		}
     }
 
     public long getStoredLsn() {
     	return storedLsn;
     }
+
+    /**
+     * @return true if transactions were running while the checkpoint was written
+     */
+    public boolean isFuzzy() {
+        return redoLsn != Lsn.LSN_INVALID;
+    }
+
+    /**
+     * @return the LSN from which recovery has to redo the journal,
+     * or {@link Lsn#LSN_INVALID} for a regular checkpoint
+     */
+    public long getRedoLsn() {
+        return redoLsn;
+    }
+
+    /**
+     * @return the transactions running at the checkpoint, mapped to the LSN of their start entry
+     */
+    public Long2LongHashMap getActiveTransactions() {
+        return activeTxns;
+    }
     
     @Override
     public int getLogSize() {
-        return 16;
+        return isFuzzy() ? 28 + 16 * activeTxns.size() : 16;
     }
 
     public String getDateString() {
@@ -74,6 +141,18 @@ public class Checkpoint extends AbstractLoggable {
 
     @Override
 	public String dump() {
-		return super.dump() + " - checkpoint at " + df.format(new Date(timestamp));
+		return super.dump() + " - " + (isFuzzy() ? "fuzzy checkpoint, redo from " + Lsn.dump(redoLsn) +
+			", running transactions: " + activeTxnIds() + "," : "checkpoint") + " at " + df.format(new Date(timestamp));
+	}
+
+	private String activeTxnIds() {
+		final StringBuilder ids = new StringBuilder("[");
+		activeTxns.forEach((txnId, startLsn) -> {
+			if (ids.length() > 1) {
+				ids.append(", ");
+			}
+			ids.append(txnId);
+		});
+		return ids.append(']').toString();
 	}
 }
@@ -29,14 +29,16 @@ import org.exist.security.PermissionDeniedException;
 import org.exist.storage.*;
 import org.exist.storage.journal.JournalException;
 import org.exist.storage.journal.JournalManager;
+import org.exist.storage.journal.Lsn;
+import org.exist.util.hashtable.Long2LongHashMap;
 import org.exist.xmldb.XmldbURI;
 
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
@@ -59,6 +61,11 @@ public class TransactionManager implements BrokerPoolService {
      */
     private static final Logger LOG = LogManager.getLogger(TransactionManager.class);
 
+    /**
+     * The maximum number of running transactions a fuzzy checkpoint record can hold
+     */
+    private static final int MAX_CHECKPOINT_TXNS = 2000;
+
     private long nextTxnId = 0;
 
     private final BrokerPool pool;
@@ -66,7 +73,7 @@ public class TransactionManager implements BrokerPoolService {
 
     private final SystemTaskManager systemTaskManager;
 
-    private final Map<Long, TxnCounter> transactions = new HashMap<>();
+    private final Map<Long, TxnCounter> transactions = new ConcurrentHashMap<>();
 
     private final Lock lock = new ReentrantLock();
 
@@ -96,16 +103,17 @@ public class TransactionManager implements BrokerPoolService {
                 LOG.debug("Starting new transaction: " + txnId);
             }
 
+            final TxnStart startRecord = new TxnStart(txnId);
             if(journalManager.isPresent()) {
                 try {
-                    journalManager.get().journal(new TxnStart(txnId));
+                    journalManager.get().journal(startRecord);
                 } catch(final JournalException e) {
                     LOG.error("Failed to create transaction. Error writing to log file.", e);
                 }
             }
 
             final Txn txn = new Txn(TransactionManager.this, txnId);
-            transactions.put(txn.getId(), new TxnCounter());
+            transactions.put(txn.getId(), new TxnCounter(startRecord.getLsn()));
             return txn;
         });
     }
@@ -123,10 +131,11 @@ public class TransactionManager implements BrokerPoolService {
             return;
         }
 
+        final TxnCommit commitRecord = new TxnCommit(txn.getId());
         withLock(broker -> {
             if(journalManager.isPresent()) {
                 try {
-                    journalManager.get().journalGroup(new TxnCommit(txn.getId()));
+                    journalManager.get().journalGroup(commitRecord);
                 } catch(final JournalException e) {
                     LOG.error("Failed to write commit record to journal: " + e.getMessage());
                 }
@@ -140,6 +149,15 @@ public class TransactionManager implements BrokerPoolService {
                 LOG.debug("Committed transaction: " + txn.getId());
             }
         });
+
+        // with group commit, wait for the commit record outside of the lock so that other transactions can join the group
+        if(journalManager.isPresent()) {
+            try {
+                journalManager.get().awaitDurable(commitRecord.getLsn());
+            } catch(final JournalException e) {
+                LOG.error("Failed to wait for commit record to be written to journal: " + e.getMessage());
+            }
+        }
     }
 	
     public void abort(final Txn txn) {
@@ -204,6 +222,14 @@ public class TransactionManager implements BrokerPoolService {
         }
     }
 
+    /**
+     * @return the number of transactions which have been started
+     * but not yet committed or aborted
+     */
+    public int getActiveTransactionCount() {
+        return transactions.size();
+    }
+
     public Lock getLock() {
         return lock;
     }
@@ -232,6 +258,44 @@ public class TransactionManager implements BrokerPoolService {
         }
     }
 
+    /**
+     * Create a new fuzzy checkpoint, while transactions may be running. The
+     * checkpoint records the running transactions, so recovery knows which
+     * ones have to be undone.
+     *
+     * This method is called from {@link org.exist.storage.sync.PageCleaner}
+     * after all pages which were dirty when the redo LSN was taken have been
+     * written to disk.
+     *
+     * @param redoLsn The LSN from which recovery has to redo the journal
+     *
+     * @throws TransactionException
+     */
+    public void checkpoint(final long redoLsn) throws TransactionException {
+        if(!journalManager.isPresent()) {
+            return;
+        }
+        final TransactionException error = withLock(broker -> {
+            if (transactions.size() > MAX_CHECKPOINT_TXNS) {
+                LOG.warn("Skipping fuzzy checkpoint: too many running transactions (" + transactions.size() + ")");
+                return null;
+            }
+            final Long2LongHashMap activeTxns = new Long2LongHashMap(transactions.size(), Lsn.LSN_INVALID);
+            for (final Map.Entry<Long, TxnCounter> entry : transactions.entrySet()) {
+                activeTxns.put(entry.getKey(), entry.getValue().startLsn);
+            }
+            try {
+                journalManager.get().checkpoint(nextTxnId++, redoLsn, activeTxns);
+                return null;
+            } catch(final JournalException e) {
+                return new TransactionException(e.getMessage(), e);
+            }
+        });
+        if (error != null) {
+            throw error;
+        }
+    }
+
     /**
      * @Deprecated This mixes concerns and should not be here.
      */
@@ -345,7 +409,13 @@ public class TransactionManager implements BrokerPoolService {
      * during shutdown.
      */
     protected final static class TxnCounter {
+        final long startLsn;
         int counter = 0;
+
+        TxnCounter(final long startLsn) {
+            this.startLsn = startLsn;
+        }
+
         public void increment() {
             counter++;
         }
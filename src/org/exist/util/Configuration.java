@@ -38,12 +38,15 @@ import org.xml.sax.XMLReader;
 
 import org.exist.Indexer;
 import org.exist.indexing.IndexManager;
+import org.exist.dom.memtree.DocumentImpl;
 import org.exist.dom.memtree.SAXAdapter;
 import org.exist.scheduler.JobConfig;
 import org.exist.scheduler.JobException;
 import org.exist.security.internal.RealmImpl;
+import org.exist.storage.BlobStore;
 import org.exist.storage.BrokerFactory;
 import org.exist.storage.BrokerPool;
+import org.exist.storage.CacheManager;
 import org.exist.storage.CollectionCacheManager;
 import org.exist.storage.DBBroker;
 import org.exist.storage.DefaultCacheManager;
@@ -51,14 +54,20 @@ import org.exist.storage.IndexSpec;
 import org.exist.storage.NativeBroker;
 import org.exist.storage.NativeValueIndex;
 import org.exist.storage.XQueryPool;
+import org.exist.storage.btree.PageIO;
+import org.exist.storage.btree.Paged;
+import org.exist.storage.cache.SegmentedCache;
 import org.exist.storage.journal.Journal;
+import org.exist.storage.recovery.RecoveryManager;
 import org.exist.storage.serializers.CustomMatchListenerFactory;
 import org.exist.storage.serializers.Serializer;
+import org.exist.storage.sync.PageCleaner;
 import org.exist.storage.txn.TransactionManager;
 import org.exist.validation.GrammarPool;
 import org.exist.validation.resolver.eXistXMLCatalogResolver;
 import org.exist.xmldb.DatabaseImpl;
 import org.exist.xquery.FunctionFactory;
+import org.exist.xquery.GroupByClause;
 import org.exist.xquery.PerformanceStats;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.XQueryWatchDog;
@@ -329,6 +338,23 @@ public class Configuration implements ErrorHandler
         config.put( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL, Configuration.parseBoolean( raiseErrorOnFailedRetrieval, XQueryContext.XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_DEFAULT ) );
         LOG.debug( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL + ": " + config.get( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL ) );
 
+        final String groupSpillThreshold = getConfigAttributeValue( xquery, GroupByClause.GROUP_BY_SPILL_THRESHOLD_ATTRIBUTE );
+        if( groupSpillThreshold != null ) {
+            try {
+                config.put( GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD, Integer.valueOf( groupSpillThreshold ) );
+                LOG.debug( GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD + ": " + config.get( GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
+        final String memtreeStorage = getConfigAttributeValue( xquery, DocumentImpl.MEMTREE_STORAGE_ATTRIBUTE );
+        if( memtreeStorage != null ) {
+            config.put( DocumentImpl.PROPERTY_MEMTREE_STORAGE, memtreeStorage );
+            LOG.debug( DocumentImpl.PROPERTY_MEMTREE_STORAGE + ": " + config.get( DocumentImpl.PROPERTY_MEMTREE_STORAGE ) );
+        }
+
         final String trace = getConfigAttributeValue( xquery, PerformanceStats.CONFIG_ATTR_TRACE );
         config.put( PerformanceStats.CONFIG_PROPERTY_TRACE, trace );
 
@@ -915,6 +941,12 @@ public class Configuration implements ErrorHandler
         if (docIds != null) {
         	config.put(BrokerPool.DOC_ID_MODE_PROPERTY, docIds);
         }
+
+        final String binaryStore = getConfigAttributeValue( con, BlobStore.BINARY_STORE_ATTRIBUTE );
+        if( binaryStore != null ) {
+            config.put( BlobStore.PROPERTY_BINARY_STORE, binaryStore );
+            LOG.debug( BlobStore.PROPERTY_BINARY_STORE + ": " + config.get( BlobStore.PROPERTY_BINARY_STORE ) );
+        }
         
         //Unused !
         final String buffers = getConfigAttributeValue( con, "buffers" );
@@ -992,6 +1024,18 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final NodeList pageIOConf = con.getElementsByTagName( Paged.CONFIGURATION_PAGE_IO_ELEMENT_NAME );
+
+        if( pageIOConf.getLength() > 0 ) {
+            configurePageIO( (Element)pageIOConf.item( 0 ) );
+        }
+
+        final NodeList pageCacheConf = con.getElementsByTagName( SegmentedCache.CONFIGURATION_ELEMENT_NAME );
+
+        if( pageCacheConf.getLength() > 0 ) {
+            configurePageCaches( pageCacheConf );
+        }
+
         final NodeList securityConf             = con.getElementsByTagName( BrokerPool.CONFIGURATION_SECURITY_ELEMENT_NAME );
         String   securityManagerClassName = BrokerPool.DEFAULT_SECURITY_CLASS;
 
@@ -1065,6 +1109,81 @@ public class Configuration implements ErrorHandler
     }
 
 
+    private void configurePageIO( final Element pageIO ) throws DatabaseConfigurationException
+    {
+        final String defaultMode = getConfigAttributeValue( pageIO, Paged.PAGE_IO_DEFAULT_ATTRIBUTE );
+
+        if( defaultMode != null ) {
+
+            if( PageIO.Mode.fromName( defaultMode ) == null ) {
+                throw( new DatabaseConfigurationException( "Unknown page I/O mode: " + defaultMode ) );
+            }
+            config.put( Paged.PROPERTY_PAGE_IO_DEFAULT, defaultMode );
+            LOG.debug( Paged.PROPERTY_PAGE_IO_DEFAULT + ": " + config.get( Paged.PROPERTY_PAGE_IO_DEFAULT ) );
+        }
+
+        final Map<String, String> fileModes = new HashMap<>();
+        final NodeList files = pageIO.getElementsByTagName( Paged.CONFIGURATION_PAGE_IO_FILE_ELEMENT_NAME );
+
+        for( int i = 0; i < files.getLength(); i++ ) {
+            final Element file = (Element)files.item( i );
+            final String name = getConfigAttributeValue( file, Paged.PAGE_IO_FILE_NAME_ATTRIBUTE );
+            final String mode = getConfigAttributeValue( file, Paged.PAGE_IO_FILE_MODE_ATTRIBUTE );
+
+            if( name == null || mode == null ) {
+                throw( new DatabaseConfigurationException( "page-io file configuration requires a name and a mode attribute" ) );
+            }
+
+            if( PageIO.Mode.fromName( mode ) == null ) {
+                throw( new DatabaseConfigurationException( "Unknown page I/O mode for " + name + ": " + mode ) );
+            }
+            fileModes.put( name, mode );
+        }
+        config.put( Paged.PROPERTY_PAGE_IO_FILES, fileModes );
+        LOG.debug( Paged.PROPERTY_PAGE_IO_FILES + ": " + config.get( Paged.PROPERTY_PAGE_IO_FILES ) );
+    }
+
+
+    private void configurePageCaches( final NodeList pageCaches ) throws DatabaseConfigurationException
+    {
+        final Map<String, Integer> segments = new HashMap<>();
+
+        for( int i = 0; i < pageCaches.getLength(); i++ ) {
+            final Element pageCache = (Element)pageCaches.item( i );
+            final String type = getConfigAttributeValue( pageCache, SegmentedCache.TYPE_ATTRIBUTE );
+            final String implementation = getConfigAttributeValue( pageCache, SegmentedCache.IMPLEMENTATION_ATTRIBUTE );
+
+            if( !CacheManager.BTREE_CACHE.equals( type ) && !CacheManager.DATA_CACHE.equals( type ) ) {
+                throw( new DatabaseConfigurationException( "Unknown page cache type: " + type ) );
+            }
+
+            if( implementation == null || SegmentedCache.IMPLEMENTATION_DEFAULT.equals( implementation ) ) {
+                continue;
+            }
+
+            if( !SegmentedCache.IMPLEMENTATION_SEGMENTED.equals( implementation ) ) {
+                throw( new DatabaseConfigurationException( "Unknown page cache implementation for " + type + ": " + implementation ) );
+            }
+
+            int count = SegmentedCache.getDefaultSegments();
+            final String option = getConfigAttributeValue( pageCache, SegmentedCache.SEGMENTS_ATTRIBUTE );
+
+            if( option != null ) {
+
+                try {
+                    count = Integer.parseInt( option );
+                }
+                catch( final NumberFormatException e ) {
+                    throw( new DatabaseConfigurationException( "segments for page cache " + type + " must be a number: " + option ) );
+                }
+            }
+            segments.put( type, Math.max( 1, count ) );
+        }
+        config.put( SegmentedCache.PROPERTY_SEGMENTS, segments );
+        LOG.debug( SegmentedCache.PROPERTY_SEGMENTS + ": " + config.get( SegmentedCache.PROPERTY_SEGMENTS ) );
+    }
+
+
     private void configureRecovery( final Optional<Path> dbHome, Element recovery ) throws DatabaseConfigurationException
     {
         String option = getConfigAttributeValue( recovery, BrokerPool.RECOVERY_ENABLED_ATTRIBUTE );
@@ -1079,6 +1198,86 @@ public class Configuration implements ErrorHandler
         setProperty( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, parseBoolean( option, false ) );
         LOG.debug( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT + ": " + config.get( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT ) );
 
+        option = getConfigAttributeValue( recovery, Journal.RECOVERY_GROUP_COMMIT_THREAD_ATTRIBUTE );
+        setProperty( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_THREAD, parseBoolean( option, false ) );
+        LOG.debug( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_THREAD + ": " + config.get( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_THREAD ) );
+
+        option = getConfigAttributeValue( recovery, Journal.RECOVERY_GROUP_COMMIT_LATENCY_ATTRIBUTE );
+
+        if( option != null ) {
+
+            if( option.endsWith( "ms" ) ) {
+                option = option.substring( 0, option.length() - 2 );
+            }
+
+            try {
+                setProperty( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_LATENCY, Integer.valueOf( option ) );
+                LOG.debug( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_LATENCY + ": " + config.get( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_LATENCY ) + "ms" );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "group-commit-latency attribute in recovery section needs to be a number" ) );
+            }
+        }
+
+        option = getConfigAttributeValue( recovery, PageCleaner.RECOVERY_FUZZY_CHECKPOINTS_ATTRIBUTE );
+        setProperty( PageCleaner.PROPERTY_RECOVERY_FUZZY_CHECKPOINTS, parseBoolean( option, false ) );
+        LOG.debug( PageCleaner.PROPERTY_RECOVERY_FUZZY_CHECKPOINTS + ": " + config.get( PageCleaner.PROPERTY_RECOVERY_FUZZY_CHECKPOINTS ) );
+
+        option = getConfigAttributeValue( recovery, PageCleaner.RECOVERY_PAGE_CLEANER_INTERVAL_ATTRIBUTE );
+
+        if( option != null ) {
+
+            if( option.endsWith( "ms" ) ) {
+                option = option.substring( 0, option.length() - 2 );
+            }
+
+            try {
+                final long value = Long.valueOf( option );
+                if( value <= 0 ) {
+                    throw( new DatabaseConfigurationException( "page-cleaner-interval attribute in recovery section must be greater than 0" ) );
+                }
+                setProperty( PageCleaner.PROPERTY_RECOVERY_PAGE_CLEANER_INTERVAL, value );
+                LOG.debug( PageCleaner.PROPERTY_RECOVERY_PAGE_CLEANER_INTERVAL + ": " + config.get( PageCleaner.PROPERTY_RECOVERY_PAGE_CLEANER_INTERVAL ) + "ms" );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "page-cleaner-interval attribute in recovery section needs to be a number" ) );
+            }
+        }
+
+        option = getConfigAttributeValue( recovery, PageCleaner.RECOVERY_PAGE_CLEANER_PAGES_ATTRIBUTE );
+
+        if( option != null ) {
+
+            try {
+                final int value = Integer.valueOf( option );
+                if( value <= 0 ) {
+                    throw( new DatabaseConfigurationException( "page-cleaner-pages attribute in recovery section must be greater than 0" ) );
+                }
+                setProperty( PageCleaner.PROPERTY_RECOVERY_PAGE_CLEANER_PAGES, value );
+                LOG.debug( PageCleaner.PROPERTY_RECOVERY_PAGE_CLEANER_PAGES + ": " + config.get( PageCleaner.PROPERTY_RECOVERY_PAGE_CLEANER_PAGES ) );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "page-cleaner-pages attribute in recovery section needs to be a number" ) );
+            }
+        }
+
+        option = getConfigAttributeValue( recovery, RecoveryManager.RECOVERY_REDO_THREADS_ATTRIBUTE );
+
+        if( option != null ) {
+
+            try {
+                final int value = Integer.valueOf( option );
+                if( value <= 0 ) {
+                    throw( new DatabaseConfigurationException( "redo-threads attribute in recovery section must be greater than 0" ) );
+                }
+                setProperty( RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS, value );
+                LOG.debug( RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS + ": " + config.get( RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS ) );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "redo-threads attribute in recovery section needs to be a number" ) );
+            }
+        }
+
         option = getConfigAttributeValue( recovery, Journal.RECOVERY_JOURNAL_DIR_ATTRIBUTE );
 
         if(option != null) {
@@ -1354,6 +1553,32 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String waitTimeout = getConfigAttributeValue( pool, BrokerPool.BROKER_WAIT_TIMEOUT_ATTRIBUTE );
+
+        if( waitTimeout != null ) {
+
+            try {
+                config.put( BrokerPool.PROPERTY_BROKER_WAIT_TIMEOUT, Long.valueOf(waitTimeout) );
+                LOG.debug( BrokerPool.PROPERTY_BROKER_WAIT_TIMEOUT + ": " + config.get( BrokerPool.PROPERTY_BROKER_WAIT_TIMEOUT ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
+        final String maxWaiting = getConfigAttributeValue( pool, BrokerPool.MAX_WAITING_ATTRIBUTE );
+
+        if( maxWaiting != null ) {
+
+            try {
+                config.put( BrokerPool.PROPERTY_MAX_WAITING, Integer.valueOf(maxWaiting) );
+                LOG.debug( BrokerPool.PROPERTY_MAX_WAITING + ": " + config.get( BrokerPool.PROPERTY_MAX_WAITING ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
         final String maxShutdownWait = getConfigAttributeValue( pool, BrokerPool.SHUTDOWN_DELAY_ATTRIBUTE );
 
         if( maxShutdownWait != null ) {
@@ -1398,6 +1623,19 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String reindexThreads = getConfigAttributeValue( indexer, NativeBroker.REINDEX_THREADS_ATTRIBUTE );
+
+        if( reindexThreads != null ) {
+
+            try {
+                config.put( NativeBroker.PROPERTY_REINDEX_THREADS, Integer.valueOf( reindexThreads ) );
+                LOG.debug( NativeBroker.PROPERTY_REINDEX_THREADS + ": " + config.get( NativeBroker.PROPERTY_REINDEX_THREADS ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
         final String suppressWS = getConfigAttributeValue( indexer, Indexer.SUPPRESS_WHITESPACE_ATTRIBUTE );
 
         if( suppressWS != null ) {
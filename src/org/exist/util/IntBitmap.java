@@ -0,0 +1,327 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A compressed set of non-negative int values, e.g. document ids.
+ * <p>
+ * Like a roaring bitmap, the values are split into chunks by their upper 16
+ * bits. A chunk with up to {@link #ARRAY_MAX} values keeps them in a sorted
+ * char array, a denser chunk in a bitmap of 8 KB. A sparse set thus needs
+ * about two bytes per value, a dense one a bit per value, and an empty
+ * range of ids nothing at all.
+ */
+@NotThreadSafe
+public class IntBitmap {
+
+    /**
+     * The maximum number of values in an array chunk. An array chunk
+     * of this size needs as much memory as a bitmap chunk.
+     */
+    static final int ARRAY_MAX = 4096;
+
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    // the upper 16 bits of the values of each chunk, sorted
+    private int keys[] = new int[4];
+    // a char[] or a long[] for each chunk
+    private Object chunks[] = new Object[4];
+    private int cardinalities[] = new int[4];
+    private int chunkCount = 0;
+    private int cardinality = 0;
+
+    /**
+     * Add a value to the set.
+     *
+     * @param value a non-negative value
+     * @return true if the value was not in the set before
+     */
+    public boolean add(final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        final int key = value >>> 16;
+        int idx = Arrays.binarySearch(keys, 0, chunkCount, key);
+        if (idx < 0) {
+            idx = -(idx + 1);
+            insertChunk(idx, key);
+        }
+        final char low = (char) value;
+        final Object chunk = chunks[idx];
+        if (chunk instanceof long[]) {
+            final long words[] = (long[]) chunk;
+            final long bit = 1L << low;
+            if ((words[low >>> 6] & bit) != 0) {
+                return false;
+            }
+            words[low >>> 6] |= bit;
+        } else {
+            char values[] = (char[]) chunk;
+            final int count = cardinalities[idx];
+            int pos = Arrays.binarySearch(values, 0, count, low);
+            if (pos >= 0) {
+                return false;
+            }
+            if (count == ARRAY_MAX) {
+                final long words[] = toBitmap(values, count);
+                words[low >>> 6] |= 1L << low;
+                chunks[idx] = words;
+            } else {
+                pos = -(pos + 1);
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, Math.min(ARRAY_MAX, count << 1));
+                    chunks[idx] = values;
+                }
+                System.arraycopy(values, pos, values, pos + 1, count - pos);
+                values[pos] = low;
+            }
+        }
+        cardinalities[idx]++;
+        cardinality++;
+        return true;
+    }
+
+    public boolean contains(final int value) {
+        if (value < 0) {
+            return false;
+        }
+        final int idx = Arrays.binarySearch(keys, 0, chunkCount, value >>> 16);
+        return idx >= 0 && contains(idx, (char) value);
+    }
+
+    private boolean contains(final int idx, final char low) {
+        final Object chunk = chunks[idx];
+        if (chunk instanceof long[]) {
+            return (((long[]) chunk)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) chunk, 0, cardinalities[idx], low) >= 0;
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * @return a new set with the values which are in this and the other set
+     */
+    public IntBitmap and(final IntBitmap other) {
+        final IntBitmap result = new IntBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < chunkCount && j < other.chunkCount) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                final int key = keys[i] << 16;
+                if (chunks[i] instanceof long[] && other.chunks[j] instanceof long[]) {
+                    final long a[] = (long[]) chunks[i];
+                    final long b[] = (long[]) other.chunks[j];
+                    for (int w = 0; w < BITMAP_WORDS; w++) {
+                        long word = a[w] & b[w];
+                        while (word != 0) {
+                            result.add(key | (w << 6) | Long.numberOfTrailingZeros(word));
+                            word &= word - 1;
+                        }
+                    }
+                } else {
+                    // iterate over the array chunk, which has fewer values
+                    final boolean thisIsArray = chunks[i] instanceof char[];
+                    final char values[] = (char[]) (thisIsArray ? chunks[i] : other.chunks[j]);
+                    final int count = thisIsArray ? cardinalities[i] : other.cardinalities[j];
+                    final IntBitmap probe = thisIsArray ? other : this;
+                    final int probeIdx = thisIsArray ? j : i;
+                    for (int k = 0; k < count; k++) {
+                        if (probe.contains(probeIdx, values[k])) {
+                            result.add(key | values[k]);
+                        }
+                    }
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if all values of the other set are in this set
+     */
+    public boolean containsAll(final IntBitmap other) {
+        if (other.cardinality > cardinality) {
+            return false;
+        }
+        for (int j = 0; j < other.chunkCount; j++) {
+            final int i = Arrays.binarySearch(keys, 0, chunkCount, other.keys[j]);
+            if (i < 0 || other.cardinalities[j] > cardinalities[i]) {
+                return false;
+            }
+            if (chunks[i] instanceof long[] && other.chunks[j] instanceof long[]) {
+                final long a[] = (long[]) chunks[i];
+                final long b[] = (long[]) other.chunks[j];
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    if ((a[w] & b[w]) != b[w]) {
+                        return false;
+                    }
+                }
+            } else {
+                for (final PrimitiveIterator.OfInt values = other.chunkIterator(j); values.hasNext(); ) {
+                    if (!contains(i, (char) values.nextInt())) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return an iterator over the values in ascending order
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int idx = 0;
+            private PrimitiveIterator.OfInt chunk = chunkCount > 0 ? chunkIterator(0) : null;
+
+            @Override
+            public boolean hasNext() {
+                while (chunk != null && !chunk.hasNext()) {
+                    chunk = ++idx < chunkCount ? chunkIterator(idx) : null;
+                }
+                return chunk != null;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return (keys[idx] << 16) | chunk.nextInt();
+            }
+        };
+    }
+
+    /**
+     * @return an iterator over the lower 16 bits of the values of a chunk
+     */
+    private PrimitiveIterator.OfInt chunkIterator(final int idx) {
+        final Object chunk = chunks[idx];
+        if (chunk instanceof long[]) {
+            final long words[] = (long[]) chunk;
+            return new PrimitiveIterator.OfInt() {
+                private int w = 0;
+                private long word = words[0];
+
+                @Override
+                public boolean hasNext() {
+                    while (word == 0 && w < BITMAP_WORDS - 1) {
+                        word = words[++w];
+                    }
+                    return word != 0;
+                }
+
+                @Override
+                public int nextInt() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final int value = (w << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    return value;
+                }
+            };
+        }
+        final char values[] = (char[]) chunk;
+        final int count = cardinalities[idx];
+        return new PrimitiveIterator.OfInt() {
+            private int pos = 0;
+
+            @Override
+            public boolean hasNext() {
+                return pos < count;
+            }
+
+            @Override
+            public int nextInt() {
+                if (pos >= count) {
+                    throw new NoSuchElementException();
+                }
+                return values[pos++];
+            }
+        };
+    }
+
+    private void insertChunk(final int idx, final int key) {
+        if (chunkCount == keys.length) {
+            final int nsize = chunkCount << 1;
+            keys = Arrays.copyOf(keys, nsize);
+            chunks = Arrays.copyOf(chunks, nsize);
+            cardinalities = Arrays.copyOf(cardinalities, nsize);
+        }
+        System.arraycopy(keys, idx, keys, idx + 1, chunkCount - idx);
+        System.arraycopy(chunks, idx, chunks, idx + 1, chunkCount - idx);
+        System.arraycopy(cardinalities, idx, cardinalities, idx + 1, chunkCount - idx);
+        keys[idx] = key;
+        chunks[idx] = new char[4];
+        cardinalities[idx] = 0;
+        chunkCount++;
+    }
+
+    private static long[] toBitmap(final char values[], final int count) {
+        final long words[] = new long[BITMAP_WORDS];
+        for (int i = 0; i < count; i++) {
+            words[values[i] >>> 6] |= 1L << values[i];
+        }
+        return words;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof IntBitmap)) {
+            return false;
+        }
+        final IntBitmap other = (IntBitmap) obj;
+        return cardinality == other.cardinality && containsAll(other);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = cardinality;
+        for (int i = 0; i < chunkCount; i++) {
+            hash = 31 * hash + keys[i];
+            hash = 31 * hash + cardinalities[i];
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util.hashtable;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+
+/**
+ * A hash map with primitive int keys and primitive int values.
+ *
+ * Works like {@link Long2LongHashMap}: linear probing in a power-of-two
+ * table without boxing or entry objects. Lookups of absent keys return the
+ * <code>missingValue</code> given to the constructor.
+ */
+@NotThreadSafe
+public class Int2IntHashMap {
+
+    // key 0 marks an empty slot, its value is kept separately
+    private static final int FREE_KEY = 0;
+
+    private final int missingValue;
+
+    private int[] table;
+
+    private boolean hasFreeKey = false;
+    private int freeKeyValue;
+
+    private int size = 0;
+    private int mask;
+    private int threshold;
+
+    public Int2IntHashMap(final int missingValue) {
+        this(Long2LongHashMap.DEFAULT_CAPACITY, missingValue);
+    }
+
+    /**
+     * @param initialCapacity the number of entries the map should hold without resizing
+     * @param missingValue the value returned for keys which are not in the map
+     */
+    public Int2IntHashMap(final int initialCapacity, final int missingValue) {
+        this.missingValue = missingValue;
+        allocate(Long2LongHashMap.tableSize(initialCapacity));
+    }
+
+    public int getMissingValue() {
+        return missingValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(final int key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeKeyValue : missingValue;
+        }
+        int slot = hash(key) & mask;
+        int k;
+        while ((k = table[slot << 1]) != FREE_KEY) {
+            if (k == key) {
+                return table[(slot << 1) + 1];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    public boolean containsKey(final int key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey;
+        }
+        int slot = hash(key) & mask;
+        int k;
+        while ((k = table[slot << 1]) != FREE_KEY) {
+            if (k == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Puts a new key/value pair into the map.
+     * If the key does already exist, just the value is updated.
+     *
+     * @param key The key
+     * @param value The value
+     * @return the previous value of the key, or the missing value
+     */
+    public int put(final int key, final int value) {
+        if (key == FREE_KEY) {
+            final int previous = hasFreeKey ? freeKeyValue : missingValue;
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                ++size;
+            }
+            freeKeyValue = value;
+            return previous;
+        }
+        int slot = hash(key) & mask;
+        int k;
+        while ((k = table[slot << 1]) != FREE_KEY) {
+            if (k == key) {
+                final int previous = table[(slot << 1) + 1];
+                table[(slot << 1) + 1] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot << 1] = key;
+        table[(slot << 1) + 1] = value;
+        if (++size > threshold) {
+            rehash();
+        }
+        return missingValue;
+    }
+
+    /**
+     * Adds <code>delta</code> to the value of the key. If the key is not in
+     * the map, it is added with the value <code>delta</code>.
+     *
+     * @param key The key
+     * @param delta the value to add
+     * @return the new value of the key
+     */
+    public int addTo(final int key, final int delta) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                freeKeyValue = 0;
+                ++size;
+            }
+            freeKeyValue += delta;
+            return freeKeyValue;
+        }
+        int slot = hash(key) & mask;
+        int k;
+        while ((k = table[slot << 1]) != FREE_KEY) {
+            if (k == key) {
+                return table[(slot << 1) + 1] += delta;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot << 1] = key;
+        table[(slot << 1) + 1] = delta;
+        if (++size > threshold) {
+            rehash();
+        }
+        return delta;
+    }
+
+    /**
+     * @param key the key to remove
+     * @return the value of the removed key, or the missing value
+     */
+    public int remove(final int key) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                return missingValue;
+            }
+            hasFreeKey = false;
+            --size;
+            return freeKeyValue;
+        }
+        int slot = hash(key) & mask;
+        int k;
+        while ((k = table[slot << 1]) != FREE_KEY) {
+            if (k == key) {
+                final int previous = table[(slot << 1) + 1];
+                --size;
+                shiftKeys(slot);
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        Arrays.fill(table, 0);
+        hasFreeKey = false;
+        size = 0;
+    }
+
+    /**
+     * Calls the visitor for every entry of the map. The map must not be
+     * modified by the visitor.
+     *
+     * @param visitor the visitor
+     */
+    public void forEach(final EntryVisitor visitor) {
+        if (hasFreeKey) {
+            visitor.visit(FREE_KEY, freeKeyValue);
+        }
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != FREE_KEY) {
+                visitor.visit(table[i], table[i + 1]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryVisitor {
+        void visit(int key, int value);
+    }
+
+    private void shiftKeys(int slot) {
+        int last;
+        int k;
+        for (;;) {
+            slot = ((last = slot) + 1) & mask;
+            for (;;) {
+                if ((k = table[slot << 1]) == FREE_KEY) {
+                    table[last << 1] = FREE_KEY;
+                    table[(last << 1) + 1] = 0;
+                    return;
+                }
+                final int ideal = hash(k) & mask;
+                if (last <= slot ? last >= ideal || ideal > slot : last >= ideal && ideal > slot) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[last << 1] = k;
+            table[(last << 1) + 1] = table[(slot << 1) + 1];
+        }
+    }
+
+    private void rehash() {
+        final int[] old = table;
+        allocate((mask + 1) * 2);
+        for (int i = 0; i < old.length; i += 2) {
+            if (old[i] != FREE_KEY) {
+                int slot = hash(old[i]) & mask;
+                while (table[slot << 1] != FREE_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot << 1] = old[i];
+                table[(slot << 1) + 1] = old[i + 1];
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        table = new int[capacity * 2];
+        mask = capacity - 1;
+        threshold = Math.min(capacity - 1, (int) (capacity * Long2LongHashMap.LOAD_FACTOR));
+    }
+
+    private static int hash(final int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util.hashtable;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+
+/**
+ * A hash map with primitive long keys and primitive long values.
+ *
+ * Unlike {@link Long2ObjectHashMap} neither keys nor values are boxed and
+ * no entry objects are created, so the map does not produce garbage once it
+ * has grown to its working size. Collisions are resolved by linear probing
+ * in a power-of-two table, removal shifts back the following entries so no
+ * tombstones are needed.
+ *
+ * Lookups of absent keys return the <code>missingValue</code> given
+ * to the constructor.
+ *
+ * The entries are stored by {@link #allocate(int)}, {@link #keyAt(int)},
+ * {@link #valueAt(int)} and {@link #setEntry(int, long, long)}, which
+ * {@link OffHeapLong2LongHashMap} overrides to keep the table outside the
+ * Java heap.
+ */
+@NotThreadSafe
+public class Long2LongHashMap {
+
+    static final int DEFAULT_CAPACITY = 64;
+    static final float LOAD_FACTOR = 0.6f;
+
+    // key 0 marks an empty slot, its value is kept separately
+    private static final long FREE_KEY = 0;
+
+    private final long missingValue;
+
+    private long[] table;
+
+    private boolean hasFreeKey = false;
+    private long freeKeyValue;
+
+    private int size = 0;
+    private int mask;
+    private int threshold;
+
+    public Long2LongHashMap(final long missingValue) {
+        this(DEFAULT_CAPACITY, missingValue);
+    }
+
+    /**
+     * @param initialCapacity the number of entries the map should hold without resizing
+     * @param missingValue the value returned for keys which are not in the map
+     */
+    public Long2LongHashMap(final int initialCapacity, final long missingValue) {
+        this.missingValue = missingValue;
+        final int capacity = tableSize(initialCapacity);
+        allocate(capacity);
+        setCapacity(capacity);
+    }
+
+    public long getMissingValue() {
+        return missingValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long get(final long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeKeyValue : missingValue;
+        }
+        int slot = hash(key) & mask;
+        long k;
+        while ((k = keyAt(slot)) != FREE_KEY) {
+            if (k == key) {
+                return valueAt(slot);
+            }
+            slot = (slot + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    public boolean containsKey(final long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey;
+        }
+        int slot = hash(key) & mask;
+        long k;
+        while ((k = keyAt(slot)) != FREE_KEY) {
+            if (k == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Puts a new key/value pair into the map.
+     * If the key does already exist, just the value is updated.
+     *
+     * @param key The key
+     * @param value The value
+     * @return the previous value of the key, or the missing value
+     */
+    public long put(final long key, final long value) {
+        if (key == FREE_KEY) {
+            final long previous = hasFreeKey ? freeKeyValue : missingValue;
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                ++size;
+            }
+            freeKeyValue = value;
+            return previous;
+        }
+        int slot = hash(key) & mask;
+        long k;
+        while ((k = keyAt(slot)) != FREE_KEY) {
+            if (k == key) {
+                final long previous = valueAt(slot);
+                setEntry(slot, key, value);
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        setEntry(slot, key, value);
+        if (++size > threshold) {
+            rehash(capacity() * 2);
+        }
+        return missingValue;
+    }
+
+    /**
+     * Adds <code>delta</code> to the value of the key. If the key is not in
+     * the map, it is added with the value <code>delta</code>.
+     *
+     * @param key The key
+     * @param delta the value to add
+     * @return the new value of the key
+     */
+    public long addTo(final long key, final long delta) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                freeKeyValue = 0;
+                ++size;
+            }
+            freeKeyValue += delta;
+            return freeKeyValue;
+        }
+        int slot = hash(key) & mask;
+        long k;
+        while ((k = keyAt(slot)) != FREE_KEY) {
+            if (k == key) {
+                final long value = valueAt(slot) + delta;
+                setEntry(slot, key, value);
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        setEntry(slot, key, delta);
+        if (++size > threshold) {
+            rehash(capacity() * 2);
+        }
+        return delta;
+    }
+
+    /**
+     * @param key the key to remove
+     * @return the value of the removed key, or the missing value
+     */
+    public long remove(final long key) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                return missingValue;
+            }
+            hasFreeKey = false;
+            --size;
+            return freeKeyValue;
+        }
+        int slot = hash(key) & mask;
+        long k;
+        while ((k = keyAt(slot)) != FREE_KEY) {
+            if (k == key) {
+                final long previous = valueAt(slot);
+                --size;
+                shiftKeys(slot);
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        clearEntries();
+        hasFreeKey = false;
+        size = 0;
+    }
+
+    /**
+     * Calls the visitor for every entry of the map. The map must not be
+     * modified by the visitor.
+     *
+     * @param visitor the visitor
+     */
+    public void forEach(final EntryVisitor visitor) {
+        if (hasFreeKey) {
+            visitor.visit(FREE_KEY, freeKeyValue);
+        }
+        final int capacity = capacity();
+        for (int slot = 0; slot < capacity; slot++) {
+            final long k = keyAt(slot);
+            if (k != FREE_KEY) {
+                visitor.visit(k, valueAt(slot));
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryVisitor {
+        void visit(long key, long value);
+    }
+
+    /**
+     * Remove the entry at <code>slot</code> and move following entries of the
+     * same probe sequence back, so lookups do not stop at the freed slot.
+     */
+    private void shiftKeys(int slot) {
+        int last;
+        long k;
+        for (;;) {
+            slot = ((last = slot) + 1) & mask;
+            for (;;) {
+                if ((k = keyAt(slot)) == FREE_KEY) {
+                    setEntry(last, FREE_KEY, 0);
+                    return;
+                }
+                final int ideal = hash(k) & mask;
+                if (last <= slot ? last >= ideal || ideal > slot : last >= ideal && ideal > slot) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            setEntry(last, k, valueAt(slot));
+        }
+    }
+
+    private void rehash(final int newCapacity) {
+        final int oldCapacity = capacity();
+        final long[] entries = new long[size * 2];
+        int n = 0;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            final long k = keyAt(slot);
+            if (k != FREE_KEY) {
+                entries[n++] = k;
+                entries[n++] = valueAt(slot);
+            }
+        }
+        allocate(newCapacity);
+        setCapacity(newCapacity);
+        for (int i = 0; i < n; i += 2) {
+            int slot = hash(entries[i]) & mask;
+            while (keyAt(slot) != FREE_KEY) {
+                slot = (slot + 1) & mask;
+            }
+            setEntry(slot, entries[i], entries[i + 1]);
+        }
+    }
+
+    private void setCapacity(final int capacity) {
+        mask = capacity - 1;
+        threshold = Math.min(capacity - 1, (int) (capacity * LOAD_FACTOR));
+    }
+
+    protected final int capacity() {
+        return mask + 1;
+    }
+
+    static int tableSize(final int expected) {
+        final int needed = (int) Math.ceil(Math.max(expected, 2) / LOAD_FACTOR);
+        return Integer.highestOneBit(needed - 1) << 1;
+    }
+
+    static int hash(final long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) (h ^ (h >>> 16));
+    }
+
+    /**
+     * Allocate an empty table for <code>capacity</code> entries,
+     * replacing the current one.
+     *
+     * @param capacity the number of slots, a power of two
+     */
+    protected void allocate(final int capacity) {
+        table = new long[capacity * 2];
+    }
+
+    protected void clearEntries() {
+        Arrays.fill(table, 0);
+    }
+
+    protected long keyAt(final int slot) {
+        return table[slot << 1];
+    }
+
+    protected long valueAt(final int slot) {
+        return table[(slot << 1) + 1];
+    }
+
+    protected void setEntry(final int slot, final long key, final long value) {
+        table[slot << 1] = key;
+        table[(slot << 1) + 1] = value;
+    }
+}
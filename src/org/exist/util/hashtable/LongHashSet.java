@@ -0,0 +1,245 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util.hashtable;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A set of primitive long values.
+ *
+ * Works like {@link Long2LongHashMap}: linear probing in a power-of-two
+ * table without boxing, so adding and looking up values does not allocate.
+ */
+@NotThreadSafe
+public class LongHashSet {
+
+    // value 0 marks an empty slot, its presence is kept separately
+    private static final long FREE_KEY = 0;
+
+    private long[] table;
+
+    private boolean hasFreeKey = false;
+
+    private int size = 0;
+    private int mask;
+    private int threshold;
+
+    public LongHashSet() {
+        this(Long2LongHashMap.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity the number of values the set should hold without resizing
+     */
+    public LongHashSet(final int initialCapacity) {
+        allocate(Long2LongHashMap.tableSize(initialCapacity));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(final long value) {
+        if (value == FREE_KEY) {
+            return hasFreeKey;
+        }
+        int slot = Long2LongHashMap.hash(value) & mask;
+        long k;
+        while ((k = table[slot]) != FREE_KEY) {
+            if (k == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @param value the value to add
+     * @return true if the value was not yet in the set
+     */
+    public boolean add(final long value) {
+        if (value == FREE_KEY) {
+            if (hasFreeKey) {
+                return false;
+            }
+            hasFreeKey = true;
+            ++size;
+            return true;
+        }
+        int slot = Long2LongHashMap.hash(value) & mask;
+        long k;
+        while ((k = table[slot]) != FREE_KEY) {
+            if (k == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+        if (++size > threshold) {
+            rehash();
+        }
+        return true;
+    }
+
+    /**
+     * @param value the value to remove
+     * @return true if the value was in the set
+     */
+    public boolean remove(final long value) {
+        if (value == FREE_KEY) {
+            if (!hasFreeKey) {
+                return false;
+            }
+            hasFreeKey = false;
+            --size;
+            return true;
+        }
+        int slot = Long2LongHashMap.hash(value) & mask;
+        long k;
+        while ((k = table[slot]) != FREE_KEY) {
+            if (k == value) {
+                --size;
+                shiftKeys(slot);
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Removes all values contained in <code>other</code> from this set.
+     *
+     * @param other the values to remove
+     */
+    public void removeAll(final LongHashSet other) {
+        for (final PrimitiveIterator.OfLong i = other.iterator(); i.hasNext(); ) {
+            remove(i.nextLong());
+        }
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        Arrays.fill(table, 0);
+        hasFreeKey = false;
+        size = 0;
+    }
+
+    /**
+     * @return the values of the set in no particular order
+     */
+    public long[] toArray() {
+        final long[] values = new long[size];
+        int n = 0;
+        if (hasFreeKey) {
+            values[n++] = FREE_KEY;
+        }
+        for (final long k : table) {
+            if (k != FREE_KEY) {
+                values[n++] = k;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return an iterator over the values; the set must not be modified while iterating
+     */
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private boolean freeKeyPending = hasFreeKey;
+            private int slot = 0;
+
+            @Override
+            public boolean hasNext() {
+                if (freeKeyPending) {
+                    return true;
+                }
+                while (slot < table.length && table[slot] == FREE_KEY) {
+                    slot++;
+                }
+                return slot < table.length;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (freeKeyPending) {
+                    freeKeyPending = false;
+                    return FREE_KEY;
+                }
+                return table[slot++];
+            }
+        };
+    }
+
+    private void shiftKeys(int slot) {
+        int last;
+        long k;
+        for (;;) {
+            slot = ((last = slot) + 1) & mask;
+            for (;;) {
+                if ((k = table[slot]) == FREE_KEY) {
+                    table[last] = FREE_KEY;
+                    return;
+                }
+                final int ideal = Long2LongHashMap.hash(k) & mask;
+                if (last <= slot ? last >= ideal || ideal > slot : last >= ideal && ideal > slot) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[last] = k;
+        }
+    }
+
+    private void rehash() {
+        final long[] old = table;
+        allocate(table.length * 2);
+        for (final long k : old) {
+            if (k != FREE_KEY) {
+                int slot = Long2LongHashMap.hash(k) & mask;
+                while (table[slot] != FREE_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = k;
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        table = new long[capacity];
+        mask = capacity - 1;
+        threshold = Math.min(capacity - 1, (int) (capacity * Long2LongHashMap.LOAD_FACTOR));
+    }
+}
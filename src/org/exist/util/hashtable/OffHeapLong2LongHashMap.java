@@ -0,0 +1,78 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util.hashtable;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * A {@link Long2LongHashMap} whose table is kept in a direct
+ * {@link ByteBuffer} outside the Java heap.
+ *
+ * Large maps of this kind do not have to be copied or scanned by the
+ * garbage collector. The memory is released when the map becomes
+ * unreachable and its buffer is collected.
+ */
+@NotThreadSafe
+public class OffHeapLong2LongHashMap extends Long2LongHashMap {
+
+    private LongBuffer table;
+
+    public OffHeapLong2LongHashMap(final long missingValue) {
+        super(missingValue);
+    }
+
+    public OffHeapLong2LongHashMap(final int initialCapacity, final long missingValue) {
+        super(initialCapacity, missingValue);
+    }
+
+    @Override
+    protected void allocate(final int capacity) {
+        // allocateDirect returns zeroed memory, i.e. all slots are empty
+        table = ByteBuffer.allocateDirect(capacity * 2 * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    @Override
+    protected void clearEntries() {
+        final int length = table.capacity();
+        for (int i = 0; i < length; i++) {
+            table.put(i, 0);
+        }
+    }
+
+    @Override
+    protected long keyAt(final int slot) {
+        return table.get(slot << 1);
+    }
+
+    @Override
+    protected long valueAt(final int slot) {
+        return table.get((slot << 1) + 1);
+    }
+
+    @Override
+    protected void setEntry(final int slot, final long key, final long value) {
+        table.put(slot << 1, key);
+        table.put((slot << 1) + 1, value);
+    }
+}
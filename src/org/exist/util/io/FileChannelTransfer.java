@@ -0,0 +1,130 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.util.io;
+
+import org.apache.commons.lang3.SystemUtils;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes a region of a file to an output stream, avoiding copies of the
+ * data through the Java heap where the stream allows it.
+ * <p/>
+ * <ul>
+ *     <li>For a {@link FileOutputStream}, the data is transferred between the
+ *     two file channels by the operating system.</li>
+ *     <li>Streams which accept a {@link ByteBuffer} through a public
+ *     <code>write(ByteBuffer)</code> method, like the response stream of
+ *     Jetty, are given memory-mapped regions of the file. These are written
+ *     to the socket directly from the page cache.</li>
+ *     <li>Any other stream is written to through
+ *     {@link FileChannel#transferTo(long, long, WritableByteChannel)}.</li>
+ * </ul>
+ * Memory mapping is not used on Windows, where a mapped file cannot be moved
+ * or deleted until the mapping has been garbage collected.
+ */
+public final class FileChannelTransfer {
+
+    /**
+     * Regions smaller than this are cheaper to copy than to map.
+     */
+    private static final long MIN_MAPPED_SIZE = 64 * 1024;
+    private static final long MAX_MAPPED_SIZE = 16 * 1024 * 1024;
+
+    private static final boolean MAPPING_ENABLED = !SystemUtils.IS_OS_WINDOWS;
+
+    private static final Map<Class<?>, Optional<MethodHandle>> BUFFER_WRITERS = new ConcurrentHashMap<>();
+
+    private FileChannelTransfer() {
+    }
+
+    /**
+     * Writes length bytes of the channel, starting at offset, to the output stream.
+     *
+     * @param source the channel to read from
+     * @param offset the offset of the first byte in the channel
+     * @param length the number of bytes to write
+     * @param os the stream to write to
+     */
+    public static void transfer(final FileChannel source, final long offset, final long length, final OutputStream os) throws IOException {
+        if (os instanceof FileOutputStream) {
+            os.flush();
+            transfer(source, offset, length, ((FileOutputStream) os).getChannel());
+            return;
+        }
+
+        final Optional<MethodHandle> bufferWriter = MAPPING_ENABLED && length >= MIN_MAPPED_SIZE ?
+                BUFFER_WRITERS.computeIfAbsent(os.getClass(), FileChannelTransfer::findBufferWriter) : Optional.empty();
+        if (bufferWriter.isPresent()) {
+            long position = offset;
+            final long end = offset + length;
+            while (position < end) {
+                final long size = Math.min(MAX_MAPPED_SIZE, end - position);
+                final ByteBuffer region = source.map(FileChannel.MapMode.READ_ONLY, position, size);
+                try {
+                    bufferWriter.get().invoke(os, region);
+                } catch (final IOException | RuntimeException | Error e) {
+                    throw e;
+                } catch (final Throwable t) {
+                    throw new IOException(t);
+                }
+                position += size;
+            }
+        } else {
+            transfer(source, offset, length, Channels.newChannel(os));
+        }
+    }
+
+    private static void transfer(final FileChannel source, final long offset, final long length, final WritableByteChannel target) throws IOException {
+        long position = offset;
+        final long end = offset + length;
+        while (position < end) {
+            final long transferred = source.transferTo(position, end - position, target);
+            if (transferred <= 0) {
+                if (position >= source.size()) {
+                    throw new IOException("Unexpected end of file at offset " + position);
+                }
+                continue;
+            }
+            position += transferred;
+        }
+    }
+
+    private static Optional<MethodHandle> findBufferWriter(final Class<?> streamClass) {
+        try {
+            return Optional.of(MethodHandles.publicLookup().findVirtual(streamClass, "write",
+                    MethodType.methodType(void.class, ByteBuffer.class)));
+        } catch (final NoSuchMethodException | IllegalAccessException e) {
+            return Optional.empty();
+        }
+    }
+}
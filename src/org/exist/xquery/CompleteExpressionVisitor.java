@@ -0,0 +1,117 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A {@link DefaultExpressionVisitor} for analyses which are only correct if
+ * they see every part of an expression. Expressions which may hide
+ * sub-expressions from the visitor make it give up, which can be checked
+ * with {@link #isComplete()}.
+ *
+ * Calls to user-defined functions are followed into their arguments, but not
+ * into the function body.
+ */
+public class CompleteExpressionVisitor extends DefaultExpressionVisitor {
+
+    /**
+     * The subclasses of {@link PathExpr} which keep all their operands as
+     * steps. Other subclasses may keep operands elsewhere.
+     */
+    private static final Set<Class<? extends PathExpr>> PATH_EXPRESSIONS = new HashSet<>(Arrays.asList(
+            PathExpr.class, SequenceConstructor.class, EnclosedExpr.class, ConcatExpr.class, OpNumeric.class,
+            UnaryExpr.class));
+
+    private boolean complete = true;
+
+    /**
+     * @return false if the visitor met an expression it could not follow
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    protected void giveUp() {
+        complete = false;
+    }
+
+    @Override
+    public void visit(final Expression expression) {
+        if (expression instanceof WhereClause) {
+            // does not dispatch to visitWhereClause itself
+            visitWhereClause((WhereClause) expression);
+        } else if (!(expression instanceof LiteralValue)) {
+            giveUp();
+        }
+    }
+
+    @Override
+    public void visitPathExpr(final PathExpr expression) {
+        if (PATH_EXPRESSIONS.contains(expression.getClass())) {
+            super.visitPathExpr(expression);
+        } else if (expression instanceof RangeExpression) {
+            ((RangeExpression) expression).start.accept(this);
+            ((RangeExpression) expression).end.accept(this);
+        } else {
+            giveUp();
+        }
+    }
+
+    @Override
+    public void visitFunctionCall(final FunctionCall call) {
+        for (int i = 0; i < call.getArgumentCount(); i++) {
+            call.getArgument(i).accept(this);
+        }
+    }
+
+    @Override
+    public void visitGeneralComparison(final GeneralComparison comparison) {
+        comparison.getLeft().accept(this);
+        comparison.getRight().accept(this);
+    }
+
+    @Override
+    public void visitAndExpr(final OpAnd and) {
+        and.getLeft().accept(this);
+        and.getRight().accept(this);
+    }
+
+    @Override
+    public void visitOrExpr(final OpOr or) {
+        or.getLeft().accept(this);
+        or.getRight().accept(this);
+    }
+
+    @Override
+    public void visitFilteredExpr(final FilteredExpression filtered) {
+        filtered.getExpression().accept(this);
+        for (final Predicate predicate : filtered.getPredicates()) {
+            predicate.accept(this);
+        }
+    }
+
+    @Override
+    public void visitCastExpr(final CastExpression expression) {
+        expression.getInnerExpression().accept(this);
+    }
+}
@@ -50,6 +50,10 @@ public class ExtensionExpression extends AbstractExpression {
         this.innerExpression = inner;
     }
 
+    public Expression getExpression() {
+        return innerExpression;
+    }
+
     public void addPragma(Pragma pragma) {
         pragmas.add(pragma);
     }
@@ -97,6 +101,7 @@ public class ExtensionExpression extends AbstractExpression {
 
     public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
         final AnalyzeContextInfo newContext = new AnalyzeContextInfo(contextInfo);
+        newContext.setParent(this);
         for (final Pragma pragma : pragmas) {
             pragma.analyze(newContext);
         }
@@ -37,6 +37,7 @@ public class ForExpr extends BindingExpression {
     private String positionalVariable = null;
     private boolean allowEmpty = false;
     private boolean isOuterFor = true;
+    private boolean orderedLater = false;
 
     public ForExpr(XQueryContext context, boolean allowingEmpty) {
         super(context);
@@ -58,6 +59,10 @@ public class ForExpr extends BindingExpression {
         positionalVariable = var;
     }
 
+    public String getPositionalVariable() {
+        return positionalVariable;
+    }
+
 	/* (non-Javadoc)
      * @see org.exist.xquery.Expression#analyze(org.exist.xquery.Expression)
      */
@@ -90,6 +95,7 @@ public class ForExpr extends BindingExpression {
             final AnalyzeContextInfo newContextInfo = new AnalyzeContextInfo(contextInfo);
             newContextInfo.addFlag(SINGLE_STEP_EXECUTION);
             returnExpr.analyze(newContextInfo);
+            orderedLater = isOrderedLater();
         } catch (final QName.IllegalQNameException e) {
             throw new XPathException(ErrorCodes.XPST0081, "No namespace defined for prefix");
         } finally {
@@ -107,6 +113,18 @@ public class ForExpr extends BindingExpression {
      */
     public Sequence eval(Sequence contextSequence, Item contextItem)
             throws XPathException {
+        return eval(contextSequence, contextItem, null);
+    }
+
+    /**
+     * Evaluate the expression for the given binding sequence instead of
+     * the result of the "in" expression. Used to process parts of the
+     * binding sequence in parallel.
+     *
+     * @param input the binding sequence, or null to evaluate the "in" expression
+     */
+    public Sequence eval(Sequence contextSequence, Item contextItem, Sequence input)
+            throws XPathException {
         if (context.getProfiler().isEnabled()) {
             context.getProfiler().start(this);
             context.getProfiler().message(this, Profiler.DEPENDENCIES,
@@ -126,7 +144,7 @@ public class ForExpr extends BindingExpression {
         Sequence resultSequence = new ValueSequence(unordered);
         try {
             // Evaluate the "in" expression
-            in = inputSequence.eval(contextSequence, null);
+            in = input == null ? inputSequence.eval(contextSequence, null) : input;
             clearContext(getExpressionId(), in);
             // Declare the iteration variable
             var = createVariable(varName);
@@ -197,7 +215,7 @@ public class ForExpr extends BindingExpression {
         }
 
         clearContext(getExpressionId(), in);
-        if (sequenceType != null) {
+        if (sequenceType != null && !orderedLater) {
             //Type.EMPTY is *not* a subtype of other types ; checking cardinality first
             //only a check on empty sequence is accurate here
             if (resultSequence.isEmpty() &&
@@ -248,10 +266,34 @@ public class ForExpr extends BindingExpression {
         //Reset the context position
         context.setContextSequencePosition(0, null);
 
-        resultSequence.addAll(returnExpr.eval(null));
+        final Sequence result = returnExpr.eval(null);
+        // the order by clause collects the result: the variable may still be referenced
+        // by it, so its resources are only freed with the context
+        if (!orderedLater) {
+            resultSequence.addAll(result);
 
-        // free resources
-        var.destroy(context, resultSequence);
+            // free resources
+            var.destroy(context, resultSequence);
+        }
+    }
+
+    /**
+     * Check if an "order by" clause follows. It collects the results of each
+     * iteration itself and replaces the result of this expression in
+     * {@link #postEval(Sequence)}, so there is no need to keep them here.
+     */
+    private boolean isOrderedLater() {
+        Expression next = returnExpr;
+        while (next instanceof FLWORClause) {
+            final ClauseType type = ((FLWORClause) next).getType();
+            if (type == ClauseType.ORDERBY) {
+                return true;
+            } else if (type == ClauseType.GROUPBY) {
+                return false;
+            }
+            next = ((FLWORClause) next).getReturnExpression();
+        }
+        return false;
     }
 
     private boolean callPostEval() {
@@ -0,0 +1,200 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.dom.persistent.NodeSet;
+import org.exist.xquery.functions.fn.FunSum;
+import org.exist.xquery.value.AbstractSequence;
+import org.exist.xquery.value.ComputableValue;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.MemoryNodeSet;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+
+/**
+ * Stands in for the values of a non-grouping variable of a "group by" clause
+ * if the return expression only asks for their count or their sum. The clause
+ * adds the values of each tuple to the aggregate instead of keeping them until
+ * all tuples have been grouped.
+ *
+ * The values themselves are not available: {@link #getItemCount()} and
+ * {@link #getSum()} are the only ways to access the aggregate.
+ */
+public class GroupAggregate extends AbstractSequence {
+
+    private final Expression expression;
+    private final boolean summed;
+    private long count = 0;
+    private FunSum.Sum sum = null;
+    private XPathException error = null;
+
+    /**
+     * @param expression the expression to report errors for
+     * @param summed true if the sum of the values is needed
+     */
+    GroupAggregate(final Expression expression, final boolean summed) {
+        this.expression = expression;
+        this.summed = summed;
+    }
+
+    /**
+     * Add the values of a tuple.
+     */
+    void add(final Sequence values) {
+        count += values.getItemCount();
+        if (summed && error == null && !values.isEmpty()) {
+            try {
+                if (sum == null) {
+                    sum = new FunSum.Sum(expression);
+                }
+                for (final SequenceIterator i = values.iterate(); i.hasNext() && !sum.isDone(); ) {
+                    sum.add(i.nextItem());
+                }
+            } catch (final XPathException e) {
+                // only reported if fn:sum is actually called
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Add a partial aggregate which was computed before, see {@link #getCount()}
+     * and {@link #getPartialSum()}.
+     */
+    void add(final long count, final ComputableValue partialSum) {
+        this.count += count;
+        if (summed && error == null && partialSum != null) {
+            try {
+                if (sum == null) {
+                    sum = new FunSum.Sum(expression);
+                }
+                sum.add(partialSum);
+            } catch (final XPathException e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Add the values of another aggregate for the same group.
+     */
+    void add(final GroupAggregate other) {
+        if (other.error != null && error == null) {
+            count += other.count;
+            error = other.error;
+        } else {
+            add(other.count, other.getPartialSum());
+        }
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    boolean hasError() {
+        return error != null;
+    }
+
+    ComputableValue getPartialSum() {
+        return sum == null ? null : sum.getResult();
+    }
+
+    /**
+     * Returns the sum of all values, following the rules of fn:sum.
+     *
+     * @return the sum or null if there were no values
+     * @throws XPathException if the values cannot be added up
+     */
+    public ComputableValue getSum() throws XPathException {
+        if (error != null) {
+            throw error;
+        }
+        if (!summed) {
+            throw new XPathException(expression, "Internal error: the sum of a grouping variable was not computed");
+        }
+        return getPartialSum();
+    }
+
+    @Override
+    public int getItemType() {
+        return Type.ITEM;
+    }
+
+    @Override
+    public SequenceIterator iterate() throws XPathException {
+        throw new XPathException(expression, "Internal error: the values of a grouping variable were not kept");
+    }
+
+    @Override
+    public SequenceIterator unorderedIterator() throws XPathException {
+        return iterate();
+    }
+
+    @Override
+    public int getItemCount() {
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    @Override
+    public boolean hasOne() {
+        return count == 1;
+    }
+
+    @Override
+    public boolean hasMany() {
+        return count > 1;
+    }
+
+    @Override
+    public void add(final Item item) throws XPathException {
+        throw new XPathException(expression, "Internal error: cannot add an item to a grouping aggregate");
+    }
+
+    @Override
+    public Item itemAt(final int pos) {
+        return null;
+    }
+
+    @Override
+    public NodeSet toNodeSet() throws XPathException {
+        throw new XPathException(expression, "Internal error: the values of a grouping variable were not kept");
+    }
+
+    @Override
+    public MemoryNodeSet toMemNodeSet() throws XPathException {
+        throw new XPathException(expression, "Internal error: the values of a grouping variable were not kept");
+    }
+
+    @Override
+    public void removeDuplicates() {
+        // nothing to do
+    }
+
+    @Override
+    public String toString() {
+        return "group aggregate (count: " + count + ")";
+    }
+}
@@ -1,9 +1,22 @@
 package org.exist.xquery;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.exist.dom.QName;
+import org.exist.util.io.TemporaryFileManager;
+import org.exist.xquery.functions.fn.FunCount;
+import org.exist.xquery.functions.fn.FunSum;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.*;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.Collator;
 import java.util.*;
 import java.util.stream.Stream;
@@ -11,14 +24,34 @@ import java.util.stream.Stream;
 /**
  * Implements a "group by" clause inside a FLWOR.
  *
+ * Non-grouping variables which are only passed to fn:count or fn:sum in the
+ * return expression are not collected: each group keeps a running
+ * {@link GroupAggregate} instead. If all non-grouping variables are aggregated
+ * like this, the groups can also be written to temporary files once there are
+ * too many to keep in memory (see {@link #PROPERTY_GROUP_BY_SPILL_THRESHOLD}).
+ *
  * @author wolf
  */
 public class GroupByClause extends AbstractFLWORClause {
 
+    private final static Logger LOG = LogManager.getLogger(GroupByClause.class);
+
+    public static final String GROUP_BY_SPILL_THRESHOLD_ATTRIBUTE = "group-by-spill-threshold";
+    public static final String PROPERTY_GROUP_BY_SPILL_THRESHOLD = "xquery.group-by-spill-threshold";
+    public static final int DEFAULT_GROUP_BY_SPILL_THRESHOLD = 100000;
+
+    private static final int SPILL_PARTITIONS = 16;
+
     protected FLWORClause rootClause = null;
     private GroupSpec[] groupSpecs;
     private final Deque<GroupByData> stack = new ArrayDeque<>();
 
+    /**
+     * Variables referenced in the return expression, or null if the return
+     * expression could not be fully analyzed.
+     */
+    private Map<QName, VariableUse> variableUses = null;
+
     /**
      * Collect tuples and grouping vars. Because GroupByClause needs to keep
      * state across calls to preEval/eval/postEval, we have to track state data
@@ -27,10 +60,19 @@ public class GroupByClause extends AbstractFLWORClause {
      */
     private class GroupByData {
 
-        private Map<List<AtomicValue>, Tuple> groupedMap = null;
+        private Map<GroupKey, Tuple> groupedMap = null;
         private Map<QName, LocalVariable> variables = null;
         private List<LocalVariable> groupingVars = null;
 
+        /** aggregated variables, mapped to true if their sum is needed */
+        private Map<QName, Boolean> aggregates = null;
+        private final List<QName> aggregateNames = new ArrayList<>();
+
+        private final int spillThreshold;
+        private boolean spillable;
+        private Path[] partitionFiles = null;
+        private DataOutputStream[] partitions = null;
+
         private boolean initialized = false;
 
         public GroupByData() {
@@ -43,9 +85,43 @@ public class GroupByClause extends AbstractFLWORClause {
             }
             variables = new HashMap<>();
             groupingVars = new ArrayList<>();
+            aggregates = variableUses == null ? Collections.emptyMap() : new HashMap<>();
+            spillThreshold = getSpillThreshold();
+            spillable = spillThreshold > 0 && variableUses != null && usesDefaultCollator();
+        }
+
+        /**
+         * Close and remove the temporary files, if any.
+         */
+        private void discard() {
+            if (partitions == null) {
+                return;
+            }
+            for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                try {
+                    if (partitions[i] != null) {
+                        partitions[i].close();
+                    }
+                } catch (final IOException e) {
+                    LOG.warn("Failed to close temporary file: " + e.getMessage(), e);
+                }
+                if (partitionFiles[i] != null) {
+                    TemporaryFileManager.getInstance().returnTemporaryFile(partitionFiles[i]);
+                }
+            }
+            partitions = null;
+            partitionFiles = null;
         }
     }
 
+    /**
+     * How a non-grouping variable is used by the return expression.
+     */
+    private static class VariableUse {
+        private boolean summed = false;
+        private boolean other = false;
+    }
+
     public GroupByClause(XQueryContext context) {
         super(context);
     }
@@ -67,8 +143,9 @@ public class GroupByClause extends AbstractFLWORClause {
 
         // Evaluate group spec to create grouping key sequence
         final List<Sequence> groupingValues = new ArrayList<>();
-        final List<AtomicValue> groupingKeys = new ArrayList<>();
-        for (GroupSpec spec: groupSpecs) {
+        final AtomicValue[] groupingKeys = new AtomicValue[groupSpecs.length];
+        for (int i = 0; i < groupSpecs.length; i++) {
+            final GroupSpec spec = groupSpecs[i];
             final Sequence groupingSeq = spec.getGroupExpression().eval(null);
             if (groupingSeq.getItemCount() > 1) {
                 throw new XPathException(this, ErrorCodes.XPTY0004, "Grouping variable " + spec.getKeyVarName() + " " +
@@ -83,18 +160,32 @@ public class GroupByClause extends AbstractFLWORClause {
                 groupingVar.setStaticType(groupingValue.getType());
                 data.groupingVars.add(groupingVar);
             }
+            if (data.spillable && !(groupingSeq.isEmpty() ||
+                    (Type.subTypeOf(groupingSeq.itemAt(0).getType(), Type.ATOMIC) &&
+                            SpillableValues.isSpillable(groupingValue)))) {
+                // a grouping variable must be restored from its key
+                data.spillable = false;
+            }
             groupingValues.add(groupingSeq);
-            groupingKeys.add(groupingValue);
+            groupingKeys[i] = groupingValue;
         }
 
         // collect the current tuples into the grouping map
-        final Tuple tuple = data.groupedMap.computeIfAbsent(groupingKeys, ks -> new Tuple(groupingValues));
+        final Tuple tuple = data.groupedMap.computeIfAbsent(new GroupKey(groupingKeys), ks -> new Tuple(groupingValues));
 
         // scan in-scope variables to collect tuples
         LocalVariable nextVar = rootClause.getStartVariable();
         Objects.requireNonNull(nextVar);
         while(nextVar != null) {
-            tuple.add(nextVar.getQName(), nextVar.getValue());
+            if (!data.initialized) {
+                initAggregate(data, nextVar.getQName());
+            }
+            final Boolean summed = data.aggregates.get(nextVar.getQName());
+            if (summed == null) {
+                tuple.add(nextVar.getQName(), nextVar.getValue());
+            } else {
+                tuple.aggregate(nextVar.getQName(), nextVar.getValue(), this, summed);
+            }
             if (!data.initialized) {
                 // on first call: initialize non-grouping variable for later use
                 final LocalVariable var = new LocalVariable(nextVar.getQName());
@@ -107,9 +198,147 @@ public class GroupByClause extends AbstractFLWORClause {
         }
 
         data.initialized = true;
+
+        if (data.spillable && data.groupedMap.size() >= data.spillThreshold) {
+            spill(data);
+        }
         return contextSequence;
     }
 
+    /**
+     * Decide if the values of a non-grouping variable can be aggregated.
+     */
+    private void initAggregate(final GroupByData data, final QName name) {
+        if (variableUses == null) {
+            return;
+        }
+        final VariableUse use = variableUses.get(name);
+        if (use == null) {
+            // not referenced at all: only the count is kept
+            data.aggregates.put(name, false);
+            data.aggregateNames.add(name);
+        } else if (!use.other) {
+            data.aggregates.put(name, use.summed);
+            data.aggregateNames.add(name);
+        } else {
+            data.spillable = false;
+        }
+    }
+
+    /**
+     * Write the groups in memory to the temporary partition files. The
+     * partition of a group is chosen by the hash code of its key, so all
+     * aggregates of a group end up in the same file.
+     */
+    private void spill(final GroupByData data) throws XPathException {
+        for (final Tuple tuple : data.groupedMap.values()) {
+            for (final Sequence value : tuple.values()) {
+                final GroupAggregate aggregate = (GroupAggregate) value;
+                final ComputableValue sum = aggregate.getPartialSum();
+                if (aggregate.hasError() || (sum != null && !SpillableValues.isSpillable(sum))) {
+                    LOG.debug("Aggregate cannot be written to disk. Grouping " + data.groupedMap.size() +
+                            " groups in memory.");
+                    data.spillable = false;
+                    return;
+                }
+            }
+        }
+
+        final TemporaryFileManager temporaryFileManager = TemporaryFileManager.getInstance();
+        try {
+            if (data.partitions == null) {
+                data.partitionFiles = new Path[SPILL_PARTITIONS];
+                data.partitions = new DataOutputStream[SPILL_PARTITIONS];
+                for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                    data.partitionFiles[i] = temporaryFileManager.getTemporaryFile();
+                    data.partitions[i] = new DataOutputStream(new BufferedOutputStream(
+                            Files.newOutputStream(data.partitionFiles[i])));
+                }
+            }
+            for (final Map.Entry<GroupKey, Tuple> entry : data.groupedMap.entrySet()) {
+                final DataOutputStream os = data.partitions[entry.getKey().getPartition()];
+                for (final AtomicValue value : entry.getKey().values) {
+                    SpillableValues.write(os, value);
+                }
+                for (final QName name : data.aggregateNames) {
+                    final GroupAggregate aggregate = (GroupAggregate) entry.getValue().get(name);
+                    os.writeLong(aggregate.getCount());
+                    final ComputableValue sum = aggregate.getPartialSum();
+                    os.writeBoolean(sum != null);
+                    if (sum != null) {
+                        SpillableValues.write(os, sum);
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            data.discard();
+            throw new XPathException(this, "Failed to write groups to a temporary file: " + e.getMessage(), e);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Spilled " + data.groupedMap.size() + " groups to disk");
+        }
+        data.groupedMap.clear();
+    }
+
+    /**
+     * Read back one partition written by {@link #spill(GroupByData)} and
+     * combine it with the groups of the same partition still in memory.
+     */
+    private Map<GroupKey, Tuple> readPartition(final GroupByData data, final int partition) throws XPathException {
+        final Map<GroupKey, Tuple> groups = new HashMap<>();
+        try (final DataInputStream is = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(data.partitionFiles[partition])))) {
+            while (true) {
+                final AtomicValue[] keys = new AtomicValue[groupSpecs.length];
+                try {
+                    keys[0] = SpillableValues.read(is);
+                } catch (final EOFException e) {
+                    break;
+                }
+                for (int i = 1; i < keys.length; i++) {
+                    keys[i] = SpillableValues.read(is);
+                }
+                final Tuple tuple = groups.computeIfAbsent(new GroupKey(keys), GroupByClause::newTuple);
+                for (final QName name : data.aggregateNames) {
+                    final long count = is.readLong();
+                    final ComputableValue sum = is.readBoolean() ? (ComputableValue) SpillableValues.read(is) : null;
+                    tuple.aggregate(name, this, data.aggregates.get(name)).add(count, sum);
+                }
+            }
+        } catch (final IOException e) {
+            throw new XPathException(this, "Failed to read groups from a temporary file: " + e.getMessage(), e);
+        }
+
+        for (final Map.Entry<GroupKey, Tuple> entry : data.groupedMap.entrySet()) {
+            if (entry.getKey().getPartition() != partition) {
+                continue;
+            }
+            final Tuple tuple = groups.get(entry.getKey());
+            if (tuple == null) {
+                groups.put(entry.getKey(), entry.getValue());
+            } else {
+                for (final QName name : data.aggregateNames) {
+                    tuple.aggregate(name, this, data.aggregates.get(name))
+                            .add((GroupAggregate) entry.getValue().get(name));
+                }
+            }
+        }
+        return groups;
+    }
+
+    private static Tuple newTuple(final GroupKey key) {
+        final List<Sequence> groupingValues = new ArrayList<>(key.values.length);
+        for (final AtomicValue value : key.values) {
+            groupingValues.add(value.isEmpty() ? Sequence.EMPTY_SEQUENCE : value);
+        }
+        return new Tuple(groupingValues);
+    }
+
+    private int getSpillThreshold() {
+        final Object threshold = context.getBroker().getConfiguration().getProperty(PROPERTY_GROUP_BY_SPILL_THRESHOLD);
+        return threshold == null ? DEFAULT_GROUP_BY_SPILL_THRESHOLD : (Integer) threshold;
+    }
+
     @Override
     public Sequence postEval(final Sequence seq) throws XPathException {
         if (!stack.isEmpty()) {
@@ -126,29 +355,24 @@ public class GroupByClause extends AbstractFLWORClause {
                     context.declareVariableBinding(var);
                 }
                 // iterate over each group
-                for (Tuple tuple : data.groupedMap.values()) {
-                    context.proceed();
-
-                    // set grouping variable values
-                    final Iterator<Sequence> siter = tuple.groupingValues.iterator();
-                    for (LocalVariable var : data.groupingVars) {
-                        if (siter.hasNext()) {
-                            Sequence val = siter.next();
-                            var.setValue(val);
-                        } else {
-                            throw new XPathException(this, "Internal error: missing grouping value");
-                        }
+                if (data.partitions == null) {
+                    for (Tuple tuple : data.groupedMap.values()) {
+                        evalGroup(data, tuple, result);
+                    }
+                } else {
+                    for (final DataOutputStream os : data.partitions) {
+                        os.close();
                     }
-                    // set values of non-grouping variables
-                    for (Map.Entry<QName, Sequence> entry : tuple.entrySet()) {
-                        final LocalVariable var = data.variables.get(entry.getKey());
-                        var.setValue(entry.getValue());
+                    for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                        for (Tuple tuple : readPartition(data, i).values()) {
+                            evalGroup(data, tuple, result);
+                        }
                     }
-                    final Sequence r = returnExpr.eval(null);
-                    result.addAll(r);
                 }
+            } catch (final IOException e) {
+                throw new XPathException(this, "Failed to write groups to a temporary file: " + e.getMessage(), e);
             } finally {
-                stack.pop();
+                stack.pop().discard();
                 context.popLocalVariables(mark, result);
             }
 
@@ -161,6 +385,28 @@ public class GroupByClause extends AbstractFLWORClause {
         return seq;
     }
 
+    private void evalGroup(final GroupByData data, final Tuple tuple, final Sequence result) throws XPathException {
+        context.proceed();
+
+        // set grouping variable values
+        final Iterator<Sequence> siter = tuple.groupingValues.iterator();
+        for (LocalVariable var : data.groupingVars) {
+            if (siter.hasNext()) {
+                Sequence val = siter.next();
+                var.setValue(val);
+            } else {
+                throw new XPathException(this, "Internal error: missing grouping value");
+            }
+        }
+        // set values of non-grouping variables
+        for (Map.Entry<QName, Sequence> entry : tuple.entrySet()) {
+            final LocalVariable var = data.variables.get(entry.getKey());
+            var.setValue(entry.getValue());
+        }
+        final Sequence r = returnExpr.eval(null);
+        result.addAll(r);
+    }
+
     @Override
     public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
         contextInfo.setParent(this);
@@ -191,6 +437,19 @@ public class GroupByClause extends AbstractFLWORClause {
             rootClause = prevClause;
             prevClause = prevClause.getPreviousClause();
         }
+
+        final AggregateVisitor visitor = new AggregateVisitor();
+        returnExpr.accept(visitor);
+        if (visitor.isComplete()) {
+            variableUses = visitor.uses;
+            for (final Map.Entry<FunSum, VariableReference> sum : visitor.sums.entrySet()) {
+                if (!variableUses.get(sum.getValue().getName()).other) {
+                    sum.getKey().setGroupedArgument(sum.getValue());
+                }
+            }
+        } else {
+            variableUses = null;
+        }
     }
 
     public void setGroupSpecs(final GroupSpec specs[]) {
@@ -232,6 +491,9 @@ public class GroupByClause extends AbstractFLWORClause {
     @Override
     public void resetState(boolean postOptimization) {
         super.resetState(postOptimization);
+        for (final GroupByData data : stack) {
+            data.discard();
+        }
         stack.clear();
         returnExpr.resetState(postOptimization);
         for (GroupSpec spec: groupSpecs) {
@@ -248,14 +510,14 @@ public class GroupByClause extends AbstractFLWORClause {
      * Compare keys using the collator given in the group spec. Used to
      * sort keys into the grouping map.
      */
-    private int compareKeys(List<AtomicValue> s1, List<AtomicValue> s2) {
-        final int c1 = s1.size();
-        final int c2 = s2.size();
+    private int compareKeys(GroupKey k1, GroupKey k2) {
+        final int c1 = k1.values.length;
+        final int c2 = k2.values.length;
         if (c1 == c2) {
             try {
                 for (int i = 0; i < c1; i++) {
-                    final AtomicValue v1 = s1.get(i);
-                    final AtomicValue v2 = s2.get(i);
+                    final AtomicValue v1 = k1.values[i];
+                    final AtomicValue v2 = k2.values[i];
                     final Collator collator = groupSpecs[i].getCollator();
                     final int r = v1.compareTo(collator, v2);
                     if (r != Constants.EQUAL) {
@@ -293,5 +555,111 @@ public class GroupByClause extends AbstractFLWORClause {
                 seq.addAll(val);
             }
         }
+
+        public void aggregate(final QName name, final Sequence val, final Expression expression, final boolean summed) {
+            aggregate(name, expression, summed).add(val);
+        }
+
+        private GroupAggregate aggregate(final QName name, final Expression expression, final boolean summed) {
+            GroupAggregate aggregate = (GroupAggregate) get(name);
+            if (aggregate == null) {
+                aggregate = new GroupAggregate(expression, summed);
+                put(name, aggregate);
+            }
+            return aggregate;
+        }
+    }
+
+    /**
+     * The atomized grouping keys of a tuple. The hash code is computed
+     * once, as the key is looked up for every tuple.
+     */
+    static final class GroupKey {
+
+        private final AtomicValue[] values;
+        private final int hashCode;
+
+        GroupKey(final AtomicValue[] values) {
+            this.values = values;
+            this.hashCode = Arrays.hashCode(values);
+        }
+
+        int getPartition() {
+            return (hashCode & Integer.MAX_VALUE) % SPILL_PARTITIONS;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof GroupKey && hashCode == ((GroupKey) obj).hashCode &&
+                    Arrays.equals(values, ((GroupKey) obj).values);
+        }
+    }
+
+    /**
+     * Finds the variables in the return expression which are only passed to
+     * fn:count or fn:sum. Gives up on any expression it cannot fully follow,
+     * as it might reference variables in ways the visitor does not see.
+     */
+    private static class AggregateVisitor extends CompleteExpressionVisitor {
+
+        private final Map<QName, VariableUse> uses = new HashMap<>();
+        private final Map<FunSum, VariableReference> sums = new IdentityHashMap<>();
+
+        @Override
+        public void visitVariableReference(final VariableReference ref) {
+            use(ref).other = true;
+        }
+
+        @Override
+        public void visitBuiltinFunction(final Function function) {
+            if (!Function.BUILTIN_FUNCTION_NS.equals(function.getSignature().getName().getNamespaceURI())) {
+                // e.g. util:eval may access any variable
+                giveUp();
+                return;
+            }
+            int i = 0;
+            if (function instanceof FunCount || function instanceof FunSum) {
+                final Expression arg = unwrap(function.getArgument(0));
+                if (arg instanceof VariableReference) {
+                    final VariableUse use = use((VariableReference) arg);
+                    if (function instanceof FunSum) {
+                        use.summed = true;
+                        sums.put((FunSum) function, (VariableReference) arg);
+                    }
+                    i = 1;
+                }
+            }
+            for (; i < function.getArgumentCount(); i++) {
+                function.getArgument(i).accept(this);
+            }
+        }
+
+        @Override
+        public void visitGroupByClause(final GroupByClause groupBy) {
+            // a nested group by would collect the aggregates as values
+            giveUp();
+        }
+
+        private VariableUse use(final VariableReference ref) {
+            return uses.computeIfAbsent(ref.getName(), name -> new VariableUse());
+        }
+
+        private static Expression unwrap(Expression expr) {
+            while (true) {
+                if (expr.getClass() == PathExpr.class && ((PathExpr) expr).getLength() == 1) {
+                    expr = ((PathExpr) expr).getExpression(0);
+                } else if (expr instanceof Atomize || expr instanceof DynamicCardinalityCheck ||
+                        expr instanceof DynamicTypeCheck || expr instanceof UntypedValueCheck) {
+                    expr = expr.getSubExpression(0);
+                } else {
+                    return expr;
+                }
+            }
+        }
     }
 }
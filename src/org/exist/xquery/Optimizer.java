@@ -21,11 +21,15 @@ package org.exist.xquery;
 
 import org.exist.dom.QName;
 import org.exist.xquery.functions.array.ArrayConstructor;
+import org.exist.xquery.functions.fn.FunPosition;
+import org.exist.xquery.functions.fn.FunSubSequence;
 import org.exist.xquery.pragmas.Optimize;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.NumericValue;
+import org.exist.xquery.value.Type;
 
 import java.util.*;
 
@@ -183,6 +187,15 @@ public class Optimizer extends DefaultExpressionVisitor {
     public void visitFilteredExpr(FilteredExpression filtered) {
         super.visitFilteredExpr(filtered);
 
+        // (for ... order by ... return ...)[position() le 10] only needs the first
+        // items of the ordered result
+        if (!filtered.getPredicates().isEmpty()) {
+            final long limit = getPositionalLimit(filtered.getPredicates().get(0));
+            if (limit > 0) {
+                limitOrderBy(filtered.getExpression(), limit);
+            }
+        }
+
         // check if filtered expression can be simplified:
         // handles expressions like //foo/(baz)[...]
         if (filtered.getExpression() instanceof LocationStep) {
@@ -234,6 +247,108 @@ public class Optimizer extends DefaultExpressionVisitor {
         }
     }
 
+    @Override
+    public void visitBuiltinFunction(Function function) {
+        super.visitBuiltinFunction(function);
+
+        // subsequence(for ... order by ... return ..., $start, $length) only needs the
+        // first $start + $length - 1 items of the ordered result
+        if (function instanceof FunSubSequence && function.getArgumentCount() == 3) {
+            final double start = getNumericConstant(function.getArgument(1));
+            final double length = getNumericConstant(function.getArgument(2));
+            if (!Double.isNaN(start) && !Double.isInfinite(start) && !Double.isNaN(length) && !Double.isInfinite(length)) {
+                limitOrderBy(function.getArgument(0), Math.max(1, Math.round(start) + Math.round(length) - 1));
+            }
+        }
+    }
+
+    /**
+     * If the expression is a FLWOR expression which ends with an "order by" clause,
+     * tell the clause that only the first items of the ordered result will be used.
+     */
+    private void limitOrderBy(Expression expression, long limit) {
+        if (limit > Integer.MAX_VALUE) {
+            return;
+        }
+        Expression next = unwrap(expression);
+        if (!(next instanceof ForExpr || next instanceof LetExpr)) {
+            return;
+        }
+        while (next instanceof FLWORClause && !(next instanceof OrderByClause)) {
+            next = ((FLWORClause) next).getReturnExpression();
+        }
+        // the ordered items must be the result of the FLWOR: no further clauses may follow
+        if (next instanceof OrderByClause && !(((OrderByClause) next).getReturnExpression() instanceof FLWORClause)) {
+            final OrderByClause orderBy = (OrderByClause) next;
+            if (orderBy.getLimit() == 0 || limit > orderBy.getLimit()) {
+                if (LOG.isTraceEnabled())
+                    {LOG.trace("Keeping only the first " + limit + " items of order by: " + ExpressionDumper.dump(orderBy));}
+                orderBy.setLimit((int) limit);
+            }
+        }
+    }
+
+    /**
+     * @return the highest position selected by a positional predicate like [10],
+     * [position() lt 10] or [position() le 10], or 0 if the predicate is not positional
+     */
+    private long getPositionalLimit(Predicate predicate) {
+        final Expression expr = unwrap(predicate);
+        if (expr instanceof LiteralValue) {
+            final double position = getNumericConstant(expr);
+            return position >= 1 && position == Math.floor(position) && !Double.isInfinite(position) ? (long) position : 0;
+        }
+        if (expr instanceof GeneralComparison && unwrap(((GeneralComparison) expr).getLeft()) instanceof FunPosition) {
+            final double position = getNumericConstant(((GeneralComparison) expr).getRight());
+            if (Double.isNaN(position) || Double.isInfinite(position)) {
+                return 0;
+            }
+            switch (((GeneralComparison) expr).getRelation()) {
+                case LT:
+                    return Math.max(0, (long) Math.ceil(position) - 1);
+                case LTEQ:
+                case EQ:
+                    return Math.max(0, (long) Math.floor(position));
+                default:
+                    return 0;
+            }
+        }
+        return 0;
+    }
+
+    private double getNumericConstant(Expression expression) {
+        final Expression expr = unwrap(expression);
+        if (expr instanceof LiteralValue) {
+            final AtomicValue value = ((LiteralValue) expr).getValue();
+            if (Type.subTypeOf(value.getType(), Type.NUMBER)) {
+                try {
+                    return ((NumericValue) value).getDouble();
+                } catch (final XPathException e) {
+                    return Double.NaN;
+                }
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Strip single step paths and the type checks added around function arguments.
+     */
+    private Expression unwrap(Expression expression) {
+        while (true) {
+            if (expression instanceof PathExpr && ((PathExpr) expression).getLength() == 1) {
+                expression = ((PathExpr) expression).getExpression(0);
+            } else if (expression instanceof InternalFunctionCall) {
+                expression = ((InternalFunctionCall) expression).getFunction();
+            } else if (expression instanceof Atomize || expression instanceof DynamicCardinalityCheck ||
+                    expression instanceof DynamicTypeCheck || expression instanceof UntypedValueCheck) {
+                expression = expression.getSubExpression(0);
+            } else {
+                return expression;
+            }
+        }
+    }
+
     private boolean hasOptimizable(List<Predicate> preds) {
         // walk through the predicates attached to the current location step.
         // try to find a predicate containing an expression which is an instance
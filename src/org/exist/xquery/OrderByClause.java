@@ -17,6 +17,12 @@ public class OrderByClause extends AbstractFLWORClause {
 
     protected OrderSpec[] orderSpecs = null;
 
+    /**
+     * Number of items at the start of the ordered result which are used
+     * by the enclosing expression, or 0 if all are used.
+     */
+    private int limit = 0;
+
     /*  OrderByClause needs to keep state between calls to eval and postEval. We thus need
         to track state in a stack to avoid overwrites if we're called recursively. */
     private final Deque<OrderedValueSequence> stack = new ArrayDeque<>();
@@ -30,6 +36,21 @@ public class OrderByClause extends AbstractFLWORClause {
         return orderSpecs;
     }
 
+    /**
+     * Set by the {@link Optimizer} if only the first items of the ordered result
+     * are used, e.g. by a call to fn:subsequence. The clause then keeps only those
+     * items instead of sorting the complete result.
+     *
+     * @param limit the number of items to keep
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
     @Override
     public ClauseType getType() {
         return ClauseType.ORDERBY;
@@ -53,7 +74,7 @@ public class OrderByClause extends AbstractFLWORClause {
     public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
         final OrderedValueSequence orderedResult;
         if (stack.isEmpty()) {
-            orderedResult = new OrderedValueSequence(orderSpecs, 100);
+            orderedResult = new OrderedValueSequence(orderSpecs, 100, limit);
         } else {
             orderedResult = stack.pop();
         }
@@ -42,6 +42,7 @@ import org.exist.source.FileSource;
 import org.exist.source.Source;
 import org.exist.source.StringSource;
 import org.exist.storage.DBBroker;
+import org.exist.storage.XQueryPool;
 import org.exist.xquery.parser.XQueryLexer;
 import org.exist.xquery.parser.XQueryParser;
 import org.exist.xquery.parser.XQueryTreeParser;
@@ -75,34 +76,39 @@ public class XQuery {
 
         context.setSource(source);
 
+        //check read permission
+        source.validate(broker.getCurrentSubject(), Permission.READ);
+
+        // the syntax tree does not depend on the context, so the tree of a pooled query can be reused
+        final XQueryPool pool = xpointer ? null : broker.getBrokerPool().getXQueryPool();
+        if (pool != null) {
+            final AST ast = pool.borrowSyntaxTree(broker, source);
+            if (ast != null) {
+                return compile(broker, context, ast, xpointer, System.currentTimeMillis());
+            }
+        }
+
         try(final Reader reader = source.getReader()) {
-            return compile(broker, context, reader, xpointer);
+            final long start = System.currentTimeMillis();
+            final AST ast = parse(context, reader, xpointer);
+            final CompiledXQuery compiled = compile(broker, context, ast, xpointer, start);
+            if (pool != null) {
+                pool.returnSyntaxTree(source, ast);
+            }
+            return compiled;
         } catch(final UnsupportedEncodingException e) {
             throw new XPathException(ErrorCodes.XQST0087, "unsupported encoding " + e.getMessage());
         }
     }
     
-    private CompiledXQuery compile(final DBBroker broker, final XQueryContext context, final Reader reader, final boolean xpointer) throws XPathException, PermissionDeniedException {
-        
-        //check read permission
-        context.getSource().validate(broker.getCurrentSubject(), Permission.READ);
-        
-        
-    	//TODO: move XQueryContext.getUserFromHttpSession() here, have to check if servlet.jar is in the classpath
-    	//before compiling/executing that code though to avoid a dependency on servlet.jar - reflection? - deliriumsky
-    	
-    	// how about - if(XQuery.class.getResource("servlet.jar") != null) do load my class with dependency and call method?
-    	
-    	/*
-    	 	<|wolf77|> I think last time I checked, I already had problems with the call to
-    	 	<|wolf77|> HTTPUtils.addLastModifiedHeader( result, context );
-			<|wolf77|> in line 184 of XQuery.java, because it introduces another dependency on HTTP.
-    	 */
-    	
-    	final long start = System.currentTimeMillis();
+    /**
+     * Parse the query into a syntax tree. The tree only depends on the query text
+     * and is not modified by {@link #compile(DBBroker, XQueryContext, AST, boolean, long)},
+     * so it may be compiled concurrently with different contexts.
+     */
+    private AST parse(final XQueryContext context, final Reader reader, final boolean xpointer) throws XPathException {
         final XQueryLexer lexer = new XQueryLexer(context, reader);
         final XQueryParser parser = new XQueryParser(lexer);
-        final XQueryTreeParser treeParser = new XQueryTreeParser(context);
         try {
             if(xpointer) {
                 parser.xpointer();
@@ -119,7 +125,29 @@ public class XQuery {
             if(ast == null) {
                 throw new XPathException("Unknown XQuery parser error: the parser returned an empty syntax tree.");
             }
-            
+            return ast;
+        } catch(final RecognitionException e) {
+            throw staticError(e);
+        } catch(final TokenStreamException e) {
+            throw staticError(e);
+        }
+    }
+
+    private CompiledXQuery compile(final DBBroker broker, final XQueryContext context, final AST ast, final boolean xpointer, final long start) throws XPathException {
+        
+    	//TODO: move XQueryContext.getUserFromHttpSession() here, have to check if servlet.jar is in the classpath
+    	//before compiling/executing that code though to avoid a dependency on servlet.jar - reflection? - deliriumsky
+    	
+    	// how about - if(XQuery.class.getResource("servlet.jar") != null) do load my class with dependency and call method?
+    	
+    	/*
+    	 	<|wolf77|> I think last time I checked, I already had problems with the call to
+    	 	<|wolf77|> HTTPUtils.addLastModifiedHeader( result, context );
+			<|wolf77|> in line 184 of XQuery.java, because it introduces another dependency on HTTP.
+    	 */
+    	
+        final XQueryTreeParser treeParser = new XQueryTreeParser(context);
+        try {
 //            LOG.debug("Generated AST: " + ast.toStringTree());
             final PathExpr expr = new PathExpr(context);
             if(xpointer) {
@@ -153,25 +181,30 @@ public class XQuery {
             
             return expr;
         } catch(final RecognitionException e) {
+            throw staticError(e);
+        }
+    }
+
+    private static StaticXQueryException staticError(final RecognitionException e) {
+        LOG.debug("Error compiling query: " + e.getMessage(), e);
+        String msg = e.getMessage();
+        if (msg.endsWith(", found 'null'")) {
+            msg = msg.substring(0, msg.length() - ", found 'null'".length());
+        }
+        return new StaticXQueryException(e.getLine(), e.getColumn(), msg);
+    }
+
+    private static StaticXQueryException staticError(final TokenStreamException e) {
+        final String es = e.toString();
+        if(es.matches("^line \\d+:\\d+:.+")) {
             LOG.debug("Error compiling query: " + e.getMessage(), e);
-            String msg = e.getMessage();
-            if (msg.endsWith(", found 'null'")) {
-                msg = msg.substring(0, msg.length() - ", found 'null'".length());
-            }
-            throw new StaticXQueryException(e.getLine(), e.getColumn(), msg);
-        } catch(final TokenStreamException e) {
-            final String es = e.toString();
-            if(es.matches("^line \\d+:\\d+:.+")) {
-                LOG.debug("Error compiling query: " + e.getMessage(), e);
-                final int line = Integer.parseInt(es.substring(5, es.indexOf(':')));
-                final String tmpColumn = es.substring(es.indexOf(':') + 1);
-                final int column = Integer.parseInt(tmpColumn.substring(0, tmpColumn.indexOf(':')));
-                throw new StaticXQueryException(line, column, e.getMessage(), e);
-            } else {
-                LOG.debug("Error compiling query: " + e.getMessage(), e);
-                throw new StaticXQueryException(e.getMessage(), e);
-            }
-            
+            final int line = Integer.parseInt(es.substring(5, es.indexOf(':')));
+            final String tmpColumn = es.substring(es.indexOf(':') + 1);
+            final int column = Integer.parseInt(tmpColumn.substring(0, tmpColumn.indexOf(':')));
+            return new StaticXQueryException(line, column, e.getMessage(), e);
+        } else {
+            LOG.debug("Error compiling query: " + e.getMessage(), e);
+            return new StaticXQueryException(e.getMessage(), e);
         }
     }
     
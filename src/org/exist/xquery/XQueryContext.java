@@ -3255,6 +3255,10 @@ public class XQueryContext implements BinaryValueManager, Context
             if( NoIndexPragma.NO_INDEX_PRAGMA.equals(qname) ) {
                 return( new NoIndexPragma( qname, contents ) );
             }
+
+            if( ParallelPragma.PARALLEL_PRAGMA.equals(qname) ) {
+                return( new ParallelPragma( this, qname, contents ) );
+            }
         }
         return( null );
     }
@@ -25,8 +25,10 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import org.exist.collections.Collection;
+import org.exist.dom.persistent.BitmapDocumentSet;
 import org.exist.dom.persistent.DefaultDocumentSet;
 import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.DocumentNodeSet;
 import org.exist.dom.persistent.DocumentSet;
 import org.exist.dom.persistent.MutableDocumentSet;
 import org.exist.dom.persistent.NewArrayNodeSet;
@@ -131,6 +133,25 @@ public class ExtCollection extends Function {
                 //TODO : add default collection to the context
                 //If the value of the default collection is undefined an error is raised [err:FODC0002].
                 docs = context.getStaticallyKnownDocuments();
+            } else if (!context.inProtectedMode()) {
+                // only collect the ids, the documents are looked up when an index finds them
+                final BitmapDocumentSet ndocs = new BitmapDocumentSet();
+                for (final String next : args) {
+                    final XmldbURI uri = new AnyURIValue(next).toXmldbURI();
+                    final Collection coll = context.getBroker().getCollection(uri);
+                    if (coll == null) {
+                        if (context.isRaiseErrorOnFailedRetrieval()) {
+                            throw new XPathException("FODC0002: can not access collection '" + uri + "'");
+                        }
+                    } else {
+                        coll.allDocIds(context.getBroker(), ndocs, includeSubCollections);
+                    }
+                }
+                final NodeSet result = new DocumentNodeSet(ndocs);
+                registerUpdateListener();
+                if (context.getProfiler().isEnabled())
+                       {context.getProfiler().end(this, "", result);}
+                return result;
             } else {
                 MutableDocumentSet ndocs = new DefaultDocumentSet();
                 for (final String next : args) {
@@ -141,11 +162,7 @@ public class ExtCollection extends Function {
                             throw new XPathException("FODC0002: can not access collection '" + uri + "'");
                         }
                     } else {
-                        if (context.inProtectedMode())
-                            {context.getProtectedDocs().getDocsByCollection(coll, ndocs);}
-                        else
-                            {coll.allDocs(context.getBroker(), ndocs,
-                                includeSubCollections, context.getProtectedDocs());}
+                        context.getProtectedDocs().getDocsByCollection(coll, ndocs);
                     }
                 }
                 docs = ndocs;
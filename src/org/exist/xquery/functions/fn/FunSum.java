@@ -25,9 +25,12 @@ import org.exist.dom.QName;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.Dependency;
 import org.exist.xquery.ErrorCodes;
+import org.exist.xquery.Expression;
 import org.exist.xquery.Function;
 import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.GroupAggregate;
 import org.exist.xquery.Profiler;
+import org.exist.xquery.VariableReference;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.AtomicValue;
@@ -46,8 +49,7 @@ import org.exist.xquery.value.Type;
 
 public class FunSum extends Function {
 	
-	//Used to detect overflows : currently not used.
-	private boolean gotInfinity = false;
+	private VariableReference groupedArgument = null;
 
 	public final static FunctionSignature signatures[] = {
 		new FunctionSignature(
@@ -74,6 +76,17 @@ public class FunSum extends Function {
 		super(context, signature);
     }
 
+    /**
+     * Called by a "group by" clause if the argument of this function only
+     * references a grouping tuple variable. The clause then binds the variable
+     * to a {@link GroupAggregate}, which already holds the sum of the values.
+     *
+     * @param reference the variable reference passed as argument
+     */
+    public void setGroupedArgument(VariableReference reference) {
+    	this.groupedArgument = reference;
+    }
+
 	public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
         if (context.getProfiler().isEnabled()) {
             context.getProfiler().start(this);
@@ -88,50 +101,29 @@ public class FunSum extends Function {
                         "CONTEXT ITEM", contextItem.toSequence());}
         }
         
+        final ComputableValue sum;
+        final Sequence grouped = groupedArgument == null ? null : groupedArgument.eval(contextSequence, contextItem);
+        if (grouped instanceof GroupAggregate) {
+        	// the sum was computed while the groups were built
+        	sum = ((GroupAggregate) grouped).getSum();
+        } else {
+        	final Sequence inner = getArgument(0).eval(contextSequence, contextItem);
+        	final Sum values = new Sum(this);
+        	for (final SequenceIterator iter = inner.iterate(); iter.hasNext() && !values.isDone(); ) {
+        		values.add(iter.nextItem());
+        	}
+        	sum = values.getResult();
+        }
+
         Sequence result;
-        
-		final Sequence inner = getArgument(0).eval(contextSequence, contextItem);	
-		if (inner.isEmpty()) {
+		if (sum == null) {
 			//If $zero is not specified, then the value returned for an empty sequence is the xs:integer value 0
 			Sequence zero = IntegerValue.ZERO;
 			if(getSignature().getArgumentCount() == 2)
 				{zero = getArgument(1).eval(contextSequence, contextItem);}
 			result = zero;
 		} else {
-    		final SequenceIterator iter = inner.iterate();
-    		Item item = iter.nextItem();
-    		AtomicValue value = item.atomize();
-
-        	value = check(value, null);
-    		
-    		//Set the first value
-    		ComputableValue sum = (ComputableValue) value;
-    		while (iter.hasNext()) {
-    			item = iter.nextItem();
-    			value = item.atomize();
-
-            	value = check(value, sum);
-    			
-        		if (Type.subTypeOf(value.getType(), Type.NUMBER)) {
-    				if (((NumericValue)value).isInfinite())
-    					{gotInfinity = true;}    					
-    				if (((NumericValue)value).isNaN()) {
-    					sum = DoubleValue.NaN;
-    					break;
-    				}
-    			}
-    			sum = (ComputableValue)sum.promote(value);
-    			//Aggregate next values
-    			sum = sum.plus((ComputableValue) value);
-    		}
-    		result = sum;
-        }
-        
-		if (!gotInfinity) {
-			if (Type.subTypeOf(result.getItemType(), Type.NUMBER) && ((NumericValue)result).isInfinite()) {
-				//Throw an overflow eception here since we get an infinity 
-				//whereas is hasn't been provided by the sequence
-			}
+			result = sum;
 		}
 
         if (context.getProfiler().isEnabled())
@@ -140,30 +132,81 @@ public class FunSum extends Function {
         return result;        
 	}
 	
-	private AtomicValue check(AtomicValue value, ComputableValue sum) throws XPathException {
+	private static AtomicValue check(Expression expression, AtomicValue value, ComputableValue sum) throws XPathException {
 		//Duration values must either all be xs:yearMonthDuration values or must all be xs:dayTimeDuration values.
 		if (Type.subTypeOf(value.getType(), Type.DURATION)) {
 			value = ((DurationValue)value).wrap();
 			if (value.getType() == Type.YEAR_MONTH_DURATION) {
             	if (sum != null && sum.getType() != Type.YEAR_MONTH_DURATION)
-            		{throw new XPathException(this, ErrorCodes.FORG0006, "Cannot compare " + Type.getTypeName(sum.getType()) +
+            		{throw new XPathException(expression, ErrorCodes.FORG0006, "Cannot compare " + Type.getTypeName(sum.getType()) +
             				" and " + Type.getTypeName(value.getType()), value);}
     		
 			} else if (value.getType() == Type.DAY_TIME_DURATION) {
             	if (sum != null && sum.getType() != Type.DAY_TIME_DURATION)
-            		{throw new XPathException(this, ErrorCodes.FORG0006, "Cannot compare " + Type.getTypeName(sum.getType()) +
+            		{throw new XPathException(expression, ErrorCodes.FORG0006, "Cannot compare " + Type.getTypeName(sum.getType()) +
             				" and " + Type.getTypeName(value.getType()), value);}
 				
 			} else
-				{throw new XPathException(this, ErrorCodes.FORG0006, "Cannot compare " + Type.getTypeName(value.getType()), value);}
+				{throw new XPathException(expression, ErrorCodes.FORG0006, "Cannot compare " + Type.getTypeName(value.getType()), value);}
 
 		//Any values of type xdt:untypedAtomic in the sequence $arg are cast to xs:double
 		} else if (value.getType() == Type.UNTYPED_ATOMIC) 
         	{value = value.convertTo(Type.DOUBLE);}
 		
 		if (!(value instanceof ComputableValue))
-			{throw new XPathException(this, ErrorCodes.XPTY0004, "" + Type.getTypeName(value.getType()) + "(" + value + ")' can not be an operand in a sum");}
+			{throw new XPathException(expression, ErrorCodes.XPTY0004, "" + Type.getTypeName(value.getType()) + "(" + value + ")' can not be an operand in a sum");}
 
 		return value;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Adds up values one at a time, following the rules of fn:sum.
+	 */
+	public static class Sum {
+
+		private final Expression expression;
+		private ComputableValue sum = null;
+		private boolean done = false;
+
+		/**
+		 * @param expression the expression to report errors for
+		 */
+		public Sum(Expression expression) {
+			this.expression = expression;
+		}
+
+		public void add(Item item) throws XPathException {
+			if (done) {
+				return;
+			}
+			final AtomicValue value = check(expression, item.atomize(), sum);
+			if (sum == null) {
+				//Set the first value
+				sum = (ComputableValue) value;
+				return;
+			}
+			if (Type.subTypeOf(value.getType(), Type.NUMBER) && ((NumericValue)value).isNaN()) {
+				sum = DoubleValue.NaN;
+				done = true;
+				return;
+			}
+			sum = (ComputableValue)sum.promote(value);
+			//Aggregate next values
+			sum = sum.plus((ComputableValue) value);
+		}
+
+		/**
+		 * @return true if further values cannot change the result
+		 */
+		public boolean isDone() {
+			return done;
+		}
+
+		/**
+		 * @return the sum of the values added, or null if no value was added
+		 */
+		public ComputableValue getResult() {
+			return sum;
+		}
+	}
+}
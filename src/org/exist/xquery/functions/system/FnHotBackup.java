@@ -0,0 +1,74 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.functions.system;
+
+import org.exist.EXistException;
+import org.exist.dom.QName;
+import org.exist.storage.backup.HotBackup;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.FunctionParameterSequenceType;
+import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.StringValue;
+import org.exist.xquery.value.Type;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class FnHotBackup extends BasicFunction {
+
+    public final static FunctionSignature signature = new FunctionSignature(
+        new QName("hot-backup", SystemModule.NAMESPACE_URI, SystemModule.PREFIX),
+        "Copies the database files to a new directory below $dir while the database keeps running " +
+        "(admin user only). An incremental backup only copies the pages changed since the last backup in $dir. " +
+        "Indexes which are not stored in .dbx files, e.g. the lucene index, are not copied and have to be " +
+        "rebuilt after a restore.",
+        new SequenceType[] {
+            new FunctionParameterSequenceType("dir", Type.STRING, Cardinality.EXACTLY_ONE,
+                "The directory which holds the backups. Must be writeable by the eXist process."),
+            new FunctionParameterSequenceType("incremental", Type.BOOLEAN, Cardinality.ZERO_OR_ONE,
+                "Flag to only copy the changes since the last backup.")
+        },
+        new FunctionReturnSequenceType(Type.STRING, Cardinality.EXACTLY_ONE, "the directory of the new backup"));
+
+    public FnHotBackup(final XQueryContext context) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+        if (!context.getSubject().hasDbaRole()) {
+            throw new XPathException(this, "Permission denied, calling user '" + context.getSubject().getName() + "' must be a DBA to create a backup");
+        }
+        final boolean incremental = args[1].hasOne() && args[1].effectiveBooleanValue();
+        final HotBackup hotBackup = context.getBroker().getBrokerPool().getHotBackup();
+        try {
+            final Path dir = hotBackup.backup(context.getBroker(), Paths.get(args[0].getStringValue()), incremental);
+            return new StringValue(dir.toAbsolutePath().toString());
+        } catch (final EXistException e) {
+            throw new XPathException(this, e.getMessage(), e);
+        }
+    }
+}
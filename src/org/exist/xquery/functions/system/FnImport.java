@@ -33,6 +33,7 @@ import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.NodeValue;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceType;
@@ -41,6 +42,7 @@ import org.exist.xquery.value.Type;
 import java.nio.file.Paths;
 
 import org.exist.backup.SystemImport;
+import org.exist.backup.restore.BulkRestore;
 import org.exist.backup.restore.listener.AbstractRestoreListener;
 import org.exist.backup.restore.listener.RestoreListener;
 
@@ -51,6 +53,12 @@ public class FnImport extends BasicFunction {
 	protected final static QName NAME = 
 			new QName("import", SystemModule.NAMESPACE_URI, SystemModule.PREFIX);
 
+	protected final static QName SILENT_NAME =
+			new QName("import-silently", SystemModule.NAMESPACE_URI, SystemModule.PREFIX);
+
+	protected final static QName BULK_NAME =
+			new QName("import-bulk", SystemModule.NAMESPACE_URI, SystemModule.PREFIX);
+
 	protected final static String DESCRIPTION = 
 		"Restore the database or a section of the database (admin user only).";
 	
@@ -66,6 +74,10 @@ public class FnImport extends BasicFunction {
 		new FunctionParameterSequenceType("new-admin-pass", Type.STRING, Cardinality.ZERO_OR_ONE,
 				"Set the admin password to this new password.");
 
+	protected final static FunctionParameterSequenceType THREADS =
+		new FunctionParameterSequenceType("threads", Type.INTEGER, Cardinality.ZERO_OR_ONE,
+				"The number of threads storing and indexing documents, by default the number of processors.");
+
 	protected final static FunctionReturnSequenceType RETURN =
 		new FunctionReturnSequenceType(Type.NODE, Cardinality.EXACTLY_ONE, "the import results");
 
@@ -81,7 +93,7 @@ public class FnImport extends BasicFunction {
 			RETURN
 		),
 		new FunctionSignature(
-			new QName("import-silently", SystemModule.NAMESPACE_URI, SystemModule.PREFIX),
+			SILENT_NAME,
 			DESCRIPTION +
 			" Messagers from exporter reroute to logs.",
 			new SequenceType[] {
@@ -90,6 +102,19 @@ public class FnImport extends BasicFunction {
 				NEW_ADMIN_PASS
 			}, 
 			RETURN
+		),
+		new FunctionSignature(
+			BULK_NAME,
+			DESCRIPTION +
+			" The resources are stored on several threads in batched transactions, bypassing the XML:DB API." +
+			" Secondary indexes such as lucene, range and ngram are built once all documents are stored.",
+			new SequenceType[] {
+				DIRorFILE,
+				ADMIN_PASS,
+				NEW_ADMIN_PASS,
+				THREADS
+			},
+			RETURN
 		)
 	};
 
@@ -114,7 +139,7 @@ public class FnImport extends BasicFunction {
                 {adminPassAfter = args[2].getStringValue();}
 
         MemTreeBuilder builder = null;
-        if (NAME.equals( mySignature.getName() )) {
+        if (!SILENT_NAME.equals( mySignature.getName() )) {
             builder = context.getDocumentBuilder();
 	        builder.startDocument();
 	        builder.startElement(IMPORT_ELEMENT, null);
@@ -123,7 +148,12 @@ public class FnImport extends BasicFunction {
         try {
         	final SystemImport restore = new SystemImport(context.getDatabase());
             final RestoreListener listener = new XMLRestoreListener(builder);
-            restore.restore(listener, org.exist.security.SecurityManager.DBA_USER, adminPass, adminPassAfter, Paths.get(dirOrFile), XmldbURI.EMBEDDED_SERVER_URI.toString());
+            if (BULK_NAME.equals(mySignature.getName())) {
+                final int threads = args[3].hasOne() ? ((IntegerValue) args[3].itemAt(0)).getInt() : Runtime.getRuntime().availableProcessors();
+                restore.restoreBulk(listener, org.exist.security.SecurityManager.DBA_USER, adminPass, adminPassAfter, Paths.get(dirOrFile), threads, BulkRestore.DEFAULT_BATCH_SIZE);
+            } else {
+                restore.restore(listener, org.exist.security.SecurityManager.DBA_USER, adminPass, adminPassAfter, Paths.get(dirOrFile), XmldbURI.EMBEDDED_SERVER_URI.toString());
+            }
         } catch (final Exception e) {
             throw new XPathException(this, "restore failed with exception: " + e.getMessage(), e);
         }
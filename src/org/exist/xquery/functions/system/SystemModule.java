@@ -42,6 +42,8 @@ public class SystemModule extends AbstractInternalModule {
             new FunctionDef(FnExport.signatures[1], FnExport.class),
             new FunctionDef(FnImport.signatures[0], FnImport.class),
             new FunctionDef(FnImport.signatures[1], FnImport.class),
+            new FunctionDef(FnImport.signatures[2], FnImport.class),
+            new FunctionDef(FnHotBackup.signature, FnHotBackup.class),
 
             new FunctionDef(CountInstances.countInstancesMax, CountInstances.class),
             new FunctionDef(CountInstances.countInstancesActive, CountInstances.class),
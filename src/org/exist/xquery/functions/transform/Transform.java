@@ -24,9 +24,15 @@ import org.apache.logging.log4j.Logger;
 import org.exist.dom.QName;
 import org.exist.dom.memtree.DocumentBuilderReceiver;
 import org.exist.dom.memtree.MemTreeBuilder;
+import org.exist.Namespaces;
+import org.exist.dom.persistent.DefaultDocumentSet;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.MutableDocumentSet;
 import org.exist.dom.persistent.NodeProxy;
 import org.exist.http.servlets.ResponseWrapper;
+import org.exist.indexing.StructuralIndex;
 import org.exist.numbering.NodeId;
+import org.exist.storage.ElementValue;
 import org.exist.storage.serializers.EXistOutputKeys;
 import org.exist.storage.serializers.Serializer;
 import org.exist.storage.serializers.XIncludeFilter;
@@ -45,6 +51,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import javax.xml.transform.*;
+import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
@@ -53,6 +60,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Optional;
 import java.util.Properties;
 
 /**
@@ -221,26 +229,31 @@ public class Transform extends BasicFunction {
                 final SAXResult result = new SAXResult(builderReceiver);
                 result.setLexicalHandler(builderReceiver);        //preserve comments etc... from xslt output
                 handler.setResult(result);
+                final Optional<DocumentImpl> storedInput = getStoredInput(inputNode, serializationProps, expandXIncludes);
                 final Receiver receiver = new ReceiverToSAX(handler);
                 final Serializer serializer = context.getBroker().getSerializer();
                 serializer.reset();
 
                 try {
-                    serializer.setProperties(serializationProps);
-                    serializer.setReceiver(receiver, true);
-                    if (expandXIncludes) {
-                        String xiPath = serializationProps.getProperty(EXistOutputKeys.XINCLUDE_PATH);
-                        if (xiPath != null) {
-                            final Path f = Paths.get(xiPath).normalize();
-                            if (!f.isAbsolute()) {
-                                xiPath = Paths.get(context.getModuleLoadPath(), xiPath).normalize().toAbsolutePath().toString();
+                    if (storedInput.isPresent()) {
+                        transformer.transform(storedDocumentSource(storedInput.get()), result);
+                    } else {
+                        serializer.setProperties(serializationProps);
+                        serializer.setReceiver(receiver, true);
+                        if (expandXIncludes) {
+                            String xiPath = serializationProps.getProperty(EXistOutputKeys.XINCLUDE_PATH);
+                            if (xiPath != null) {
+                                final Path f = Paths.get(xiPath).normalize();
+                                if (!f.isAbsolute()) {
+                                    xiPath = Paths.get(context.getModuleLoadPath(), xiPath).normalize().toAbsolutePath().toString();
+                                }
+                            } else {
+                                xiPath = context.getModuleLoadPath();
                             }
-                        } else {
-                            xiPath = context.getModuleLoadPath();
+                            serializer.getXIncludeFilter().setModuleLoadPath(xiPath);
                         }
-                        serializer.getXIncludeFilter().setModuleLoadPath(xiPath);
+                        serializer.toSAX(inputNode, 1, inputNode.getItemCount(), false, false, 0, 0);
                     }
-                    serializer.toSAX(inputNode, 1, inputNode.getItemCount(), false, false, 0, 0);
 
                 } catch (final Exception e) {
                     throw new XPathException(this, "Exception while transforming node: " + e.getMessage(), e);
@@ -296,30 +309,35 @@ public class Transform extends BasicFunction {
                 final OutputStream os = new BufferedOutputStream(response.getOutputStream());
                 final StreamResult result = new StreamResult(os);
                 handler.setResult(result);
+                final Optional<DocumentImpl> storedInput = getStoredInput(inputNode, serializationProps, expandXIncludes);
                 final Serializer serializer = context.getBroker().getSerializer();
                 serializer.reset();
                 Receiver receiver = new ReceiverToSAX(handler);
 
                 try {
-                    serializer.setProperties(serializationProps);
-                    if (expandXIncludes) {
-                        XIncludeFilter xinclude = new XIncludeFilter(serializer, receiver);
-                        String xiPath = serializationProps.getProperty(EXistOutputKeys.XINCLUDE_PATH);
-                        if (xiPath != null) {
-                            final Path f = Paths.get(xiPath).normalize();
-                            if (!f.isAbsolute()) {
-                                xiPath = Paths.get(context.getModuleLoadPath(), xiPath).normalize().toAbsolutePath().toString();
+                    if (storedInput.isPresent()) {
+                        handler.getTransformer().transform(storedDocumentSource(storedInput.get()), result);
+                    } else {
+                        serializer.setProperties(serializationProps);
+                        if (expandXIncludes) {
+                            XIncludeFilter xinclude = new XIncludeFilter(serializer, receiver);
+                            String xiPath = serializationProps.getProperty(EXistOutputKeys.XINCLUDE_PATH);
+                            if (xiPath != null) {
+                                final Path f = Paths.get(xiPath).normalize();
+                                if (!f.isAbsolute()) {
+                                    xiPath = Paths.get(context.getModuleLoadPath(), xiPath).normalize().toAbsolutePath().toString();
+                                }
+
+                            } else {
+                                xiPath = context.getModuleLoadPath();
                             }
 
-                        } else {
-                            xiPath = context.getModuleLoadPath();
+                            xinclude.setModuleLoadPath(xiPath);
+                            receiver = xinclude;
                         }
-
-                        xinclude.setModuleLoadPath(xiPath);
-                        receiver = xinclude;
+                        serializer.setReceiver(receiver);
+                        serializer.toSAX(inputNode);
                     }
-                    serializer.setReceiver(receiver);
-                    serializer.toSAX(inputNode);
 
                 } catch (final Exception e) {
                     throw new XPathException(this, "Exception while transforming node: " + e.getMessage(), e);
@@ -338,6 +356,49 @@ public class Transform extends BasicFunction {
         }
     }
 
+    /**
+     * A single stored document can be given to the XSLT processor as a DOM, which
+     * the processor navigates in place, instead of serializing it to SAX events
+     * from which the processor builds its own tree. This is only done if serializing
+     * would not change the content: there are no matches to highlight, no
+     * serialization options other than for XInclude, and no XIncludes to expand.
+     *
+     * @return the stored document, or empty if the input has to be serialized
+     */
+    private Optional<DocumentImpl> getStoredInput(final Sequence input, final Properties serializationProps,
+            final boolean expandXIncludes) throws XPathException {
+        if (!input.hasOne() || input.itemAt(0).getType() != Type.DOCUMENT
+                || ((NodeValue) input.itemAt(0)).getImplementationType() != NodeValue.PERSISTENT_NODE) {
+            return Optional.empty();
+        }
+        final NodeProxy proxy = (NodeProxy) input.itemAt(0);
+        if (proxy.getNodeId() != NodeId.DOCUMENT_NODE || proxy.getMatches() != null) {
+            return Optional.empty();
+        }
+        for (final String key : serializationProps.stringPropertyNames()) {
+            if (!EXistOutputKeys.EXPAND_XINCLUDES.equals(key) && !EXistOutputKeys.XINCLUDE_PATH.equals(key)) {
+                return Optional.empty();
+            }
+        }
+        final DocumentImpl doc = proxy.getOwnerDocument();
+        if (expandXIncludes) {
+            final MutableDocumentSet docs = new DefaultDocumentSet(1);
+            docs.add(doc);
+            final StructuralIndex index = context.getBroker().getStructuralIndex();
+            for (final String localName : new String[] { XIncludeFilter.XI_INCLUDE, XIncludeFilter.XI_FALLBACK }) {
+                final QName qname = new QName(localName, Namespaces.XINCLUDE_NS);
+                if (!index.findElementsByTagName(ElementValue.ELEMENT, docs, qname, null).isEmpty()) {
+                    return Optional.empty();
+                }
+            }
+        }
+        return Optional.of(doc);
+    }
+
+    private static Source storedDocumentSource(final DocumentImpl doc) {
+        return new DOMSource(doc, doc.getURI().toASCIIString());
+    }
+
     /**
      * @param stylesheetItem
      * @param options
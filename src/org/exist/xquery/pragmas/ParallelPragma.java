@@ -0,0 +1,367 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.pragmas;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.Namespaces;
+import org.exist.dom.QName;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.storage.BrokerReservation;
+import org.exist.storage.DBBroker;
+import org.exist.xquery.*;
+import org.exist.xquery.functions.array.ArrayModule;
+import org.exist.xquery.functions.map.MapModule;
+import org.exist.xquery.functions.math.MathModule;
+import org.exist.xquery.value.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Evaluates the iterations of a "for" clause in parallel:
+ *
+ * <pre>
+ * (# exist:parallel workers=4 #) {
+ *     for $doc in collection('/db/data') return local:transform($doc)
+ * }
+ * </pre>
+ *
+ * The binding sequence is split into one part per worker. Each worker evaluates
+ * its part with its own broker and its own compiled copy of the query, so no
+ * expression state is shared between threads. The results are concatenated in
+ * the order of the binding sequence. The brokers of the workers are reserved up
+ * front; if the pool cannot provide all of them at once, the "for" is evaluated
+ * sequentially instead of waiting.
+ *
+ * The "for" is only evaluated in parallel if its return expression is known to be
+ * free of side effects and does not depend on the position of the iteration.
+ * Otherwise, and for expressions in library modules, the pragma is ignored.
+ */
+public class ParallelPragma extends Pragma {
+
+    private final static Logger LOG = LogManager.getLogger(ParallelPragma.class);
+
+    public final static QName PARALLEL_PRAGMA = new QName("parallel", Namespaces.EXIST_NS, "exist");
+
+    /** context attribute listing the parallel pragmas of a query in parse order */
+    private final static String PRAGMAS_ATTRIBUTE = ParallelPragma.class.getName();
+
+    /** the namespaces of functions known to be free of side effects */
+    private final static Set<String> PURE_NAMESPACES = new HashSet<>(Arrays.asList(
+            Function.BUILTIN_FUNCTION_NS, MathModule.NAMESPACE_URI, MapModule.NAMESPACE_URI,
+            ArrayModule.NAMESPACE_URI));
+
+    private final XQueryContext context;
+    private final int id;
+    private int workers = Runtime.getRuntime().availableProcessors();
+
+    private ForExpr forExpr = null;
+    private Boolean parallelizable = null;
+
+    /** compiled copies of the query which are not in use by a worker */
+    private final Queue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+
+    public ParallelPragma(XQueryContext context, QName qname, String contents) throws XPathException {
+        super(qname, contents);
+        this.context = context;
+        if (contents != null && contents.length() > 0) {
+            final String options[] = Option.tokenize(contents);
+            for (int i = 0; i < options.length; i++) {
+                final String param[] = Option.parseKeyValuePair(options[i]);
+                if (param == null)
+                    {throw new XPathException("Invalid content found for pragma " + PARALLEL_PRAGMA.getStringValue() +
+                        ": " + contents);}
+                if ("workers".equals(param[0])) {
+                    try {
+                        workers = Integer.parseInt(param[1]);
+                    } catch (final NumberFormatException e) {
+                        throw new XPathException("Invalid value for workers in pragma " +
+                            PARALLEL_PRAGMA.getStringValue() + ": " + param[1]);
+                    }
+                }
+            }
+        }
+        if (context instanceof ModuleContext) {
+            // the copies for the workers are compiled from the main module
+            id = -1;
+        } else {
+            id = getPragmas(context).size();
+            getPragmas(context).add(this);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<ParallelPragma> getPragmas(XQueryContext context) {
+        List<ParallelPragma> pragmas = (List<ParallelPragma>) context.getAttribute(PRAGMAS_ATTRIBUTE);
+        if (pragmas == null) {
+            pragmas = new ArrayList<>();
+            context.setAttribute(PRAGMAS_ATTRIBUTE, pragmas);
+        }
+        return pragmas;
+    }
+
+    public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
+        forExpr = null;
+        parallelizable = null;
+        if (contextInfo.getParent() instanceof ExtensionExpression) {
+            Expression inner = ((ExtensionExpression) contextInfo.getParent()).getExpression();
+            while (inner instanceof PathExpr && inner.getClass() == PathExpr.class &&
+                    ((PathExpr) inner).getLength() == 1) {
+                inner = ((PathExpr) inner).getExpression(0);
+            }
+            if (inner instanceof ForExpr) {
+                forExpr = (ForExpr) inner;
+            }
+        }
+    }
+
+    public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
+        if (!isParallelizable()) {
+            return null;
+        }
+        final Sequence in = forExpr.getInputSequence().eval(contextSequence, null);
+        final int parts = Math.min(workers, in.getItemCount());
+        if (parts < 2) {
+            return forExpr.eval(contextSequence, contextItem, in);
+        }
+        // each worker needs a broker of its own. This thread already holds a broker,
+        // so it must not wait for more: reserve them all up front or run sequentially
+        final Optional<BrokerReservation> reserved = context.getBroker().getBrokerPool().tryReserve(parts);
+        if (!reserved.isPresent()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Not enough brokers available for " + parts + " workers, evaluating sequentially");
+            }
+            return forExpr.eval(contextSequence, contextItem, in);
+        }
+
+        final ValueSequence result = new ValueSequence();
+        try (final BrokerReservation reservation = reserved.get()) {
+            final List<Sequence> chunks = split(in, parts);
+            final Optional<Subject> subject = Optional.of(context.getBroker().getCurrentSubject());
+            final List<ClosureVariable> localStack = context.getLocalStack();
+            final Map<QName, Variable> globalVariables = context.getGlobalVariables();
+            final List<Callable<Sequence>> tasks = new ArrayList<>(chunks.size());
+            for (final Sequence chunk : chunks) {
+                tasks.add(() -> {
+                    try (final DBBroker broker = reservation.get(subject)) {
+                        return evalChunk(broker, globalVariables, localStack, contextSequence, contextItem, chunk);
+                    }
+                });
+            }
+
+            for (final Future<Sequence> future : WorkerPool.POOL.invokeAll(tasks)) {
+                result.addAll(future.get());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XPathException(forExpr, "Interrupted while waiting for parallel workers");
+        } catch (final ExecutionException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof RuntimeException && cause.getCause() != null) {
+                // checked exceptions of the tasks are wrapped by the fork-join pool
+                cause = cause.getCause();
+            }
+            if (cause instanceof XPathException) {
+                throw (XPathException) cause;
+            }
+            throw new XPathException(forExpr, "Parallel evaluation failed: " + cause.getMessage(), cause);
+        }
+        return result;
+    }
+
+    private Sequence evalChunk(DBBroker broker, Map<QName, Variable> globalVariables, List<ClosureVariable> localStack,
+            Sequence contextSequence, Item contextItem, Sequence chunk) throws XPathException, PermissionDeniedException,
+            IOException, EXistException {
+        Worker worker = idleWorkers.poll();
+        if (worker == null) {
+            worker = compileWorker(broker);
+        }
+        final XQueryContext workerContext = worker.compiled.getContext();
+        try {
+            workerContext.prepareForExecution();
+            for (final Variable var : globalVariables.values()) {
+                if (var instanceof VariableImpl) {
+                    workerContext.declareGlobalVariable(new VariableImpl((VariableImpl) var));
+                }
+            }
+            final LocalVariable mark = workerContext.markLocalVariables(false);
+            try {
+                workerContext.restoreStack(localStack);
+                return worker.forExpr.eval(contextSequence, contextItem, chunk);
+            } finally {
+                workerContext.popLocalVariables(mark);
+            }
+        } finally {
+            worker.compiled.reset();
+            workerContext.reset();
+            idleWorkers.add(worker);
+        }
+    }
+
+    private Worker compileWorker(DBBroker broker) throws XPathException, PermissionDeniedException, IOException {
+        final XQueryContext workerContext = new XQueryContext(broker.getBrokerPool());
+        workerContext.setModuleLoadPath(context.getModuleLoadPath());
+        workerContext.setBaseURI(context.getBaseURI());
+        final CompiledXQuery compiled = broker.getBrokerPool().getXQueryService()
+            .compile(broker, workerContext, context.getSource());
+        final List<ParallelPragma> pragmas = getPragmas(workerContext);
+        if (id >= pragmas.size() || pragmas.get(id).forExpr == null) {
+            throw new XPathException(forExpr, "Could not find the parallel expression in the compiled copy of the query");
+        }
+        return new Worker(compiled, pragmas.get(id).forExpr);
+    }
+
+    /**
+     * Splits the binding sequence into about the given number of parts. Nodes
+     * of the same document are kept in one part.
+     */
+    private static List<Sequence> split(Sequence in, int parts) throws XPathException {
+        final boolean nodeSet = in instanceof NodeSet;
+        final int chunkSize = (in.getItemCount() + parts - 1) / parts;
+        final List<Sequence> chunks = new ArrayList<>(parts);
+        ValueSequence chunk = new ValueSequence(chunkSize);
+        DocumentImpl lastDoc = null;
+        for (final SequenceIterator i = in.iterate(); i.hasNext(); ) {
+            final Item item = i.nextItem();
+            final DocumentImpl doc = item instanceof NodeProxy ? ((NodeProxy) item).getOwnerDocument() : null;
+            if (chunk.getItemCount() >= chunkSize && (doc == null || doc != lastDoc)) {
+                chunks.add(nodeSet ? chunk.toNodeSet() : chunk);
+                chunk = new ValueSequence(chunkSize);
+            }
+            chunk.add(item);
+            lastDoc = doc;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(nodeSet ? chunk.toNodeSet() : chunk);
+        }
+        return chunks;
+    }
+
+    private boolean isParallelizable() {
+        if (parallelizable == null) {
+            parallelizable = checkParallelizable();
+            if (!parallelizable && LOG.isDebugEnabled()) {
+                LOG.debug("Expression cannot be evaluated in parallel, ignoring pragma " +
+                    PARALLEL_PRAGMA.getStringValue());
+            }
+        }
+        return parallelizable;
+    }
+
+    private boolean checkParallelizable() {
+        if (id < 0 || forExpr == null || forExpr.getPositionalVariable() != null || context.getSource() == null) {
+            return false;
+        }
+        for (final Iterator<Module> i = context.getAllModules(); i.hasNext(); ) {
+            if (!i.next().isInternalModule()) {
+                // global variables of library modules are not passed to the workers
+                return false;
+            }
+        }
+        // order by and group by need to see all tuples
+        for (Expression next = forExpr.getReturnExpression(); next instanceof FLWORClause;
+                next = ((FLWORClause) next).getReturnExpression()) {
+            final FLWORClause.ClauseType type = ((FLWORClause) next).getType();
+            if (type == FLWORClause.ClauseType.ORDERBY || type == FLWORClause.ClauseType.GROUPBY) {
+                return false;
+            }
+        }
+        if (Dependency.dependsOn(forExpr.getReturnExpression(), Dependency.CONTEXT_POSITION)) {
+            return false;
+        }
+        final SideEffectVisitor visitor = new SideEffectVisitor();
+        forExpr.getReturnExpression().accept(visitor);
+        return visitor.isComplete();
+    }
+
+    public void before(XQueryContext context, Expression expression, Sequence contextSequence) throws XPathException {
+    }
+
+    public void after(XQueryContext context, Expression expression) throws XPathException {
+    }
+
+    public void resetState(boolean postOptimization) {
+        super.resetState(postOptimization);
+        if (!postOptimization) {
+            idleWorkers.clear();
+        }
+    }
+
+    private static class Worker {
+        final CompiledXQuery compiled;
+        final ForExpr forExpr;
+
+        Worker(CompiledXQuery compiled, ForExpr forExpr) {
+            this.compiled = compiled;
+            this.forExpr = forExpr;
+        }
+    }
+
+    /**
+     * Completes only if all called functions are known to be free of side effects.
+     */
+    private static class SideEffectVisitor extends CompleteExpressionVisitor {
+
+        private final Set<UserDefinedFunction> functions = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        @Override
+        public void visitBuiltinFunction(Function function) {
+            final FunctionSignature signature = function.getSignature();
+            if (!PURE_NAMESPACES.contains(signature.getName().getNamespaceURI())) {
+                giveUp();
+                return;
+            }
+            final SequenceType[] argumentTypes = signature.getArgumentTypes();
+            if (argumentTypes != null) {
+                for (final SequenceType type : argumentTypes) {
+                    if (type.getPrimaryType() == Type.FUNCTION_REFERENCE) {
+                        // higher-order functions may call anything
+                        giveUp();
+                        return;
+                    }
+                }
+            }
+            super.visitBuiltinFunction(function);
+        }
+
+        @Override
+        public void visitFunctionCall(FunctionCall call) {
+            super.visitFunctionCall(call);
+            final UserDefinedFunction function = call.getFunction();
+            if (function == null) {
+                giveUp();
+            } else if (functions.add(function)) {
+                function.getFunctionBody().accept(this);
+            }
+        }
+    }
+
+    /** lazily created, shared by all queries */
+    private static class WorkerPool {
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -34,7 +34,10 @@ import org.exist.xquery.util.ExpressionDumper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.stream.Stream;
 
 /**
@@ -44,6 +47,10 @@ import java.util.stream.Stream;
  * Contrary to class {@link org.exist.xquery.value.PreorderedValueSequence},
  * all order expressions are evaluated once for each item in the sequence
  * <b>while</b> items are added.
+ * <p>
+ * If only the first <code>limit</code> items of the ordered sequence will ever be
+ * used, the sequence keeps just those in a bounded heap and drops all other items
+ * while they are added.
  *
  * @author wolf
  */
@@ -57,8 +64,26 @@ public class OrderedValueSequence extends AbstractSequence {
     // used to keep track of the type of added items.
     private int itemType = Type.ANY_TYPE;
 
+    private final int limit;
+    private PriorityQueue<Entry> topItems = null;
+    private int added = 0;
+
     public OrderedValueSequence(OrderSpec orderSpecs[], int size) {
+        this(orderSpecs, size, 0);
+    }
+
+    /**
+     * @param orderSpecs the order specs of the order by clause
+     * @param size initial capacity
+     * @param limit the number of items at the start of the ordered sequence which will be used, or 0 to keep all items
+     */
+    public OrderedValueSequence(OrderSpec orderSpecs[], int size, int limit) {
         this.orderSpecs = orderSpecs;
+        this.limit = limit;
+        if (limit > 0) {
+            size = Math.min(size, limit);
+            this.topItems = new PriorityQueue<>(size + 1, Collections.reverseOrder());
+        }
         if (size == 0) {
             size = 1;
         }
@@ -98,6 +123,12 @@ public class OrderedValueSequence extends AbstractSequence {
      * @see org.exist.xquery.value.Sequence#add(org.exist.xquery.value.Item)
      */
     public void add(Item item) throws XPathException {
+        if (topItems != null) {
+            addTopItem(new Entry(item, added++));
+            checkItemType(item.getType());
+            setHasChanged();
+            return;
+        }
         if (hasOne) {
             hasOne = false;
         }
@@ -117,6 +148,20 @@ public class OrderedValueSequence extends AbstractSequence {
         setHasChanged();
     }
 
+    /**
+     * Keep the entry if it is among the first <code>limit</code> entries
+     * in sort order seen so far.
+     */
+    private void addTopItem(Entry entry) {
+        if (topItems.size() < limit) {
+            topItems.add(entry);
+        } else if (entry.compareTo(topItems.peek()) < 0) {
+            topItems.poll();
+            topItems.add(entry);
+        }
+        isEmpty = false;
+    }
+
     /* (non-Javadoc)
      * @see org.exist.xquery.value.AbstractSequence#addAll(org.exist.xquery.value.Sequence)
      */
@@ -133,9 +178,18 @@ public class OrderedValueSequence extends AbstractSequence {
         }
     }
 
-    public void sort() {
+    public void sort() throws XPathException {
+        if (topItems != null) {
+            items = topItems.toArray(new Entry[topItems.size()]);
+            topItems = null;
+            count = items.length;
+            Arrays.sort(items);
+            for (final Entry entry : items) {
+                entry.clear();
+            }
+        } else {
 //		FastQSort.sort(items, 0, count - 1);
-        items =
+            items =
                 Stream.of(items).filter(Objects::nonNull)
                         .parallel()
                         .sorted()
@@ -144,6 +198,9 @@ public class OrderedValueSequence extends AbstractSequence {
                             return entry;
                         })
                         .toArray(Entry[]::new);
+        }
+        isEmpty = count == 0;
+        hasOne = count == 1;
     }
 
     /* (non-Javadoc)
@@ -359,9 +416,9 @@ public class OrderedValueSequence extends AbstractSequence {
                     final boolean bIsEmpty = (b.isEmpty() || (Type.subTypeOf(b.getType(), Type.NUMBER) && ((NumericValue) b).isNaN()));
                     if (aIsEmpty) {
                         if (bIsEmpty)
-                        // both values are empty
+                        // both values are empty: compare the next key
                         {
-                            return Constants.EQUAL;
+                            cmp = Constants.EQUAL;
                         } else if ((orderSpecs[i].getModifiers() & OrderSpec.EMPTY_LEAST) != 0) {
                             cmp = Constants.INFERIOR;
                         } else {
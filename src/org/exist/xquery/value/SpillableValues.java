@@ -0,0 +1,102 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.value;
+
+import org.exist.xquery.XPathException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes atomic values to and reads them back from temporary files. Used by
+ * the FLWOR clauses which move intermediate state out of memory, like the
+ * sort keys of an "order by" or the groups of a "group by".
+ */
+public final class SpillableValues {
+
+    private SpillableValues() {
+    }
+
+    /**
+     * Check if the value can be restored from its serialized form
+     * without loss.
+     *
+     * @param value the value to check
+     * @return true if the value can be passed to {@link #write(DataOutputStream, AtomicValue)}
+     */
+    public static boolean isSpillable(final AtomicValue value) {
+        final int type = value.getType();
+        return value.isEmpty() || type == Type.UNTYPED_ATOMIC || type == Type.BOOLEAN || type == Type.ANY_URI ||
+                Type.subTypeOf(type, Type.STRING) || Type.subTypeOf(type, Type.NUMBER) ||
+                Type.subTypeOf(type, Type.DATE_TIME) || Type.subTypeOf(type, Type.DATE) ||
+                Type.subTypeOf(type, Type.TIME) || Type.subTypeOf(type, Type.DURATION);
+    }
+
+    /**
+     * Write the type of the value followed by its data.
+     */
+    public static void write(final DataOutputStream os, final AtomicValue value) throws IOException {
+        if (value.isEmpty()) {
+            os.writeInt(Type.EMPTY);
+            return;
+        }
+        final int type = value.getType();
+        os.writeInt(type);
+        if (type == Type.DOUBLE) {
+            os.writeDouble(((DoubleValue) value).getValue());
+        } else if (type == Type.FLOAT) {
+            os.writeFloat(((FloatValue) value).getValue());
+        } else {
+            final byte[] data;
+            try {
+                data = value.getStringValue().getBytes(StandardCharsets.UTF_8);
+            } catch (final XPathException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            os.writeInt(data.length);
+            os.write(data);
+        }
+    }
+
+    /**
+     * Read a value written by {@link #write(DataOutputStream, AtomicValue)}.
+     */
+    public static AtomicValue read(final DataInputStream is) throws IOException {
+        final int type = is.readInt();
+        switch (type) {
+            case Type.EMPTY:
+                return AtomicValue.EMPTY_VALUE;
+            case Type.DOUBLE:
+                return new DoubleValue(is.readDouble());
+            case Type.FLOAT:
+                return new FloatValue(is.readFloat());
+            default:
+                final byte[] data = new byte[is.readInt()];
+                is.readFully(data);
+                try {
+                    return new StringValue(new String(data, StandardCharsets.UTF_8)).convertTo(type);
+                } catch (final XPathException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+        }
+    }
+}
@@ -25,6 +25,9 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.URIResolver;
@@ -51,6 +54,9 @@ public class EXistURIResolver implements URIResolver {
   final BrokerPool db;
   final String basePath;
 
+  // database documents resolved so far, with their last modification time
+  private final Map<XmldbURI, Long> resolved = new ConcurrentHashMap<>();
+
   public EXistURIResolver(final BrokerPool db, final String docPath) {
     this.db = db;
     this.basePath = normalize(docPath);
@@ -59,6 +65,16 @@ public class EXistURIResolver implements URIResolver {
     }
   }
 
+  /**
+   * Get the documents which have been resolved from the database,
+   * e.g. the modules imported or included by a stylesheet.
+   *
+   * @return the resolved documents mapped to their last modification time
+   */
+  public Map<XmldbURI, Long> getResolvedDocuments() {
+    return Collections.unmodifiableMap(resolved);
+  }
+
   private String normalize(String uri) {
     if (uri.startsWith(XmldbURI.EMBEDDED_SERVER_URI_PREFIX)) {
       return uri.substring(XmldbURI.EMBEDDED_SERVER_URI_PREFIX.length());
@@ -182,6 +198,7 @@ public class EXistURIResolver implements URIResolver {
         LOG.error("Document " + path + " not found");
         throw new TransformerException("Resource " + path + " not found in database.");
       }
+      resolved.put(doc.getURI(), doc.getMetadata().getLastModified());
 
       final Source source;
       if (doc instanceof BinaryDocument) {
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Properties;
 import javax.xml.transform.Templates;
@@ -35,6 +36,7 @@ import net.jcip.annotations.ThreadSafe;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.Permission;
 import org.exist.security.PermissionDeniedException;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
@@ -59,6 +61,9 @@ public class StylesheetResolverAndCompiler implements Stylesheet {
   long lastModified = -1;
   Templates templates = null;
 
+  // database modules imported or included by the stylesheet, with their last modification time
+  Map<XmldbURI, Long> dependencies = Collections.emptyMap();
+
   String uri;
   String base;
 
@@ -92,12 +97,17 @@ public class StylesheetResolverAndCompiler implements Stylesheet {
         if (doc == null) {
           throw new IOException("XSL stylesheet not found: "+docPath);
         }
-        if (templates == null || doc.getMetadata().getLastModified() > lastModified) {
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("compiling stylesheet " + doc.getURI());
+        synchronized (this) {
+          if (templates == null || doc.getMetadata().getLastModified() != lastModified || isModified(broker, dependencies)) {
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("compiling stylesheet " + doc.getURI());
+            }
+            final EXistURIResolver resolver = new EXistURIResolver(broker.getBrokerPool(), base);
+            templates = compileTemplates(broker, doc, resolver, errorListener);
+            lastModified = doc.getMetadata().getLastModified();
+            dependencies = resolver.getResolvedDocuments();
           }
-          templates = compileTemplates(broker, doc, errorListener);
-          lastModified = doc.getMetadata().getLastModified();
+          return templates;
         }
       } finally {
         if (doc != null) {
@@ -109,18 +119,37 @@ public class StylesheetResolverAndCompiler implements Stylesheet {
       final URL url = new URL(uri);
       final URLConnection connection = url.openConnection();
       long modified = connection.getLastModified();
-      if (templates == null || modified > lastModified || modified == 0) {
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("compiling stylesheet " + url);
-        }
-        try (final InputStream is = connection.getInputStream()) {
-          templates = factory(broker.getBrokerPool(), errorListener).newTemplates(new StreamSource(is));
+      synchronized (this) {
+        if (templates == null || modified > lastModified || modified == 0) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("compiling stylesheet " + url);
+          }
+          try (final InputStream is = connection.getInputStream()) {
+            templates = factory(broker.getBrokerPool(), new EXistURIResolver(broker.getBrokerPool(), base), errorListener)
+                .newTemplates(new StreamSource(is));
+          }
         }
+        lastModified = modified;
+        return templates;
       }
-      lastModified = modified;
     }
+  }
 
-    return templates;
+  /**
+   * Check whether one of the stylesheet modules in the database
+   * has been updated or removed since the stylesheet was compiled.
+   */
+  private boolean isModified(DBBroker broker, Map<XmldbURI, Long> dependencies) throws PermissionDeniedException {
+    for (final Map.Entry<XmldbURI, Long> dependency : dependencies.entrySet()) {
+      final DocumentImpl module = broker.getResource(dependency.getKey(), Permission.READ);
+      if (module == null || module.getMetadata().getLastModified() != dependency.getValue()) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("stylesheet module " + dependency.getKey() + " has changed");
+        }
+        return true;
+      }
+    }
+    return false;
   }
 
   @Override
@@ -138,12 +167,11 @@ public class StylesheetResolverAndCompiler implements Stylesheet {
   private <E extends Exception> Templates compileTemplates(
       DBBroker broker,
       DocumentImpl stylesheet,
+      EXistURIResolver resolver,
       XSLTErrorsListener<E> errorListener)
       throws E, TransformerConfigurationException, SAXException
   {
-    //factory.setURIResolver(new EXistURIResolver(broker, stylesheet.getCollection().getURI().toString()));
-
-    final TemplatesHandler handler = factory(broker.getBrokerPool(), errorListener).newTemplatesHandler();
+    final TemplatesHandler handler = factory(broker.getBrokerPool(), resolver, errorListener).newTemplatesHandler();
 
     handler.startDocument();
 
@@ -177,7 +205,7 @@ public class StylesheetResolverAndCompiler implements Stylesheet {
     return factory;
   }
 
-  private <E extends Exception> SAXTransformerFactory factory(BrokerPool db, XSLTErrorsListener<E> errorListener) {
+  private <E extends Exception> SAXTransformerFactory factory(BrokerPool db, EXistURIResolver resolver, XSLTErrorsListener<E> errorListener) {
     SAXTransformerFactory newFactory = TransformerFactoryAllocator.getTransformerFactory(db);
 
     if (properties != null) {
@@ -186,7 +214,7 @@ public class StylesheetResolverAndCompiler implements Stylesheet {
         newFactory.setAttribute((String) attribute.getKey(), attribute.getValue());
       }
     }
-    newFactory.setURIResolver(new EXistURIResolver(db, base));
+    newFactory.setURIResolver(resolver);
     newFactory.setErrorListener(errorListener);
     return newFactory;
   }
@@ -25,6 +25,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import javax.xml.transform.Templates;
@@ -44,6 +45,10 @@ import org.xml.sax.SAXException;
  * Factory for stylesheet resolver and compiler instances
  * and if instance is safe for reuse then it cached.
  *
+ * A cached instance keeps its compiled {@link Templates} until the
+ * stylesheet, or one of the modules it imports or includes from the
+ * database, is modified.
+ *
  * @author <a href="mailto:shabanovd@gmail.com">Dmitriy Shabanov</a>
  */
 @ThreadSafe
@@ -53,13 +58,22 @@ public class TemplatesFactory {
 
   public static Stylesheet stylesheet(String stylesheet, String baseUri, Properties properties, boolean useCache) {
 
-    if (useCache && properties == null) {
-      return stylesheet(stylesheet, baseUri);
+    if (properties == null || properties.isEmpty()) {
+      return stylesheet(stylesheet, baseUri, useCache);
     }
 
     String uri = uri(stylesheet, baseUri);
 
-    return new StylesheetResolverAndCompiler(uri, properties);
+    final Properties attributes = new Properties();
+    attributes.putAll(properties);
+
+    if (!useCache) {
+      return new StylesheetResolverAndCompiler(uri, attributes);
+    }
+
+    // factory attributes may change how the stylesheet is compiled, so they are part of the key
+    final String key = uri + '#' + new TreeMap<>(attributes);
+    return cache.computeIfAbsent(key, k -> new StylesheetResolverAndCompiler(uri, attributes));
   }
 
   private static Stylesheet stylesheet(String stylesheet, String baseUri) {
@@ -0,0 +1,191 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.backup;
+
+import org.exist.EXistException;
+import org.exist.backup.restore.listener.LogRestoreListener;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.Permission;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.exist.test.TestConstants.TEST_COLLECTION_URI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkRestoreTest {
+
+    private static final int DOCUMENTS = 50;
+    private static final XmldbURI SUB_COLLECTION_URI = TEST_COLLECTION_URI.append("sub");
+
+    private static final String LUCENE_CONFIG =
+        "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+        "    <index>" +
+        "        <lucene>" +
+        "            <text qname=\"item\"/>" +
+        "        </lucene>" +
+        "    </index>" +
+        "</collection>";
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, false);
+
+    @Test
+    public void restoreBulk() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            final Collection test = broker.getOrCreateCollection(transaction, TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, test);
+            final Collection sub = broker.getOrCreateCollection(transaction, SUB_COLLECTION_URI);
+            broker.saveCollection(transaction, sub);
+
+            for (int i = 0; i < DOCUMENTS; i++) {
+                final Collection collection = i % 2 == 0 ? test : sub;
+                final String xml = "<doc><item n=\"" + i + "\">item " + i + "</item></doc>";
+                final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create("doc" + i + ".xml"), xml);
+                collection.store(transaction, broker, info, xml);
+            }
+            test.addBinaryResource(transaction, broker, XmldbURI.create("test.bin"), "binary".getBytes(), "application/octet-stream");
+
+            final DocumentImpl doc = test.getDocument(broker, XmldbURI.create("doc0.xml"));
+            doc.getPermissions().setMode(0700);
+            broker.storeXMLResource(transaction, doc);
+
+            transaction.commit();
+        }
+
+        final Path file;
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final SystemExport export = new SystemExport(broker, null, null, true);
+            file = export.export("backup", false, false, null);
+        }
+
+        clean();
+
+        new SystemImport(pool).restoreBulk(new LogRestoreListener(), "admin", "", "", file, 4, 7);
+
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            assertEquals(DOCUMENTS / 2, broker.getCollection(TEST_COLLECTION_URI).getDocumentCount(broker) - 1);
+            assertEquals(DOCUMENTS / 2, broker.getCollection(SUB_COLLECTION_URI).getDocumentCount(broker));
+
+            final DocumentImpl doc = broker.getXMLResource(TEST_COLLECTION_URI.append("doc0.xml"), LockMode.READ_LOCK);
+            assertNotNull(doc);
+            try {
+                assertEquals(0700, doc.getPermissions().getMode());
+            } finally {
+                doc.getUpdateLock().release(LockMode.READ_LOCK);
+            }
+
+            final DocumentImpl binary = broker.getResource(TEST_COLLECTION_URI.append("test.bin"), Permission.READ);
+            assertNotNull(binary);
+            assertEquals(DocumentImpl.BINARY_FILE, binary.getResourceType());
+
+            final XQuery xquery = pool.getXQueryService();
+            final Sequence seq = xquery.execute(broker, "collection('" + TEST_COLLECTION_URI + "')//item[@n = '33']/string()", null);
+            assertEquals(1, seq.getItemCount());
+            assertEquals("item 33", seq.getStringValue());
+        }
+    }
+
+    @Test
+    public void indexesStoredDocumentsOnFailure() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            final Collection test = broker.getOrCreateCollection(transaction, TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, test);
+            pool.getConfigurationManager().addConfiguration(transaction, broker, test, LUCENE_CONFIG);
+            final Collection sub = broker.getOrCreateCollection(transaction, SUB_COLLECTION_URI);
+            broker.saveCollection(transaction, sub);
+
+            for (int i = 0; i < DOCUMENTS; i++) {
+                final Collection collection = i % 2 == 0 ? test : sub;
+                final String xml = "<doc><item n=\"" + i + "\">item " + i + "</item></doc>";
+                final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create("doc" + i + ".xml"), xml);
+                collection.store(transaction, broker, info, xml);
+            }
+            transaction.commit();
+        }
+
+        final Path file;
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final SystemExport export = new SystemExport(broker, null, null, true);
+            file = export.export("backup", false, false, null);
+        }
+
+        clean();
+
+        // the descriptor of the sub collection is read after the documents of its parent have been queued
+        final Path subDescriptor = file.resolve("db/test/sub/__contents__.xml");
+        assertTrue(Files.exists(subDescriptor));
+        Files.write(subDescriptor, "<collection".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            new SystemImport(pool).restoreBulk(new LogRestoreListener(), "admin", "", "", file, 4, 7);
+            fail("Expected the restore to fail");
+        } catch (final SAXException e) {
+            // expected
+        }
+
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            assertEquals(DOCUMENTS / 2, broker.getCollection(TEST_COLLECTION_URI).getDocumentCount(broker));
+
+            final XQuery xquery = pool.getXQueryService();
+            final Sequence seq = xquery.execute(broker, "count(collection('" + TEST_COLLECTION_URI + "')//item[ft:query(., 'item')])", null);
+            assertEquals(DOCUMENTS / 2, seq.itemAt(0).toJavaObject(Integer.class).intValue());
+        }
+    }
+
+    @After
+    public void clean() throws PermissionDeniedException, IOException, TriggerException, EXistException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            final Collection test = broker.getCollection(TEST_COLLECTION_URI);
+            if(test != null) {
+                broker.removeCollection(transaction, test);
+            }
+            transaction.commit();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.dom.memtree;
+
+import org.exist.dom.QName;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Text;
+import org.xml.sax.helpers.AttributesImpl;
+
+import static org.junit.Assert.assertEquals;
+
+public class TextSlabsTest {
+
+    private static final String MIXED = "aé€😀z";
+
+    @Test
+    public void roundTrip() {
+        for (final boolean offHeap : new boolean[] { false, true }) {
+            final TextSlabs slabs = new TextSlabs(offHeap);
+            final int offset = slabs.length();
+            final int len = slabs.append(MIXED);
+            assertEquals(MIXED, slabs.getString(offset, len));
+            assertEquals(MIXED.length(), slabs.getCharCount(offset, len));
+        }
+    }
+
+    @Test
+    public void splitSurrogatePair() {
+        final TextSlabs slabs = new TextSlabs(false);
+        final char[] ch = "😀".toCharArray();
+        int len = slabs.append(ch, 0, 1);
+        len += slabs.append(ch, 1, 1);
+        assertEquals("😀", slabs.getString(0, len));
+    }
+
+    @Test
+    public void spanSlabs() {
+        final StringBuilder buf = new StringBuilder();
+        while (buf.length() < 3 * TextSlabs.MAX_SLAB_SIZE) {
+            buf.append(MIXED).append(buf.length());
+        }
+        final String text = buf.toString();
+        final TextSlabs slabs = new TextSlabs(true);
+        final int[] offsets = new int[100];
+        final int[] lengths = new int[100];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = slabs.length();
+            lengths[i] = slabs.append(text.substring(i * 1000, i * 1000 + 1000 + i));
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            assertEquals(text.substring(i * 1000, i * 1000 + 1000 + i), slabs.getString(offsets[i], lengths[i]));
+        }
+    }
+
+    @Test
+    public void chunkedDocument() {
+        final MemTreeBuilder builder = new MemTreeBuilder(null, DocumentImpl.STORAGE_CHUNKED);
+        builder.startDocument();
+        final AttributesImpl attribs = new AttributesImpl();
+        attribs.addAttribute("", "id", "id", "CDATA", "pé");
+        builder.startElement("", "p", "p", attribs);
+        builder.characters("hello");
+        builder.characters(MIXED);
+        builder.startElement(new QName("span", null, null), null);
+        builder.characters("world");
+        builder.endElement();
+        builder.endElement();
+        builder.endDocument();
+
+        final DocumentImpl doc = builder.getDocument();
+        final Element p = doc.getDocumentElement();
+        assertEquals("pé", p.getAttribute("id"));
+        assertEquals("hello" + MIXED + "world", ((NodeImpl) p).getStringValue());
+
+        final Text text = (Text) p.getFirstChild();
+        assertEquals(5 + MIXED.length(), text.getLength());
+        text.insertData(5, "à");
+        assertEquals("helloà" + MIXED, text.getData());
+        assertEquals("helloà" + MIXED + "world", ((NodeImpl) p).getStringValue());
+        text.setData("bye");
+        assertEquals("bye", text.getData());
+
+        p.getAttributeNode("id").setValue("q");
+        assertEquals("q", p.getAttribute("id"));
+    }
+}
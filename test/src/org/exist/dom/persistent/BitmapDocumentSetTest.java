@@ -0,0 +1,140 @@
+package org.exist.dom.persistent;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.QName;
+import org.exist.numbering.NodeId;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.ElementValue;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.Expression;
+import org.exist.xquery.value.Sequence;
+import org.junit.*;
+
+import java.util.Iterator;
+import java.util.Optional;
+
+import static org.exist.test.TestConstants.TEST_COLLECTION_URI;
+import static org.exist.test.TestConstants.TEST_COLLECTION_URI2;
+import static org.junit.Assert.*;
+
+/**
+ * Compares a {@link BitmapDocumentSet} with the {@link DefaultDocumentSet} of the
+ * same collections and checks that fn:collection only looks up the documents it needs.
+ */
+public class BitmapDocumentSetTest {
+
+    private static final int DOCUMENTS = 30;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void sameDocuments() throws Exception {
+        try (final DBBroker broker = broker()) {
+            final Collection test = broker.getCollection(TEST_COLLECTION_URI);
+            final DefaultDocumentSet expected = new DefaultDocumentSet();
+            test.allDocs(broker, expected, true);
+            final BitmapDocumentSet docs = test.allDocIds(broker, new BitmapDocumentSet(), true);
+
+            assertEquals(DOCUMENTS * 2 + 1, docs.getDocumentCount());
+            assertEquals(expected.getDocumentCount(), docs.getDocumentCount());
+            assertTrue(docs.equalDocs(expected));
+            assertTrue(docs.contains(expected));
+            assertArrayEquals(expected.getNames(), docs.getNames());
+            for (final Iterator<DocumentImpl> i = expected.getDocumentIterator(); i.hasNext(); ) {
+                final DocumentImpl doc = i.next();
+                assertTrue(docs.contains(doc.getDocId()));
+                assertSame(doc, docs.getDoc(doc.getDocId()));
+            }
+            assertNull(docs.getDoc(Integer.MAX_VALUE));
+
+            final BitmapDocumentSet sub = broker.getCollection(TEST_COLLECTION_URI2).allDocIds(broker, new BitmapDocumentSet(), false);
+            assertEquals(DOCUMENTS, sub.getDocumentCount());
+            assertTrue(docs.contains(sub));
+            assertFalse(sub.contains(docs));
+            assertTrue(sub.equalDocs(docs.intersection(sub)));
+            assertTrue(sub.equalDocs(sub.intersection(expected)));
+
+            int collections = 0;
+            for (final Iterator<Collection> i = docs.getCollectionIterator(); i.hasNext(); i.next()) {
+                collections++;
+            }
+            assertEquals(2, collections);
+        }
+    }
+
+    @Test
+    public void joinWithoutMaterializing() throws Exception {
+        try (final DBBroker broker = broker()) {
+            final BitmapDocumentSet docs = broker.getCollection(TEST_COLLECTION_URI).allDocIds(broker, new BitmapDocumentSet(), true);
+            final DocumentNodeSet context = new DocumentNodeSet(docs);
+            assertEquals(DOCUMENTS * 2 + 1, context.getLength());
+
+            final NodeSet items = broker.getStructuralIndex().findElementsByTagName(ElementValue.ELEMENT, docs, new QName("item", ""), null);
+            assertEquals(DOCUMENTS * 2, items.getLength());
+            assertEquals(DOCUMENTS * 2, items.selectAncestorDescendant(context, NodeSet.DESCENDANT, false, Expression.NO_CONTEXT_ID, true).getLength());
+            assertEquals(DOCUMENTS * 2, items.selectAncestorDescendant(context, NodeSet.ANCESTOR, false, Expression.NO_CONTEXT_ID, true).getLength());
+            assertFalse(context.isMaterialized());
+
+            // iterating builds the node set
+            int count = 0;
+            for (final NodeProxy node : context) {
+                assertEquals(NodeId.DOCUMENT_NODE, node.getNodeId());
+                count++;
+            }
+            assertEquals(DOCUMENTS * 2 + 1, count);
+            assertTrue(context.isMaterialized());
+        }
+    }
+
+    @Test
+    public void collectionFunction() throws Exception {
+        final String col = "collection('" + TEST_COLLECTION_URI + "')";
+        assertQuery(String.valueOf(DOCUMENTS * 2 + 1), "count(" + col + ")");
+        assertQuery(String.valueOf(DOCUMENTS * 2), "count(" + col + "//item)");
+        assertQuery(String.valueOf(DOCUMENTS), "count(xmldb:xcollection('" + TEST_COLLECTION_URI + "')//item)");
+        assertQuery("item 5", col + "//item[@n = '5']/string()");
+        assertQuery("item 7", col + "/doc/item[. = 'item 7']/string()");
+        assertQuery("item 12", col + "[.//item/@n = '12']//item/string()");
+        assertQuery("2", "count(" + col + "//item[@n = '" + (DOCUMENTS + 3) + "']/ancestor-or-self::node())");
+        assertQuery("true", "every $d in " + col + " satisfies $d instance of document-node()");
+    }
+
+    private static void assertQuery(final String expected, final String query) throws Exception {
+        try (final DBBroker broker = broker()) {
+            final Sequence result = existEmbeddedServer.getBrokerPool().getXQueryService().execute(broker, query, null);
+            assertEquals(query, expected, result.getStringValue());
+        }
+    }
+
+    private static DBBroker broker() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        return pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+    }
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = broker();
+             final Txn transaction = transact.beginTransaction()) {
+            final Collection test = broker.getOrCreateCollection(transaction, TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, test);
+            final Collection sub = broker.getOrCreateCollection(transaction, TEST_COLLECTION_URI2);
+            broker.saveCollection(transaction, sub);
+            for (int i = 0; i < DOCUMENTS * 2; i++) {
+                final Collection collection = i < DOCUMENTS ? test : sub;
+                final String xml = "<doc><item n=\"" + i + "\">item " + i + "</item></doc>";
+                final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create("doc" + i + ".xml"), xml);
+                collection.store(transaction, broker, info, xml);
+            }
+            test.addBinaryResource(transaction, broker, XmldbURI.create("test.bin"), "binary".getBytes(), "application/octet-stream");
+            transact.commit(transaction);
+        }
+    }
+}
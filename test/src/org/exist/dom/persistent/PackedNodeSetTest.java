@@ -0,0 +1,213 @@
+package org.exist.dom.persistent;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.QName;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.ElementValue;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.Expression;
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the joins of a {@link PackedNodeSet} with the ones of a {@link NewArrayNodeSet}
+ * holding the same nodes.
+ */
+public class PackedNodeSetTest {
+
+    private static final String XML1 =
+        "<book>" +
+            "<section id='s1'><title>1</title>" +
+                "<section id='s1.1'><title>1.1</title><para/></section>" +
+                "<section id='s1.2'><title>1.2</title>" +
+                    "<section id='s1.2.1'><title>1.2.1</title></section>" +
+                "</section>" +
+            "</section>" +
+            "<section id='s2'><title>2</title><para/><para/></section>" +
+            "<section id='s3'><para/></section>" +
+        "</book>";
+
+    private static final String XML2 =
+        "<book><section id='t1'><title>t1</title><section id='t1.1'><title>t1.1</title></section></section></book>";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    private static Collection root = null;
+
+    @Test
+    public void packedResult() throws Exception {
+        try (final DBBroker broker = broker()) {
+            final NodeSet sections = find(broker, ElementValue.ELEMENT, "section");
+            assertTrue(sections instanceof PackedNodeSet);
+            assertEquals(8, sections.getLength());
+            assertEquals(2, ((DocumentSet) sections).getDocumentCount());
+            final NodeProxy first = sections.get(0);
+            assertEquals("section", first.getQName().getLocalPart());
+            assertEquals("s1", ((ElementImpl) first.getNode()).getAttribute("id"));
+            assertTrue(sections.contains(first));
+            assertNotNull(sections.get(first.getOwnerDocument(), first.getNodeId()));
+        }
+    }
+
+    @Test
+    public void unsortedInput() throws Exception {
+        try (final DBBroker broker = broker()) {
+            final NodeSet sections = find(broker, ElementValue.ELEMENT, "section");
+            final PackedNodeSet packed = new PackedNodeSet();
+            for (int i = sections.getLength() - 1; i >= 0; i--) {
+                packed.add(sections.get(i));
+                packed.add(sections.get(i));
+            }
+            assertEquals(ids(sections), ids(packed));
+        }
+    }
+
+    @Test
+    public void joins() throws Exception {
+        try (final DBBroker broker = broker()) {
+            final NodeSet[] sets = {
+                find(broker, ElementValue.ELEMENT, "section"),
+                find(broker, ElementValue.ELEMENT, "title"),
+                find(broker, ElementValue.ELEMENT, "para"),
+                find(broker, ElementValue.ATTRIBUTE, "id")
+            };
+            final NodeSet[] contexts = {
+                find(broker, ElementValue.ELEMENT, "book"),
+                find(broker, ElementValue.ELEMENT, "section"),
+                find(broker, ElementValue.ELEMENT, "title")
+            };
+            for (final NodeSet set : sets) {
+                assertTrue(set instanceof PackedNodeSet);
+                for (final NodeSet context : contexts) {
+                    final NodeSet expected = unpacked(set);
+                    assertEquals(ids(expected.selectParentChild(context, NodeSet.DESCENDANT, 1)),
+                            ids(set.selectParentChild(context, NodeSet.DESCENDANT, 1)));
+                    assertEquals(ids(expected.selectParentChild(context, NodeSet.ANCESTOR, Expression.NO_CONTEXT_ID)),
+                            ids(set.selectParentChild(context, NodeSet.ANCESTOR, Expression.NO_CONTEXT_ID)));
+                    assertEquals(ids(expected.selectAncestorDescendant(context, NodeSet.DESCENDANT, false, 1, true)),
+                            ids(set.selectAncestorDescendant(context, NodeSet.DESCENDANT, false, 1, true)));
+                    assertEquals(ids(expected.selectAncestorDescendant(context, NodeSet.DESCENDANT, true, 1, true)),
+                            ids(set.selectAncestorDescendant(context, NodeSet.DESCENDANT, true, 1, true)));
+                    assertEquals(ids(expected.selectAncestors(context, true, 1)), ids(set.selectAncestors(context, true, 1)));
+                    assertEquals(ids(expected.selectPrecedingSiblings(context, 1)), ids(set.selectPrecedingSiblings(context, 1)));
+                    if (set != sets[0]) {
+                        // a NewArrayNodeSet misses the following siblings of nested sections
+                        assertEquals(ids(expected.selectFollowingSiblings(context, 1)), ids(set.selectFollowingSiblings(context, 1)));
+                    }
+                    assertEquals(ids(expected.selectFollowing(context, 1)), ids(set.selectFollowing(context, 1)));
+                    assertEquals(ids(expected.selectPreceding(context, 1)), ids(set.selectPreceding(context, 1)));
+                    assertEquals(ids(expected.selectFollowing(context, 2, 1)), ids(set.selectFollowing(context, 2, 1)));
+                    assertEquals(ids(expected.selectPreceding(context, 2, 1)), ids(set.selectPreceding(context, 2, 1)));
+                    for (final NodeProxy node : context) {
+                        assertEquals(id(((ExtNodeSet) expected).hasDescendantsInSet(node.getOwnerDocument(), node.getNodeId(), false, 1, true)),
+                                id(((ExtNodeSet) set).hasDescendantsInSet(node.getOwnerDocument(), node.getNodeId(), false, 1, true)));
+                        assertEquals(id(expected.parentWithChild(node.getOwnerDocument(), node.getNodeId(), false, true)),
+                                id(set.parentWithChild(node.getOwnerDocument(), node.getNodeId(), false, true)));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void siblings() throws Exception {
+        try (final DBBroker broker = broker()) {
+            final NodeSet sections = find(broker, ElementValue.ELEMENT, "section");
+            final NewArrayNodeSet context = new NewArrayNodeSet();
+            context.add(sections.get(1));
+            final NodeSet following = sections.selectFollowingSiblings(context, 1);
+            assertEquals(1, following.getLength());
+            assertEquals("s1.2", ((ElementImpl) following.get(0).getNode()).getAttribute("id"));
+            final NodeSet preceding = sections.selectPrecedingSiblings(following, 1);
+            assertEquals(ids(context), ids(preceding));
+        }
+    }
+
+    @Test
+    public void contexts() throws Exception {
+        try (final DBBroker broker = broker()) {
+            final NodeSet titles = find(broker, ElementValue.ELEMENT, "title");
+            final NodeSet sections = find(broker, ElementValue.ELEMENT, "section");
+            // each title is selected once for every ancestor section
+            final NodeSet result = titles.selectAncestorDescendant(sections, NodeSet.DESCENDANT, false, 7, true);
+            final NodeSet expected = unpacked(titles).selectAncestorDescendant(sections, NodeSet.DESCENDANT, false, 7, true);
+            assertEquals(ids(expected), ids(result));
+            for (int i = 0; i < result.getLength(); i++) {
+                assertEquals(contextIds(expected.get(i)), contextIds(result.get(i)));
+            }
+            // the packed nodes are not changed by the join
+            for (final NodeProxy title : titles) {
+                assertNull(title.getContext());
+            }
+        }
+    }
+
+    private static NodeSet unpacked(final NodeSet set) {
+        final NewArrayNodeSet result = new NewArrayNodeSet();
+        for (final NodeProxy node : set) {
+            result.add(node);
+        }
+        return result;
+    }
+
+    private static List<String> ids(final NodeSet set) {
+        final List<String> ids = new ArrayList<>();
+        for (final NodeProxy node : set) {
+            ids.add(id(node));
+        }
+        return ids;
+    }
+
+    private static String id(final NodeProxy node) {
+        return node == null ? null : node.getOwnerDocument().getDocId() + ":" + node.getNodeId();
+    }
+
+    private static List<String> contextIds(final NodeProxy node) {
+        final List<String> ids = new ArrayList<>();
+        for (ContextItem next = node.getContext(); next != null; next = next.getNextDirect()) {
+            ids.add(next.getContextId() + ":" + id(next.getNode()));
+        }
+        return ids;
+    }
+
+    private static NodeSet find(final DBBroker broker, final byte type, final String name) throws Exception {
+        final DefaultDocumentSet docs = new DefaultDocumentSet();
+        for (final Iterator<DocumentImpl> i = root.iterator(broker); i.hasNext(); ) {
+            docs.add(i.next());
+        }
+        return broker.getStructuralIndex().findElementsByTagName(type, docs, new QName(name, ""), null);
+    }
+
+    private static DBBroker broker() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        return pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+    }
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = broker();
+             final Txn transaction = transact.beginTransaction()) {
+            root = broker.getOrCreateCollection(transaction, XmldbURI.create(XmldbURI.ROOT_COLLECTION + "/test"));
+            broker.saveCollection(transaction, root);
+            for (final String[] doc : new String[][] { { "test1.xml", XML1 }, { "test2.xml", XML2 } }) {
+                final IndexInfo info = root.validateXMLResource(transaction, broker, XmldbURI.create(doc[0]), doc[1]);
+                root.store(transaction, broker, info, doc[1]);
+            }
+            transact.commit(transaction);
+        }
+    }
+}
@@ -51,6 +51,7 @@ import org.junit.ClassRule;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /** A test case for accessing a remote server via REST-Style Web API.
@@ -510,6 +511,39 @@ public class RESTServiceTest {
         readResponse(connect.getInputStream());
     }
 
+    @Test
+    public void queryGetWithCursor() throws IOException, SAXException, ParserConfigurationException {
+        final String uri = getCollectionUri()
+                + "?_query=" + URLEncoder.encode("1 to 25", "UTF-8")
+                + "&_howmany=10&_cache=cursor";
+
+        HttpURLConnection connect = getConnection(uri);
+        connect.setRequestMethod("GET");
+        connect.connect();
+        assertEquals(200, connect.getResponseCode());
+        final String session = connect.getHeaderField("X-Session-Id");
+        assertNotNull(session);
+        assertEquals("11", connect.getHeaderField("X-Cursor-Next"));
+        assertEquals(25, parseResponse(readResponse(connect.getInputStream())));
+
+        connect = getConnection(uri + "&_session=" + session);
+        connect.setRequestMethod("GET");
+        connect.connect();
+        assertEquals(200, connect.getResponseCode());
+        assertEquals(session, connect.getHeaderField("X-Session-Id"));
+        assertEquals("21", connect.getHeaderField("X-Cursor-Next"));
+        readResponse(connect.getInputStream());
+
+        connect = getConnection(uri + "&_session=" + session);
+        connect.setRequestMethod("GET");
+        connect.connect();
+        assertEquals(200, connect.getResponseCode());
+        assertEquals("0", connect.getHeaderField("X-Cursor-Next"));
+        final String lastPage = readResponse(connect.getInputStream());
+        assertTrue(lastPage.contains("25"));
+        assertFalse(lastPage.contains(">20<"));
+    }
+
     @Test
     public void requestModule() throws IOException {
         String uri = getCollectionUri() + "?_query=request:get-uri()&_wrap=no";
@@ -0,0 +1,92 @@
+package org.exist.http;
+
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.ValueSequence;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResultCursorTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void forwardOnly() throws XPathException {
+        final ResultCursor cursor = new ResultCursor(sequence(25));
+        assertEquals(25, cursor.getHits());
+        assertEquals(1, cursor.getNextStart());
+
+        final Sequence window = cursor.getWindow();
+        assertEquals(25, window.getItemCount());
+        assertEquals(1, ((IntegerValue) window.itemAt(0)).getInt());
+
+        cursor.advanceTo(11);
+        assertEquals(11, cursor.getNextStart());
+        assertEquals(15, cursor.getRemaining());
+        assertNull(window.itemAt(9));
+        assertEquals(11, ((IntegerValue) window.itemAt(10)).getInt());
+
+        final SequenceIterator i = window.iterate();
+        int count = 0;
+        while (i.hasNext()) {
+            assertEquals(11 + count++, ((IntegerValue) i.nextItem()).getInt());
+        }
+        assertEquals(15, count);
+
+        // a cursor cannot move backwards
+        cursor.advanceTo(5);
+        assertEquals(11, cursor.getNextStart());
+
+        cursor.advanceTo(100);
+        assertEquals(0, cursor.getRemaining());
+        assertEquals(26, cursor.getNextStart());
+    }
+
+    @Test
+    public void sessions() throws XPathException {
+        final SessionManager sessionManager = new SessionManager(existEmbeddedServer.getBrokerPool(), SessionManager.TIMEOUT, 50);
+
+        final ResultCursor first = new ResultCursor(sequence(30));
+        final int firstId = sessionManager.addCursor("first", first);
+        assertNotEquals(SessionManager.NO_SESSION, firstId);
+        assertSame(first, sessionManager.getCursor("first", firstId));
+        assertNull(sessionManager.getCursor("other", firstId));
+        assertNull(sessionManager.get("first", firstId));
+
+        // exceeds the budget on its own
+        assertEquals(SessionManager.NO_SESSION, sessionManager.addCursor("large", new ResultCursor(sequence(51))));
+
+        // the least recently used cursor is released to stay within the budget
+        final ResultCursor second = new ResultCursor(sequence(30));
+        final int secondId = sessionManager.addCursor("second", second);
+        assertNotEquals(SessionManager.NO_SESSION, secondId);
+        assertNull(sessionManager.getCursor("first", firstId));
+        assertSame(second, sessionManager.getCursor("second", secondId));
+
+        // served items no longer count
+        second.advanceTo(21);
+        final ResultCursor third = new ResultCursor(sequence(40));
+        final int thirdId = sessionManager.addCursor("third", third);
+        assertSame(second, sessionManager.getCursor("second", secondId));
+        assertSame(third, sessionManager.getCursor("third", thirdId));
+
+        sessionManager.releaseCursor(secondId, first);
+        assertSame(second, sessionManager.getCursor("second", secondId));
+        sessionManager.releaseCursor(secondId, second);
+        assertNull(sessionManager.getCursor("second", secondId));
+    }
+
+    private static Sequence sequence(final int size) throws XPathException {
+        final ValueSequence sequence = new ValueSequence(size);
+        for (int i = 1; i <= size; i++) {
+            sequence.add(new IntegerValue(i));
+        }
+        return sequence;
+    }
+}
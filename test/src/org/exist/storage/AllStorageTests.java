@@ -42,6 +42,7 @@ import org.junit.runners.Suite;
         AppendTest.class,
         RemoveTest.class,
         RenameTest.class,
+        XQueryPoolTest.class,
         ReplaceTest.class,
         UpdateTest.class,
         UpdateAttributeTest.class,
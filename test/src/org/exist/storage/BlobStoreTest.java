@@ -0,0 +1,99 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.persistent.BinaryDocument;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.exist.test.TestConstants.TEST_COLLECTION_URI;
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class BlobStoreTest {
+
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                .set(BlobStore.PROPERTY_BINARY_STORE, BlobStore.BINARY_STORE_CONTENT_ADDRESSED)
+                .build(),
+            true,
+            true);
+
+    @Test
+    public void deduplicateAndCollect() throws EXistException, PermissionDeniedException, IOException, TriggerException,
+            LockException, DatabaseConfigurationException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        assumeTrue(pool.getBlobStore().isEnabled());
+
+        final TransactionManager transact = pool.getTransactionManager();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection test = broker.getOrCreateCollection(transaction, TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, test);
+
+            final BinaryDocument doc1 = test.addBinaryResource(transaction, broker, XmldbURI.create("a.bin"),
+                    CONTENT.getBytes(StandardCharsets.UTF_8), "application/octet-stream");
+            final BinaryDocument doc2 = test.addBinaryResource(transaction, broker, XmldbURI.create("b.bin"),
+                    CONTENT.getBytes(StandardCharsets.UTF_8), "application/octet-stream");
+            assertTrue(Files.isSameFile(broker.getBinaryFile(doc1), broker.getBinaryFile(doc2)));
+            assertEquals(1, countBlobs(pool));
+
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            broker.readBinaryResource(doc2, 10, 6, os);
+            assertEquals("abcdef", new String(os.toByteArray(), StandardCharsets.UTF_8));
+
+            broker.removeCollection(transaction, test);
+            transact.commit(transaction);
+        }
+
+        // the removed resources are still referenced from fs.journal until the next checkpoint
+        existEmbeddedServer.restart();
+        assertEquals(0, countBlobs(existEmbeddedServer.getBrokerPool()));
+    }
+
+    private static long countBlobs(final BrokerPool pool) throws IOException {
+        final Path blobDir = ((Path) pool.getConfiguration().getProperty(BrokerPool.PROPERTY_DATA_DIR)).resolve("blobs");
+        try(final Stream<Path> files = Files.walk(blobDir)) {
+            return files.filter(Files::isRegularFile).filter(p -> !p.getParent().getFileName().toString().equals("tmp")).count();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.test.ExistEmbeddedServer;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests waiting for a broker when all brokers of the pool are in use.
+ */
+public class BrokerPoolWaitTest {
+
+    private static final int MAX_BROKERS = 2;
+    private static final long WAIT_TIMEOUT = 2000;
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(config(), true, true);
+
+    private static Properties config() {
+        final Properties properties = new Properties();
+        properties.put(BrokerPool.PROPERTY_MAX_CONNECTIONS, MAX_BROKERS);
+        properties.put(BrokerPool.PROPERTY_BROKER_WAIT_TIMEOUT, WAIT_TIMEOUT);
+        properties.put(BrokerPool.PROPERTY_MAX_WAITING, 1);
+        return properties;
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final ExecutorService executor = Executors.newFixedThreadPool(MAX_BROKERS + 1);
+        final CountDownLatch leased = new CountDownLatch(MAX_BROKERS);
+        final CountDownLatch done = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < MAX_BROKERS; i++) {
+                executor.submit(() -> holdBroker(pool, leased, done));
+            }
+            assertTrue(leased.await(10, TimeUnit.SECONDS));
+
+            final Future<Class<?>> waiter = executor.submit(() -> tryGet(pool));
+            assertEquals(BrokerUnavailableException.class, waiter.get(10, TimeUnit.SECONDS));
+            assertEquals(1, pool.getBrokerWaitStats().getTimeouts());
+        } finally {
+            done.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectWhenQueueFull() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final ExecutorService executor = Executors.newFixedThreadPool(MAX_BROKERS + 2);
+        final CountDownLatch leased = new CountDownLatch(MAX_BROKERS);
+        final CountDownLatch done = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < MAX_BROKERS; i++) {
+                executor.submit(() -> holdBroker(pool, leased, done));
+            }
+            assertTrue(leased.await(10, TimeUnit.SECONDS));
+
+            // the first waiter fills the queue
+            final Future<Class<?>> waiter = executor.submit(() -> tryGet(pool));
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (pool.getBrokerWaitStats().getWaiting() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, pool.getBrokerWaitStats().getWaiting());
+
+            final Future<Class<?>> rejected = executor.submit(() -> tryGet(pool));
+            assertEquals(BrokerUnavailableException.class, rejected.get(10, TimeUnit.SECONDS));
+            assertEquals(1, pool.getBrokerWaitStats().getRejections());
+
+            // release the brokers, the queued request gets one
+            done.countDown();
+            assertNull(waiter.get(10, TimeUnit.SECONDS));
+            assertEquals(0, pool.getBrokerWaitStats().getWaiting());
+            assertEquals(1, pool.getBrokerWaitStats().getPeakWaiting());
+        } finally {
+            done.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void waitTimeHistogram() throws EXistException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final long before = total(pool.getBrokerWaitStats().getWaitTimeHistogram());
+        try (final DBBroker broker = pool.getBroker()) {
+            // nested leases of the same thread do not wait
+            try (final DBBroker nested = pool.getBroker()) {
+                assertSame(broker, nested);
+            }
+        }
+        assertEquals(before + 1, total(pool.getBrokerWaitStats().getWaitTimeHistogram()));
+    }
+
+    private static long total(final Map<String, Long> histogram) {
+        return histogram.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    private static Void holdBroker(final BrokerPool pool, final CountDownLatch leased, final CountDownLatch done)
+            throws EXistException, InterruptedException {
+        try (final DBBroker broker = pool.getBroker()) {
+            leased.countDown();
+            done.await();
+        }
+        return null;
+    }
+
+    /**
+     * @return null if a broker was obtained, the class of the exception otherwise
+     */
+    private static Class<?> tryGet(final BrokerPool pool) {
+        try (final DBBroker broker = pool.getBroker()) {
+            return null;
+        } catch (final EXistException e) {
+            return e.getClass();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.journal.Journal;
+import org.exist.storage.journal.JournalManager;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.junit.After;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.exist.test.TestConstants.TEST_COLLECTION_URI;
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Crash the database after transactions were committed concurrently through
+ * the group commit thread, and check that recovery redoes all the committed
+ * transactions and undoes the one which did not commit.
+ */
+public class GroupCommitRecoveryTest {
+
+    private static final String XML = "<test><para>Hello world!</para></test>";
+
+    private static final int THREADS = 4;
+    private static final int DOCS_PER_THREAD = 20;
+
+    // we don't use @ClassRule/@Rule as we want to force corruption
+    private final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                .put(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_THREAD, true)
+                .build(),
+            true,
+            false);
+
+    @Test
+    public void recoverGroupCommits() throws Exception {
+        BrokerPool.FORCE_CORRUPTION = false;
+        BrokerPool pool = startDb();
+        final JournalManager journalManager = pool.getJournalManager().get();
+        assertTrue(journalManager.isGroupCommitThread());
+
+        final TransactionManager transact = pool.getTransactionManager();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection test = broker.getOrCreateCollection(transaction, TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, test);
+            store(broker, transaction, test, "uncommitted-removed.xml");
+            transact.commit(transaction);
+        }
+
+        storeConcurrently(pool);
+        assertTrue(journalManager.getGroupCommitCommits() > 0);
+
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Txn running = transact.beginTransaction();
+            final Collection test = broker.openCollection(TEST_COLLECTION_URI, LockMode.WRITE_LOCK);
+            running.registerLock(test.getLock(), LockMode.WRITE_LOCK);
+            test.removeXMLResource(running, broker, XmldbURI.create("uncommitted-removed.xml"));
+            store(broker, running, test, "uncommitted-stored.xml");
+
+            //DO NOT COMMIT TRANSACTION
+            journalManager.flush(true, false);
+        }
+
+        BrokerPool.FORCE_CORRUPTION = true;
+        existEmbeddedServer.stopDb();
+
+        BrokerPool.FORCE_CORRUPTION = false;
+        pool = startDb();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            for (int i = 0; i < THREADS; i++) {
+                for (int j = 0; j < DOCS_PER_THREAD; j++) {
+                    assertExists(broker, docName(i, j));
+                }
+            }
+            assertExists(broker, "uncommitted-removed.xml");
+            final DocumentImpl doc = broker.getXMLResource(TEST_COLLECTION_URI.append("uncommitted-stored.xml"), LockMode.READ_LOCK);
+            assertNull("Document uncommitted-stored.xml was stored by a transaction which did not commit", doc);
+
+            try(final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+                final Collection test = broker.openCollection(TEST_COLLECTION_URI, LockMode.WRITE_LOCK);
+                transaction.registerLock(test.getLock(), LockMode.WRITE_LOCK);
+                broker.removeCollection(transaction, test);
+                pool.getTransactionManager().commit(transaction);
+            }
+        }
+    }
+
+    /**
+     * Store the documents from several threads, one transaction per document,
+     * so that the commits are written in groups.
+     */
+    private static void storeConcurrently(final BrokerPool pool) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                final int thread = i;
+                futures.add(executor.submit(() -> {
+                    final TransactionManager transact = pool.getTransactionManager();
+                    try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+                        for (int j = 0; j < DOCS_PER_THREAD; j++) {
+                            try(final Txn transaction = transact.beginTransaction()) {
+                                final Collection test = broker.openCollection(TEST_COLLECTION_URI, LockMode.WRITE_LOCK);
+                                transaction.registerLock(test.getLock(), LockMode.WRITE_LOCK);
+                                store(broker, transaction, test, docName(thread, j));
+                                transact.commit(transaction);
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String docName(final int thread, final int doc) {
+        return "test-" + thread + "-" + doc + ".xml";
+    }
+
+    private static void store(final DBBroker broker, final Txn transaction, final Collection collection, final String name)
+            throws EXistException, PermissionDeniedException, IOException, SAXException, LockException {
+        final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(name), XML);
+        assertNotNull(info);
+        collection.store(transaction, broker, info, XML);
+    }
+
+    private static void assertExists(final DBBroker broker, final String name) throws PermissionDeniedException {
+        DocumentImpl doc = null;
+        try {
+            doc = broker.getXMLResource(TEST_COLLECTION_URI.append(name), LockMode.READ_LOCK);
+            assertNotNull("Document " + name + " should exist", doc);
+        } finally {
+            if(doc != null) {
+                doc.getUpdateLock().release(LockMode.READ_LOCK);
+            }
+        }
+    }
+
+    private BrokerPool startDb() throws EXistException, IOException, DatabaseConfigurationException {
+        existEmbeddedServer.startDb();
+        return existEmbeddedServer.getBrokerPool();
+    }
+
+    @After
+    public void stopDb() {
+        BrokerPool.FORCE_CORRUPTION = false;
+        existEmbeddedServer.stopDb();
+    }
+}
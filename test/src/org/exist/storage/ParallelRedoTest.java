@@ -0,0 +1,151 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.recovery.RecoveryManager;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.junit.After;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static org.exist.test.TestConstants.TEST_COLLECTION_URI;
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Crash the database with committed and uncommitted transactions in the
+ * journal, and check that the recovery redoes the committed transactions on
+ * several threads and undoes the uncommitted one.
+ */
+public class ParallelRedoTest {
+
+    private static final String XML = "<test><para>Hello world!</para></test>";
+    private static final int DOCUMENTS = 50;
+
+    // we don't use @ClassRule/@Rule as we want to force corruption
+    private final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                .put(RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS, 4)
+                .build(),
+            true,
+            false);
+
+    @Test
+    public void redoOnSeveralThreads() throws EXistException, DatabaseConfigurationException, PermissionDeniedException,
+            IOException, SAXException, LockException {
+        BrokerPool.FORCE_CORRUPTION = false;
+        BrokerPool pool = startDb();
+
+        final TransactionManager transact = pool.getTransactionManager();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+
+            try(final Txn transaction = transact.beginTransaction()) {
+                final Collection test = broker.getOrCreateCollection(transaction, TEST_COLLECTION_URI);
+                broker.saveCollection(transaction, test);
+                store(broker, transaction, test, "a.xml");
+                transact.commit(transaction);
+            }
+
+            final Collection test = broker.getCollection(TEST_COLLECTION_URI);
+            for (int i = 0; i < DOCUMENTS; i++) {
+                try(final Txn transaction = transact.beginTransaction()) {
+                    store(broker, transaction, test, "doc" + i + ".xml");
+                    transact.commit(transaction);
+                }
+            }
+
+            // the following transaction will not be committed
+            final Txn running = transact.beginTransaction();
+            broker.openCollection(TEST_COLLECTION_URI, LockMode.WRITE_LOCK);
+            running.registerLock(test.getLock(), LockMode.WRITE_LOCK);
+            test.removeXMLResource(running, broker, XmldbURI.create("a.xml"));
+            store(broker, running, test, "c.xml");
+
+            //DO NOT COMMIT TRANSACTION
+            pool.getJournalManager().get().flush(true, false);
+        }
+
+        BrokerPool.FORCE_CORRUPTION = true;
+        existEmbeddedServer.stopDb();
+
+        BrokerPool.FORCE_CORRUPTION = false;
+        pool = startDb();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            assertExists(broker, "a.xml");
+            for (int i = 0; i < DOCUMENTS; i++) {
+                assertExists(broker, "doc" + i + ".xml");
+            }
+            final DocumentImpl doc = broker.getXMLResource(TEST_COLLECTION_URI.append("c.xml"), LockMode.READ_LOCK);
+            assertNull("Document c.xml was stored by a transaction which did not commit", doc);
+
+            try(final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+                final Collection test = broker.openCollection(TEST_COLLECTION_URI, LockMode.WRITE_LOCK);
+                transaction.registerLock(test.getLock(), LockMode.WRITE_LOCK);
+                broker.removeCollection(transaction, test);
+                pool.getTransactionManager().commit(transaction);
+            }
+        }
+    }
+
+    private static void store(final DBBroker broker, final Txn transaction, final Collection collection, final String name)
+            throws EXistException, PermissionDeniedException, IOException, SAXException, LockException {
+        final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(name), XML);
+        assertNotNull(info);
+        collection.store(transaction, broker, info, XML);
+    }
+
+    private static void assertExists(final DBBroker broker, final String name) throws PermissionDeniedException {
+        DocumentImpl doc = null;
+        try {
+            doc = broker.getXMLResource(TEST_COLLECTION_URI.append(name), LockMode.READ_LOCK);
+            assertNotNull("Document " + name + " should exist", doc);
+        } finally {
+            if(doc != null) {
+                doc.getUpdateLock().release(LockMode.READ_LOCK);
+            }
+        }
+    }
+
+    private BrokerPool startDb() throws EXistException, IOException, DatabaseConfigurationException {
+        existEmbeddedServer.startDb();
+        return existEmbeddedServer.getBrokerPool();
+    }
+
+    @After
+    public void stopDb() {
+        BrokerPool.FORCE_CORRUPTION = false;
+        existEmbeddedServer.stopDb();
+    }
+}
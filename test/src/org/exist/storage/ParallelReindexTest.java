@@ -0,0 +1,180 @@
+package org.exist.storage;
+
+import org.exist.TestUtils;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.security.Subject;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.test.TestConstants;
+import org.exist.util.FileUtils;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests reindexing a collection tree with several threads.
+ */
+public class ParallelReindexTest {
+
+    private static final String XCONF =
+        "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+        "    <index>" +
+        "        <create qname=\"SPEAKER\" type=\"xs:string\"/>" +
+        "    </index>" +
+        "</collection>";
+
+    private static final XmldbURI SUB_A = TestConstants.TEST_COLLECTION_URI.append("a");
+    private static final XmldbURI SUB_B = TestConstants.TEST_COLLECTION_URI.append("b");
+
+    private static final String QUERY =
+        "count(collection('" + TestConstants.TEST_COLLECTION_URI + "')//SPEECH[SPEAKER = 'HAMLET'])";
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(config(), true, true);
+
+    private static Properties config() {
+        final Properties properties = new Properties();
+        properties.put(NativeBroker.PROPERTY_REINDEX_THREADS, 3);
+        return properties;
+    }
+
+    @Before
+    public void storeDocuments() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, root);
+            pool.getConfigurationManager().addConfiguration(transaction, broker, root, XCONF);
+
+            final Collection a = broker.getOrCreateCollection(transaction, SUB_A);
+            broker.saveCollection(transaction, a);
+            final Collection b = broker.getOrCreateCollection(transaction, SUB_B);
+            broker.saveCollection(transaction, b);
+
+            final List<Path> files = FileUtils.list(TestUtils.shakespeareSamples(), path -> FileUtils.fileName(path).endsWith(".xml"));
+            for (final Path f : files) {
+                for (final Collection collection : new Collection[] { a, b }) {
+                    final XmldbURI docUri = XmldbURI.create(FileUtils.fileName(f));
+                    final IndexInfo info = collection.validateXMLResource(transaction, broker, docUri, new InputSource(f.toUri().toASCIIString()));
+                    collection.store(transaction, broker, info, new InputSource(f.toUri().toASCIIString()));
+                }
+            }
+            transact.commit(transaction);
+        }
+    }
+
+    @Test
+    public void reindex() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final int expected = count(broker);
+            assertTrue(expected > 0);
+
+            broker.reindexCollection(TestConstants.TEST_COLLECTION_URI);
+
+            final ReindexStatus status = pool.getReindexStatus();
+            assertFalse(status.isRunning());
+            assertEquals(3, status.getTotalCollections());
+            assertEquals(status.getTotalDocuments(), status.getIndexedDocuments());
+            assertEquals(0, status.getFailedDocuments());
+            assertFalse(Files.exists(pool.getStoragePlace().resolve(ParallelReindex.STATE_FILE)));
+
+            assertEquals(expected, count(broker));
+        }
+    }
+
+    @Test
+    public void resume() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final int expected = count(broker);
+
+            // state of an interrupted reindex which completed collection a
+            final Path stateFile = pool.getStoragePlace().resolve(ParallelReindex.STATE_FILE);
+            Files.write(stateFile, (TestConstants.TEST_COLLECTION_URI + "\n" + SUB_A + "\n").getBytes(StandardCharsets.UTF_8));
+
+            broker.reindexCollection(TestConstants.TEST_COLLECTION_URI);
+
+            final ReindexStatus status = pool.getReindexStatus();
+            assertEquals(1, status.getResumedCollections());
+            assertEquals(2, status.getTotalCollections());
+            assertEquals(status.getTotalDocuments(), status.getIndexedDocuments());
+            assertFalse(Files.exists(stateFile));
+
+            assertEquals(expected, count(broker));
+        }
+    }
+
+    @Test
+    public void updatesWaitForReindex() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final Subject admin = pool.getSecurityManager().getSystemSubject();
+        final ReindexStatus status = pool.getReindexStatus();
+        final int expected;
+        try (final DBBroker broker = pool.get(Optional.of(admin))) {
+            expected = count(broker);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<?> reindex = executor.submit(() -> {
+                try (final DBBroker broker = pool.get(Optional.of(admin))) {
+                    broker.reindexCollection(TestConstants.TEST_COLLECTION_URI);
+                }
+                return null;
+            });
+            // all collections of the tree are locked once they have been counted
+            while (!reindex.isDone() && !(status.isRunning() && status.getTotalCollections() == 3)) {
+                Thread.sleep(1);
+            }
+
+            final Future<Boolean> store = executor.submit(() -> {
+                final TransactionManager transact = pool.getTransactionManager();
+                try (final DBBroker broker = pool.get(Optional.of(admin));
+                        final Txn transaction = transact.beginTransaction()) {
+                    final Collection a = broker.getCollection(SUB_A);
+                    final String xml = "<SPEECH><SPEAKER>HAMLET</SPEAKER></SPEECH>";
+                    final IndexInfo info = a.validateXMLResource(transaction, broker, XmldbURI.create("new.xml"), xml);
+                    a.store(transaction, broker, info, xml);
+                    transact.commit(transaction);
+                }
+                return status.isRunning();
+            });
+            assertFalse("Document was stored while the reindex was running", store.get(5, TimeUnit.MINUTES));
+            reindex.get(5, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try (final DBBroker broker = pool.get(Optional.of(admin))) {
+            assertEquals(expected + 1, count(broker));
+        }
+    }
+
+    private int count(final DBBroker broker) throws Exception {
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        final Sequence result = xquery.execute(broker, QUERY, null);
+        return result.itemAt(0).toJavaObject(Integer.class);
+    }
+}
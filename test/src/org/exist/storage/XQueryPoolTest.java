@@ -0,0 +1,118 @@
+package org.exist.storage;
+
+import antlr.collections.AST;
+import org.exist.source.Source;
+import org.exist.source.StringSource;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.Sequence;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class XQueryPoolTest {
+
+    private static final String QUERY =
+        "declare variable $n external; " +
+        "declare function local:sum($i) { if ($i eq 0) then 0 else $i + local:sum($i - 1) }; " +
+        "local:sum($n)";
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void syntaxTreeKeptForPooledSource() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQueryPool xqueryPool = pool.getXQueryPool();
+        final Source source = new StringSource(QUERY);
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final CompiledXQuery first = compile(broker, source);
+            // one-off queries are not kept
+            assertNull(xqueryPool.borrowSyntaxTree(broker, source));
+
+            xqueryPool.returnCompiledXQuery(source, first);
+            assertSame(first, xqueryPool.borrowCompiledXQuery(broker, source));
+
+            // the pool is empty, so a second copy is needed, which shares its tree
+            assertNull(xqueryPool.borrowCompiledXQuery(broker, source));
+            final CompiledXQuery second = compile(broker, source);
+            final AST ast = xqueryPool.borrowSyntaxTree(broker, source);
+            assertNotNull(ast);
+
+            final CompiledXQuery third = compile(broker, source);
+            assertNotSame(second, third);
+            assertSame(ast, xqueryPool.borrowSyntaxTree(broker, source));
+
+            assertEquals(55, execute(broker, second, 10));
+            assertEquals(5050, execute(broker, third, 100));
+
+            xqueryPool.clear();
+            assertNull(xqueryPool.borrowSyntaxTree(broker, source));
+        }
+    }
+
+    @Test
+    public void compileConcurrentlyFromSharedTree() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQueryPool xqueryPool = pool.getXQueryPool();
+        final Source source = new StringSource(QUERY);
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            xqueryPool.returnCompiledXQuery(source, compile(broker, source));
+            xqueryPool.borrowCompiledXQuery(broker, source);
+            compile(broker, source);
+            assertNotNull(xqueryPool.borrowSyntaxTree(broker, source));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                final int n = i;
+                results.add(executor.submit((Callable<Integer>) () -> {
+                    try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+                        CompiledXQuery compiled = xqueryPool.borrowCompiledXQuery(broker, source);
+                        if (compiled == null) {
+                            compiled = compile(broker, source);
+                        }
+                        try {
+                            return execute(broker, compiled, n);
+                        } finally {
+                            compiled.getContext().runCleanupTasks();
+                            xqueryPool.returnCompiledXQuery(source, compiled);
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(i * (i + 1) / 2, results.get(i).get().intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static CompiledXQuery compile(final DBBroker broker, final Source source) throws Exception {
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        final XQueryContext context = new XQueryContext(broker.getBrokerPool());
+        return xquery.compile(broker, context, source);
+    }
+
+    private static int execute(final DBBroker broker, final CompiledXQuery compiled, final int n) throws Exception {
+        final XQueryContext context = compiled.getContext();
+        context.declareVariable("n", n);
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        final Sequence result = xquery.execute(broker, compiled, null);
+        return result.itemAt(0).toJavaObject(Integer.class);
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.backup;
+
+import org.exist.EXistException;
+import org.exist.TestUtils;
+import org.exist.collections.Collection;
+import org.exist.collections.CollectionConfigurationException;
+import org.exist.collections.IndexInfo;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.Permission;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.journal.Journal;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.FileUtils;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Sequence;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.exist.test.TestConstants.TEST_COLLECTION_URI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Create a full and an incremental hot backup while the database is running,
+ * restore them into an empty data directory and check that the database
+ * recovers to the state of the last backup.
+ */
+public class HotBackupTest {
+
+    private static final int DOCUMENTS = 20;
+
+    private static final String LUCENE_CONFIG =
+            "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+            "   <index>" +
+            "       <lucene>" +
+            "           <text qname=\"item\"/>" +
+            "       </lucene>" +
+            "   </index>" +
+            "</collection>";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    // we don't use @ClassRule/@Rule as we want to restart the database on a restored data directory
+    private final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, false);
+
+    @Test
+    public void restoreIncremental() throws EXistException, DatabaseConfigurationException, PermissionDeniedException,
+            IOException, SAXException, LockException, XPathException {
+        existEmbeddedServer.startDb();
+        BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final Path dataDir = (Path) pool.getConfiguration().getProperty(BrokerPool.PROPERTY_DATA_DIR);
+        final Path journalDir = (Path) Optional.ofNullable(pool.getConfiguration().getProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR))
+                .orElse(dataDir);
+        final Path target = temporaryFolder.newFolder("hotbackup").toPath();
+
+        final Path full;
+        final Path incremental;
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            store(pool, broker, 0, DOCUMENTS);
+            full = pool.getHotBackup().backup(broker, target, true);
+
+            store(pool, broker, DOCUMENTS, DOCUMENTS * 2);
+            try(final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+                final Collection test = broker.getCollection(TEST_COLLECTION_URI);
+                test.addBinaryResource(transaction, broker, XmldbURI.create("test.bin"), "binary".getBytes(), "application/octet-stream");
+                transaction.commit();
+            }
+            incremental = pool.getHotBackup().backup(broker, target, true);
+        }
+
+        assertTrue(Files.exists(full.resolve("dom.dbx")));
+        assertTrue(Files.exists(incremental.resolve("dom.dbx.delta")));
+        assertFalse(Files.exists(incremental.resolve("dom.dbx")));
+
+        existEmbeddedServer.stopDb();
+        clear(dataDir);
+        clear(journalDir);
+
+        HotBackup.restore(incremental, dataDir, journalDir);
+
+        existEmbeddedServer.startDb();
+        pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Collection test = broker.getCollection(TEST_COLLECTION_URI);
+            assertNotNull(test);
+            assertEquals(DOCUMENTS * 2 + 1, test.getDocumentCount(broker));
+
+            final DocumentImpl binary = broker.getResource(TEST_COLLECTION_URI.append("test.bin"), Permission.READ);
+            assertNotNull(binary);
+            assertEquals(DocumentImpl.BINARY_FILE, binary.getResourceType());
+
+            final Sequence seq = pool.getXQueryService().execute(broker,
+                    "collection('" + TEST_COLLECTION_URI + "')//item[@n = '" + (DOCUMENTS + 3) + "']/string()", null);
+            assertEquals(1, seq.getItemCount());
+            assertEquals("item " + (DOCUMENTS + 3), seq.getStringValue());
+        }
+    }
+
+    @Test
+    public void restoreIdleReindexes() throws EXistException, DatabaseConfigurationException, PermissionDeniedException,
+            IOException, SAXException, LockException, XPathException, TriggerException, CollectionConfigurationException {
+        existEmbeddedServer.startDb();
+        final Path target = temporaryFolder.newFolder("hotbackup").toPath();
+        final Path backup;
+        BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            configureLucene(pool, broker);
+            store(pool, broker, 0, DOCUMENTS);
+            assertEquals(DOCUMENTS, countFullText(pool, broker));
+
+            // nothing is written after the checkpoint of the backup: its journal needs no recovery
+            backup = pool.getHotBackup().backup(broker, target, false);
+        }
+
+        final Path dataDir = restore(backup);
+        assertTrue(Files.exists(dataDir.resolve(HotBackup.REINDEX_MARKER)));
+
+        existEmbeddedServer.startDb();
+        pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            assertEquals(DOCUMENTS, broker.getCollection(TEST_COLLECTION_URI).getDocumentCount(broker));
+            assertEquals(DOCUMENTS, countFullText(pool, broker));
+        }
+        assertFalse(Files.exists(dataDir.resolve(HotBackup.REINDEX_MARKER)));
+    }
+
+    @Test
+    public void backupWhileStoring() throws Exception {
+        existEmbeddedServer.startDb();
+        final Path target = temporaryFolder.newFolder("hotbackup").toPath();
+        BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            configureLucene(pool, broker);
+            store(pool, broker, 0, DOCUMENTS);
+        }
+
+        // documents DOCUMENTS..committed-1 have been committed by the writer
+        final AtomicInteger committed = new AtomicInteger(DOCUMENTS);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        final CountDownLatch started = new CountDownLatch(DOCUMENTS);
+        final BrokerPool writerPool = pool;
+        final Thread writer = new Thread(() -> {
+            try(final DBBroker broker = writerPool.get(Optional.of(writerPool.getSecurityManager().getSystemSubject()))) {
+                while (!stop.get()) {
+                    final int n = committed.get();
+                    try(final Txn transaction = writerPool.getTransactionManager().beginTransaction()) {
+                        final Collection test = broker.openCollection(TEST_COLLECTION_URI, LockMode.WRITE_LOCK);
+                        transaction.registerLock(test.getLock(), LockMode.WRITE_LOCK);
+                        final String xml = document(n);
+                        final IndexInfo info = test.validateXMLResource(transaction, broker, XmldbURI.create("doc" + n + ".xml"), xml);
+                        test.store(transaction, broker, info, xml);
+                        transaction.commit();
+                    }
+                    committed.incrementAndGet();
+                    started.countDown();
+                }
+            } catch (final Exception e) {
+                error.set(e);
+            }
+        });
+        writer.start();
+
+        final int before;
+        final int after;
+        final Path backup;
+        try {
+            assertTrue(started.await(60, TimeUnit.SECONDS));
+            try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+                before = committed.get();
+                backup = pool.getHotBackup().backup(broker, target, false);
+                after = committed.get();
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        assertNull(error.get());
+
+        restore(backup);
+
+        existEmbeddedServer.startDb();
+        pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Collection test = broker.getCollection(TEST_COLLECTION_URI);
+            assertNotNull(test);
+            final int documents = test.getDocumentCount(broker);
+            assertTrue("expected between " + before + " and " + (after + 1) + " documents, found " + documents,
+                    documents >= before && documents <= after + 1);
+            for (int i = 0; i < before; i++) {
+                assertNotNull("doc" + i + ".xml was committed before the backup",
+                        broker.getResource(TEST_COLLECTION_URI.append("doc" + i + ".xml"), Permission.READ));
+            }
+
+            // every restored document is complete and indexed
+            final Sequence seq = pool.getXQueryService().execute(broker,
+                    "count(collection('" + TEST_COLLECTION_URI + "')//item)", null);
+            assertEquals(documents, seq.itemAt(0).toJavaObject(Integer.class).intValue());
+            assertEquals(documents, countFullText(pool, broker));
+        }
+    }
+
+    /**
+     * Stop the database and restore the backup into its emptied data and journal directories.
+     *
+     * @return the data directory
+     */
+    private Path restore(final Path backup) throws IOException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final Path dataDir = (Path) pool.getConfiguration().getProperty(BrokerPool.PROPERTY_DATA_DIR);
+        final Path journalDir = (Path) Optional.ofNullable(pool.getConfiguration().getProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR))
+                .orElse(dataDir);
+        existEmbeddedServer.stopDb();
+        clear(dataDir);
+        clear(journalDir);
+
+        HotBackup.restore(backup, dataDir, journalDir);
+        return dataDir;
+    }
+
+    private static void configureLucene(final BrokerPool pool, final DBBroker broker) throws EXistException, PermissionDeniedException,
+            IOException, TriggerException, CollectionConfigurationException {
+        try(final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            final Collection test = broker.getOrCreateCollection(transaction, TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, test);
+            pool.getConfigurationManager().addConfiguration(transaction, broker, test, LUCENE_CONFIG);
+            transaction.commit();
+        }
+    }
+
+    private static int countFullText(final BrokerPool pool, final DBBroker broker) throws XPathException, PermissionDeniedException {
+        final Sequence seq = pool.getXQueryService().execute(broker,
+                "count(collection('" + TEST_COLLECTION_URI + "')//item[ft:query(., 'item')])", null);
+        return seq.itemAt(0).toJavaObject(Integer.class);
+    }
+
+    private static String document(final int n) {
+        return "<doc><item n=\"" + n + "\">item " + n + "</item></doc>";
+    }
+
+    private static void store(final BrokerPool pool, final DBBroker broker, final int from, final int to)
+            throws EXistException, PermissionDeniedException, IOException, SAXException, LockException {
+        try(final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            final Collection test = broker.getOrCreateCollection(transaction, TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, test);
+            for (int i = from; i < to; i++) {
+                final String xml = document(i);
+                final IndexInfo info = test.validateXMLResource(transaction, broker, XmldbURI.create("doc" + i + ".xml"), xml);
+                test.store(transaction, broker, info, xml);
+            }
+            transaction.commit();
+        }
+    }
+
+    private static void clear(final Path dir) throws IOException {
+        final List<Path> files;
+        try(final Stream<Path> children = Files.list(dir)) {
+            files = children.collect(Collectors.toList());
+        }
+        files.forEach(FileUtils::deleteQuietly);
+    }
+
+    @After
+    public void stopDb() {
+        if (existEmbeddedServer.getBrokerPool() != null) {
+            TestUtils.cleanupDB();
+            existEmbeddedServer.stopDb();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.exist.storage.btree;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the {@link PageIO} backends against the contract expected by {@link Paged}.
+ */
+@RunWith(value = Parameterized.class)
+public class PageIOTest {
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> data() {
+        final List<Object[]> modes = new ArrayList<>();
+        for (final PageIO.Mode mode : PageIO.Mode.values()) {
+            modes.add(new Object[] { mode });
+        }
+        return modes;
+    }
+
+    @Parameter
+    public PageIO.Mode mode;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void writeRead() throws IOException {
+        final Path file = temp.newFile("test.dbx").toPath();
+        final byte[] page = fill(4096, (byte) 7);
+        try (final PageIO io = PageIO.open(mode, file, false)) {
+            assertEquals(mode, io.getMode());
+            io.write(0, page, 0, page.length);
+            io.write(page.length, page, 0, page.length);
+            assertEquals(2 * page.length, io.size());
+
+            final byte[] read = new byte[page.length];
+            io.read(page.length, read, 0, read.length);
+            assertArrayEquals(page, read);
+        }
+
+        try (final PageIO io = PageIO.open(mode, file, true)) {
+            assertEquals(2 * page.length, io.size());
+            final byte[] read = new byte[page.length];
+            io.read(0, read, 0, read.length);
+            assertArrayEquals(page, read);
+        }
+    }
+
+    @Test
+    public void readBeyondEndIsZeroFilled() throws IOException {
+        final Path file = temp.newFile("test.dbx").toPath();
+        try (final PageIO io = PageIO.open(mode, file, false)) {
+            final byte[] data = fill(100, (byte) 1);
+            io.write(0, data, 0, data.length);
+
+            final byte[] read = fill(200, (byte) 9);
+            io.read(0, read, 0, read.length);
+            for (int i = 0; i < read.length; i++) {
+                assertEquals("byte " + i, i < 100 ? 1 : 0, read[i]);
+            }
+
+            final byte[] unwritten = fill(64, (byte) 9);
+            io.read(4096, unwritten, 0, unwritten.length);
+            assertArrayEquals(new byte[64], unwritten);
+        }
+    }
+
+    @Test
+    public void overwriteIsVisible() throws IOException {
+        final Path file = temp.newFile("test.dbx").toPath();
+        try (final PageIO io = PageIO.open(mode, file, false)) {
+            final byte[] page = fill(1024, (byte) 3);
+            io.write(0, page, 0, page.length);
+
+            final byte[] read = new byte[page.length];
+            io.read(0, read, 0, read.length);
+
+            final byte[] update = fill(16, (byte) 5);
+            io.write(512, update, 0, update.length);
+            io.read(0, read, 0, read.length);
+
+            assertEquals(3, read[511]);
+            assertArrayEquals(update, Arrays.copyOfRange(read, 512, 528));
+            assertEquals(3, read[528]);
+        }
+    }
+
+    @Test
+    public void readAcrossMappedRegions() throws IOException {
+        final Path file = temp.newFile("test.dbx").toPath();
+        final long boundary = MappedPageIO.REGION_SIZE;
+        try (final PageIO io = PageIO.open(mode, file, false)) {
+            final byte[] page = new byte[4096];
+            for (int i = 0; i < page.length; i++) {
+                page[i] = (byte) i;
+            }
+            // a page straddling the end of the first region, and one beyond it
+            io.write(boundary - 2048, page, 0, page.length);
+            io.write(boundary + page.length, page, 0, page.length);
+
+            final byte[] read = new byte[page.length];
+            io.read(boundary - 2048, read, 0, read.length);
+            assertArrayEquals(page, read);
+
+            io.read(boundary + page.length, read, 0, read.length);
+            assertArrayEquals(page, read);
+        }
+    }
+
+    private static byte[] fill(final int len, final byte value) {
+        final byte[] data = new byte[len];
+        Arrays.fill(data, value);
+        return data;
+    }
+}
@@ -0,0 +1,230 @@
+package org.exist.storage.cache;
+
+import org.exist.storage.CacheManager;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.*;
+
+public class SegmentedCacheTest {
+
+    @Test
+    public void addGetRemove() {
+        final SegmentedCache<Page> cache = new SegmentedCache<>("test", 64, 4, 0.0, 1.0, CacheManager.DATA_CACHE);
+        assertEquals(4, cache.getSegmentCount());
+        for (int i = 0; i < 32; i++) {
+            cache.add(new Page(i));
+        }
+        assertEquals(32, cache.getUsedBuffers());
+        for (int i = 0; i < 32; i++) {
+            assertNotNull(cache.get(i));
+        }
+        assertNull(cache.get(100));
+        assertEquals(32, cache.getHits());
+        assertEquals(1, cache.getFails());
+
+        cache.remove(new Page(5));
+        assertNull(cache.get(5));
+        assertEquals(31, cache.getUsedBuffers());
+    }
+
+    @Test
+    public void evictionSyncsReplacedPages() {
+        final SegmentedCache<Page> cache = new SegmentedCache<>("test", 16, 2, 0.0, 1.0, CacheManager.DATA_CACHE);
+        final List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final Page page = new Page(i);
+            page.dirty = true;
+            pages.add(page);
+            cache.add(page);
+        }
+        assertTrue(cache.getUsedBuffers() <= 16);
+
+        long evictions = 0;
+        for (final long e : cache.getSegmentEvictions()) {
+            evictions += e;
+        }
+        assertEquals(100 - cache.getUsedBuffers(), evictions);
+
+        for (final Page page : pages) {
+            assertEquals("page " + page.key, cache.get(page.key) == null, page.synced);
+        }
+    }
+
+    @Test
+    public void pagesInUseAreNotUnloaded() {
+        final SegmentedCache<Page> cache = new SegmentedCache<>("test", 4, 1, 0.0, 1.0, CacheManager.DATA_CACHE);
+        for (int i = 0; i < 4; i++) {
+            final Page page = new Page(i);
+            page.unloadable = false;
+            cache.add(page);
+        }
+        cache.add(new Page(4));
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(cache.get(i));
+        }
+    }
+
+    @Test
+    public void innerPagesAreKept() {
+        final SegmentedCache<Page> cache = new SegmentedCache<>("test", 8, 1, 0.0, 1.0, CacheManager.BTREE_CACHE);
+        for (int i = 0; i < 4; i++) {
+            final Page page = new Page(i);
+            page.inner = true;
+            cache.add(page);
+        }
+        for (int i = 4; i < 100; i++) {
+            cache.add(new Page(i));
+        }
+        for (int i = 0; i < 4; i++) {
+            assertNotNull("inner page " + i, cache.get(i));
+        }
+    }
+
+    @Test
+    public void resizeBalancesSegments() {
+        final SegmentedCache<Page> cache = new SegmentedCache<>("test", 64, 4, 1.5, 1.0, CacheManager.DATA_CACHE);
+        // only misses in one segment
+        for (int i = 0; i < 1000; i++) {
+            cache.get(i * 4L);
+        }
+        final long[] fails = cache.getSegmentFails();
+        int hot = 0;
+        for (int i = 1; i < fails.length; i++) {
+            if (fails[i] > fails[hot]) {
+                hot = i;
+            }
+        }
+
+        cache.resize(256);
+        final int[] sizes = cache.getSegmentSizes();
+        int total = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            assertTrue(sizes[i] >= SegmentedCache.MIN_SEGMENT_SIZE);
+            if (i != hot) {
+                assertTrue(sizes[hot] >= sizes[i]);
+            }
+            total += sizes[i];
+        }
+        assertEquals(cache.getBuffers(), total);
+        assertTrue(total <= 256);
+
+        cache.resize(16);
+        assertTrue(cache.getUsedBuffers() <= 16);
+    }
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        final SegmentedCache<Page> cache = new SegmentedCache<>("test", 128, 8, 0.0, 1.0, CacheManager.DATA_CACHE);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit((Callable<Void>) () -> {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 20000; i++) {
+                        final long key = random.nextInt(512);
+                        final Page page = cache.get(key);
+                        if (page == null) {
+                            cache.add(new Page(key));
+                        } else {
+                            assertEquals(key, page.getKey());
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(cache.getUsedBuffers() <= cache.getBuffers());
+        assertEquals(8 * 20000, cache.getHits() + cache.getFails());
+    }
+
+    private static class Page implements BTreeCacheable {
+        private final long key;
+        private int refCount = 0;
+        private int timestamp = 0;
+        private boolean dirty = false;
+        private boolean synced = false;
+        private boolean unloadable = true;
+        private boolean inner = false;
+
+        Page(final long key) {
+            this.key = key;
+        }
+
+        @Override
+        public long getKey() {
+            return key;
+        }
+
+        @Override
+        public int getReferenceCount() {
+            return refCount;
+        }
+
+        @Override
+        public int incReferenceCount() {
+            if (refCount < Cacheable.MAX_REF) {
+                ++refCount;
+            }
+            return refCount;
+        }
+
+        @Override
+        public int decReferenceCount() {
+            return refCount > 0 ? --refCount : 0;
+        }
+
+        @Override
+        public void setReferenceCount(final int count) {
+            this.refCount = count;
+        }
+
+        @Override
+        public void setTimestamp(final int timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public int getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public boolean sync(final boolean syncJournal) {
+            if (dirty) {
+                dirty = false;
+                synced = true;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean allowUnload() {
+            return unloadable;
+        }
+
+        @Override
+        public boolean isDirty() {
+            return dirty;
+        }
+
+        @Override
+        public boolean isInnerPage() {
+            return inner;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2017 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+
+public class JournalRingBufferTest {
+
+    private static final int RECORD_LEN = 13;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void wrapAround() throws IOException, JournalException {
+        final JournalRingBuffer ring = new JournalRingBuffer(32);
+        final Path file = temp.newFile().toPath();
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (int i = 0; i < 10; i++) {
+                final long start = ring.reserve(RECORD_LEN, () -> {});
+                ring.put(start, record((byte) i));
+                ring.publish(start, RECORD_LEN);
+                assertEquals(start + RECORD_LEN, ring.drainTo(channel));
+            }
+        }
+
+        final byte[] data = Files.readAllBytes(file);
+        assertEquals(10 * RECORD_LEN, data.length);
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(i / RECORD_LEN, data[i]);
+        }
+    }
+
+    @Test
+    public void concurrentWriters() throws Exception {
+        final int writers = 8;
+        final int recordsPerWriter = 2000;
+        final JournalRingBuffer ring = new JournalRingBuffer(1024);
+        final Path file = temp.newFile().toPath();
+        final AtomicBoolean done = new AtomicBoolean();
+
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            final Thread flusher = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        ring.drainTo(channel);
+                    }
+                    ring.drainTo(channel);
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            flusher.start();
+
+            final ExecutorService executor = Executors.newFixedThreadPool(writers);
+            final List<Future<?>> results = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                final byte id = (byte) w;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < recordsPerWriter; i++) {
+                        final long start = ring.reserve(RECORD_LEN, () -> {});
+                        ring.put(start, record(id));
+                        ring.publish(start, RECORD_LEN);
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> result : results) {
+                result.get();
+            }
+            executor.shutdown();
+            done.set(true);
+            flusher.join();
+        }
+
+        // every record must have been written completely, without being interleaved with another one
+        final byte[] data = Files.readAllBytes(file);
+        assertEquals(writers * recordsPerWriter * RECORD_LEN, data.length);
+        final int[] counts = new int[writers];
+        for (int i = 0; i < data.length; i += RECORD_LEN) {
+            for (int j = 1; j < RECORD_LEN; j++) {
+                assertEquals(data[i], data[i + j]);
+            }
+            counts[data[i]]++;
+        }
+        for (final int count : counts) {
+            assertEquals(recordsPerWriter, count);
+        }
+    }
+
+    @Test(expected = JournalException.class)
+    public void recordTooLarge() throws JournalException {
+        new JournalRingBuffer(16).reserve(17, () -> {});
+    }
+
+    private static ByteBuffer record(final byte value) {
+        final ByteBuffer buf = ByteBuffer.allocate(RECORD_LEN);
+        for (int i = 0; i < RECORD_LEN; i++) {
+            buf.put(value);
+        }
+        buf.flip();
+        return buf;
+    }
+}
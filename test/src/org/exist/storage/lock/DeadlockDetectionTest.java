@@ -0,0 +1,80 @@
+package org.exist.storage.lock;
+
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.util.LockException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class DeadlockDetectionTest {
+
+    @Test
+    public void waitStatistics() throws Exception {
+        final MultiReadReentrantLock lock = new MultiReadReentrantLock("doc");
+        final long waits = LockWaitStatistics.RESOURCE_LOCKS.getWaits();
+        final long waitTime = LockWaitStatistics.RESOURCE_LOCKS.getTotalWaitTime();
+
+        assertTrue(lock.acquire(LockMode.WRITE_LOCK));
+        final Thread reader = new Thread(() -> {
+            try {
+                lock.acquire(LockMode.READ_LOCK);
+                lock.release(LockMode.READ_LOCK);
+            } catch (final LockException e) {
+                fail(e.getMessage());
+            }
+        });
+        reader.start();
+        while (DeadlockDetection.getResourceWaiter(reader) == null) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+        lock.release(LockMode.WRITE_LOCK);
+        reader.join();
+
+        assertTrue(LockWaitStatistics.RESOURCE_LOCKS.getWaits() > waits);
+        assertTrue(LockWaitStatistics.RESOURCE_LOCKS.getTotalWaitTime() >= waitTime + 40);
+        assertTrue(LockWaitStatistics.RESOURCE_LOCKS.getMaxWaitTime() >= 40);
+    }
+
+    @Test
+    public void deadlockedThreads() throws Exception {
+        final ReentrantReadWriteLock first = new ReentrantReadWriteLock("first");
+        final ReentrantReadWriteLock second = new ReentrantReadWriteLock("second");
+        final CountDownLatch locked = new CountDownLatch(2);
+
+        final Thread t1 = new Thread(() -> crossLock(first, second, locked), "deadlock-1");
+        final Thread t2 = new Thread(() -> crossLock(second, first, locked), "deadlock-2");
+        t1.start();
+        t2.start();
+        while (DeadlockDetection.isWaitingFor(t1) == null || DeadlockDetection.isWaitingFor(t2) == null) {
+            Thread.sleep(5);
+        }
+
+        final List<String> deadlocked = DeadlockDetection.getDeadlockedThreads();
+        assertEquals(new HashSet<>(Arrays.asList("deadlock-1", "deadlock-2")), new HashSet<>(deadlocked));
+
+        t1.interrupt();
+        t2.interrupt();
+        t1.join();
+        t2.join();
+        assertNull(DeadlockDetection.isWaitingFor(t1));
+        assertNull(DeadlockDetection.isWaitingFor(t2));
+        assertTrue(DeadlockDetection.getDeadlockedThreads().isEmpty());
+    }
+
+    private static void crossLock(final Lock held, final Lock wanted, final CountDownLatch locked) {
+        try {
+            held.acquire(LockMode.WRITE_LOCK);
+            locked.countDown();
+            locked.await();
+            wanted.acquire(LockMode.WRITE_LOCK);
+        } catch (final LockException | InterruptedException e) {
+            // expected when the test resolves the deadlock
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package org.exist.storage.structural;
 
 import org.easymock.EasyMock;
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.BitmapDocumentSet;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.DocumentSet;
+import org.exist.util.IntBitmap;
 import org.junit.Test;
 
 import java.util.Arrays;
@@ -128,6 +131,35 @@ public class NativeStructuralIndexWorkerTest {
         assertEquals(24, ranges.get(3).end);
     }
 
+    @Test
+    public void getDocIdRanges_bitmap() {
+        final NativeStructuralIndexWorker indexWorker = new NativeStructuralIndexWorker(null);
+
+        final Collection mockCollection = createMock(Collection.class);
+        replay(mockCollection);
+
+        final IntBitmap ids = new IntBitmap();
+        Arrays.asList(6574, 11, 12, 13, 88, 14).forEach(ids::add);
+        final BitmapDocumentSet docs = new BitmapDocumentSet();
+        docs.add(mockCollection, ids);
+
+        // the ids are sorted and no document is looked up
+        final List<NativeStructuralIndexWorker.Range> ranges = indexWorker.getDocIdRanges(docs);
+
+        assertEquals(3, ranges.size());
+
+        assertEquals(11, ranges.get(0).start);
+        assertEquals(14, ranges.get(0).end);
+
+        assertEquals(88, ranges.get(1).start);
+        assertEquals(88, ranges.get(1).end);
+
+        assertEquals(6574, ranges.get(2).start);
+        assertEquals(6574, ranges.get(2).end);
+
+        verify(mockCollection);
+    }
+
     private DocumentSet documentIdSet(final List<Integer> documentIds) {
         final DocumentSet mockDocumentSet = createMock(DocumentSet.class);
 
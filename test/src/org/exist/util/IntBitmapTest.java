@@ -0,0 +1,144 @@
+package org.exist.util;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IntBitmapTest {
+
+    @Test
+    public void addAndContains() {
+        final IntBitmap bitmap = new IntBitmap();
+        assertTrue(bitmap.isEmpty());
+        assertTrue(bitmap.add(5));
+        assertTrue(bitmap.add(70000));
+        assertTrue(bitmap.add(0));
+        assertFalse(bitmap.add(5));
+
+        assertEquals(3, bitmap.cardinality());
+        assertTrue(bitmap.contains(0));
+        assertTrue(bitmap.contains(5));
+        assertTrue(bitmap.contains(70000));
+        assertFalse(bitmap.contains(4));
+        assertFalse(bitmap.contains(70001));
+        assertFalse(bitmap.contains(-1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addNegative() {
+        new IntBitmap().add(-1);
+    }
+
+    @Test
+    public void denseChunk() {
+        final IntBitmap bitmap = new IntBitmap();
+        // more values than an array chunk can hold
+        for (int i = 0; i < IntBitmap.ARRAY_MAX * 2; i += 2) {
+            assertTrue(bitmap.add(i));
+        }
+        assertTrue(bitmap.add(1));
+        assertFalse(bitmap.add(1));
+
+        assertEquals(IntBitmap.ARRAY_MAX + 1, bitmap.cardinality());
+        assertTrue(bitmap.contains(IntBitmap.ARRAY_MAX * 2 - 2));
+        assertFalse(bitmap.contains(3));
+        assertOrdered(bitmap);
+    }
+
+    @Test
+    public void iterateInOrder() {
+        final Random random = new Random(42);
+        final IntBitmap bitmap = new IntBitmap();
+        final BitSet expected = new BitSet();
+        for (int i = 0; i < 20000; i++) {
+            final int value = random.nextInt(300000);
+            bitmap.add(value);
+            expected.set(value);
+        }
+        // and a dense chunk
+        for (int i = 1 << 20; i < (1 << 20) + 10000; i++) {
+            bitmap.add(i);
+            expected.set(i);
+        }
+
+        assertEquals(expected.cardinality(), bitmap.cardinality());
+        int count = 0;
+        for (final PrimitiveIterator.OfInt i = bitmap.iterator(); i.hasNext(); count++) {
+            final int value = i.nextInt();
+            assertTrue(expected.get(value));
+        }
+        assertEquals(expected.cardinality(), count);
+        assertOrdered(bitmap);
+    }
+
+    @Test
+    public void and() {
+        final IntBitmap a = new IntBitmap();
+        final IntBitmap b = new IntBitmap();
+        for (int i = 0; i < 10000; i++) {
+            a.add(i);
+            if (i % 3 == 0) {
+                b.add(i);
+            }
+        }
+        for (int i = 0; i < 5000; i += 2) {
+            a.add(200000 + i);
+            b.add(200000 + i * 2);
+        }
+
+        final IntBitmap result = a.and(b);
+        assertEquals(3334 + 1250, result.cardinality());
+        assertTrue(result.contains(9999));
+        assertFalse(result.contains(9998));
+        assertTrue(result.contains(200004));
+        assertFalse(result.contains(200002));
+        assertEquals(result, b.and(a));
+    }
+
+    @Test
+    public void containsAll() {
+        final IntBitmap a = new IntBitmap();
+        final IntBitmap b = new IntBitmap();
+        for (int i = 0; i < 10000; i++) {
+            a.add(i);
+            if (i % 7 == 0) {
+                b.add(i);
+            }
+        }
+        assertTrue(a.containsAll(b));
+        assertFalse(b.containsAll(a));
+
+        b.add(10000);
+        assertFalse(a.containsAll(b));
+    }
+
+    @Test
+    public void equalsAndHashCode() {
+        final IntBitmap a = new IntBitmap();
+        final IntBitmap b = new IntBitmap();
+        for (int i = 0; i < 100; i++) {
+            a.add(i * 1000);
+            b.add((99 - i) * 1000);
+        }
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+
+        b.add(1);
+        assertFalse(a.equals(b));
+    }
+
+    private static void assertOrdered(final IntBitmap bitmap) {
+        int previous = -1;
+        for (final PrimitiveIterator.OfInt i = bitmap.iterator(); i.hasNext(); ) {
+            final int value = i.nextInt();
+            assertTrue(value > previous);
+            previous = value;
+        }
+    }
+}
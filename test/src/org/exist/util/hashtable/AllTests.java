@@ -14,7 +14,10 @@ import org.junit.runners.Suite;
 	Object2LongIdentityHashMapTest.class,
 	ObjectHashSetTest.class,
 	Long2ObjectHashMapTest.class,
-	Object2ObjectHashMapTest.class
+	Object2ObjectHashMapTest.class,
+	Long2LongHashMapTest.class,
+	Int2IntHashMapTest.class,
+	LongHashSetTest.class
 })
 
 public class AllTests {
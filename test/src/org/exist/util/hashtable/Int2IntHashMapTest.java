@@ -0,0 +1,59 @@
+package org.exist.util.hashtable;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Int2IntHashMapTest {
+
+    private static final int MISSING = -1;
+
+    @Test
+    public void putGetRemove() {
+        final Int2IntHashMap map = new Int2IntHashMap(MISSING);
+        assertEquals(MISSING, map.put(0, 1));
+        assertEquals(MISSING, map.put(Integer.MAX_VALUE, 2));
+        assertEquals(1, map.put(0, 3));
+        assertEquals(3, map.get(0));
+        assertEquals(2, map.get(Integer.MAX_VALUE));
+        assertEquals(2, map.size());
+        assertEquals(3, map.remove(0));
+        assertEquals(MISSING, map.get(0));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void addTo() {
+        final Int2IntHashMap map = new Int2IntHashMap(4, MISSING);
+        assertEquals(5, map.addTo(7, 5));
+        assertEquals(8, map.addTo(7, 3));
+        assertEquals(2, map.addTo(0, 2));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void randomOperations() {
+        final Random random = new Random(7);
+        final Int2IntHashMap map = new Int2IntHashMap(4, MISSING);
+        final Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            final int key = random.nextInt(3000) - 10;
+            if (random.nextInt(3) < 2) {
+                final int value = random.nextInt();
+                final Integer previous = expected.put(key, value);
+                assertEquals(previous == null ? MISSING : previous, map.put(key, value));
+            } else {
+                final Integer removed = expected.remove(key);
+                assertEquals(removed == null ? MISSING : removed, map.remove(key));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        final Map<Integer, Integer> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+}
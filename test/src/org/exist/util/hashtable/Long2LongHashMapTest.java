@@ -0,0 +1,93 @@
+package org.exist.util.hashtable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(Parameterized.class)
+public class Long2LongHashMapTest {
+
+    private static final long MISSING = -1;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Iterable<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+            { "heap" },
+            { "off-heap" }
+        });
+    }
+
+    @Parameterized.Parameter
+    public String storage;
+
+    private Long2LongHashMap newMap(final int capacity) {
+        return "heap".equals(storage) ? new Long2LongHashMap(capacity, MISSING) : new OffHeapLong2LongHashMap(capacity, MISSING);
+    }
+
+    @Test
+    public void putGetRemove() {
+        final Long2LongHashMap map = newMap(4);
+        assertEquals(MISSING, map.get(1));
+        assertEquals(MISSING, map.put(1, 10));
+        assertEquals(MISSING, map.put(0, 20));
+        assertEquals(MISSING, map.put(Long.MIN_VALUE, 30));
+        assertEquals(3, map.size());
+        assertEquals(10, map.put(1, 11));
+        assertEquals(11, map.get(1));
+        assertEquals(20, map.get(0));
+        assertEquals(30, map.get(Long.MIN_VALUE));
+        assertTrue(map.containsKey(0));
+        assertEquals(20, map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(MISSING, map.remove(0));
+        assertEquals(2, map.size());
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(MISSING, map.get(1));
+    }
+
+    @Test
+    public void addTo() {
+        final Long2LongHashMap map = newMap(4);
+        assertEquals(5, map.addTo(7, 5));
+        assertEquals(8, map.addTo(7, 3));
+        assertEquals(2, map.addTo(0, 2));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void randomOperations() {
+        final Random random = new Random(42);
+        final Long2LongHashMap map = newMap(16);
+        final Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            // small key range to provoke collisions and removals
+            final long key = random.nextInt(5000) - 100;
+            switch (random.nextInt(3)) {
+                case 0:
+                case 1:
+                    final long value = random.nextLong();
+                    final Long previous = expected.put(key, value);
+                    assertEquals(previous == null ? MISSING : previous, map.put(key, value));
+                    break;
+                default:
+                    final Long removed = expected.remove(key);
+                    assertEquals(removed == null ? MISSING : removed, map.remove(key));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (final Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().longValue(), map.get(entry.getKey()));
+        }
+        final Map<Long, Long> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+}
@@ -0,0 +1,67 @@
+package org.exist.util.hashtable;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class LongHashSetTest {
+
+    @Test
+    public void addContainsRemove() {
+        final LongHashSet set = new LongHashSet(2);
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.add(-5));
+        assertTrue(set.add(1L << 40));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(1L << 40));
+        assertFalse(set.contains(5));
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void removeAll() {
+        final LongHashSet set = new LongHashSet();
+        final LongHashSet other = new LongHashSet();
+        for (long i = 0; i < 100; i++) {
+            set.add(i);
+            if (i % 2 == 0) {
+                other.add(i);
+            }
+        }
+        set.removeAll(other);
+        assertEquals(50, set.size());
+        for (final PrimitiveIterator.OfLong i = set.iterator(); i.hasNext(); ) {
+            assertEquals(1, i.nextLong() % 2);
+        }
+    }
+
+    @Test
+    public void randomOperations() {
+        final Random random = new Random(3);
+        final LongHashSet set = new LongHashSet();
+        final Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 200000; i++) {
+            final long value = random.nextInt(4000) - 20;
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(value), set.add(value));
+            } else {
+                assertEquals(expected.remove(value), set.remove(value));
+            }
+        }
+        assertEquals(expected.size(), set.size());
+        final Set<Long> visited = new HashSet<>();
+        for (final long value : set.toArray()) {
+            visited.add(value);
+        }
+        assertEquals(expected, visited);
+    }
+}
@@ -0,0 +1,135 @@
+package org.exist.xquery;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the aggregating and spilling modes of "group by".
+ */
+public class GroupByTest {
+
+    private static final int ITEMS = 1000;
+    private static final int GROUPS = 100;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(config(), true, true);
+
+    private static Properties config() {
+        final Properties properties = new Properties();
+        properties.put(GroupByClause.PROPERTY_GROUP_BY_SPILL_THRESHOLD, 16);
+        return properties;
+    }
+
+    @Test
+    public void countAndSum() throws Exception {
+        final List<String> expected = new ArrayList<>();
+        for (int k = 0; k < GROUPS; k++) {
+            long sum = 0;
+            int count = 0;
+            for (int i = 1; i <= ITEMS; i++) {
+                if (i % GROUPS == k) {
+                    sum += i * 2;
+                    count++;
+                }
+            }
+            expected.add(k + ":" + count + ":" + sum);
+        }
+
+        final String flwor = "for $i in 1 to " + ITEMS + " let $x := $i * 2 group by $k := $i mod " + GROUPS +
+                " order by $k return ";
+        // aggregated and written to disk
+        assertEquals(expected, query(flwor + "$k || ':' || count($x) || ':' || sum($x)"));
+        // all values kept
+        assertEquals(expected, query(flwor + "$k || ':' || count($x) || ':' || sum($x[. gt 0])"));
+        // the return expression is not fully understood
+        assertEquals(expected, query(flwor + "$k || ':' || count($x) || ':' || sum(util:eval('$x'))"));
+    }
+
+    @Test
+    public void spilledKeyTypes() throws Exception {
+        final List<String> keys = new ArrayList<>();
+        for (int k = 0; k < GROUPS; k++) {
+            keys.add("k" + k);
+        }
+        Collections.sort(keys);
+        final List<String> expected = new ArrayList<>();
+        for (final String key : keys) {
+            expected.add(key + ":" + (ITEMS / GROUPS));
+        }
+        assertEquals(expected,
+                query("for $i in 1 to " + ITEMS + " group by $k := 'k' || $i mod " + GROUPS + " order by $k return $k || ':' || count($i)"));
+
+        assertEquals(Arrays.asList("2000-01-01:P10D", "2000-01-02:P20D", "2000-01-03:P30D"),
+                query("for $i in 1 to 30 let $d := xs:dayTimeDuration('P' || ($i mod 3 + 1) || 'D') " +
+                        "group by $k := xs:date('2000-01-01') + xs:dayTimeDuration('P' || ($i mod 3) || 'D') " +
+                        "order by $k return $k || ':' || sum($d)"));
+
+        assertEquals(Arrays.asList("0:5", "1:5"),
+                query("for $i in 1 to 20 let $x := xs:double(0.5) group by $k := $i mod 2 order by $k return $k || ':' || sum($x)"));
+
+        // empty keys and empty values
+        assertEquals(Arrays.asList(":10:0:", "1:10:0:"),
+                query("for $i in 1 to 20 let $x := () group by $k := (if ($i mod 2 eq 0) then () else 1) " +
+                        "order by $k empty least return $k || ':' || count($i) || ':' || sum($x) || ':' || sum($x, ())"));
+    }
+
+    @Test
+    public void collation() throws Exception {
+        assertEquals(Arrays.asList("a:4:13", "b:2:8"),
+                query("for $s at $i in ('a', 'A', 'b', 'a', 'B', 'A') let $x := $i " +
+                        "group by $k := $s collation 'http://exist-db.org/collation?lang=en&amp;strength=primary' " +
+                        "order by lower-case($k) return lower-case($k) || ':' || count($s) || ':' || sum($x)"));
+    }
+
+    @Test
+    public void sumErrors() throws Exception {
+        // the error is only raised if the sum is actually needed
+        assertEquals(Collections.singletonList("3"), query("for $i in (1, 'a', 2) group by $k := 1 return count($i)"));
+        try {
+            query("for $i in (1, 'a', 2) group by $k := 1 return sum($i)");
+            fail("Expected a type error");
+        } catch (final XPathException e) {
+            assertEquals(ErrorCodes.XPTY0004, e.getErrorCode());
+        }
+
+        // NaN ends the sum
+        assertEquals(Collections.singletonList("NaN"),
+                query("for $i in (1, xs:double('NaN'), 'a') group by $k := 1 return sum($i)"));
+    }
+
+    @Test
+    public void shadowedVariable() throws Exception {
+        assertEquals(Arrays.asList("0:6", "1:6", "2:6"),
+                query("for $i in 1 to 30 let $x := $i group by $k := $i mod 3 order by $k " +
+                        "return $k || ':' || (let $x := (1, 2, 3) return sum($x))"));
+        assertEquals(Arrays.asList("0:10", "1:10", "2:10"),
+                query("for $x in 1 to 30 group by $x := $x mod 3 order by $x return $x || ':' || sum(($x, 10)) + count($x) - $x - 1"));
+    }
+
+    private static List<String> query(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final Sequence result = xquery.execute(broker, query, null);
+            final List<String> items = new ArrayList<>(result.getItemCount());
+            for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+                items.add(i.nextItem().getStringValue());
+            }
+            return items;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.exist.xquery;
+
+import org.exist.source.StringSource;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the top-k mode of "order by" and the sort of the complete result.
+ */
+public class OrderByTest {
+
+    private static final int ITEMS = 1000;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void subsequenceLimitsOrderBy() throws Exception {
+        final String flwor = "for $i in 1 to " + ITEMS + " order by $i mod 10 descending return $i";
+        assertEquals(20, getLimit("subsequence(" + flwor + ", 11, 10)"));
+        assertEquals(expected(i -> -(i % 10)).subList(10, 20), query("subsequence(" + flwor + ", 11, 10)"));
+        assertEquals(expected(i -> -(i % 10)).subList(0, 1), query("subsequence(" + flwor + ", 1, 1)"));
+
+        // the complete result is needed
+        assertEquals(0, getLimit("subsequence(" + flwor + ", 11)"));
+        assertEquals(0, getLimit("let $r := " + flwor + " return subsequence($r, 1, 10)"));
+        assertEquals(0, getLimit("subsequence(for $i in 1 to 10 order by $i for $j in 1 to 3 return $j, 1, 5)"));
+    }
+
+    @Test
+    public void positionalPredicateLimitsOrderBy() throws Exception {
+        final String flwor = "(for $i in 1 to " + ITEMS + " order by $i mod 7, $i descending return $i)";
+        final List<Integer> expected = expected(i -> (i % 7) * ITEMS * 10 - i);
+        assertEquals(5, getLimit(flwor + "[position() le 5]"));
+        assertEquals(expected.subList(0, 5), query(flwor + "[position() le 5]"));
+        assertEquals(4, getLimit(flwor + "[position() < 5]"));
+        assertEquals(expected.subList(0, 4), query(flwor + "[position() < 5]"));
+        assertEquals(3, getLimit(flwor + "[3]"));
+        assertEquals(expected.subList(2, 3), query(flwor + "[3]"));
+
+        assertEquals(0, getLimit(flwor + "[position() gt 5]"));
+        assertEquals(0, getLimit(flwor + "[. gt 5]"));
+    }
+
+    @Test
+    public void limitWithNestedFor() throws Exception {
+        final String flwor = "for $i in 1 to 100 for $j in 1 to 10 order by ($i - 1) * 10 + $j descending return ($i - 1) * 10 + $j";
+        assertEquals(10, getLimit("subsequence(" + flwor + ", 1, 10)"));
+        assertEquals(expected(i -> -i).subList(0, 10), query("subsequence(" + flwor + ", 1, 10)"));
+    }
+
+    @Test
+    public void typedVariable() throws Exception {
+        assertEquals(expected(i -> -i), query("for $i as xs:integer in 1 to " + ITEMS + " order by $i descending return $i"));
+        assertEquals(expected(i -> -i), query("for $i as xs:integer in 1 to " + ITEMS + " let $j := $i order by $j descending return $j"));
+    }
+
+    @Test
+    public void sort() throws Exception {
+        // keys form a permutation of 0..999
+        assertEquals(expected(i -> -((i * 7919) % ITEMS)),
+                query("for $i in 1 to " + ITEMS + " order by ($i * 7919) mod " + ITEMS + " descending return $i"));
+        // equal keys keep their original order
+        assertEquals(expected(i -> i % 10), query("for $i in 1 to " + ITEMS + " order by $i mod 10 return $i"));
+    }
+
+    @Test
+    public void sortKeyTypes() throws Exception {
+        final List<Integer> byString = IntStream.rangeClosed(1, ITEMS).boxed()
+                .sorted(Comparator.comparing(String::valueOf)).collect(Collectors.toList());
+        assertEquals(byString, query("for $i in 1 to " + ITEMS + " order by string($i) return $i"));
+
+        assertEquals(expected(i -> -i), query("for $i in 1 to " + ITEMS + " order by xs:double($i) div 3 descending return $i"));
+
+        assertEquals(expected(i -> i),
+                query("for $i in 1 to " + ITEMS + " order by xs:date('2000-01-01') + xs:dayTimeDuration('P' || $i || 'D') return $i"));
+
+        // empty keys sort first
+        assertEquals(expected(i -> i % 3 == 0 ? -ITEMS + i : i),
+                query("for $i in 1 to " + ITEMS + " order by (if ($i mod 3 eq 0) then () else $i) empty least return $i"));
+    }
+
+    private static List<Integer> expected(final IntFunction<Integer> key) {
+        // List.sort is stable, like order by
+        final List<Integer> expected = IntStream.rangeClosed(1, ITEMS).boxed().collect(Collectors.toList());
+        expected.sort(Comparator.comparing(key::apply));
+        return expected;
+    }
+
+    private static List<Integer> query(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final Sequence result = xquery.execute(broker, query, null);
+            final List<Integer> items = new ArrayList<>(result.getItemCount());
+            for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+                items.add(i.nextItem().toJavaObject(Integer.class));
+            }
+            return items;
+        }
+    }
+
+    private static int getLimit(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final XQueryContext context = new XQueryContext(pool);
+            final CompiledXQuery compiled = xquery.compile(broker, context, new StringSource(query));
+            final int[] limit = { -1 };
+            ((Expression) compiled).accept(new DefaultExpressionVisitor() {
+                @Override
+                public void visitFilteredExpr(final FilteredExpression filtered) {
+                    filtered.getExpression().accept(this);
+                }
+
+                @Override
+                public void visitOrderByClause(final OrderByClause orderBy) {
+                    limit[0] = orderBy.getLimit();
+                    super.visitOrderByClause(orderBy);
+                }
+            });
+            return limit[0];
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.exist.xquery;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that "for" expressions evaluated by the exist:parallel pragma return
+ * the same results as the sequential evaluation.
+ */
+public class ParallelPragmaTest {
+
+    private static final String PARALLEL = "(# exist:parallel workers=4 #) ";
+
+    /** enough brokers for one parallel query, but not for several at once */
+    private static final int MAX_BROKERS = 6;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(BrokerPool.PROPERTY_MAX_CONNECTIONS, MAX_BROKERS)
+                    .build(),
+            true,
+            true);
+
+    @BeforeClass
+    public static void storeDocuments() throws Exception {
+        query("xmldb:create-collection('/db', 'parallel-test'), " +
+                "for $d in 1 to 20 return xmldb:store('/db/parallel-test', 'doc' || $d || '.xml', " +
+                "<doc>{for $i in 1 to 10 return <item id='{$d}-{$i}'>{$i}</item>}</doc>)");
+    }
+
+    @Test
+    public void atomicValues() throws Exception {
+        assertSameResult("for $i in 1 to 1000 return $i * 2");
+        assertSameResult("for $i in 1 to 1000 let $x := $i mod 7 where $x eq 3 return $i || ':' || $x");
+        assertSameResult("for $i in ('a', 'b', 'c', 'd', 'e') for $j in 1 to 3 return $i || $j");
+        // functions without arguments
+        assertSameResult("for $x in 1 to 8 return if ($x mod 2 = 0) then true() else false()");
+        assertSameResult("for $x in 1 to 8 return current-dateTime() instance of xs:dateTime");
+    }
+
+    @Test
+    public void variables() throws Exception {
+        assertSameResult("declare variable $g := 10; " +
+                "declare function local:f($x) { $x * $g }; " +
+                "let $y := 5 return {{ for $i in 1 to 500 return local:f($i) + $y }}");
+        // inner bindings shadow outer ones
+        assertSameResult("let $i := 'outer' return ($i, {{ for $i in 1 to 100 return $i }}, $i)");
+    }
+
+    @Test
+    public void nodes() throws Exception {
+        assertSameResult("for $i in 1 to 100 return <a n='{$i}'>{$i * 3}</a>/string(@n)");
+        assertSameResult("for $item in collection('/db/parallel-test')//item return string($item/@id)");
+        assertSameResult("for $doc in collection('/db/parallel-test')/doc order by count($doc/item) return document-uri(root($doc))");
+    }
+
+    @Test
+    public void fallback() throws Exception {
+        // positional variables and side effects are evaluated sequentially
+        assertSameResult("for $i at $p in 1 to 100 return $i * $p");
+        assertSameResult("for $i in 1 to 10 return util:eval('$i')");
+        assertSameResult("for $i in 1 to 10 return fold-left(1 to $i, 0, function($a, $b) { $a + $b })");
+        // a single item
+        assertSameResult("for $i in 1 return $i");
+    }
+
+    @Test
+    public void errors() throws Exception {
+        try {
+            query(PARALLEL + "{ for $i in 1 to 100 return if ($i eq 73) then error(xs:QName('local:failed')) else $i }");
+            fail("Expected the error of the worker");
+        } catch (final XPathException e) {
+            assertEquals("failed", e.getErrorCode().getErrorQName().getLocalPart());
+        }
+    }
+
+    @Test
+    public void concurrentQueries() throws Exception {
+        // each query holds a broker and needs four more for its workers: the pool
+        // cannot serve all of them at once, so some have to fall back to sequential evaluation
+        final String flwor = "for $item in collection('/db/parallel-test')//item return string($item/@id)";
+        final List<String> expected = query(flwor);
+        final ExecutorService executor = Executors.newFixedThreadPool(MAX_BROKERS);
+        try {
+            final List<Future<List<String>>> results = new ArrayList<>();
+            for (int round = 0; round < 5; round++) {
+                results.clear();
+                for (int i = 0; i < MAX_BROKERS; i++) {
+                    results.add(executor.submit(() -> query(PARALLEL + "{ " + flwor + " }")));
+                }
+                for (final Future<List<String>> result : results) {
+                    assertEquals(expected, result.get(2, TimeUnit.MINUTES));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertSameResult(final String flwor) throws Exception {
+        final String sequential;
+        final String parallel;
+        if (flwor.contains("{{")) {
+            sequential = flwor.replace("{{", "(").replace("}}", ")");
+            parallel = flwor.replace("{{", PARALLEL + "{").replace("}}", "}");
+        } else {
+            sequential = flwor;
+            parallel = PARALLEL + "{ " + flwor + " }";
+        }
+        final List<String> expected = query(sequential);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, query(parallel));
+    }
+
+    private static List<String> query(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final Sequence result = xquery.execute(broker, query, null);
+            final List<String> items = new ArrayList<>(result.getItemCount());
+            for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+                items.add(i.nextItem().getStringValue());
+            }
+            return items;
+        }
+    }
+}
@@ -51,6 +51,45 @@ public class TransformTest {
     }
     
     
+    /**
+     * Tests that a cached stylesheet is compiled again when a module
+     * it imports is updated, transforming a stored document.
+     */
+    @Test
+    public void importedModuleUpdated() throws XMLDBException {
+        addXMLDocument(testCollection, "<items><item>a</item><item>b</item></items>", "items.xml");
+        String query =
+            "import module namespace transform='http://exist-db.org/xquery/transform';\n" +
+            "let $xml := doc('/db/"+TEST_COLLECTION_NAME+"/items.xml')\n" +
+            "let $xsl := 'xmldb:exist:///db/"+TEST_COLLECTION_NAME+"/xsl1/1.xsl'\n" +
+            "return transform:transform($xml, $xsl, ())";
+        assertEquals("<doc>" +
+                "<p>Start Template 1</p>" +
+                "<p>Start Template 2</p>" +
+                "<p>Template 3</p>" +
+                "<p>End Template 2</p>" +
+                "<p>Template 3</p>" +
+                "<p>End Template 1</p>" +
+                "</doc>", execQuery(query));
+
+        String doc3 = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+        "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='1.0'>\n"+
+        "<xsl:template name='template-3'>\n" +
+        "<p>Items <xsl:value-of select='count(//item)'/></p>" +
+        "</xsl:template>" +
+        "</xsl:stylesheet>";
+        addXMLDocument(testCollection.getChildCollection("xsl3"), doc3, "3.xsl");
+
+        assertEquals("<doc>" +
+                "<p>Start Template 1</p>" +
+                "<p>Start Template 2</p>" +
+                "<p>Items 2</p>" +
+                "<p>End Template 2</p>" +
+                "<p>Items 2</p>" +
+                "<p>End Template 1</p>" +
+                "</doc>", execQuery(query));
+    }
+
     private String execQuery(String query) throws XMLDBException {
     	XQueryService service = (XQueryService) testCollection.getService("XQueryService", "1.0");
         service.setProperty("indent", "no");